@@ -6,7 +6,9 @@ import java.util.List;
 import fr.kesk.libgl.buffer.Chunk;
 import fr.kesk.libgl.buffer.GlBuffer;
 import fr.kesk.libgl.loader.API;
+import fr.kesk.libgl.pipeline.GlState;
 import fr.kesk.libgl.texture.GlTextureSet;
+import fr.kesk.libgl.tools.BoundsUtils;
 import fr.kesk.libgl.tools.MatrixUtils;
 
 import android.opengl.GLES20;
@@ -495,11 +497,26 @@ public class GlAssets {
 			 */
 			private GlBuffer<float[]> cachedGlBuffer;
 			
+			/**
+			 * Store the instanced GlBuffer version if asked once
+			 */
+			private GlBuffer<float[]> cachedInstancedGlBuffer;
+			
 			/**
 			 * The VBO handle if available 
 			 */
 			public int handle = GlBuffer.UNBIND_HANDLE;
 			
+			/**
+			 * The local bounds computed from POSITION input (see BoundsUtils)
+			 */
+			public final float[] bounds = new float[BoundsUtils.BOUNDS_SIZE];
+			
+			/**
+			 * CPU copy of positions for VBO only elements (null if not kept)
+			 */
+			public final float[] positions;
+			
 			/**
 			 * Constructor for local and VBO use
 			 * 
@@ -518,10 +535,13 @@ public class GlAssets {
 				this.inputs = inputs;
 				this.values = values;
 				this.vboOnly = false;
+				this.positions = null;
 				for(int[]input : inputs){
 					this.stride += input[SIZE];
 				}
 				this.stride *= GlBuffer.SIZEOF_JAVA_FLOAT;
+				final int positionIndex = getPositionInput(inputs);
+				BoundsUtils.compute(this.bounds, 0, values[positionIndex], 0, inputs[positionIndex][SIZE], count);
 			}
 			
 			/**
@@ -534,6 +554,35 @@ public class GlAssets {
 			 * @param handles The VBO handles  
 			 */
 			public Element(final int type, final int count, final int size, final int materialId, final int[][] inputs, final int handle) {
+				this(type, count, size, materialId, inputs, handle, null);
+			}
+			
+			/**
+			 * Constructor for VBO use only with precomputed bounds
+			 * 
+			 * @param type The type of element
+			 * @param count The number of vertices in element
+			 * @param size The size of the element in bytes
+			 * @param inputs The list of inputs based on Loader API format
+			 * @param handles The VBO handles  
+			 * @param bounds The local bounds (see BoundsUtils), null if unknown
+			 */
+			public Element(final int type, final int count, final int size, final int materialId, final int[][] inputs, final int handle, final float[] bounds) {
+				this(type, count, size, materialId, inputs, handle, bounds, null);
+			}
+			
+			/**
+			 * Constructor for VBO use only with precomputed bounds and CPU copy of positions
+			 * 
+			 * @param type The type of element
+			 * @param count The number of vertices in element
+			 * @param size The size of the element in bytes
+			 * @param inputs The list of inputs based on Loader API format
+			 * @param handles The VBO handles  
+			 * @param bounds The local bounds (see BoundsUtils), null if unknown
+			 * @param positions The CPU copy of POSITION values (picking), null if not kept
+			 */
+			public Element(final int type, final int count, final int size, final int materialId, final int[][] inputs, final int handle, final float[] bounds, final float[] positions) {
 				//android.util.Log.d(TAG+".Geometry.Element","NEW");
 				this.type = type;
 				this.count = count;
@@ -542,11 +591,51 @@ public class GlAssets {
 				this.inputs = inputs;
 				this.values = null;
 				this.vboOnly = true;
+				this.positions = positions;
 				this.handle = handle;
 				for(int[]input : inputs){
 					this.stride += input[SIZE];
 				}
 				this.stride *= GlBuffer.SIZEOF_JAVA_FLOAT;
+				if(bounds != null){
+					System.arraycopy(bounds, 0, this.bounds, 0, BoundsUtils.BOUNDS_SIZE);
+				}
+				else{
+					BoundsUtils.setInfinite(this.bounds, 0);
+				}
+			}
+			
+			/**
+			 * Get the index of the POSITION input (VERTEX or first input if not found)
+			 * 
+			 * @param inputs The list of inputs based on Loader API format
+			 * @return The index of position input
+			 */
+			public static int getPositionInput(final int[][] inputs){
+				for(int iIndex=0; iIndex < inputs.length; iIndex++){
+					if(inputs[iIndex][SEMANTIC] == POSITION || inputs[iIndex][SEMANTIC] == VERTEX){
+						return iIndex;
+					}
+				}
+				return 0;
+			}
+			
+			/**
+			 * Get the POSITION values of this element from local values or CPU copy
+			 * 
+			 * @return The positions or null if not available
+			 */
+			public float[] getPositions(){
+				return this.vboOnly ? this.positions : this.values[getPositionInput(this.inputs)];
+			}
+			
+			/**
+			 * Get the number of components of POSITION values
+			 * 
+			 * @return The number of components per position
+			 */
+			public int getPositionSize(){
+				return this.inputs[getPositionInput(this.inputs)][SIZE];
 			}
 			
 			/**
@@ -571,6 +660,48 @@ public class GlAssets {
 				return this.cachedGlBuffer;
 			}
 			
+			/**
+			 * Convert the POSITION input of this class to a GlBuffer replicated batchSize times
+			 * for instances drawing. The buffer contains 2 chunks : the positions (index 0) and
+			 * the instance index of each vertex in the batch (index 1).
+			 * <br/>
+			 * <br/>
+			 * Only LINES and TRIANGLES elements with local values can be replicated.
+			 * 
+			 * @param batchSize The number of instances in a batch
+			 * 
+			 * @return A GlBuffer based on instance parameters and values, null if not available
+			 */
+			public GlBuffer<float[]> toInstancedGlBuffer(final int batchSize){
+				//android.util.Log.d(TAG+".Geometry.Element","toInstancedGlBuffer("+batchSize+")");
+				if(this.vboOnly || (this.type != TRIANGLES && this.type != LINES)) return null;
+				
+				if(this.cachedInstancedGlBuffer == null || this.cachedInstancedGlBuffer.count != this.count * batchSize){
+					if(this.cachedInstancedGlBuffer != null){
+						this.cachedInstancedGlBuffer.free();
+					}
+					final int positionInput = getPositionInput(this.inputs);
+					final float[] positions = this.values[positionInput];
+					final float[] instancedPositions = new float[positions.length * batchSize];
+					for(int bIndex=0; bIndex < batchSize; bIndex++){
+						System.arraycopy(positions, 0, instancedPositions, bIndex * positions.length, positions.length);
+					}
+					final float[] instanceIndexes = new float[this.count * batchSize];
+					for(int bIndex=0, vIndex=0; bIndex < batchSize; bIndex++){
+						for(int cIndex=0; cIndex < this.count; cIndex++){
+							instanceIndexes[vIndex++] = bIndex;
+						}
+					}
+					@SuppressWarnings("unchecked")
+					final Chunk<float[]>[] chunks = new Chunk[]{
+						new Chunk<float[]>(instancedPositions, this.inputs[positionInput][SIZE]),
+						new Chunk<float[]>(instanceIndexes, 1)
+					};
+					this.cachedInstancedGlBuffer = new GlBuffer<float[]>(chunks);
+				}
+				return this.cachedInstancedGlBuffer;
+			}
+			
 			/**
 			 * Helper method to free GPU resources bound to this element 
 			 */
@@ -580,11 +711,16 @@ public class GlAssets {
 						final int[] handles = new int[]{this.handle};
 						this.handle = GlBuffer.UNBIND_HANDLE;
 						GLES20.glDeleteBuffers(1, handles, 0);
+						GlState.onBufferDeleted(handles[0]);
 					}
 				}
 				else if(this.cachedGlBuffer != null){
 					this.cachedGlBuffer.free();
 				}
+				if(this.cachedInstancedGlBuffer != null){
+					this.cachedInstancedGlBuffer.free();
+					this.cachedInstancedGlBuffer = null;
+				}
 			}
 		}
 		
@@ -976,6 +1112,16 @@ public class GlAssets {
 		 */
 		public GeometryInstance[] geometryInstances = null;
 		
+		/**
+		 * World bounds of node geometries (see BoundsUtils.updateBounds())
+		 */
+		public final float[] bounds = new float[BoundsUtils.BOUNDS_SIZE];
+		
+		/**
+		 * World bounds of node and subnodes geometries (see BoundsUtils.updateBounds())
+		 */
+		public final float[] treeBounds = new float[BoundsUtils.BOUNDS_SIZE];
+		
 		
 		/**
 		 * Default constructor
@@ -989,6 +1135,8 @@ public class GlAssets {
 			this.id = id;
 			this.type = type;
 			MatrixUtils.setIdentityM(this.model, 0);
+			BoundsUtils.setInfinite(this.bounds, 0);
+			BoundsUtils.setInfinite(this.treeBounds, 0);
 		}
 		
 		/**
@@ -0,0 +1,261 @@
+package fr.kesk.libgl.animation;
+
+import fr.kesk.libgl.tools.TransformUtils;
+
+/**
+ * Keyframe animation made of channels targeting nodes transforms.
+ * <br/>
+ * <br/>
+ * Each channel targets the translation, rotation (quaternion) or scale of a node
+ * in a NodeArray, keyframes are stored in primitive arrays :
+ * <ul>
+ * 	<li>times -> key times in seconds (ascending)</li>
+ * 	<li>values -> key values, components floats per key</li>
+ * 	<li>inTangents/outTangents -> key tangents for BEZIER, components floats per key</li>
+ * </ul>
+ *
+ * @author Thomas MILLET
+ *
+ */
+public class GlAnimation {
+
+	/**
+	 * TAG log
+	 */
+	@SuppressWarnings("unused")
+	private final static String TAG = GlAnimation.class.getName();
+
+	/**
+	 * STEP interpolation, value of previous key
+	 */
+	public static final int STEP = 0;
+
+	/**
+	 * LINEAR interpolation (spherical for rotations)
+	 */
+	public static final int LINEAR = 1;
+
+	/**
+	 * BEZIER interpolation, cubic spline using keys tangents
+	 */
+	public static final int BEZIER = 2;
+
+	/**
+	 * Channel targeting node translation (3 components)
+	 */
+	public static final int TRANSLATE = TransformUtils.TRANSLATE;
+
+	/**
+	 * Channel targeting node rotation quaternion (4 components)
+	 */
+	public static final int ROTATE = TransformUtils.ROTATE;
+
+	/**
+	 * Channel targeting node scale (3 components)
+	 */
+	public static final int SCALE = TransformUtils.SCALE;
+
+	/**
+	 * The animation ID
+	 */
+	public final int id;
+
+	/**
+	 * The animation channels
+	 */
+	public final Channel[] channels;
+
+	/**
+	 * The animation duration in seconds (last key time of all channels)
+	 */
+	public final float duration;
+
+	/**
+	 * Default constructor
+	 *
+	 * @param id The animation ID
+	 * @param channels The animation channels
+	 */
+	public GlAnimation(final int id, final Channel[] channels){
+		//android.util.Log.d(TAG,"NEW");
+		this.id = id;
+		this.channels = channels;
+		float duration = 0f;
+		for(Channel channel : channels){
+			if(channel.count > 0){
+				duration = Math.max(duration, channel.times[channel.count - 1]);
+			}
+		}
+		this.duration = duration;
+	}
+
+	/**
+	 * Animation channel targeting a node transform path
+	 *
+	 * @author Thomas MILLET
+	 *
+	 */
+	public static final class Channel{
+
+		/**
+		 * The target node index in NodeArray
+		 */
+		public final int target;
+
+		/**
+		 * The target path (TRANSLATE, ROTATE or SCALE)
+		 */
+		public final int path;
+
+		/**
+		 * The interpolation type (STEP, LINEAR or BEZIER)
+		 */
+		public final int interpolation;
+
+		/**
+		 * Number of components per key
+		 */
+		public final int components;
+
+		/**
+		 * Number of keys
+		 */
+		public final int count;
+
+		/**
+		 * Keys times in seconds
+		 */
+		public final float[] times;
+
+		/**
+		 * Keys values
+		 */
+		public final float[] values;
+
+		/**
+		 * Keys in tangents (BEZIER only)
+		 */
+		public final float[] inTangents;
+
+		/**
+		 * Keys out tangents (BEZIER only)
+		 */
+		public final float[] outTangents;
+
+		/**
+		 * Last key found, used as cache for sequential sampling
+		 */
+		private int lastKey = 0;
+
+		/**
+		 * Default constructor
+		 *
+		 * @param target The target node index in NodeArray
+		 * @param path The target path (TRANSLATE, ROTATE or SCALE)
+		 * @param interpolation The interpolation type (STEP, LINEAR or BEZIER)
+		 * @param times Keys times in seconds
+		 * @param values Keys values
+		 * @param inTangents Keys in tangents (BEZIER only, can be null otherwise)
+		 * @param outTangents Keys out tangents (BEZIER only, can be null otherwise)
+		 */
+		public Channel(final int target, final int path, final int interpolation, final float[] times, final float[] values, final float[] inTangents, final float[] outTangents){
+			this.target = target;
+			this.path = path;
+			this.components = (path == ROTATE) ? 4 : 3;
+			this.interpolation = (interpolation == BEZIER && (inTangents == null || outTangents == null)) ? LINEAR : interpolation;
+			this.count = times.length;
+			this.times = times;
+			this.values = values;
+			this.inTangents = inTangents;
+			this.outTangents = outTangents;
+		}
+
+		/**
+		 * Find the key index k such as times[k] <= time < times[k+1]
+		 *
+		 * @param time The time in seconds
+		 * @return The key index in [0, count-1]
+		 */
+		public int findKey(final float time){
+			final int last = this.count - 1;
+			if(last <= 0 || time <= this.times[0]){
+				return this.lastKey = 0;
+			}
+			if(time >= this.times[last]){
+				return this.lastKey = last;
+			}
+			//Cached key and next one
+			int key = this.lastKey;
+			if(key < last && this.times[key] <= time){
+				if(time < this.times[key + 1]){
+					return key;
+				}
+				if(key + 1 < last && time < this.times[key + 2]){
+					return this.lastKey = key + 1;
+				}
+			}
+			//Binary search
+			int low = 0;
+			int high = last;
+			while(high - low > 1){
+				key = (low + high) >>> 1;
+				if(this.times[key] <= time){
+					low = key;
+				}
+				else{
+					high = key;
+				}
+			}
+			return this.lastKey = low;
+		}
+
+		/**
+		 * Sample the channel at a given time
+		 *
+		 * @param time The time in seconds
+		 * @param out The array to store the sampled value (components floats)
+		 * @param outOffset The offset in out array
+		 */
+		public void sample(final float time, final float[] out, final int outOffset){
+			if(this.count == 0){
+				return;
+			}
+			final int key = this.findKey(time);
+			final int offset = key * this.components;
+			if(key == this.count - 1 || time <= this.times[key] || this.interpolation == STEP){
+				System.arraycopy(this.values, offset, out, outOffset, this.components);
+				return;
+			}
+
+			final float keyDuration = this.times[key + 1] - this.times[key];
+			final float alpha = (time - this.times[key]) / keyDuration;
+			final int nextOffset = offset + this.components;
+			if(this.interpolation == LINEAR){
+				if(this.path == ROTATE){
+					TransformUtils.slerpQ(out, outOffset, this.values, offset, this.values, nextOffset, alpha);
+				}
+				else{
+					for(int i=0; i < this.components; i++){
+						out[outOffset + i] = this.values[offset + i] + (this.values[nextOffset + i] - this.values[offset + i]) * alpha;
+					}
+				}
+			}
+			else{
+				//Cubic Hermite basis
+				final float alpha2 = alpha * alpha;
+				final float alpha3 = alpha2 * alpha;
+				final float h00 = 2f * alpha3 - 3f * alpha2 + 1f;
+				final float h10 = (alpha3 - 2f * alpha2 + alpha) * keyDuration;
+				final float h01 = -2f * alpha3 + 3f * alpha2;
+				final float h11 = (alpha3 - alpha2) * keyDuration;
+				for(int i=0; i < this.components; i++){
+					out[outOffset + i] = h00 * this.values[offset + i] + h10 * this.outTangents[offset + i]
+							+ h01 * this.values[nextOffset + i] + h11 * this.inTangents[nextOffset + i];
+				}
+				if(this.path == ROTATE){
+					TransformUtils.normalizeQ(out, outOffset, out, outOffset);
+				}
+			}
+		}
+	}
+}
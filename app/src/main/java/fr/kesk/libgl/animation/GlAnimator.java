@@ -0,0 +1,192 @@
+package fr.kesk.libgl.animation;
+
+import fr.kesk.libgl.animation.GlAnimation.Channel;
+import fr.kesk.libgl.tools.NodeArray;
+import fr.kesk.libgl.tools.TransformUtils;
+
+/**
+ * Plays keyframe animations on a NodeArray.
+ * <br/>
+ * <br/>
+ * The animator must be driven by the owner GlElement in onLayout() :
+ * <pre>{@code
+ * protected void onLayout(final long elapsedTime){
+ * 	this.animator.layout(elapsedTime);
+ * }
+ * }</pre>
+ * Channels are sampled in per node transforms, animated nodes local matrices are
+ * then set in bulk and world matrices updated once. No allocation is done at layout.
+ *
+ * @author Thomas MILLET
+ *
+ */
+public class GlAnimator {
+
+	/**
+	 * TAG log
+	 */
+	@SuppressWarnings("unused")
+	private final static String TAG = GlAnimator.class.getName();
+
+	/**
+	 * The animated nodes
+	 */
+	public final NodeArray nodeArray;
+
+	/**
+	 * Nodes transforms (TransformUtils.TRS_SIZE floats per node)
+	 */
+	private final float[] transforms;
+
+	/**
+	 * Animated flag per node
+	 */
+	private final boolean[] animatedNodes;
+
+	/**
+	 * The current animation
+	 */
+	private GlAnimation animation;
+
+	/**
+	 * Indexes of nodes targeted by current animation
+	 */
+	private int[] targets = new int[0];
+
+	/**
+	 * Current time in seconds
+	 */
+	private float time = 0f;
+
+	/**
+	 * Playback speed factor
+	 */
+	public float speed = 1f;
+
+	/**
+	 * Loop flag
+	 */
+	public boolean loop = true;
+
+	/**
+	 * Playing flag
+	 */
+	private boolean playing = false;
+
+	/**
+	 * Default constructor
+	 *
+	 * @param nodeArray The nodes to animate
+	 */
+	public GlAnimator(final NodeArray nodeArray){
+		//android.util.Log.d(TAG,"NEW");
+		this.nodeArray = nodeArray;
+		this.transforms = new float[nodeArray.size * TransformUtils.TRS_SIZE];
+		this.animatedNodes = new boolean[nodeArray.size];
+		for(int index=0; index < nodeArray.size; index++){
+			TransformUtils.fromMatrixT(this.transforms, index * TransformUtils.TRS_SIZE, nodeArray.locals, index << 4);
+		}
+	}
+
+	/**
+	 * Start playing an animation from its beginning
+	 *
+	 * @param animation The animation to play
+	 */
+	public void play(final GlAnimation animation){
+		//android.util.Log.d(TAG,"play("+animation.id+")");
+		if(this.animation != animation){
+			for(int index=0; index < this.animatedNodes.length; index++){
+				this.animatedNodes[index] = false;
+			}
+			int count = 0;
+			for(Channel channel : animation.channels){
+				if(!this.animatedNodes[channel.target]){
+					this.animatedNodes[channel.target] = true;
+					count++;
+				}
+			}
+			this.targets = new int[count];
+			for(int index=0, target=0; index < this.animatedNodes.length; index++){
+				if(this.animatedNodes[index]){
+					this.targets[target++] = index;
+				}
+			}
+			this.animation = animation;
+		}
+		this.time = 0f;
+		this.playing = true;
+	}
+
+	/**
+	 * Pause current animation
+	 */
+	public void pause(){
+		this.playing = false;
+	}
+
+	/**
+	 * Resume current animation
+	 */
+	public void resume(){
+		this.playing = this.animation != null;
+	}
+
+	/**
+	 * Indicates if an animation is playing
+	 *
+	 * @return true if playing
+	 */
+	public boolean isPlaying(){
+		return this.playing;
+	}
+
+	/**
+	 * Set the current time of animation
+	 *
+	 * @param time The time in seconds
+	 */
+	public void seek(final float time){
+		this.time = time;
+		if(this.animation != null){
+			this.apply();
+		}
+	}
+
+	/**
+	 * Advance current animation and update nodes, to be called in GlElement.onLayout()
+	 *
+	 * @param elapsedTime The time elapsed since last draw call in ms
+	 */
+	public void layout(final long elapsedTime){
+		//android.util.Log.d(TAG,"layout("+elapsedTime+")");
+		if(!this.playing){
+			return;
+		}
+		this.time += elapsedTime * 0.001f * this.speed;
+		final float duration = this.animation.duration;
+		if(this.time >= duration){
+			if(this.loop && duration > 0f){
+				this.time %= duration;
+			}
+			else{
+				this.time = duration;
+				this.playing = false;
+			}
+		}
+		this.apply();
+	}
+
+	/**
+	 * Sample all channels at current time and update nodes
+	 */
+	private void apply(){
+		for(Channel channel : this.animation.channels){
+			channel.sample(this.time, this.transforms, channel.target * TransformUtils.TRS_SIZE + channel.path);
+		}
+		for(int target : this.targets){
+			this.nodeArray.setLocalT(target, this.transforms, target * TransformUtils.TRS_SIZE);
+		}
+		this.nodeArray.update();
+	}
+}
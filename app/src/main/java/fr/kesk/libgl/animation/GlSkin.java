@@ -0,0 +1,260 @@
+package fr.kesk.libgl.animation;
+
+import fr.kesk.libgl.buffer.Chunk;
+import fr.kesk.libgl.buffer.GlBuffer;
+import fr.kesk.libgl.tools.MatrixUtils;
+import fr.kesk.libgl.tools.NodeArray;
+
+/**
+ * CPU skinning of a mesh bound to JOINT nodes.
+ * <br/>
+ * <br/>
+ * Each vertex is influenced by up to 4 joints (unused influences have a 0 weight), the
+ * joints palette is computed from joints world matrices in a NodeArray :
+ * <pre>
+ * palette[j] = world[joints[j]] * invBindMatrices[j] * bindShapeMatrix
+ * </pre>
+ * Normals are skinned using the normal matrices (inverse transpose) of the palette so that
+ * non uniform scales of joints keep them orthogonal to surfaces.
+ * <br/>
+ * <br/>
+ * Skinned positions and normals are written in a streaming GlBuffer (chunk 0 for positions,
+ * chunk 1 for normals) which must be uploaded in GL Thread using upload().
+ *
+ * @author Thomas MILLET
+ *
+ */
+public class GlSkin {
+
+	/**
+	 * TAG log
+	 */
+	@SuppressWarnings("unused")
+	private final static String TAG = GlSkin.class.getName();
+
+	/**
+	 * Maximum number of influences per vertex
+	 */
+	public static final int MAX_INFLUENCES = 4;
+
+	/**
+	 * Joints indexes in NodeArray
+	 */
+	public final int[] joints;
+
+	/**
+	 * Inverse bind matrices of joints (16 floats per joint)
+	 */
+	public final float[] invBindMatrices;
+
+	/**
+	 * Bind shape matrix of mesh
+	 */
+	public final float[] bindShapeMatrix;
+
+	/**
+	 * Joints of vertices (MAX_INFLUENCES per vertex, index in joints)
+	 */
+	public final int[] vertexJoints;
+
+	/**
+	 * Weights of vertices (MAX_INFLUENCES per vertex)
+	 */
+	public final float[] vertexWeights;
+
+	/**
+	 * Bind positions
+	 */
+	public final float[] bindPositions;
+
+	/**
+	 * Bind normals (can be null)
+	 */
+	public final float[] bindNormals;
+
+	/**
+	 * Number of components of positions (3 or 4)
+	 */
+	public final int components;
+
+	/**
+	 * Number of vertices
+	 */
+	public final int count;
+
+	/**
+	 * Joints palette (16 floats per joint)
+	 */
+	public final float[] palette;
+
+	/**
+	 * Joints normal palette (16 floats per joint, 3x3 part only, null if no bind normals)
+	 */
+	public final float[] normalPalette;
+
+	/**
+	 * Normal matrix extraction buffer
+	 */
+	private final float[] normalMatrix = new float[9];
+
+	/**
+	 * Skinned positions
+	 */
+	public final float[] positions;
+
+	/**
+	 * Skinned normals (null if no bind normals)
+	 */
+	public final float[] normals;
+
+	/**
+	 * The streaming buffer holding skinned data
+	 */
+	public final GlBuffer<float[]> buffer;
+
+	/**
+	 * Default constructor
+	 *
+	 * @param joints Joints indexes in NodeArray
+	 * @param invBindMatrices Inverse bind matrices of joints
+	 * @param bindShapeMatrix Bind shape matrix of mesh (null for identity)
+	 * @param vertexJoints Joints of vertices (MAX_INFLUENCES per vertex)
+	 * @param vertexWeights Weights of vertices (MAX_INFLUENCES per vertex)
+	 * @param bindPositions Bind positions
+	 * @param components Number of components of positions (3 or 4)
+	 * @param bindNormals Bind normals (3 components, can be null)
+	 */
+	public GlSkin(final int[] joints, final float[] invBindMatrices, final float[] bindShapeMatrix, final int[] vertexJoints,
+			final float[] vertexWeights, final float[] bindPositions, final int components, final float[] bindNormals){
+		//android.util.Log.d(TAG,"NEW");
+		this.joints = joints;
+		this.invBindMatrices = invBindMatrices;
+		this.bindShapeMatrix = new float[16];
+		if(bindShapeMatrix != null){
+			System.arraycopy(bindShapeMatrix, 0, this.bindShapeMatrix, 0, 16);
+		}
+		else{
+			MatrixUtils.setIdentityM(this.bindShapeMatrix, 0);
+		}
+		this.vertexJoints = vertexJoints;
+		this.vertexWeights = vertexWeights;
+		this.bindPositions = bindPositions;
+		this.bindNormals = bindNormals;
+		this.components = components;
+		this.count = bindPositions.length / components;
+		this.palette = new float[joints.length << 4];
+		this.normalPalette = (bindNormals != null) ? new float[joints.length << 4] : null;
+		this.positions = bindPositions.clone();
+		this.normals = (bindNormals != null) ? bindNormals.clone() : null;
+
+		@SuppressWarnings("unchecked")
+		final Chunk<float[]>[] chunks = new Chunk[(this.normals != null) ? 2 : 1];
+		chunks[0] = new Chunk<float[]>(this.positions, components);
+		if(this.normals != null){
+			chunks[1] = new Chunk<float[]>(this.normals, 3);
+		}
+		this.buffer = new GlBuffer<float[]>(chunks);
+	}
+
+	/**
+	 * Compute joints palette from NodeArray world matrices
+	 *
+	 * @param nodeArray The NodeArray holding joints (must be up to date)
+	 */
+	public void computePalette(final NodeArray nodeArray){
+		for(int joint=0; joint < this.joints.length; joint++){
+			final int offset = joint << 4;
+			MatrixUtils.multiplyMM(this.palette, offset, this.invBindMatrices, offset, this.bindShapeMatrix, 0);
+			MatrixUtils.multiplyMM(this.palette, offset, nodeArray.worlds, this.joints[joint] << 4, this.palette, offset);
+			if(this.normalPalette != null){
+				//Degenerated joint (0 scale), normals are left to the palette
+				if(MatrixUtils.normalM(this.normalMatrix, 0, this.palette, offset)){
+					System.arraycopy(this.normalMatrix, 0, this.normalPalette, offset, 3);
+					System.arraycopy(this.normalMatrix, 3, this.normalPalette, offset + 4, 3);
+					System.arraycopy(this.normalMatrix, 6, this.normalPalette, offset + 8, 3);
+				}
+				else{
+					System.arraycopy(this.palette, offset, this.normalPalette, offset, 12);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Skin positions and normals using current palette (can be called in any thread)
+	 */
+	public void skin(){
+		skin(this.palette, this.vertexJoints, this.vertexWeights, this.bindPositions, this.positions, this.components, this.count, false);
+		if(this.normals != null){
+			skin(this.normalPalette, this.vertexJoints, this.vertexWeights, this.bindNormals, this.normals, 3, this.count, true);
+		}
+	}
+
+	/**
+	 * Upload skinned data to buffer, VBO is created at first call
+	 *
+	 * ! Warning : must be called in GL Thread only
+	 */
+	public void upload(){
+		if(this.buffer.handle == GlBuffer.UNBIND_HANDLE){
+			this.buffer.update(false);
+			this.buffer.createVBO(GlBuffer.USAGE_STREAM_DRAW, GlBuffer.TARGET_ARRAY_BUFFER, false);
+		}
+		else{
+			this.buffer.update(true);
+			this.buffer.unbind();
+		}
+	}
+
+	/**
+	 * Free skin buffer
+	 *
+	 * ! Warning : must be called in GL Thread only
+	 */
+	public void free(){
+		this.buffer.free();
+	}
+
+	/**
+	 * Skinning kernel, linear blending of up to MAX_INFLUENCES palette matrices per vertex
+	 *
+	 * @param palette The joints palette (16 floats per joint, normal palette for normals)
+	 * @param vertexJoints Joints of vertices (MAX_INFLUENCES per vertex)
+	 * @param vertexWeights Weights of vertices (MAX_INFLUENCES per vertex)
+	 * @param src The source vectors
+	 * @param dst The destination vectors
+	 * @param components The number of components per vector (3 or 4, w is considered as 1 for points)
+	 * @param count The number of vertices
+	 * @param normal true to skin normals (no translation and normalization)
+	 */
+	public static void skin(final float[] palette, final int[] vertexJoints, final float[] vertexWeights, final float[] src,
+			final float[] dst, final int components, final int count, final boolean normal){
+		final float w = normal ? 0f : 1f;
+		for(int vertex=0, vIndex=0, iIndex=0; vertex < count; vertex++, vIndex+=components, iIndex+=MAX_INFLUENCES){
+			final float x = src[vIndex];
+			final float y = src[vIndex + 1];
+			final float z = src[vIndex + 2];
+			float rx = 0f, ry = 0f, rz = 0f;
+			for(int influence=0; influence < MAX_INFLUENCES; influence++){
+				final float weight = vertexWeights[iIndex + influence];
+				if(weight != 0f){
+					final int m = vertexJoints[iIndex + influence] << 4;
+					rx += weight * (palette[m] * x + palette[m + 4] * y + palette[m + 8] * z + palette[m + 12] * w);
+					ry += weight * (palette[m + 1] * x + palette[m + 5] * y + palette[m + 9] * z + palette[m + 13] * w);
+					rz += weight * (palette[m + 2] * x + palette[m + 6] * y + palette[m + 10] * z + palette[m + 14] * w);
+				}
+			}
+			if(normal){
+				final float length = (float)Math.sqrt(rx * rx + ry * ry + rz * rz);
+				if(length > 0f){
+					rx /= length;
+					ry /= length;
+					rz /= length;
+				}
+			}
+			dst[vIndex] = rx;
+			dst[vIndex + 1] = ry;
+			dst[vIndex + 2] = rz;
+		}
+	}
+}
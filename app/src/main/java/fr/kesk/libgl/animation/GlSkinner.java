@@ -0,0 +1,188 @@
+package fr.kesk.libgl.animation;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import fr.kesk.libgl.tools.NodeArray;
+
+/**
+ * Skins a list of characters in parallel using a pool of worker threads.
+ * <br/>
+ * <br/>
+ * Typical calls in GlElement.onLayout() :
+ * <pre>{@code
+ * 	animator.layout(elapsedTime);
+ * 	skinner.skin(skins, nodeArray);
+ * 	for(GlSkin skin : skins) skin.upload();
+ * }</pre>
+ * Tasks and barrier are reused between calls, skin() must always be called from the same
+ * thread (not reentrant). The first error thrown by a worker is rethrown in the calling thread.
+ *
+ * @author Thomas MILLET
+ *
+ */
+public class GlSkinner {
+
+	/**
+	 * TAG log
+	 */
+	@SuppressWarnings("unused")
+	private final static String TAG = GlSkinner.class.getName();
+
+	/**
+	 * The workers pool
+	 */
+	private final ExecutorService executor;
+
+	/**
+	 * Barrier lock
+	 */
+	private final Object lock = new Object();
+
+	/**
+	 * Number of pending tasks (guarded by lock)
+	 */
+	private int pending;
+
+	/**
+	 * First error thrown by a task (guarded by lock)
+	 */
+	private Throwable error;
+
+	/**
+	 * Reusable tasks, grown on demand
+	 */
+	private SkinTask[] tasks = new SkinTask[0];
+
+	/**
+	 * Skinning task of one GlSkin
+	 *
+	 * @author Thomas MILLET
+	 *
+	 */
+	private final class SkinTask implements Runnable{
+
+		/**
+		 * Skin to compute
+		 */
+		private GlSkin skin;
+
+		/**
+		 * NodeArray holding joints
+		 */
+		private NodeArray nodeArray;
+
+		@Override
+		public void run() {
+			try{
+				this.skin.computePalette(this.nodeArray);
+				this.skin.skin();
+			}catch(Throwable t){
+				synchronized(GlSkinner.this.lock){
+					if(GlSkinner.this.error == null){
+						GlSkinner.this.error = t;
+					}
+				}
+			}finally{
+				synchronized(GlSkinner.this.lock){
+					if(--GlSkinner.this.pending == 0){
+						GlSkinner.this.lock.notifyAll();
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Default constructor, one worker per available processor
+	 */
+	public GlSkinner(){
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Constructor with specified number of workers
+	 *
+	 * @param workers The number of worker threads
+	 */
+	public GlSkinner(final int workers){
+		//android.util.Log.d(TAG,"NEW");
+		this.executor = Executors.newFixedThreadPool(Math.max(1, workers), new ThreadFactory() {
+			@Override
+			public Thread newThread(final Runnable r) {
+				final Thread thread = new Thread(r, TAG);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Compute palettes and skin a list of characters, returns when all skins are done
+	 *
+	 * @param skins The skins to compute
+	 * @param nodeArray The NodeArray holding joints (must be up to date)
+	 * @throws RuntimeException First error thrown by a skinning task
+	 */
+	public void skin(final GlSkin[] skins, final NodeArray nodeArray){
+		//android.util.Log.d(TAG,"skin()");
+		if(skins.length == 1){
+			skins[0].computePalette(nodeArray);
+			skins[0].skin();
+			return;
+		}
+		if(this.tasks.length < skins.length){
+			final SkinTask[] tasks = new SkinTask[skins.length];
+			System.arraycopy(this.tasks, 0, tasks, 0, this.tasks.length);
+			for(int index=this.tasks.length; index < tasks.length; index++){
+				tasks[index] = new SkinTask();
+			}
+			this.tasks = tasks;
+		}
+		synchronized(this.lock){
+			this.pending = skins.length;
+			this.error = null;
+		}
+		for(int index=0; index < skins.length; index++){
+			final SkinTask task = this.tasks[index];
+			task.skin = skins[index];
+			task.nodeArray = nodeArray;
+			this.executor.execute(task);
+		}
+
+		//Wait for all tasks even if interrupted, tasks are reused by next call
+		Throwable error;
+		boolean interrupted = false;
+		synchronized(this.lock){
+			while(this.pending > 0){
+				try{
+					this.lock.wait();
+				}catch(InterruptedException ie){
+					interrupted = true;
+				}
+			}
+			error = this.error;
+			this.error = null;
+		}
+		if(interrupted){
+			Thread.currentThread().interrupt();
+		}
+		if(error instanceof RuntimeException){
+			throw (RuntimeException)error;
+		}
+		else if(error instanceof Error){
+			throw (Error)error;
+		}
+		else if(error != null){
+			throw new RuntimeException(error);
+		}
+	}
+
+	/**
+	 * Stop the worker threads
+	 */
+	public void free(){
+		this.executor.shutdownNow();
+	}
+}
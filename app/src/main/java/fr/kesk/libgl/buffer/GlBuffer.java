@@ -7,6 +7,7 @@ import java.nio.IntBuffer;
 import java.nio.ShortBuffer;
 
 import fr.kesk.libgl.GlContext;
+import fr.kesk.libgl.pipeline.GlState;
 import fr.kesk.libgl.tools.ByteBufferPool;
 import fr.kesk.libgl.tools.GLES20Utils;
 
@@ -241,7 +242,7 @@ public class GlBuffer<E>{
 	 */
 	public void bind(){
 		//android.util.Log.d(TAG,"bind()");
-		GLES20.glBindBuffer(this.target, this.handle);
+		GlState.bindBuffer(this.target, this.handle);
 	}
 	
 	/**
@@ -249,7 +250,7 @@ public class GlBuffer<E>{
 	 */
 	public void unbind(){
 		//android.util.Log.d(TAG,"unbind()");
-		GLES20.glBindBuffer(this.target, UNBIND_HANDLE);
+		GlState.bindBuffer(this.target, UNBIND_HANDLE);
 	}
 	
 	/**
@@ -377,7 +378,7 @@ public class GlBuffer<E>{
 		
 		//Update server if needed
 		if(updateVBO && this.handle != UNBIND_HANDLE){
-			GLES20.glBindBuffer(this.target, this.handle);
+			GlState.bindBuffer(this.target, this.handle);
 			this.data.position(0);
 			GLES20.glBufferSubData(this.target, 0, this.size, this.data);
 		}	
@@ -412,12 +413,12 @@ public class GlBuffer<E>{
 			this.target = target;
 			
 			//Bind it
-			GLES20.glBindBuffer(target, this.handle);
+			GlState.bindBuffer(target, this.handle);
 			//Push data into it
 			this.data.position(0);
 			GLES20.glBufferData(target, this.size, this.data, usage);
 			//Unbind it
-			GLES20.glBindBuffer(target, UNBIND_HANDLE);
+			GlState.bindBuffer(target, UNBIND_HANDLE);
 			
 			//Check error on bind only
 			GlContext.glCheckError();
@@ -452,6 +453,7 @@ public class GlBuffer<E>{
 			final int[] handles = new int[]{this.handle};
 			this.handle = UNBIND_HANDLE;
 			GLES20.glDeleteBuffers(1, handles, 0);
+			GlState.onBufferDeleted(handles[0]);
 		}	
 	}
 	
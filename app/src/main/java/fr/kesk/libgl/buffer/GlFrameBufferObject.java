@@ -5,6 +5,7 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 
 import android.opengl.GLES20;
+import fr.kesk.libgl.pipeline.GlState;
 
 /**
  * Abstraction class for FBO use 
@@ -95,11 +96,11 @@ public class GlFrameBufferObject {
 		//android.util.Log.d(TAG,"attach("+type+")");
 		switch(attachment.getAttachmentTarget()){
 			case GLES20.GL_RENDERBUFFER:
-				GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, this.handle);
+				GlState.bindFramebuffer(this.handle);
 				GLES20.glFramebufferRenderbuffer(GLES20.GL_FRAMEBUFFER, type, GLES20.GL_RENDERBUFFER, attachment.getAttachmentHandle());
 				break;
 			case GLES20.GL_TEXTURE_2D:
-				GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, this.handle);
+				GlState.bindFramebuffer(this.handle);
 				GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, type, attachment.getAttachmentTarget(), attachment.getAttachmentHandle(), attachment.getAttachmentLevel());
 				break;
 			default:
@@ -138,7 +139,7 @@ public class GlFrameBufferObject {
 				break;
 		}
 		
-		GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, this.handle);
+		GlState.bindFramebuffer(this.handle);
 		GLES20.glFramebufferRenderbuffer(GLES20.GL_FRAMEBUFFER, type, GLES20.GL_RENDERBUFFER, UNBIND_HANDLE);
 	}
 	
@@ -147,7 +148,7 @@ public class GlFrameBufferObject {
 	 */
 	public void bind(){
 		//android.util.Log.d(TAG,"bind()");
-		GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, this.handle);
+		GlState.bindFramebuffer(this.handle);
 	}
 	
 	/**
@@ -155,7 +156,7 @@ public class GlFrameBufferObject {
 	 */
 	public void unbind(){
 		//android.util.Log.d(TAG,"unbind()");
-		GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, UNBIND_HANDLE);
+		GlState.bindFramebuffer(UNBIND_HANDLE);
 	}
 	
 	/**
@@ -172,7 +173,7 @@ public class GlFrameBufferObject {
 		//android.util.Log.d(TAG,"read()");
 		Buffer pixels;
 
-		GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, this.handle);
+		GlState.bindFramebuffer(this.handle);
 		
 		if(GlFrameBufferObject.readSettings == null){
 			GlFrameBufferObject.readSettings = new int[3];
@@ -221,9 +222,9 @@ public class GlFrameBufferObject {
 	 */
 	public int getStatus(){
 		//android.util.Log.d(TAG,"getStatus()");
-		GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, this.handle);
+		GlState.bindFramebuffer(this.handle);
 		final int status = GLES20.glCheckFramebufferStatus(GLES20.GL_FRAMEBUFFER);
-		GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, UNBIND_HANDLE);
+		GlState.bindFramebuffer(UNBIND_HANDLE);
 		return status;
 	}
 	
@@ -233,6 +234,7 @@ public class GlFrameBufferObject {
 	public void free(){
 		//android.util.Log.d(TAG,"free()");
 		GLES20.glDeleteFramebuffers(1, new int[]{this.handle}, 0);
+		GlState.onFramebufferDeleted(this.handle);
 	}
 	
 	/**
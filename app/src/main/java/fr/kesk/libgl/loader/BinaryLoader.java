@@ -4,6 +4,7 @@ import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
 import java.nio.channels.Channels;
 import java.nio.channels.ReadableByteChannel;
 import java.util.ArrayList;
@@ -20,10 +21,12 @@ import fr.kesk.libgl.GlAssets.Node;
 import fr.kesk.libgl.GlAssets.Node.GeometryInstance;
 import fr.kesk.libgl.GlAssets.Node.GeometryInstance.MaterialInstance;
 import fr.kesk.libgl.GlAssets.Scene;
+import fr.kesk.libgl.tools.BoundsUtils;
 import fr.kesk.libgl.tools.ByteBufferPool;
 import fr.kesk.libgl.tools.MatrixUtils;
 import fr.kesk.libgl.tools.NodeUtils;
 import fr.kesk.libgl.buffer.GlBuffer;
+import fr.kesk.libgl.pipeline.GlState;
 import fr.kesk.libgl.texture.ETC1GlTexture;
 import fr.kesk.libgl.texture.GlTexture;
 import fr.kesk.libgl.texture.GlTextureSet;
@@ -95,6 +98,11 @@ public class BinaryLoader {
 	 */
 	private final Handler handler = new Handler(Looper.getMainLooper());
 	
+	/**
+	 * Indicates to keep a CPU copy of positions of VBO only elements (picking)
+	 */
+	public boolean keepPositions = false;
+	
 	/**
 	 * Singleton constructor
 	 */
@@ -308,6 +316,34 @@ public class BinaryLoader {
 							iBuffer.position(0);
 							
 							if(MODE == ASYNC){
+								//Compute bounds from interleaved POSITION values
+								final float[] bounds = new float[BoundsUtils.BOUNDS_SIZE];
+								final int positionIndex = GlAssets.Geometry.Element.getPositionInput(inputs);
+								int positionOffset = 0, vertexStride = 0;
+								for(int iIndex=0; iIndex < inputs.length; iIndex++){
+									if(iIndex < positionIndex){
+										positionOffset += inputs[iIndex][GlAssets.Geometry.Element.SIZE];
+									}
+									vertexStride += inputs[iIndex][GlAssets.Geometry.Element.SIZE];
+								}
+								BoundsUtils.compute(bounds, 0, iBuffer.asFloatBuffer(), positionOffset, vertexStride, vCount);
+								
+								//Keep CPU copy of positions if asked
+								final float[] positions;
+								if(this.keepPositions){
+									final int positionSize = inputs[positionIndex][GlAssets.Geometry.Element.SIZE];
+									final FloatBuffer fBuffer = iBuffer.asFloatBuffer();
+									positions = new float[positionSize * vCount];
+									for(int vIndex=0, index=positionOffset; vIndex < vCount; vIndex++, index+=vertexStride){
+										for(int cIndex=0; cIndex < positionSize; cIndex++){
+											positions[vIndex * positionSize + cIndex] = fBuffer.get(index + cIndex);
+										}
+									}
+								}
+								else{
+									positions = null;
+								}
+								
 								//Upload data and notify listener
 								contextManager.runOnGLThread(new Runnable() {
 									
@@ -318,15 +354,15 @@ public class BinaryLoader {
 											//Generate buffer
 											GLES20.glGenBuffers(1, handles, 0);
 											//Bint it
-											GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, handles[0]);
+											GlState.bindBuffer(GLES20.GL_ARRAY_BUFFER, handles[0]);
 											//Push data into it
 											GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, bufferSize, iBuffer, GLES20.GL_STATIC_DRAW);
 											//Unbind it
-											GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, GLES20.GL_ZERO);
+											GlState.bindBuffer(GLES20.GL_ARRAY_BUFFER, GLES20.GL_ZERO);
 										}finally{
 											ByteBufferPool.getInstance().returnDirectBuffer(iBuffer);
 										}
-										geometry.elements.add(new GlAssets.Geometry.Element(pType, vCount,bufferSize, pMaterialId, inputs, handles[0]));
+										geometry.elements.add(new GlAssets.Geometry.Element(pType, vCount,bufferSize, pMaterialId, inputs, handles[0], bounds, positions));
 										
 										//Append geometry in ASYNC mode
 										if(pCurrent == (pCount-1)){
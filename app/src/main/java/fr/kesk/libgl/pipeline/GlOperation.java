@@ -16,6 +16,9 @@ import android.opengl.GLES20;
  * <br/>
  * This class is mainly here to help as a reminder to use vertex and fragment operations and should be ommitted
  * for better portability. Direct calls should be used instead.
+ * <br/>
+ * <br/>
+ * States are set through GlState, redundant calls are filtered and counted.
  * 
  * @author Thomas MILLET
  *
@@ -286,12 +289,7 @@ public final class GlOperation {
 	 */
 	public static final void setTestState(final int testFlag, final boolean enabled){
 		//android.util.Log.d(TAG,"NEW");
-		if(enabled){
-			GLES20.glEnable(testFlag);
-		}
-		else{
-			GLES20.glDisable(testFlag);
-		}
+		GlState.setEnabled(testFlag, enabled);
 	}
 	
 	/**
@@ -304,7 +302,7 @@ public final class GlOperation {
 	 */
 	public static final void configureScissorBox(final int x, final int y, final int width, final int height){
 		//android.util.Log.d(TAG,"configureScissorBox("+x+","+y+","+width+","+height+")");
-		GLES20.glScissor(x, y, width, height);
+		GlState.setScissor(x, y, width, height);
 	}
 	
 	/**
@@ -319,8 +317,8 @@ public final class GlOperation {
 	 */
 	public static final void configureStencilTest(final int function, final int reference, final int mask, final int sFail, final int zFail, final int zPass){
 		//android.util.Log.d(TAG,"configureStencilTest("+function+","+reference+","+mask+","+sFail+","+zFail+","+zPass+")");
-		GLES20.glStencilFunc(function, reference, mask);
-		GLES20.glStencilOp(sFail, zFail, zPass);
+		GlState.setStencilFunc(function, reference, mask);
+		GlState.setStencilOp(sFail, zFail, zPass);
 	}
 	
 	/**
@@ -330,7 +328,7 @@ public final class GlOperation {
 	 */
 	public static final void configureDepthTest(final int function){
 		//android.util.Log.d(TAG,"configureDepthTest("+function+")");
-		GLES20.glDepthFunc(function);
+		GlState.setDepthFunc(function);
 	}
 	
 	/**
@@ -347,10 +345,10 @@ public final class GlOperation {
 	public static final void configureBlendTest(final int srcFactor, final int dstFactor, final int blendOperation, final float[] constantColor){
 		//android.util.Log.d(TAG,"configureBlendTest("+srcFactor+","+dstFactor+","+blendOperation+","+constantColor+")");
 		if(constantColor != null) {
-			GLES20.glBlendColor(constantColor[0], constantColor[1], constantColor[2], constantColor[3]);
+			GlState.setBlendColor(constantColor[0], constantColor[1], constantColor[2], constantColor[3]);
 		}
-		GLES20.glBlendFunc(srcFactor, dstFactor);
-		GLES20.glBlendEquation(blendOperation);
+		GlState.setBlendFunc(srcFactor, dstFactor);
+		GlState.setBlendEquation(blendOperation);
 	}
 	
 	/**
@@ -361,8 +359,8 @@ public final class GlOperation {
 	 */
 	public static final void configureCullingTest(final int frontFace, final int cullFace){
 		//android.util.Log.d(TAG,"configureCullingTest("+frontFace+","+cullFace+")");
-		GLES20.glFrontFace(frontFace);
-		GLES20.glCullFace(cullFace);
+		GlState.setFrontFace(frontFace);
+		GlState.setCullFace(cullFace);
 	}
 	
 	/**
@@ -375,7 +373,7 @@ public final class GlOperation {
 	 */
 	public static final void setColorBufferClearValue(final float red, final float green, final float blue, final float alpha){
 		//android.util.Log.d(TAG,"setColorBufferClearValue("+red+","+green+","+blue+","+alpha+")");
-		GLES20.glClearColor(red, green, blue, alpha);
+		GlState.setClearColor(red, green, blue, alpha);
 	}
 	
 	/**
@@ -385,7 +383,7 @@ public final class GlOperation {
 	 */
 	public static final void setDepthBufferClearValue(final float depth){
 		//android.util.Log.d(TAG,"setDepthBufferClearValue("+depth+")");
-		GLES20.glClearDepthf(depth);
+		GlState.setClearDepth(depth);
 	}
 	
 	/**
@@ -395,7 +393,7 @@ public final class GlOperation {
 	 */
 	public static final void setStencilBufferClearValue(final int stencilMask){
 		//android.util.Log.d(TAG,"setStencilBufferClearValue("+stencilMask+")");
-		GLES20.glClearStencil(stencilMask);
+		GlState.setClearStencil(stencilMask);
 	}
 	
 	/**
@@ -418,7 +416,7 @@ public final class GlOperation {
 	 */
 	public static final void setColorBufferMask(final boolean red, final boolean green, final boolean blue, final boolean alpha){
 		//android.util.Log.d(TAG,"setColorBufferMask("+red+","+green+","+blue+","+alpha+")");
-		GLES20.glColorMask(red, green, blue, alpha);
+		GlState.setColorMask(red, green, blue, alpha);
 	}
 	
 	/**
@@ -428,7 +426,7 @@ public final class GlOperation {
 	 */
 	public static final void setDepthBufferMask(final boolean depth){
 		//android.util.Log.d(TAG,"setDepthBufferMask("+depth+")");
-		GLES20.glDepthMask(depth);
+		GlState.setDepthMask(depth);
 	}
 	
 	/**
@@ -438,7 +436,7 @@ public final class GlOperation {
 	 */
 	public static final void setStencilBufferMask(final int stencilMask){
 		//android.util.Log.d(TAG,"setStencilBufferMask("+stencilMask+")");
-		GLES20.glStencilMask(stencilMask);
+		GlState.setStencilMask(stencilMask);
 	}
 	
 }
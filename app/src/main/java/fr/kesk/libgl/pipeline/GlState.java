@@ -0,0 +1,858 @@
+package fr.kesk.libgl.pipeline;
+
+import android.opengl.GLES20;
+import fr.kesk.libgl.tools.GLES20Utils;
+
+/**
+ * Client side cache of OpenGL pipeline states :
+ * <ul>
+ * 	<li>Viewport</li>
+ * 	<li>Culled face</li>
+ * 	<li>Bound program</li>
+ * 	<li>Bound buffers (array, element array, framebuffer) and vertex array object</li>
+ * 	<li>Enabled capabilities (tests of GlOperation)</li>
+ * 	<li>Scissor box, depth, stencil, blend and culling parameters</li>
+ * 	<li>Color, depth and stencil write masks</li>
+ * 	<li>Clear values</li>
+ * </ul>
+ * <br/>
+ * States are read from this cache instead of the driver (glGet* calls force pipeline synchronizations)
+ * and setters only call OpenGL when the state changes. The cache is reset to OpenGL default values
+ * when a context is created (see GlSceneView), direct calls to GLES20 for these states must be followed
+ * by a call to invalidate(). Unknown states are queried once from the driver when read.
+ * <br/>
+ * <br/>
+ * Calls sent to the driver and redundant calls filtered by the cache are counted per frame,
+ * see newFrame(), getIssuedCalls() and getFilteredCalls().
+ * <br/>
+ * <br/>
+ * ! Warning : must be used in GL Thread only
+ *
+ * @author Thomas MILLET
+ *
+ */
+public final class GlState {
+
+	/**
+	 * TAG log
+	 */
+	@SuppressWarnings("unused")
+	private final static String TAG = GlState.class.getName();
+
+	/**
+	 * Value of unknown states
+	 */
+	private static final int UNKNOWN = Integer.MIN_VALUE;
+
+	/**
+	 * Cached capabilities
+	 */
+	private static final int[] CAPABILITIES = new int[]{GLES20.GL_DEPTH_TEST,
+														GLES20.GL_STENCIL_TEST,
+														GLES20.GL_BLEND,
+														GLES20.GL_DITHER,
+														GLES20.GL_SCISSOR_TEST,
+														GLES20.GL_CULL_FACE,
+														GLES20.GL_SAMPLE_COVERAGE,
+														GLES20.GL_SAMPLE_ALPHA_TO_COVERAGE,
+														GLES20.GL_POLYGON_OFFSET_FILL};
+
+	/**
+	 * Current viewport [x, y, width, height]
+	 */
+	private static final int[] viewport = new int[]{UNKNOWN, UNKNOWN, UNKNOWN, UNKNOWN};
+
+	/**
+	 * Current culled face
+	 */
+	private static int cullFace = UNKNOWN;
+
+	/**
+	 * Current program
+	 */
+	private static int program = UNKNOWN;
+
+	/**
+	 * Current GL_ARRAY_BUFFER
+	 */
+	private static int arrayBuffer = UNKNOWN;
+
+	/**
+	 * Current GL_ELEMENT_ARRAY_BUFFER
+	 */
+	private static int elementArrayBuffer = UNKNOWN;
+
+	/**
+	 * Current framebuffer
+	 */
+	private static int framebuffer = UNKNOWN;
+
+	/**
+	 * Current vertex array object (GL_OES_vertex_array_object)
+	 */
+	private static int vertexArray = UNKNOWN;
+
+	/**
+	 * Capabilities states (1 enabled, 0 disabled), indexed as CAPABILITIES
+	 */
+	private static final int[] capabilities = new int[CAPABILITIES.length];
+
+	/**
+	 * Current scissor box [x, y, width, height]
+	 */
+	private static final int[] scissor = new int[4];
+
+	/**
+	 * Current front face
+	 */
+	private static int frontFace;
+
+	/**
+	 * Current depth function
+	 */
+	private static int depthFunc;
+
+	/**
+	 * Current stencil function [function, reference, mask]
+	 */
+	private static final int[] stencilFunc = new int[3];
+
+	/**
+	 * Current stencil operations [sFail, zFail, zPass]
+	 */
+	private static final int[] stencilOp = new int[3];
+
+	/**
+	 * Current blend factors [src, dst]
+	 */
+	private static final int[] blendFunc = new int[2];
+
+	/**
+	 * Current blend equation
+	 */
+	private static int blendEquation;
+
+	/**
+	 * Current blend color
+	 */
+	private static final float[] blendColor = new float[4];
+
+	/**
+	 * Current color mask (bits 0 to 3 for red, green, blue, alpha)
+	 */
+	private static int colorMask;
+
+	/**
+	 * Current depth mask (1 writable, 0 read only)
+	 */
+	private static int depthMask;
+
+	/**
+	 * Current stencil mask
+	 */
+	private static int stencilMask;
+
+	/**
+	 * Current clear color
+	 */
+	private static final float[] clearColor = new float[4];
+
+	/**
+	 * Current clear depth
+	 */
+	private static float clearDepth;
+
+	/**
+	 * Current clear stencil
+	 */
+	private static int clearStencil;
+
+	/**
+	 * Number of calls sent to the driver in current frame
+	 */
+	private static int issuedCalls = 0;
+
+	/**
+	 * Number of redundant calls filtered in current frame
+	 */
+	private static int filteredCalls = 0;
+
+	/**
+	 * Number of calls sent to the driver in last frame
+	 */
+	private static int lastIssuedCalls = 0;
+
+	/**
+	 * Number of redundant calls filtered in last frame
+	 */
+	private static int lastFilteredCalls = 0;
+
+	/**
+	 * TMP buffer for driver queries
+	 */
+	private static final int[] tmp = new int[1];
+
+	static{
+		invalidate();
+	}
+
+	/**
+	 * Private constructor
+	 */
+	private GlState(){
+	}
+
+	/**
+	 * Reset the cache to OpenGL default values, must be called after context creation
+	 *
+	 * @param width The surface width
+	 * @param height The surface height
+	 */
+	public static void reset(final int width, final int height){
+		//android.util.Log.d(TAG,"reset("+width+", "+height+")");
+		viewport[0] = viewport[1] = 0;
+		viewport[2] = width;
+		viewport[3] = height;
+		cullFace = GLES20.GL_BACK;
+		program = arrayBuffer = elementArrayBuffer = framebuffer = vertexArray = GLES20.GL_ZERO;
+		for(int index=0; index < CAPABILITIES.length; index++){
+			capabilities[index] = (CAPABILITIES[index] == GLES20.GL_DITHER) ? 1 : 0;
+		}
+		scissor[0] = scissor[1] = 0;
+		scissor[2] = width;
+		scissor[3] = height;
+		frontFace = GLES20.GL_CCW;
+		depthFunc = GLES20.GL_LESS;
+		stencilFunc[0] = GLES20.GL_ALWAYS;
+		stencilFunc[1] = 0;
+		stencilFunc[2] = 0xFFFFFFFF;
+		stencilOp[0] = stencilOp[1] = stencilOp[2] = GLES20.GL_KEEP;
+		blendFunc[0] = GLES20.GL_ONE;
+		blendFunc[1] = GLES20.GL_ZERO;
+		blendEquation = GLES20.GL_FUNC_ADD;
+		blendColor[0] = blendColor[1] = blendColor[2] = blendColor[3] = 0f;
+		colorMask = 0xF;
+		depthMask = 1;
+		stencilMask = 0xFFFFFFFF;
+		clearColor[0] = clearColor[1] = clearColor[2] = clearColor[3] = 0f;
+		clearDepth = 1f;
+		clearStencil = 0;
+	}
+
+	/**
+	 * Mark all states as unknown, next calls to setters will call OpenGL
+	 */
+	public static void invalidate(){
+		//android.util.Log.d(TAG,"invalidate()");
+		viewport[0] = viewport[1] = viewport[2] = viewport[3] = UNKNOWN;
+		cullFace = program = arrayBuffer = elementArrayBuffer = framebuffer = vertexArray = UNKNOWN;
+		for(int index=0; index < CAPABILITIES.length; index++){
+			capabilities[index] = UNKNOWN;
+		}
+		scissor[0] = scissor[1] = scissor[2] = scissor[3] = UNKNOWN;
+		frontFace = depthFunc = blendEquation = colorMask = depthMask = stencilMask = clearStencil = UNKNOWN;
+		stencilFunc[0] = stencilFunc[1] = stencilFunc[2] = UNKNOWN;
+		stencilOp[0] = stencilOp[1] = stencilOp[2] = UNKNOWN;
+		blendFunc[0] = blendFunc[1] = UNKNOWN;
+		blendColor[0] = blendColor[1] = blendColor[2] = blendColor[3] = Float.NaN;
+		clearColor[0] = clearColor[1] = clearColor[2] = clearColor[3] = Float.NaN;
+		clearDepth = Float.NaN;
+	}
+
+	/**
+	 * Start counting calls of a new frame, counters of the ended frame become
+	 * available using getIssuedCalls() and getFilteredCalls()
+	 */
+	public static void newFrame(){
+		lastIssuedCalls = issuedCalls;
+		lastFilteredCalls = filteredCalls;
+		issuedCalls = filteredCalls = 0;
+	}
+
+	/**
+	 * Get the number of calls sent to the driver during the last frame
+	 *
+	 * @return The number of issued calls
+	 */
+	public static int getIssuedCalls(){
+		return lastIssuedCalls;
+	}
+
+	/**
+	 * Get the number of redundant calls filtered during the last frame
+	 *
+	 * @return The number of filtered calls
+	 */
+	public static int getFilteredCalls(){
+		return lastFilteredCalls;
+	}
+
+	/**
+	 * Set the viewport
+	 *
+	 * @param x The x coordinate of lower left corner
+	 * @param y The y coordinate of lower left corner
+	 * @param width The viewport width
+	 * @param height The viewport height
+	 */
+	public static void setViewport(final int x, final int y, final int width, final int height){
+		//android.util.Log.d(TAG,"setViewport("+x+", "+y+", "+width+", "+height+")");
+		if(viewport[0] != x || viewport[1] != y || viewport[2] != width || viewport[3] != height){
+			GLES20.glViewport(x, y, width, height);
+			viewport[0] = x;
+			viewport[1] = y;
+			viewport[2] = width;
+			viewport[3] = height;
+			issuedCalls++;
+		}
+		else{
+			filteredCalls++;
+		}
+	}
+
+	/**
+	 * Get the current viewport
+	 *
+	 * @param dst The array to fill with [x, y, width, height]
+	 * @param offset The dst offset
+	 */
+	public static void getViewport(final int[] dst, final int offset){
+		if(viewport[2] == UNKNOWN){
+			GLES20.glGetIntegerv(GLES20.GL_VIEWPORT, viewport, 0);
+		}
+		System.arraycopy(viewport, 0, dst, offset, 4);
+	}
+
+	/**
+	 * Set the culled face
+	 *
+	 * @param mode The face to cull (GL_FRONT, GL_BACK, GL_FRONT_AND_BACK)
+	 */
+	public static void setCullFace(final int mode){
+		//android.util.Log.d(TAG,"setCullFace("+mode+")");
+		if(cullFace != mode){
+			GLES20.glCullFace(mode);
+			cullFace = mode;
+			issuedCalls++;
+		}
+		else{
+			filteredCalls++;
+		}
+	}
+
+	/**
+	 * Get the culled face
+	 *
+	 * @return The culled face
+	 */
+	public static int getCullFace(){
+		if(cullFace == UNKNOWN){
+			cullFace = query(GLES20.GL_CULL_FACE_MODE);
+		}
+		return cullFace;
+	}
+
+	/**
+	 * Set the current program
+	 *
+	 * @param handle The program handle, 0 to unbind
+	 */
+	public static void useProgram(final int handle){
+		//android.util.Log.d(TAG,"useProgram("+handle+")");
+		if(program != handle){
+			GLES20.glUseProgram(handle);
+			program = handle;
+			issuedCalls++;
+		}
+		else{
+			filteredCalls++;
+		}
+	}
+
+	/**
+	 * Get the current program
+	 *
+	 * @return The program handle
+	 */
+	public static int getProgram(){
+		if(program == UNKNOWN){
+			program = query(GLES20.GL_CURRENT_PROGRAM);
+		}
+		return program;
+	}
+
+	/**
+	 * Bind a buffer
+	 *
+	 * @param target GL_ARRAY_BUFFER or GL_ELEMENT_ARRAY_BUFFER
+	 * @param handle The buffer handle, 0 to unbind
+	 */
+	public static void bindBuffer(final int target, final int handle){
+		//android.util.Log.d(TAG,"bindBuffer("+target+", "+handle+")");
+		if(target == GLES20.GL_ARRAY_BUFFER){
+			if(arrayBuffer == handle){
+				filteredCalls++;
+				return;
+			}
+			arrayBuffer = handle;
+		}
+		else if(target == GLES20.GL_ELEMENT_ARRAY_BUFFER){
+			if(elementArrayBuffer == handle){
+				filteredCalls++;
+				return;
+			}
+			elementArrayBuffer = handle;
+		}
+		GLES20.glBindBuffer(target, handle);
+		issuedCalls++;
+	}
+
+	/**
+	 * Get the bound buffer
+	 *
+	 * @param target GL_ARRAY_BUFFER or GL_ELEMENT_ARRAY_BUFFER
+	 * @return The buffer handle, Integer.MIN_VALUE if target is not cached
+	 */
+	public static int getBuffer(final int target){
+		if(target == GLES20.GL_ARRAY_BUFFER){
+			if(arrayBuffer == UNKNOWN){
+				arrayBuffer = query(GLES20.GL_ARRAY_BUFFER_BINDING);
+			}
+			return arrayBuffer;
+		}
+		else if(target == GLES20.GL_ELEMENT_ARRAY_BUFFER){
+			if(elementArrayBuffer == UNKNOWN){
+				elementArrayBuffer = query(GLES20.GL_ELEMENT_ARRAY_BUFFER_BINDING);
+			}
+			return elementArrayBuffer;
+		}
+		return UNKNOWN;
+	}
+
+	/**
+	 * Must be called when a buffer is deleted, bindings of deleted buffers are reverted to 0
+	 *
+	 * @param handle The deleted buffer handle
+	 */
+	public static void onBufferDeleted(final int handle){
+		if(arrayBuffer == handle){
+			arrayBuffer = GLES20.GL_ZERO;
+		}
+		if(elementArrayBuffer == handle){
+			elementArrayBuffer = GLES20.GL_ZERO;
+		}
+	}
+
+	/**
+	 * Bind a vertex array object (GL_OES_vertex_array_object), as the GL_ELEMENT_ARRAY_BUFFER
+	 * binding is part of vertex array state, it becomes unknown when the vertex array changes
+	 *
+	 * @param handle The vertex array handle, 0 to bind the default vertex array
+	 */
+	public static void bindVertexArray(final int handle){
+		//android.util.Log.d(TAG,"bindVertexArray("+handle+")");
+		if(vertexArray == handle){
+			filteredCalls++;
+			return;
+		}
+		vertexArray = handle;
+		elementArrayBuffer = UNKNOWN;
+		GLES20Utils.glBindVertexArrayOES(handle);
+		issuedCalls++;
+	}
+
+	/**
+	 * Must be called when a vertex array object is deleted, the default vertex array
+	 * is bound if the deleted one was bound
+	 *
+	 * @param handle The deleted vertex array handle
+	 */
+	public static void onVertexArrayDeleted(final int handle){
+		if(vertexArray == handle){
+			vertexArray = GLES20.GL_ZERO;
+			elementArrayBuffer = UNKNOWN;
+		}
+	}
+
+	/**
+	 * Bind a framebuffer
+	 *
+	 * @param handle The framebuffer handle, 0 to bind the default framebuffer
+	 */
+	public static void bindFramebuffer(final int handle){
+		//android.util.Log.d(TAG,"bindFramebuffer("+handle+")");
+		if(framebuffer != handle){
+			GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, handle);
+			framebuffer = handle;
+			issuedCalls++;
+		}
+		else{
+			filteredCalls++;
+		}
+	}
+
+	/**
+	 * Get the bound framebuffer
+	 *
+	 * @return The framebuffer handle
+	 */
+	public static int getFramebuffer(){
+		if(framebuffer == UNKNOWN){
+			framebuffer = query(GLES20.GL_FRAMEBUFFER_BINDING);
+		}
+		return framebuffer;
+	}
+
+	/**
+	 * Must be called when a framebuffer is deleted, the default framebuffer is bound
+	 * if it was the current one
+	 *
+	 * @param handle The deleted framebuffer handle
+	 */
+	public static void onFramebufferDeleted(final int handle){
+		if(framebuffer == handle){
+			framebuffer = GLES20.GL_ZERO;
+		}
+	}
+
+	/**
+	 * Enable or disable a capability
+	 *
+	 * @param capability The capability (GL_DEPTH_TEST, GL_BLEND ...)
+	 * @param enabled true to enable, false to disable
+	 */
+	public static void setEnabled(final int capability, final boolean enabled){
+		//android.util.Log.d(TAG,"setEnabled("+capability+", "+enabled+")");
+		final int index = indexOf(capability);
+		final int state = enabled ? 1 : 0;
+		if(index < 0 || capabilities[index] != state){
+			if(enabled){
+				GLES20.glEnable(capability);
+			}
+			else{
+				GLES20.glDisable(capability);
+			}
+			if(index >= 0){
+				capabilities[index] = state;
+			}
+			issuedCalls++;
+		}
+		else{
+			filteredCalls++;
+		}
+	}
+
+	/**
+	 * Indicates if a capability is enabled
+	 *
+	 * @param capability The capability (GL_DEPTH_TEST, GL_BLEND ...)
+	 * @return true if enabled
+	 */
+	public static boolean isEnabled(final int capability){
+		final int index = indexOf(capability);
+		if(index < 0){
+			return GLES20.glIsEnabled(capability);
+		}
+		if(capabilities[index] == UNKNOWN){
+			capabilities[index] = GLES20.glIsEnabled(capability) ? 1 : 0;
+		}
+		return capabilities[index] == 1;
+	}
+
+	/**
+	 * Set the scissor box
+	 *
+	 * @param x The x coordinate of lower left corner
+	 * @param y The y coordinate of lower left corner
+	 * @param width The box width
+	 * @param height The box height
+	 */
+	public static void setScissor(final int x, final int y, final int width, final int height){
+		//android.util.Log.d(TAG,"setScissor("+x+", "+y+", "+width+", "+height+")");
+		if(scissor[0] != x || scissor[1] != y || scissor[2] != width || scissor[3] != height){
+			GLES20.glScissor(x, y, width, height);
+			scissor[0] = x;
+			scissor[1] = y;
+			scissor[2] = width;
+			scissor[3] = height;
+			issuedCalls++;
+		}
+		else{
+			filteredCalls++;
+		}
+	}
+
+	/**
+	 * Set the front face
+	 *
+	 * @param mode GL_CW or GL_CCW
+	 */
+	public static void setFrontFace(final int mode){
+		//android.util.Log.d(TAG,"setFrontFace("+mode+")");
+		if(frontFace != mode){
+			GLES20.glFrontFace(mode);
+			frontFace = mode;
+			issuedCalls++;
+		}
+		else{
+			filteredCalls++;
+		}
+	}
+
+	/**
+	 * Set the depth test function
+	 *
+	 * @param function The comparison function
+	 */
+	public static void setDepthFunc(final int function){
+		//android.util.Log.d(TAG,"setDepthFunc("+function+")");
+		if(depthFunc != function){
+			GLES20.glDepthFunc(function);
+			depthFunc = function;
+			issuedCalls++;
+		}
+		else{
+			filteredCalls++;
+		}
+	}
+
+	/**
+	 * Set the stencil test function
+	 *
+	 * @param function The comparison function
+	 * @param reference The reference value
+	 * @param mask The mask applied to reference and stored values
+	 */
+	public static void setStencilFunc(final int function, final int reference, final int mask){
+		//android.util.Log.d(TAG,"setStencilFunc("+function+", "+reference+", "+mask+")");
+		if(stencilFunc[0] != function || stencilFunc[1] != reference || stencilFunc[2] != mask){
+			GLES20.glStencilFunc(function, reference, mask);
+			stencilFunc[0] = function;
+			stencilFunc[1] = reference;
+			stencilFunc[2] = mask;
+			issuedCalls++;
+		}
+		else{
+			filteredCalls++;
+		}
+	}
+
+	/**
+	 * Set the stencil operations
+	 *
+	 * @param sFail Operation if the stencil test fails
+	 * @param zFail Operation if the stencil test passes and the depth test fails
+	 * @param zPass Operation if both tests pass
+	 */
+	public static void setStencilOp(final int sFail, final int zFail, final int zPass){
+		//android.util.Log.d(TAG,"setStencilOp("+sFail+", "+zFail+", "+zPass+")");
+		if(stencilOp[0] != sFail || stencilOp[1] != zFail || stencilOp[2] != zPass){
+			GLES20.glStencilOp(sFail, zFail, zPass);
+			stencilOp[0] = sFail;
+			stencilOp[1] = zFail;
+			stencilOp[2] = zPass;
+			issuedCalls++;
+		}
+		else{
+			filteredCalls++;
+		}
+	}
+
+	/**
+	 * Set the blend factors
+	 *
+	 * @param srcFactor The source factor
+	 * @param dstFactor The destination factor
+	 */
+	public static void setBlendFunc(final int srcFactor, final int dstFactor){
+		//android.util.Log.d(TAG,"setBlendFunc("+srcFactor+", "+dstFactor+")");
+		if(blendFunc[0] != srcFactor || blendFunc[1] != dstFactor){
+			GLES20.glBlendFunc(srcFactor, dstFactor);
+			blendFunc[0] = srcFactor;
+			blendFunc[1] = dstFactor;
+			issuedCalls++;
+		}
+		else{
+			filteredCalls++;
+		}
+	}
+
+	/**
+	 * Set the blend equation
+	 *
+	 * @param mode The blend equation
+	 */
+	public static void setBlendEquation(final int mode){
+		//android.util.Log.d(TAG,"setBlendEquation("+mode+")");
+		if(blendEquation != mode){
+			GLES20.glBlendEquation(mode);
+			blendEquation = mode;
+			issuedCalls++;
+		}
+		else{
+			filteredCalls++;
+		}
+	}
+
+	/**
+	 * Set the blend constant color
+	 *
+	 * @param red The red component
+	 * @param green The green component
+	 * @param blue The blue component
+	 * @param alpha The alpha component
+	 */
+	public static void setBlendColor(final float red, final float green, final float blue, final float alpha){
+		//android.util.Log.d(TAG,"setBlendColor("+red+", "+green+", "+blue+", "+alpha+")");
+		if(blendColor[0] != red || blendColor[1] != green || blendColor[2] != blue || blendColor[3] != alpha){
+			GLES20.glBlendColor(red, green, blue, alpha);
+			blendColor[0] = red;
+			blendColor[1] = green;
+			blendColor[2] = blue;
+			blendColor[3] = alpha;
+			issuedCalls++;
+		}
+		else{
+			filteredCalls++;
+		}
+	}
+
+	/**
+	 * Set the color write mask
+	 *
+	 * @param red Indicates if red is writable
+	 * @param green Indicates if green is writable
+	 * @param blue Indicates if blue is writable
+	 * @param alpha Indicates if alpha is writable
+	 */
+	public static void setColorMask(final boolean red, final boolean green, final boolean blue, final boolean alpha){
+		//android.util.Log.d(TAG,"setColorMask("+red+", "+green+", "+blue+", "+alpha+")");
+		final int mask = (red ? 1 : 0) | (green ? 2 : 0) | (blue ? 4 : 0) | (alpha ? 8 : 0);
+		if(colorMask != mask){
+			GLES20.glColorMask(red, green, blue, alpha);
+			colorMask = mask;
+			issuedCalls++;
+		}
+		else{
+			filteredCalls++;
+		}
+	}
+
+	/**
+	 * Set the depth write mask
+	 *
+	 * @param writable Indicates if the depth buffer is writable
+	 */
+	public static void setDepthMask(final boolean writable){
+		//android.util.Log.d(TAG,"setDepthMask("+writable+")");
+		final int mask = writable ? 1 : 0;
+		if(depthMask != mask){
+			GLES20.glDepthMask(writable);
+			depthMask = mask;
+			issuedCalls++;
+		}
+		else{
+			filteredCalls++;
+		}
+	}
+
+	/**
+	 * Set the stencil write mask
+	 *
+	 * @param mask The stencil mask
+	 */
+	public static void setStencilMask(final int mask){
+		//android.util.Log.d(TAG,"setStencilMask("+mask+")");
+		if(stencilMask != mask){
+			GLES20.glStencilMask(mask);
+			stencilMask = mask;
+			issuedCalls++;
+		}
+		else{
+			filteredCalls++;
+		}
+	}
+
+	/**
+	 * Set the color used to clear the color buffer
+	 *
+	 * @param red The red component
+	 * @param green The green component
+	 * @param blue The blue component
+	 * @param alpha The alpha component
+	 */
+	public static void setClearColor(final float red, final float green, final float blue, final float alpha){
+		//android.util.Log.d(TAG,"setClearColor("+red+", "+green+", "+blue+", "+alpha+")");
+		if(clearColor[0] != red || clearColor[1] != green || clearColor[2] != blue || clearColor[3] != alpha){
+			GLES20.glClearColor(red, green, blue, alpha);
+			clearColor[0] = red;
+			clearColor[1] = green;
+			clearColor[2] = blue;
+			clearColor[3] = alpha;
+			issuedCalls++;
+		}
+		else{
+			filteredCalls++;
+		}
+	}
+
+	/**
+	 * Set the depth used to clear the depth buffer
+	 *
+	 * @param depth The clear depth
+	 */
+	public static void setClearDepth(final float depth){
+		//android.util.Log.d(TAG,"setClearDepth("+depth+")");
+		if(clearDepth != depth){
+			GLES20.glClearDepthf(depth);
+			clearDepth = depth;
+			issuedCalls++;
+		}
+		else{
+			filteredCalls++;
+		}
+	}
+
+	/**
+	 * Set the value used to clear the stencil buffer
+	 *
+	 * @param value The clear value
+	 */
+	public static void setClearStencil(final int value){
+		//android.util.Log.d(TAG,"setClearStencil("+value+")");
+		if(clearStencil != value){
+			GLES20.glClearStencil(value);
+			clearStencil = value;
+			issuedCalls++;
+		}
+		else{
+			filteredCalls++;
+		}
+	}
+
+	/**
+	 * Query an integer state from the driver
+	 *
+	 * @param key The state key
+	 * @return The state value
+	 */
+	private static int query(final int key){
+		GLES20.glGetIntegerv(key, tmp, 0);
+		return tmp[0];
+	}
+
+	/**
+	 * Get the index of a cached capability
+	 *
+	 * @param capability The capability
+	 * @return The index in CAPABILITIES, -1 if not cached
+	 */
+	private static int indexOf(final int capability){
+		for(int index=0; index < CAPABILITIES.length; index++){
+			if(CAPABILITIES[index] == capability){
+				return index;
+			}
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,378 @@
+package fr.kesk.libgl.pipeline;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import android.opengl.GLES20;
+import fr.kesk.libgl.GlAssets.Geometry.Element;
+import fr.kesk.libgl.buffer.GlBuffer;
+import fr.kesk.libgl.tools.GLES20Utils;
+
+/**
+ * Cache of vertex attributes layouts of Elements for a program.
+ * <br/>
+ * <br/>
+ * Element inputs are mapped to program attributes by semantic (see setAttribute()), the layout
+ * of an Element is computed at first bind and stored as a packed array of (handle, size, type,
+ * stride, offset) applied in a loop. If GL_OES_vertex_array_object is supported, VBO Elements
+ * layouts are stored in vertex array objects. Binding the same Element consecutively is skipped.
+ * <br/>
+ * <br/>
+ * Typical use :
+ * <pre>{@code
+ * 	program.start();
+ * 	program.enableAttributes();
+ * 	for(Element element : elements){
+ * 		layouts.bind(element);
+ * 		GLES20.glDrawArrays(element.type, 0, element.count);
+ * 	}
+ * 	layouts.unbind();
+ * 	program.disableAttributes();
+ * }</pre>
+ * <br/>
+ * ! Warning : must be used in GL Thread only
+ *
+ * @author Thomas MILLET
+ *
+ */
+public class GlVertexLayouts {
+
+	/**
+	 * TAG log
+	 */
+	@SuppressWarnings("unused")
+	private final static String TAG = GlVertexLayouts.class.getName();
+
+	/**
+	 * Vertex array objects extension name
+	 */
+	private static final String VERTEX_ARRAY_EXTENSION = "GL_OES_vertex_array_object";
+
+	/**
+	 * Index of attribute handle in layouts
+	 */
+	public static final int HANDLE = 0;
+
+	/**
+	 * Index of components count in layouts
+	 */
+	public static final int SIZE = 1;
+
+	/**
+	 * Index of data type in layouts
+	 */
+	public static final int TYPE = 2;
+
+	/**
+	 * Index of stride in layouts
+	 */
+	public static final int STRIDE = 3;
+
+	/**
+	 * Index of offset in layouts (chunk index for local Elements)
+	 */
+	public static final int OFFSET = 4;
+
+	/**
+	 * Size of an attribute in layouts
+	 */
+	public static final int LAYOUT_SIZE = 5;
+
+	/**
+	 * Mapped semantics
+	 */
+	private int[] semantics = new int[0];
+
+	/**
+	 * Attributes handles of mapped semantics
+	 */
+	private int[] handles = new int[0];
+
+	/**
+	 * Layouts by Element
+	 */
+	private final Map<Element, Layout> layouts = new HashMap<Element, Layout>();
+
+	/**
+	 * Indicates if vertex array objects are used
+	 */
+	private final boolean useVertexArrays;
+
+	/**
+	 * Currently bound Element
+	 */
+	private Element current;
+
+	/**
+	 * Number of binds applied
+	 */
+	private int boundCount;
+
+	/**
+	 * Number of binds skipped
+	 */
+	private int skippedCount;
+
+	/**
+	 * Constructor, vertex array objects are used if supported
+	 */
+	public GlVertexLayouts(){
+		this(isVertexArraySupported());
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param useVertexArrays Indicates to use vertex array objects (must be supported)
+	 */
+	public GlVertexLayouts(final boolean useVertexArrays){
+		//android.util.Log.d(TAG,"NEW");
+		this.useVertexArrays = useVertexArrays;
+	}
+
+	/**
+	 * Indicates if GL_OES_vertex_array_object is supported by current context
+	 */
+	public static boolean isVertexArraySupported(){
+		final String extensions = GLES20.glGetString(GLES20.GL_EXTENSIONS);
+		return extensions != null && extensions.contains(VERTEX_ARRAY_EXTENSION);
+	}
+
+	/**
+	 * Map Elements inputs of a semantic to a program attribute, POSITION is
+	 * mapped to the position input of Elements (POSITION or VERTEX)
+	 *
+	 * @param semantic The input semantic (Element.POSITION, NORMAL ...)
+	 * @param handle The attribute handle, a negative handle removes the mapping
+	 */
+	public void setAttribute(final int semantic, final int handle){
+		//android.util.Log.d(TAG,"setAttribute("+semantic+", "+handle+")");
+		int index = 0;
+		while(index < this.semantics.length && this.semantics[index] != semantic){
+			index++;
+		}
+		if(index == this.semantics.length){
+			if(handle < 0){
+				return;
+			}
+			final int[] semantics = new int[index + 1];
+			final int[] handles = new int[index + 1];
+			System.arraycopy(this.semantics, 0, semantics, 0, index);
+			System.arraycopy(this.handles, 0, handles, 0, index);
+			this.semantics = semantics;
+			this.handles = handles;
+			this.semantics[index] = semantic;
+		}
+		this.handles[index] = handle;
+		this.free();
+	}
+
+	/**
+	 * Bind the attributes of an Element, skipped if the Element is already bound
+	 *
+	 * @param element The Element to bind
+	 * @return true if bindings have been applied, false if skipped
+	 */
+	public boolean bind(final Element element){
+		if(element == this.current){
+			this.skippedCount++;
+			return false;
+		}
+		Layout layout = this.layouts.get(element);
+		if(layout == null || layout.vbo != element.handle){
+			if(layout != null){
+				layout.free();
+			}
+			layout = this.createLayout(element);
+			this.layouts.put(element, layout);
+		}
+		final int[] attributes = layout.attributes;
+		if(layout.vertexArray != GLES20.GL_ZERO){
+			GlState.bindVertexArray(layout.vertexArray);
+		}
+		else{
+			if(this.useVertexArrays){
+				GlState.bindVertexArray(GLES20.GL_ZERO);
+			}
+			if(layout.vbo != GlBuffer.UNBIND_HANDLE){
+				GlState.bindBuffer(GLES20.GL_ARRAY_BUFFER, layout.vbo);
+				for(int index=0; index < attributes.length; index += LAYOUT_SIZE){
+					GLES20Utils.glVertexAttribPointer(attributes[index + HANDLE], attributes[index + SIZE], attributes[index + TYPE], false, attributes[index + STRIDE], attributes[index + OFFSET]);
+				}
+			}
+			else{
+				GlState.bindBuffer(GLES20.GL_ARRAY_BUFFER, GlBuffer.UNBIND_HANDLE);
+				final GlBuffer<float[]> buffer = element.toGlBuffer();
+				for(int index=0; index < attributes.length; index += LAYOUT_SIZE){
+					buffer.toVertexAttribute(attributes[index + HANDLE], attributes[index + OFFSET], false);
+				}
+			}
+		}
+		this.current = element;
+		this.boundCount++;
+		return true;
+	}
+
+	/**
+	 * Restore the default vertex array and forget the bound Element, must be called
+	 * at the end of a pass as other code can change attributes bindings
+	 */
+	public void unbind(){
+		if(this.useVertexArrays){
+			GlState.bindVertexArray(GLES20.GL_ZERO);
+		}
+		this.current = null;
+	}
+
+	/**
+	 * Get the number of applied binds since last reset
+	 */
+	public int getBoundCount(){
+		return this.boundCount;
+	}
+
+	/**
+	 * Get the number of skipped binds since last reset
+	 */
+	public int getSkippedCount(){
+		return this.skippedCount;
+	}
+
+	/**
+	 * Reset binds counters
+	 */
+	public void resetCounters(){
+		this.boundCount = this.skippedCount = 0;
+	}
+
+	/**
+	 * Forget layouts after a context loss, vertex arrays are not deleted
+	 */
+	public void invalidate(){
+		//android.util.Log.d(TAG,"invalidate()");
+		this.layouts.clear();
+		this.current = null;
+	}
+
+	/**
+	 * Free layouts and their vertex arrays
+	 */
+	public void free(){
+		//android.util.Log.d(TAG,"free()");
+		for(Layout layout : this.layouts.values()){
+			layout.free();
+		}
+		this.layouts.clear();
+		this.current = null;
+	}
+
+	/**
+	 * Get the attribute handle of an input
+	 *
+	 * @param semantic The input semantic
+	 * @return The handle, -1 if not mapped
+	 */
+	private int getHandle(final int semantic){
+		for(int index=0; index < this.semantics.length; index++){
+			if(this.semantics[index] == semantic){
+				return this.handles[index];
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Create the layout of an Element
+	 *
+	 * @param element The Element
+	 * @return The layout
+	 */
+	private Layout createLayout(final Element element){
+		//android.util.Log.d(TAG,"createLayout()");
+		final int positionInput = Element.getPositionInput(element.inputs);
+		final int[] inputHandles = new int[element.inputs.length];
+		int count = 0;
+		for(int index=0; index < element.inputs.length; index++){
+			final int semantic = element.inputs[index][Element.SEMANTIC];
+			if(index == positionInput){
+				inputHandles[index] = this.getHandle(Element.POSITION);
+			}
+			else if(semantic == Element.POSITION || semantic == Element.VERTEX){
+				inputHandles[index] = -1;
+			}
+			else{
+				inputHandles[index] = this.getHandle(semantic);
+			}
+			if(inputHandles[index] >= 0){
+				count++;
+			}
+		}
+
+		final Layout layout = new Layout(element.handle, new int[count * LAYOUT_SIZE]);
+		final int[] attributes = layout.attributes;
+		for(int index=0, aIndex=0; index < element.inputs.length; index++){
+			if(inputHandles[index] >= 0){
+				attributes[aIndex + HANDLE] = inputHandles[index];
+				attributes[aIndex + SIZE] = element.inputs[index][Element.SIZE];
+				attributes[aIndex + TYPE] = GLES20.GL_FLOAT;
+				attributes[aIndex + STRIDE] = element.stride;
+				attributes[aIndex + OFFSET] = (layout.vbo != GlBuffer.UNBIND_HANDLE) ? element.inputs[index][Element.OFFSET] : index;
+				aIndex += LAYOUT_SIZE;
+			}
+		}
+
+		//VBO layouts are recorded in vertex arrays
+		if(this.useVertexArrays && layout.vbo != GlBuffer.UNBIND_HANDLE){
+			layout.vertexArray = GLES20Utils.glGenVertexArrayOES();
+			if(layout.vertexArray != GLES20.GL_ZERO){
+				GlState.bindVertexArray(layout.vertexArray);
+				GlState.bindBuffer(GLES20.GL_ARRAY_BUFFER, layout.vbo);
+				for(int index=0; index < attributes.length; index += LAYOUT_SIZE){
+					GLES20.glEnableVertexAttribArray(attributes[index + HANDLE]);
+					GLES20Utils.glVertexAttribPointer(attributes[index + HANDLE], attributes[index + SIZE], attributes[index + TYPE], false, attributes[index + STRIDE], attributes[index + OFFSET]);
+				}
+			}
+		}
+		return layout;
+	}
+
+	/**
+	 * Layout of an Element
+	 */
+	private static class Layout{
+
+		/**
+		 * The VBO of the Element when layout was created
+		 */
+		final int vbo;
+
+		/**
+		 * Packed attributes (see LAYOUT_SIZE)
+		 */
+		final int[] attributes;
+
+		/**
+		 * The vertex array object, 0 if not used
+		 */
+		int vertexArray = GLES20.GL_ZERO;
+
+		/**
+		 * Constructor
+		 */
+		Layout(final int vbo, final int[] attributes){
+			this.vbo = vbo;
+			this.attributes = attributes;
+		}
+
+		/**
+		 * Delete the vertex array object
+		 */
+		void free(){
+			if(this.vertexArray != GLES20.GL_ZERO){
+				GLES20Utils.glDeleteVertexArrayOES(this.vertexArray);
+				GlState.onVertexArrayDeleted(this.vertexArray);
+				this.vertexArray = GLES20.GL_ZERO;
+			}
+		}
+	}
+}
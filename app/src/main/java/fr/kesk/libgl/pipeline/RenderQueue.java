@@ -0,0 +1,448 @@
+package fr.kesk.libgl.pipeline;
+
+/**
+ * Render queue sorting draws by 64 bits keys to limit state changes.
+ * <br/>
+ * <br/>
+ * Traversal adds draws with a key built by makeKey() and a payload (Element, Node ...), keys
+ * are sorted using a LSD radix sort and draws are executed in key order. The key is packed from
+ * most to least significant bits as :
+ * <ul>
+ * 	<li>opaque : pass (4), translucency (1), program (10), material (12), texture (12), depth (24)</li>
+ * 	<li>translucent : pass (4), translucency (1), inverted depth (24), program (10), material (12), texture (12)</li>
+ * </ul>
+ * Opaque draws are grouped by states and sorted front to back inside a group, translucent draws
+ * are sorted back to front after opaque draws of the same pass.
+ * <br/>
+ * <br/>
+ * Typical use :
+ * <pre>{@code
+ * 	queue.clear();
+ * 	queue.add(RenderQueue.makeKey(0, false, programId, materialId, textureId, depth), element);
+ * 	...
+ * 	queue.sort();
+ * 	queue.execute(executor);
+ * }</pre>
+ * No allocation is done once the queue has reached its maximum size.
+ *
+ * @author Thomas MILLET
+ *
+ */
+public class RenderQueue {
+
+	/**
+	 * TAG log
+	 */
+	@SuppressWarnings("unused")
+	private final static String TAG = RenderQueue.class.getName();
+
+	/**
+	 * Maximum pass value
+	 */
+	public static final int MAX_PASS = 0xF;
+
+	/**
+	 * Maximum program value
+	 */
+	public static final int MAX_PROGRAM = 0x3FF;
+
+	/**
+	 * Maximum material value
+	 */
+	public static final int MAX_MATERIAL = 0xFFF;
+
+	/**
+	 * Maximum texture value
+	 */
+	public static final int MAX_TEXTURE = 0xFFF;
+
+	/**
+	 * Maximum quantized depth value
+	 */
+	public static final int MAX_DEPTH = 0xFFFFFF;
+
+	/**
+	 * Change flag for pass
+	 */
+	public static final int CHANGE_PASS = 0x1;
+
+	/**
+	 * Change flag for translucency
+	 */
+	public static final int CHANGE_TRANSLUCENCY = 0x2;
+
+	/**
+	 * Change flag for program
+	 */
+	public static final int CHANGE_PROGRAM = 0x4;
+
+	/**
+	 * Change flag for material
+	 */
+	public static final int CHANGE_MATERIAL = 0x8;
+
+	/**
+	 * Change flag for texture
+	 */
+	public static final int CHANGE_TEXTURE = 0x10;
+
+	/**
+	 * All change flags (first draw)
+	 */
+	public static final int CHANGE_ALL = CHANGE_PASS | CHANGE_TRANSLUCENCY | CHANGE_PROGRAM | CHANGE_MATERIAL | CHANGE_TEXTURE;
+
+	/**
+	 * Bits shifts
+	 */
+	private static final int PASS_SHIFT = 59;
+	private static final int TRANSLUCENT_SHIFT = 58;
+	private static final int OPAQUE_PROGRAM_SHIFT = 48;
+	private static final int OPAQUE_MATERIAL_SHIFT = 36;
+	private static final int OPAQUE_TEXTURE_SHIFT = 24;
+	private static final int TRANSLUCENT_DEPTH_SHIFT = 34;
+	private static final int TRANSLUCENT_PROGRAM_SHIFT = 24;
+	private static final int TRANSLUCENT_MATERIAL_SHIFT = 12;
+
+	/**
+	 * Radix sort digit size in bits
+	 */
+	private static final int RADIX_BITS = 8;
+
+	/**
+	 * Radix sort digit count
+	 */
+	private static final int RADIX_SIZE = 1 << RADIX_BITS;
+
+	/**
+	 * Executor of sorted draws
+	 *
+	 * @author Thomas MILLET
+	 *
+	 */
+	public static interface Executor{
+
+		/**
+		 * Execute a draw, states flagged in changes must be set before drawing
+		 *
+		 * @param key The draw key
+		 * @param payload The draw payload
+		 * @param changes The changed states since previous draw as CHANGE_* flags
+		 */
+		public void draw(final long key, final Object payload, final int changes);
+	}
+
+	/**
+	 * Draws keys
+	 */
+	private long[] keys;
+
+	/**
+	 * Draws payloads in insertion order
+	 */
+	private Object[] payloads;
+
+	/**
+	 * Payloads indexes in keys order
+	 */
+	private int[] indexes;
+
+	/**
+	 * Sort buffers
+	 */
+	private long[] tmpKeys;
+	private int[] tmpIndexes;
+
+	/**
+	 * Radix histogram
+	 */
+	private final int[] histogram = new int[RADIX_SIZE];
+
+	/**
+	 * Number of draws
+	 */
+	private int size = 0;
+
+	/**
+	 * Default constructor
+	 *
+	 * @param capacity The initial capacity
+	 */
+	public RenderQueue(final int capacity){
+		//android.util.Log.d(TAG,"NEW");
+		final int length = Math.max(1, capacity);
+		this.keys = new long[length];
+		this.payloads = new Object[length];
+		this.indexes = new int[length];
+		this.tmpKeys = new long[length];
+		this.tmpIndexes = new int[length];
+	}
+
+	/**
+	 * Build a draw key, values are clamped to their range
+	 *
+	 * @param pass The pass in [0, MAX_PASS]
+	 * @param translucent true if the draw needs blending
+	 * @param program The program ID in [0, MAX_PROGRAM]
+	 * @param material The material ID in [0, MAX_MATERIAL]
+	 * @param texture The texture ID in [0, MAX_TEXTURE]
+	 * @param depth The view depth normalized in [0,1]
+	 * @return The draw key
+	 */
+	public static long makeKey(final int pass, final boolean translucent, final int program, final int material, final int texture, final float depth){
+		final long quantizedDepth = quantize(depth);
+		long key = ((long)clamp(pass, MAX_PASS)) << PASS_SHIFT;
+		if(translucent){
+			key |= 1L << TRANSLUCENT_SHIFT;
+			key |= (MAX_DEPTH - quantizedDepth) << TRANSLUCENT_DEPTH_SHIFT;
+			key |= ((long)clamp(program, MAX_PROGRAM)) << TRANSLUCENT_PROGRAM_SHIFT;
+			key |= ((long)clamp(material, MAX_MATERIAL)) << TRANSLUCENT_MATERIAL_SHIFT;
+			key |= clamp(texture, MAX_TEXTURE);
+		}
+		else{
+			key |= ((long)clamp(program, MAX_PROGRAM)) << OPAQUE_PROGRAM_SHIFT;
+			key |= ((long)clamp(material, MAX_MATERIAL)) << OPAQUE_MATERIAL_SHIFT;
+			key |= ((long)clamp(texture, MAX_TEXTURE)) << OPAQUE_TEXTURE_SHIFT;
+			key |= quantizedDepth;
+		}
+		return key;
+	}
+
+	/**
+	 * Get the pass of a key
+	 *
+	 * @param key The draw key
+	 * @return The pass
+	 */
+	public static int getPass(final long key){
+		return (int)(key >>> PASS_SHIFT) & MAX_PASS;
+	}
+
+	/**
+	 * Indicates if a key is translucent
+	 *
+	 * @param key The draw key
+	 * @return true if translucent
+	 */
+	public static boolean isTranslucent(final long key){
+		return ((key >>> TRANSLUCENT_SHIFT) & 1L) != 0;
+	}
+
+	/**
+	 * Get the program of a key
+	 *
+	 * @param key The draw key
+	 * @return The program ID
+	 */
+	public static int getProgram(final long key){
+		return (int)(key >>> (isTranslucent(key) ? TRANSLUCENT_PROGRAM_SHIFT : OPAQUE_PROGRAM_SHIFT)) & MAX_PROGRAM;
+	}
+
+	/**
+	 * Get the material of a key
+	 *
+	 * @param key The draw key
+	 * @return The material ID
+	 */
+	public static int getMaterial(final long key){
+		return (int)(key >>> (isTranslucent(key) ? TRANSLUCENT_MATERIAL_SHIFT : OPAQUE_MATERIAL_SHIFT)) & MAX_MATERIAL;
+	}
+
+	/**
+	 * Get the texture of a key
+	 *
+	 * @param key The draw key
+	 * @return The texture ID
+	 */
+	public static int getTexture(final long key){
+		return (int)(key >>> (isTranslucent(key) ? 0 : OPAQUE_TEXTURE_SHIFT)) & MAX_TEXTURE;
+	}
+
+	/**
+	 * Get the quantized depth of a key
+	 *
+	 * @param key The draw key
+	 * @return The depth in [0, MAX_DEPTH]
+	 */
+	public static int getDepth(final long key){
+		if(isTranslucent(key)){
+			return MAX_DEPTH - ((int)(key >>> TRANSLUCENT_DEPTH_SHIFT) & MAX_DEPTH);
+		}
+		return (int)key & MAX_DEPTH;
+	}
+
+	/**
+	 * Get the state changes between 2 keys
+	 *
+	 * @param previous The previous key
+	 * @param key The current key
+	 * @return The changes as CHANGE_* flags
+	 */
+	public static int getChanges(final long previous, final long key){
+		int changes = 0;
+		if(getPass(previous) != getPass(key)){
+			changes |= CHANGE_PASS;
+		}
+		if(isTranslucent(previous) != isTranslucent(key)){
+			changes |= CHANGE_TRANSLUCENCY;
+		}
+		if(getProgram(previous) != getProgram(key)){
+			changes |= CHANGE_PROGRAM;
+		}
+		if(getMaterial(previous) != getMaterial(key)){
+			changes |= CHANGE_MATERIAL;
+		}
+		if(getTexture(previous) != getTexture(key)){
+			changes |= CHANGE_TEXTURE;
+		}
+		return changes;
+	}
+
+	/**
+	 * Add a draw to the queue
+	 *
+	 * @param key The draw key (see makeKey())
+	 * @param payload The draw payload given back at execution
+	 */
+	public void add(final long key, final Object payload){
+		if(this.size == this.keys.length){
+			this.grow();
+		}
+		this.keys[this.size] = key;
+		this.payloads[this.size] = payload;
+		this.indexes[this.size] = this.size;
+		this.size++;
+	}
+
+	/**
+	 * Get the number of draws
+	 *
+	 * @return The number of draws
+	 */
+	public int size(){
+		return this.size;
+	}
+
+	/**
+	 * Get a key in current order
+	 *
+	 * @param index The draw index
+	 * @return The draw key
+	 */
+	public long getKey(final int index){
+		return this.keys[index];
+	}
+
+	/**
+	 * Get a payload in current order
+	 *
+	 * @param index The draw index
+	 * @return The draw payload
+	 */
+	public Object getPayload(final int index){
+		return this.payloads[this.indexes[index]];
+	}
+
+	/**
+	 * Remove all draws
+	 */
+	public void clear(){
+		for(int index=0; index < this.size; index++){
+			this.payloads[index] = null;
+		}
+		this.size = 0;
+	}
+
+	/**
+	 * Sort draws by keys (stable LSD radix sort on bytes, constant bytes are skipped)
+	 */
+	public void sort(){
+		//android.util.Log.d(TAG,"sort()");
+		final int count = this.size;
+		final int[] histogram = this.histogram;
+		for(int shift=0; shift < 64; shift += RADIX_BITS){
+			for(int digit=0; digit < RADIX_SIZE; digit++){
+				histogram[digit] = 0;
+			}
+			final long[] srcKeys = this.keys;
+			for(int index=0; index < count; index++){
+				histogram[(int)(srcKeys[index] >>> shift) & (RADIX_SIZE - 1)]++;
+			}
+			//Same digit for all keys
+			if(count == 0 || histogram[(int)(srcKeys[0] >>> shift) & (RADIX_SIZE - 1)] == count){
+				continue;
+			}
+			int offset = 0;
+			for(int digit=0; digit < RADIX_SIZE; digit++){
+				final int digitCount = histogram[digit];
+				histogram[digit] = offset;
+				offset += digitCount;
+			}
+			final int[] srcIndexes = this.indexes;
+			final long[] dstKeys = this.tmpKeys;
+			final int[] dstIndexes = this.tmpIndexes;
+			for(int index=0; index < count; index++){
+				final long key = srcKeys[index];
+				final int position = histogram[(int)(key >>> shift) & (RADIX_SIZE - 1)]++;
+				dstKeys[position] = key;
+				dstIndexes[position] = srcIndexes[index];
+			}
+			this.tmpKeys = srcKeys;
+			this.tmpIndexes = srcIndexes;
+			this.keys = dstKeys;
+			this.indexes = dstIndexes;
+		}
+	}
+
+	/**
+	 * Execute draws in current order
+	 *
+	 * @param executor The executor of draws
+	 */
+	public void execute(final Executor executor){
+		//android.util.Log.d(TAG,"execute()");
+		long previous = 0;
+		for(int index=0; index < this.size; index++){
+			final long key = this.keys[index];
+			executor.draw(key, this.payloads[this.indexes[index]], (index == 0) ? CHANGE_ALL : getChanges(previous, key));
+			previous = key;
+		}
+	}
+
+	/**
+	 * Double the capacity
+	 */
+	private void grow(){
+		final int length = this.keys.length << 1;
+		final long[] keys = new long[length];
+		final Object[] payloads = new Object[length];
+		final int[] indexes = new int[length];
+		System.arraycopy(this.keys, 0, keys, 0, this.size);
+		System.arraycopy(this.payloads, 0, payloads, 0, this.size);
+		System.arraycopy(this.indexes, 0, indexes, 0, this.size);
+		this.keys = keys;
+		this.payloads = payloads;
+		this.indexes = indexes;
+		this.tmpKeys = new long[length];
+		this.tmpIndexes = new int[length];
+	}
+
+	/**
+	 * Clamp a value in [0, max]
+	 */
+	private static int clamp(final int value, final int max){
+		return (value < 0) ? 0 : ((value > max) ? max : value);
+	}
+
+	/**
+	 * Quantize a normalized depth
+	 */
+	private static long quantize(final float depth){
+		if(!(depth > 0f)){
+			return 0;
+		}
+		if(depth >= 1f){
+			return MAX_DEPTH;
+		}
+		return (long)(depth * MAX_DEPTH);
+	}
+}
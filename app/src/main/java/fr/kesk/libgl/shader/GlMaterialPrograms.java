@@ -0,0 +1,335 @@
+package fr.kesk.libgl.shader;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import fr.kesk.libgl.GlAssets;
+import fr.kesk.libgl.GlAssets.Light;
+import fr.kesk.libgl.GlAssets.Material;
+
+/**
+ * Table of material programs built from gsgl/material shaders.
+ * <br/>
+ * <br/>
+ * A program is selected using the material type, the light type, the quality and the
+ * presence of a texture :
+ * <ul>
+ * 	<li>CONSTANT materials and AMBIENT lights use gsgl/material/ambient/{tex,notex}</li>
+ * 	<li>others use gsgl/material/{diffuse,specular}/{point,directional,spot}/{high,low}/{tex,notex}</li>
+ * </ul>
+ * Programs are compiled at first use and cached, compile(GlAssets) should be called
+ * after scene loading to compile programs used by the scene and avoid hitches at first draw.
+ * Programs are shared through GlProgramCache. Using compile(GlAssets, int, GlProgramCompiler), programs
+ * are compiled in background and adopted by GlProgramCache once published, a program requested before
+ * being published is compiled in GL Thread.
+ * <br/>
+ * <br/>
+ * ! Warning : must be used in GL Thread only
+ *
+ * @author Thomas MILLET
+ *
+ */
+public class GlMaterialPrograms {
+
+	/**
+	 * TAG log
+	 */
+	@SuppressWarnings("unused")
+	private final static String TAG = GlMaterialPrograms.class.getName();
+
+	/**
+	 * Location of material shaders
+	 */
+	private final static String SHADERS_LOCATION = "/fr/kesk/libgl/shader/gsgl/material/";
+
+	/**
+	 * Low quality (per vertex lighting)
+	 */
+	public static final int QUALITY_LOW = 0;
+
+	/**
+	 * High quality (per pixel lighting)
+	 */
+	public static final int QUALITY_HIGH = 1;
+
+	/**
+	 * Materials folders indexed by table material index
+	 */
+	private static final String[] MATERIALS = new String[]{"ambient", "diffuse", "specular"};
+
+	/**
+	 * Lights folders indexed by table light index
+	 */
+	private static final String[] LIGHTS = new String[]{"point", "directional", "spot"};
+
+	/**
+	 * Qualities folders indexed by quality
+	 */
+	private static final String[] QUALITIES = new String[]{"low", "high"};
+
+	/**
+	 * Table size (materials * lights * qualities * textures)
+	 */
+	private static final int TABLE_SIZE = 3 * 3 * 2 * 2;
+
+	/**
+	 * Compiled programs indexed by getKey()
+	 */
+	private final GlProgram[] programs = new GlProgram[TABLE_SIZE];
+
+	/**
+	 * Indicates keys submitted to a background compiler and not yet published
+	 */
+	private final boolean[] submitted = new boolean[TABLE_SIZE];
+
+	/**
+	 * Get the table key of a combination, combinations sharing the same shaders have the same key
+	 *
+	 * @param materialType The material type (Material.CONSTANT, DIFFUSE, SPECULAR)
+	 * @param lightType The light type (Light.AMBIENT, DIRECTIONAL, POINT, SPOT)
+	 * @param quality The quality (QUALITY_LOW or QUALITY_HIGH)
+	 * @param textured true if the material uses a texture
+	 * @return The key in [0, 36[
+	 */
+	public static int getKey(final int materialType, final int lightType, final int quality, final boolean textured){
+		final int texture = textured ? 1 : 0;
+		int material;
+		switch(materialType){
+			case Material.DIFFUSE :
+				material = 1;
+				break;
+			case Material.SPECULAR :
+				material = 2;
+				break;
+			default :
+				material = 0;
+		}
+		int light;
+		switch(lightType){
+			case Light.DIRECTIONAL :
+				light = 1;
+				break;
+			case Light.SPOT :
+				light = 2;
+				break;
+			case Light.POINT :
+				light = 0;
+				break;
+			default :
+				light = 0;
+				material = 0;
+		}
+		if(material == 0){
+			return texture;
+		}
+		return (((material * 3 + light) << 1) + ((quality == QUALITY_HIGH) ? 1 : 0) << 1) + texture;
+	}
+
+	/**
+	 * Indicates if a material uses a texture
+	 *
+	 * @param material The material
+	 * @return true if a color of the material is bound to a texture
+	 */
+	public static boolean isTextured(final Material material){
+		return material.ambientBinding != null || material.diffuseBinding != null || material.specularBinding != null;
+	}
+
+	/**
+	 * Get the program of a combination, the program is compiled at first call
+	 *
+	 * @param materialType The material type (Material.CONSTANT, DIFFUSE, SPECULAR)
+	 * @param lightType The light type (Light.AMBIENT, DIRECTIONAL, POINT, SPOT)
+	 * @param quality The quality (QUALITY_LOW or QUALITY_HIGH)
+	 * @param textured true if the material uses a texture
+	 * @return The compiled program
+	 */
+	public GlProgram getProgram(final int materialType, final int lightType, final int quality, final boolean textured){
+		final int key = getKey(materialType, lightType, quality, textured);
+		GlProgram program = this.programs[key];
+		if(program == null){
+			program = this.createProgram(getLocation(key));
+			this.programs[key] = program;
+		}
+		return program;
+	}
+
+	/**
+	 * Get the program of a material lit by a light, the program is compiled at first call
+	 *
+	 * @param material The material
+	 * @param light The light
+	 * @param quality The quality (QUALITY_LOW or QUALITY_HIGH)
+	 * @return The compiled program
+	 */
+	public GlProgram getProgram(final Material material, final Light light, final int quality){
+		return this.getProgram(material.type, light.type, quality, isTextured(material));
+	}
+
+	/**
+	 * Compile programs of all materials and lights combinations of assets
+	 *
+	 * @param assets The loaded assets
+	 * @param quality The quality (QUALITY_LOW or QUALITY_HIGH)
+	 * @return The number of compiled programs
+	 */
+	public int compile(final GlAssets assets, final int quality){
+		//android.util.Log.d(TAG,"compile()");
+		int count = 0;
+		for(int materialIndex=0; materialIndex < assets.materials.size(); materialIndex++){
+			final Material material = assets.materials.valueAt(materialIndex);
+			for(int lightIndex=0; lightIndex < assets.lights.size(); lightIndex++){
+				final int key = getKey(material.type, assets.lights.valueAt(lightIndex).type, quality, isTextured(material));
+				if(this.programs[key] == null){
+					this.programs[key] = this.createProgram(getLocation(key));
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Compile in background programs of all materials and lights combinations of assets,
+	 * programs are available once published by the compiler
+	 *
+	 * @param assets The loaded assets
+	 * @param quality The quality (QUALITY_LOW or QUALITY_HIGH)
+	 * @param compiler The background compiler
+	 * @return The number of submitted programs (programs already cached are not submitted)
+	 */
+	public int compile(final GlAssets assets, final int quality, final GlProgramCompiler compiler){
+		//android.util.Log.d(TAG,"compile()");
+		int count = 0;
+		for(int materialIndex=0; materialIndex < assets.materials.size(); materialIndex++){
+			final Material material = assets.materials.valueAt(materialIndex);
+			for(int lightIndex=0; lightIndex < assets.lights.size(); lightIndex++){
+				final int key = getKey(material.type, assets.lights.valueAt(lightIndex).type, quality, isTextured(material));
+				if(this.programs[key] == null && !this.submitted[key]){
+					final String location = getLocation(key);
+					final String vertexShaderSource = this.readSource(location + ".vtx");
+					final String fragmentShaderSource = this.readSource(location + ".fgt");
+					//Already linked by another table
+					if(GlProgramCache.getInstance().contains(vertexShaderSource, fragmentShaderSource)){
+						this.programs[key] = GlProgramCache.getInstance().getProgram(vertexShaderSource, fragmentShaderSource);
+					}
+					else{
+						this.submitted[key] = true;
+						compiler.submit(vertexShaderSource, fragmentShaderSource, new ProgramCallback(key));
+						count++;
+					}
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Free all compiled programs
+	 */
+	public void free(){
+		//android.util.Log.d(TAG,"free()");
+		for(int key=0; key < TABLE_SIZE; key++){
+			this.submitted[key] = false;
+			if(this.programs[key] != null){
+				GlProgramCache.getInstance().release(this.programs[key]);
+				this.programs[key] = null;
+			}
+		}
+	}
+
+	/**
+	 * Create a program from shaders location, can be overridden to share programs
+	 *
+	 * @param location The shaders location without extension
+	 * @return The compiled program
+	 */
+	protected GlProgram createProgram(final String location){
+		//android.util.Log.d(TAG,"createProgram("+location+")");
+		InputStream vertIn = null;
+		InputStream fragIn = null;
+		try{
+			vertIn = this.getClass().getResourceAsStream(location + ".vtx");
+			fragIn = this.getClass().getResourceAsStream(location + ".fgt");
+			return GlProgramCache.getInstance().getProgram(vertIn, fragIn, null);
+		}finally{
+			if(vertIn != null){
+				try{
+					vertIn.close();
+				}catch(IOException ioe){}
+			}
+			if(fragIn != null){
+				try{
+					fragIn.close();
+				}catch(IOException ioe){}
+			}
+		}
+	}
+
+	/**
+	 * Read a shader source
+	 *
+	 * @param location The shader location
+	 * @return The source code
+	 */
+	private String readSource(final String location){
+		final InputStream in = this.getClass().getResourceAsStream(location);
+		try{
+			return GlProgram.readSource(in, null);
+		}finally{
+			try{
+				in.close();
+			}catch(IOException ioe){}
+		}
+	}
+
+	/**
+	 * Get the shaders location of a key
+	 *
+	 * @param key The table key
+	 * @return The shaders location without extension
+	 */
+	static String getLocation(final int key){
+		final String texture = ((key & 1) != 0) ? "tex" : "notex";
+		final int quality = (key >> 1) & 1;
+		final int material = (key >> 2) / 3;
+		final int light = (key >> 2) % 3;
+		if(material == 0){
+			return SHADERS_LOCATION + MATERIALS[0] + "/" + texture;
+		}
+		return SHADERS_LOCATION + MATERIALS[material] + "/" + LIGHTS[light] + "/" + QUALITIES[quality] + "/" + texture;
+	}
+
+	/**
+	 * Stores programs compiled in background
+	 */
+	private class ProgramCallback implements GlProgramCompiler.Callback{
+
+		/**
+		 * The table key
+		 */
+		private final int key;
+
+		/**
+		 * Constructor
+		 */
+		ProgramCallback(final int key){
+			this.key = key;
+		}
+
+		@Override
+		public void onProgramReady(final GlProgramCompiler.Request request){
+			final GlProgram program = request.getProgram();
+			if(program != null){
+				//Program already compiled in GL Thread or table freed
+				if(!submitted[this.key] || programs[this.key] != null){
+					program.free();
+				}
+				else{
+					programs[this.key] = GlProgramCache.getInstance().adopt(request.vertexShaderSource, request.fragmentShaderSource, program);
+				}
+			}
+			submitted[this.key] = false;
+		}
+	}
+}
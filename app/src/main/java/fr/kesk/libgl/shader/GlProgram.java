@@ -1,23 +1,31 @@
 package fr.kesk.libgl.shader;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Set;
 
 import android.opengl.GLES20;
 import android.opengl.GLException;
+import fr.kesk.libgl.pipeline.GlState;
 
 /**
  * Helper class to get shaders source code and link program
  * <br/><br/>
  *
- *  This approach allows automatic linking based on parsing. 
- *  
+ *  Attributes and uniforms are found by introspection of the linked program, their
+ *  handles are stored in dense arrays indexed by ids given by getId(). Ids should be
+ *  retrieved once (static final fields) to get handles by array indexing.
+ *  <br/><br/>
+ *
+ *  Sources can include shared code using #include "path" where path is relative
+ *  to gsgl folder (ie #include "tools/pack.inc"), included sources are cached.
+ *
  * @author Thomas MILLET
  *
  */
@@ -28,79 +36,321 @@ public class GlProgram {
 	 */
 	@SuppressWarnings("unused")
 	private final static String TAG = GlProgram.class.getName();
-	
+
 	/**
 	 * Handle to use to unbind current program
 	 */
 	public static final int UNBIND_HANDLE = GLES20.GL_ZERO;
-	
-	/**
-	 * Attribute pattern for parsing
-	 */
-	private static final Pattern ATTRIBUTE_PATTERN = Pattern.compile("attribute\\s*[^\\s]*\\s*([^\\s;]*)\\s*;",Pattern.MULTILINE|Pattern.DOTALL);
-	
+
 	/**
-	 * Uniform pattern for parsing
+	 * Handle returned for unknown or inactive attributes and uniforms
 	 */
-	private static final Pattern UNIFORM_PATTERN = Pattern.compile("uniform\\s*[^\\s]*\\s*([^\\s;]*)\\s*;",Pattern.MULTILINE|Pattern.DOTALL);
-	
+	public static final int INVALID_HANDLE = -1;
+
 	/**
 	 * Prefix for GSGL uniforms (see header for convention)
 	 */
 	public static final String UNIFORM_PREFIX = "u_";
-			
+
 	/**
-	 * Indicates if current program is enabled on pipeline
+	 * Include directive
 	 */
-	private boolean isEnabled;
-	
+	private static final String INCLUDE_DIRECTIVE = "#include";
+
+	/**
+	 * Location of included sources
+	 */
+	private static final String INCLUDE_LOCATION = "/fr/kesk/libgl/shader/gsgl/";
+
+	/**
+	 * Included sources by path
+	 */
+	private static final Map<String, String> includes = new HashMap<String, String>();
+
+	/**
+	 * Attributes and uniforms ids by name
+	 */
+	private static final Map<String, Integer> ids = new HashMap<String, Integer>();
+
 	/**
 	 * Handle on current program
 	 */
 	public final int programHandle;
-	
+
 	/**
 	 * Handle of the vertex shader
 	 */
 	public final int vertexShaderHandle;
-	
+
 	/**
 	 *  Handle of the fragment shader
 	 */
 	public final int fragmentShaderHandle;
-	
+
 	/**
-	 *  Handles on GSGL attributes
+	 *  Handles of attributes indexed by id
 	 */
-	private final Map<String,Integer> attributeHandles;
-	
+	private int[] attributeHandles;
+
 	/**
-	 *  Store the attributes handles for direct access
+	 *  Store the active attributes handles for direct access
 	 */
 	private int[] attributeHandlesArray;
-	
+
 	/**
-	 *  Handles on GSGL uniforms
+	 *  Handles of uniforms indexed by id
 	 */
-	private final Map<String,Integer> uniformHandles;
-	
+	private int[] uniformHandles;
+
+	/**
+	 *  Offsets of uniforms values in uniformValues indexed by id, -1 if inactive
+	 */
+	private int[] uniformOffsets;
+
+	/**
+	 *  Number of components of uniforms (including arrays) indexed by id
+	 */
+	private int[] uniformComponents;
+
+	/**
+	 *  Last uploaded uniforms values
+	 */
+	private float[] uniformValues;
+
+	/**
+	 *  Indicates if last uploaded uniform value is known, indexed by id
+	 */
+	private boolean[] uniformKnown;
+
+	/**
+	 *  Versions of last uploaded uniforms (see setUniformMatrix4fv()), indexed by id
+	 */
+	private int[] uniformVersions;
+
+	/**
+	 *  Arrays of last uploaded uniforms versions, indexed by id
+	 */
+	private float[][] uniformVersionSources;
+
+	/**
+	 *  Number of uniforms uploads sent to the driver
+	 */
+	private int uploadedUniforms;
+
+	/**
+	 *  Number of redundant uniforms uploads filtered
+	 */
+	private int filteredUniforms;
+
+	/**
+	 * Source code inserted before shaders code (defines)
+	 */
+	private final String header;
+
 	/**
 	 * Constructor, creates and link program based on specified shaders
-	 * 
+	 *
 	 * @param vertexShaderLocation The vertex shader inputstream
 	 * @param fragmentShaderLocation The fragment shader inputstream
 	 * @param varList The list of variable names to bind (null for no binding)
 	 * @throws GLException
 	 */
 	public GlProgram(final InputStream vertexShaderInputStream, final InputStream fragmentShaderInputStream){
+		this(vertexShaderInputStream, fragmentShaderInputStream, null);
+	}
+
+	/**
+	 * Constructor, creates and link program based on specified shaders, the header
+	 * is inserted before both shaders code (mainly to set #define values at runtime)
+	 *
+	 * @param vertexShaderLocation The vertex shader inputstream
+	 * @param fragmentShaderLocation The fragment shader inputstream
+	 * @param header The source code to insert before shaders code, null for none
+	 * @throws GLException
+	 */
+	public GlProgram(final InputStream vertexShaderInputStream, final InputStream fragmentShaderInputStream, final String header){
+		this(readSource(vertexShaderInputStream, header), readSource(fragmentShaderInputStream, header), header);
+	}
+
+	/**
+	 * Constructor, creates and link program based on specified shaders source code
+	 *
+	 * @param vertexShaderSource The vertex shader source code
+	 * @param fragmentShaderSource The fragment shader source code
+	 * @throws GLException
+	 */
+	public GlProgram(final String vertexShaderSource, final String fragmentShaderSource){
+		this(vertexShaderSource, fragmentShaderSource, null);
+	}
+
+	/**
+	 * Inner constructor, creates and link program based on specified shaders source code
+	 *
+	 * @param vertexShaderSource The vertex shader source code (including header)
+	 * @param fragmentShaderSource The fragment shader source code (including header)
+	 * @param header The header used in sources, null for none
+	 * @throws GLException
+	 */
+	private GlProgram(final String vertexShaderSource, final String fragmentShaderSource, final String header){
 		//android.util.Log.d(TAG,"NEW");
-		this.attributeHandles = new HashMap<String, Integer>();
-		this.uniformHandles = new HashMap<String, Integer>();
-		this.vertexShaderHandle = this.loadShader(GLES20.GL_VERTEX_SHADER, vertexShaderInputStream);
-		this.fragmentShaderHandle = this.loadShader(GLES20.GL_FRAGMENT_SHADER, fragmentShaderInputStream);
+		this.header = header;
+		this.vertexShaderHandle = this.loadShader(GLES20.GL_VERTEX_SHADER, vertexShaderSource);
+		this.fragmentShaderHandle = this.loadShader(GLES20.GL_FRAGMENT_SHADER, fragmentShaderSource);
 		this.programHandle = this.createAndLinkProgram(vertexShaderHandle, fragmentShaderHandle);
 	}
-	
+
+	/**
+	 * Constructor using an already linked program (program binaries)
+	 *
+	 * @param programHandle The linked program handle
+	 */
+	protected GlProgram(final int programHandle){
+		//android.util.Log.d(TAG,"NEW");
+		this.header = null;
+		this.vertexShaderHandle = UNBIND_HANDLE;
+		this.fragmentShaderHandle = UNBIND_HANDLE;
+		this.programHandle = programHandle;
+		this.updateHandles(programHandle);
+	}
+
+	/**
+	 * Read a shader source code, #include directives are resolved
+	 *
+	 * @param inputStream The shader code InputStream
+	 * @param header The source code to insert before shader code, null for none
+	 * @return The shader source code
+	 * @throws GLException
+	 */
+	public static String readSource(final InputStream inputStream, final String header){
+		//android.util.Log.d(TAG,"readSource()");
+		final StringBuilder shaderCode = new StringBuilder(4096);
+		if(header != null){
+			shaderCode.append(header).append('\n');
+		}
+		readFully(inputStream, shaderCode);
+		return preprocess(shaderCode.toString(), null);
+	}
+
+	/**
+	 * Get the id of an attribute or uniform name, ids are shared by all programs
+	 * and remain the same during application life
+	 *
+	 * @param name The attribute or uniform name
+	 * @return The id to use with getAttributeHandle(int) or getUniformHandle(int)
+	 */
+	public static int getId(final String name){
+		synchronized(ids){
+			Integer id = ids.get(name);
+			if(id == null){
+				id = Integer.valueOf(ids.size());
+				ids.put(name, id);
+			}
+			return id.intValue();
+		}
+	}
+
+	/**
+	 * Find the id of an attribute or uniform name without registering it
+	 *
+	 * @param name The attribute or uniform name
+	 * @return The id, -1 if unknown
+	 */
+	private static int findId(final String name){
+		synchronized(ids){
+			final Integer id = ids.get(name);
+			return (id == null) ? -1 : id.intValue();
+		}
+	}
+
+	/**
+	 * Read a stream fully in a StringBuilder, the content always ends with a new line
+	 *
+	 * @param inputStream The InputStream
+	 * @param out The StringBuilder to fill
+	 * @throws GLException
+	 */
+	private static void readFully(final InputStream inputStream, final StringBuilder out){
+		try{
+			final Reader reader = new InputStreamReader(inputStream);
+			final char[] buffer = new char[4096];
+			int count;
+			while((count = reader.read(buffer)) != -1){
+				out.append(buffer, 0, count);
+			}
+			if(out.length() == 0 || out.charAt(out.length() - 1) != '\n'){
+				out.append('\n');
+			}
+		}catch(IOException ioe){
+			throw new GLException(GLES20.GL_INVALID_OPERATION, "Failed to read shader");
+		}
+	}
+
+	/**
+	 * Resolve #include directives of a source code, each path is included only once
+	 *
+	 * @param source The source code
+	 * @param included The paths already included, null for a new source
+	 * @return The preprocessed source code
+	 * @throws GLException
+	 */
+	private static String preprocess(final String source, Set<String> included){
+		if(source.indexOf(INCLUDE_DIRECTIVE) < 0){
+			return source;
+		}
+		if(included == null){
+			included = new HashSet<String>();
+		}
+		final StringBuilder out = new StringBuilder(source.length() * 2);
+		int lineStart = 0;
+		while(lineStart < source.length()){
+			int lineEnd = source.indexOf('\n', lineStart);
+			lineEnd = (lineEnd < 0) ? source.length() : lineEnd + 1;
+			final String line = source.substring(lineStart, lineEnd).trim();
+			if(line.startsWith(INCLUDE_DIRECTIVE)){
+				final String path = line.substring(INCLUDE_DIRECTIVE.length()).trim().replaceAll("^[\"<]|[\">]$", "");
+				if(included.add(path)){
+					out.append(preprocess(getInclude(path), included));
+				}
+			}
+			else{
+				out.append(source, lineStart, lineEnd);
+			}
+			lineStart = lineEnd;
+		}
+		return out.toString();
+	}
+
+	/**
+	 * Get the source code of an included file
+	 *
+	 * @param path The path relative to gsgl folder
+	 * @return The source code
+	 * @throws GLException
+	 */
+	private static String getInclude(final String path){
+		synchronized(includes){
+			String source = includes.get(path);
+			if(source == null){
+				//android.util.Log.d(TAG,"getInclude("+path+")");
+				final InputStream inputStream = GlProgram.class.getResourceAsStream(INCLUDE_LOCATION + path);
+				if(inputStream == null){
+					throw new GLException(GLES20.GL_INVALID_OPERATION, "Failed to include "+path);
+				}
+				try{
+					final StringBuilder builder = new StringBuilder(4096);
+					readFully(inputStream, builder);
+					source = builder.toString();
+				}finally{
+					try{
+						inputStream.close();
+					}catch(IOException ioe){}
+				}
+				includes.put(path, source);
+			}
+			return source;
+		}
+	}
+
 	/**
 	 * Enables all attributes of vertex shader
 	 */
@@ -123,11 +373,11 @@ public class GlProgram {
 	/**
 	 * Enables shader attribute by its handle
 	 * 
-	 * @param attrList The handle of attribute to enable
+	 * @param attributeHandle The handle of attribute to enable
 	 */
-	public void enableAttribute(final int attributeId){
-		//android.util.Log.d(TAG,"enableAttribute("+attributeId+")");
-		GLES20.glEnableVertexAttribArray(attributeId);
+	public void enableAttribute(final int attributeHandle){
+		//android.util.Log.d(TAG,"enableAttribute("+attributeHandle+")");
+		GLES20.glEnableVertexAttribArray(attributeHandle);
 	}
 	
 	/**
@@ -152,36 +402,34 @@ public class GlProgram {
 	/**
 	 * Disables shader attribute by its handle
 	 * 
-	 * @param attributeId The handle of attribute to disable
+	 * @param attributeHandle The handle of attribute to disable
 	 */
-	public void disableAttribute(final int attributeId){
-		//android.util.Log.d(TAG,"enableAttribute("+attributeId+")");
-		GLES20.glDisableVertexAttribArray(attributeId);
+	public void disableAttribute(final int attributeHandle){
+		//android.util.Log.d(TAG,"disableAttribute("+attributeHandle+")");
+		GLES20.glDisableVertexAttribArray(attributeHandle);
 	}
 	
 	/**
 	 * Enabled the program on pipeline.<br/>
 	 * <br/>
 	 * <br/>
-	 * Caution : only calls to start/stop are taken into account for current state
+	 * Caution : only calls to start/stop (or GlState.useProgram()) are taken into account for current state
 	 */
 	public void start(){
 		//android.util.Log.d(TAG,"start()");
-		if(!this.isEnabled){
-			GLES20.glUseProgram(this.programHandle);
-		}
+		GlState.useProgram(this.programHandle);
 	}
 	
 	/**
 	 * Disable the program on pipeline.<br/>
 	 * <br/>
 	 * <br/>
-	 * Caution : only calls to start/stop are taken into account for current state
+	 * Caution : only calls to start/stop (or GlState.useProgram()) are taken into account for current state
 	 */
 	public void stop(){
 		//android.util.Log.d(TAG,"stop()");
-		if(this.isEnabled){
-			GLES20.glUseProgram(UNBIND_HANDLE);
+		if(GlState.getProgram() == this.programHandle){
+			GlState.useProgram(UNBIND_HANDLE);
 		}
 	}
 	
@@ -193,59 +441,38 @@ public class GlProgram {
      * @return return a compiled shader OpenGL ID
      */
 	protected int loadShader(final int type, final InputStream inputStream){
-		//android.util.Log.d(TAG,"loadShader("+type+", "+location+")");
+		return this.loadShader(type, readSource(inputStream, this.header));
+	}
+	
+	/**
+     * Compile a shader from its source code
+     * 
+     * @param type The vertex shader type GLES20.GL_VERTEX_SHADER | GLES20.GL_FRAGMENT_SHADER
+     * @param shaderCode The shader source code
+     * @return return a compiled shader OpenGL ID
+     */
+	protected int loadShader(final int type, final String shaderCode){
+		//android.util.Log.d(TAG,"loadShader("+type+")");
 		
 		final int shader = GLES20.glCreateShader(type);
 		
-		BufferedReader bufIn = null;
-	    
-	    try{
-	    	bufIn = new BufferedReader(new InputStreamReader(inputStream), 8192);
-
-	    	final StringBuilder shaderCode = new StringBuilder();
-	    	String line = null;
-	    	while((line = bufIn.readLine()) != null){
-	    		shaderCode.append(line).append("\n");
-	    	}
-
-	    	// add the source code to the shader and compile it
-	    	GLES20.glShaderSource(shader, shaderCode.toString());
-	    	GLES20.glCompileShader(shader);
-	    	
-	    	// Get the compilation status.
-	        final int[] compileStatus = new int[1];
-	        GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, compileStatus, 0);
-	     
-	        // If the compilation failed, delete the shader.
-	        if (compileStatus[0] == GLES20.GL_FALSE) {
-	            GLES20.glDeleteShader(shader);
-	            throw new GLException(GLES20.GL_INVALID_OPERATION, "Failed to compile "+((type == GLES20.GL_VERTEX_SHADER)? "vertex":"fragment")+" shader");
-	        }
-	        
-	        //Parse shader to store attributes and uniform handles
-	    	final Matcher attributeMatcher = ATTRIBUTE_PATTERN.matcher(shaderCode);
-	    	while(attributeMatcher.find()){
-	    		final String attributeName = attributeMatcher.group(1);
-	    		if(!this.attributeHandles.containsKey(attributeName)){
-	    			this.attributeHandles.put(attributeName, UNBIND_HANDLE);
-	    		}
-	    	}
-	    	final Matcher uniformMatcher = UNIFORM_PATTERN.matcher(shaderCode);
-	    	while(uniformMatcher.find()){
-	    		final String uniformName = uniformMatcher.group(1);
-	    		if(!this.uniformHandles.containsKey(uniformName)){
-	    			this.uniformHandles.put(uniformName, UNBIND_HANDLE);
-	    		}
-	    	}
-	        
-	    }catch(IOException ioe){
-	    	throw new GLException(GLES20.GL_INVALID_OPERATION, "Failed to compile "+((type == GLES20.GL_VERTEX_SHADER)? "vertex":"fragment")+" shader");
-	    }	
-		
+    	// add the source code to the shader and compile it
+    	GLES20.glShaderSource(shader, shaderCode);
+    	GLES20.glCompileShader(shader);
+    	
+    	// Get the compilation status.
+        final int[] compileStatus = new int[1];
+        GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, compileStatus, 0);
+     
+        // If the compilation failed, delete the shader.
+        if (compileStatus[0] == GLES20.GL_FALSE) {
+            GLES20.glDeleteShader(shader);
+            throw new GLException(GLES20.GL_INVALID_OPERATION, "Failed to compile "+((type == GLES20.GL_VERTEX_SHADER)? "vertex":"fragment")+" shader");
+        }
+        
 		return shader;
 	}
 	
-    
     /**
 	 * Helper function to compile and link a program
 	 * 
@@ -278,24 +505,133 @@ public class GlProgram {
 				throw new GLException(GLES20.GL_INVALID_OPERATION, "Failed to link program : "+error);
 			}
 			
-			//Update handles and fill the attributes cache
-			int index=0;
-			this.attributeHandlesArray = new int[this.attributeHandles.size()];
-			for(String attributeName : this.attributeHandles.keySet()){
-				final int attributeHandle = GLES20.glGetAttribLocation(programHandle, attributeName);
-				this.attributeHandles.put(attributeName, attributeHandle);
-				this.attributeHandlesArray[index++] = attributeHandle;	
-			}
-			for(String uniformName : this.uniformHandles.keySet()){
-				final int uniformHandle = GLES20.glGetUniformLocation(programHandle, uniformName);
-				this.uniformHandles.put(uniformName, uniformHandle);	
-			}
+			this.updateHandles(programHandle);
 		}
 		
 		return programHandle;
 	}
 	
-	
+	/**
+	 * Update handles of active attributes and uniforms of a linked program
+	 *
+	 * @param programHandle The linked program handle
+	 */
+	private void updateHandles(final int programHandle){
+		final int[] params = new int[2];
+		final int[] type = new int[1];
+
+		//Attributes
+		GLES20.glGetProgramiv(programHandle, GLES20.GL_ACTIVE_ATTRIBUTES, params, 0);
+		GLES20.glGetProgramiv(programHandle, GLES20.GL_ACTIVE_ATTRIBUTE_MAX_LENGTH, params, 1);
+		final int attributesCount = params[0];
+		byte[] name = new byte[Math.max(params[1], 1)];
+		final int[] attributeIds = new int[attributesCount];
+		this.attributeHandlesArray = new int[attributesCount];
+		for(int index=0; index < attributesCount; index++){
+			GLES20.glGetActiveAttrib(programHandle, index, name.length, params, 0, params, 1, type, 0, name, 0);
+			final String attributeName = getName(name, params[0]);
+			attributeIds[index] = getId(attributeName);
+			this.attributeHandlesArray[index] = GLES20.glGetAttribLocation(programHandle, attributeName);
+		}
+
+		//Uniforms
+		GLES20.glGetProgramiv(programHandle, GLES20.GL_ACTIVE_UNIFORMS, params, 0);
+		GLES20.glGetProgramiv(programHandle, GLES20.GL_ACTIVE_UNIFORM_MAX_LENGTH, params, 1);
+		final int uniformsCount = params[0];
+		name = new byte[Math.max(params[1], 1)];
+		final int[] uniformIds = new int[uniformsCount];
+		final int[] uniformHandlesArray = new int[uniformsCount];
+		final int[] uniformComponentsArray = new int[uniformsCount];
+		int valuesCount = 0;
+		for(int index=0; index < uniformsCount; index++){
+			GLES20.glGetActiveUniform(programHandle, index, name.length, params, 0, params, 1, type, 0, name, 0);
+			final String uniformName = getName(name, params[0]);
+			uniformIds[index] = getId(uniformName);
+			uniformHandlesArray[index] = GLES20.glGetUniformLocation(programHandle, uniformName);
+			uniformComponentsArray[index] = getComponents(type[0]) * params[1];
+			valuesCount += uniformComponentsArray[index];
+		}
+
+		//Dense arrays indexed by ids
+		int idsCount = 0;
+		for(int index=0; index < attributesCount; index++){
+			idsCount = Math.max(idsCount, attributeIds[index] + 1);
+		}
+		this.attributeHandles = new int[idsCount];
+		Arrays.fill(this.attributeHandles, INVALID_HANDLE);
+		for(int index=0; index < attributesCount; index++){
+			this.attributeHandles[attributeIds[index]] = this.attributeHandlesArray[index];
+		}
+		idsCount = 0;
+		for(int index=0; index < uniformsCount; index++){
+			idsCount = Math.max(idsCount, uniformIds[index] + 1);
+		}
+		this.uniformHandles = new int[idsCount];
+		Arrays.fill(this.uniformHandles, INVALID_HANDLE);
+		this.uniformOffsets = new int[idsCount];
+		Arrays.fill(this.uniformOffsets, -1);
+		this.uniformComponents = new int[idsCount];
+		this.uniformKnown = new boolean[idsCount];
+		this.uniformVersions = new int[idsCount];
+		this.uniformVersionSources = new float[idsCount][];
+		this.uniformValues = new float[valuesCount];
+		int offset = 0;
+		for(int index=0; index < uniformsCount; index++){
+			this.uniformHandles[uniformIds[index]] = uniformHandlesArray[index];
+			this.uniformOffsets[uniformIds[index]] = offset;
+			this.uniformComponents[uniformIds[index]] = uniformComponentsArray[index];
+			offset += uniformComponentsArray[index];
+		}
+	}
+
+	/**
+	 * Get the number of components of a uniform type
+	 *
+	 * @param type The uniform type
+	 * @return The number of float/int components
+	 */
+	private static int getComponents(final int type){
+		switch(type){
+			case GLES20.GL_FLOAT_VEC2 :
+			case GLES20.GL_INT_VEC2 :
+			case GLES20.GL_BOOL_VEC2 :
+				return 2;
+			case GLES20.GL_FLOAT_VEC3 :
+			case GLES20.GL_INT_VEC3 :
+			case GLES20.GL_BOOL_VEC3 :
+				return 3;
+			case GLES20.GL_FLOAT_VEC4 :
+			case GLES20.GL_INT_VEC4 :
+			case GLES20.GL_BOOL_VEC4 :
+			case GLES20.GL_FLOAT_MAT2 :
+				return 4;
+			case GLES20.GL_FLOAT_MAT3 :
+				return 9;
+			case GLES20.GL_FLOAT_MAT4 :
+				return 16;
+			default :
+				return 1;
+		}
+	}
+
+	/**
+	 * Get an attribute or uniform name from introspection buffer, arrays are
+	 * accessed from their first element
+	 *
+	 * @param name The name buffer
+	 * @param length The name length
+	 * @return The name without array suffix
+	 */
+	private static String getName(final byte[] name, int length){
+		for(int index=0; index < length; index++){
+			if(name[index] == '['){
+				length = index;
+				break;
+			}
+		}
+		return new String(name, 0, length);
+	}
+
 	/**
 	 * Free resources
 	 */
@@ -312,28 +648,265 @@ public class GlProgram {
 		}
 	}
 	 
+	/**
+	 * Set an int (or sampler) uniform, the upload is skipped if the value has not
+	 * changed since last upload (program must be in use)
+	 *
+	 * @param id The uniform id (see getId())
+	 * @param x The value
+	 */
+	public void setUniform1i(final int id, final int x){
+		if(!this.isUniformUnchanged(id, x, 0, 0, 0, 1)){
+			GLES20.glUniform1i(this.uniformHandles[id], x);
+		}
+	}
+
+	/**
+	 * Set a float uniform, the upload is skipped if the value has not changed
+	 * since last upload (program must be in use)
+	 *
+	 * @param id The uniform id (see getId())
+	 * @param x The value
+	 */
+	public void setUniform1f(final int id, final float x){
+		if(!this.isUniformUnchanged(id, x, 0, 0, 0, 1)){
+			GLES20.glUniform1f(this.uniformHandles[id], x);
+		}
+	}
+
+	/**
+	 * Set a vec2 uniform, the upload is skipped if the value has not changed
+	 * since last upload (program must be in use)
+	 *
+	 * @param id The uniform id (see getId())
+	 */
+	public void setUniform2f(final int id, final float x, final float y){
+		if(!this.isUniformUnchanged(id, x, y, 0, 0, 2)){
+			GLES20.glUniform2f(this.uniformHandles[id], x, y);
+		}
+	}
+
+	/**
+	 * Set a vec3 uniform, the upload is skipped if the value has not changed
+	 * since last upload (program must be in use)
+	 *
+	 * @param id The uniform id (see getId())
+	 */
+	public void setUniform3f(final int id, final float x, final float y, final float z){
+		if(!this.isUniformUnchanged(id, x, y, z, 0, 3)){
+			GLES20.glUniform3f(this.uniformHandles[id], x, y, z);
+		}
+	}
+
+	/**
+	 * Set a vec4 uniform, the upload is skipped if the value has not changed
+	 * since last upload (program must be in use)
+	 *
+	 * @param id The uniform id (see getId())
+	 */
+	public void setUniform4f(final int id, final float x, final float y, final float z, final float w){
+		if(!this.isUniformUnchanged(id, x, y, z, w, 4)){
+			GLES20.glUniform4f(this.uniformHandles[id], x, y, z, w);
+		}
+	}
+
+	/**
+	 * Set a vec4 (or vec4 array) uniform, the upload is skipped if the values have not
+	 * changed since last upload (program must be in use)
+	 *
+	 * @param id The uniform id (see getId())
+	 * @param count The number of vec4
+	 * @param value The values array
+	 * @param offset The offset of first value in array
+	 */
+	public void setUniform4fv(final int id, final int count, final float[] value, final int offset){
+		if(!this.isUniformUnchanged(id, value, offset, count << 2)){
+			GLES20.glUniform4fv(this.uniformHandles[id], count, value, offset);
+		}
+	}
+
+	/**
+	 * Set a mat4 (or mat4 array) uniform, the upload is skipped if the values have not
+	 * changed since last upload (program must be in use)
+	 *
+	 * @param id The uniform id (see getId())
+	 * @param count The number of matrices
+	 * @param value The values array
+	 * @param offset The offset of first value in array
+	 */
+	public void setUniformMatrix4fv(final int id, final int count, final float[] value, final int offset){
+		if(!this.isUniformUnchanged(id, value, offset, count << 4)){
+			GLES20.glUniformMatrix4fv(this.uniformHandles[id], count, false, value, offset);
+		}
+	}
+
+	/**
+	 * Set a mat4 (or mat4 array) uniform using a version counter, the caller must change the
+	 * version each time the values of array at offset are modified. If the same array is set again
+	 * with the same version, the upload is skipped without comparing values.
+	 *
+	 * @param id The uniform id (see getId())
+	 * @param count The number of matrices
+	 * @param value The values array
+	 * @param offset The offset of first value in array
+	 * @param version The version of values
+	 */
+	public void setUniformMatrix4fv(final int id, final int count, final float[] value, final int offset, final int version){
+		if(id < 0 || id >= this.uniformOffsets.length || this.uniformOffsets[id] < 0){
+			return;
+		}
+		if(this.uniformKnown[id] && this.uniformVersionSources[id] == value && this.uniformVersions[id] == version){
+			this.filteredUniforms++;
+			return;
+		}
+		this.setUniformMatrix4fv(id, count, value, offset);
+		if(this.uniformKnown[id]){
+			this.uniformVersionSources[id] = value;
+			this.uniformVersions[id] = version;
+		}
+	}
+
+	/**
+	 * Invalidate last uploaded uniforms values, must be called if uniforms of this
+	 * program are set without the setUniform methods
+	 */
+	public void invalidateUniforms(){
+		//android.util.Log.d(TAG,"invalidateUniforms()");
+		Arrays.fill(this.uniformKnown, false);
+		Arrays.fill(this.uniformVersionSources, null);
+	}
+
+	/**
+	 * Get the number of uniforms uploads sent to the driver since last reset
+	 */
+	public int getUploadedUniforms(){
+		return this.uploadedUniforms;
+	}
+
+	/**
+	 * Get the number of redundant uniforms uploads filtered since last reset
+	 */
+	public int getFilteredUniforms(){
+		return this.filteredUniforms;
+	}
+
+	/**
+	 * Reset uploaded and filtered uniforms counters
+	 */
+	public void resetUniformsCounters(){
+		this.uploadedUniforms = this.filteredUniforms = 0;
+	}
+
+	/**
+	 * Compare a uniform value to the last uploaded one and store it if changed
+	 *
+	 * @return true if the upload can be skipped
+	 */
+	private boolean isUniformUnchanged(final int id, final float x, final float y, final float z, final float w, final int components){
+		if(id < 0 || id >= this.uniformOffsets.length || this.uniformOffsets[id] < 0){
+			return true;
+		}
+		if(components > this.uniformComponents[id]){
+			//Not matching the uniform type, not cached
+			this.uniformKnown[id] = false;
+			this.uniformVersionSources[id] = null;
+			this.uploadedUniforms++;
+			return false;
+		}
+		final int offset = this.uniformOffsets[id];
+		final float[] values = this.uniformValues;
+		if(this.uniformKnown[id]
+				&& values[offset] == x
+				&& (components < 2 || values[offset + 1] == y)
+				&& (components < 3 || values[offset + 2] == z)
+				&& (components < 4 || values[offset + 3] == w)){
+			this.filteredUniforms++;
+			return true;
+		}
+		values[offset] = x;
+		if(components > 1) values[offset + 1] = y;
+		if(components > 2) values[offset + 2] = z;
+		if(components > 3) values[offset + 3] = w;
+		this.uniformKnown[id] = true;
+		this.uniformVersionSources[id] = null;
+		this.uploadedUniforms++;
+		return false;
+	}
+
+	/**
+	 * Compare a uniform value to the last uploaded one and store it if changed
+	 *
+	 * @return true if the upload can be skipped
+	 */
+	private boolean isUniformUnchanged(final int id, final float[] value, final int offset, final int components){
+		if(id < 0 || id >= this.uniformOffsets.length || this.uniformOffsets[id] < 0){
+			return true;
+		}
+		if(components <= this.uniformComponents[id]){
+			final int base = this.uniformOffsets[id];
+			final float[] values = this.uniformValues;
+			if(this.uniformKnown[id]){
+				int index = 0;
+				while(index < components && values[base + index] == value[offset + index]){
+					index++;
+				}
+				if(index == components){
+					this.filteredUniforms++;
+					return true;
+				}
+			}
+			System.arraycopy(value, offset, values, base, components);
+			this.uniformKnown[id] = true;
+		}
+		else{
+			//Too large to be stored
+			this.uniformKnown[id] = false;
+		}
+		this.uniformVersionSources[id] = null;
+		this.uploadedUniforms++;
+		return false;
+	}
+
 	/**
 	 * Get the handle of a specified attribute
-	 * 
+	 *
 	 * @param name The attribute name
-	 * @return The handle ID, 0 if not found
+	 * @return The handle ID, INVALID_HANDLE if not found
 	 */
 	public int getAttributeHandle(final String name){
 		//android.util.Log.d(TAG,"getAttributeHandle("+name+")");
-		Integer handle = this.attributeHandles.get(name); 
-		return (handle == null) ? UNBIND_HANDLE : handle;
+		return this.getAttributeHandle(findId(name));
 	}
-	
+
+	/**
+	 * Get the handle of an attribute from its id (see getId())
+	 *
+	 * @param id The attribute id
+	 * @return The handle ID, INVALID_HANDLE if not found
+	 */
+	public int getAttributeHandle(final int id){
+		return (id >= 0 && id < this.attributeHandles.length) ? this.attributeHandles[id] : INVALID_HANDLE;
+	}
+
 	/**
 	 * Get the handle of a specified uniform
-	 * 
+	 *
 	 * @param name The uniform name
-	 * @return The handle ID, 0 if not found
+	 * @return The handle ID, INVALID_HANDLE if not found
 	 */
 	public int getUniformHandle(final String name){
 		//android.util.Log.d(TAG,"getUniformHandle("+name+")");
-		Integer handle = this.uniformHandles.get(name); 
-		return (handle == null) ? UNBIND_HANDLE : handle;
+		return this.getUniformHandle(findId(name));
 	}
-	
+
+	/**
+	 * Get the handle of a uniform from its id (see getId())
+	 *
+	 * @param id The uniform id
+	 * @return The handle ID, INVALID_HANDLE if not found
+	 */
+	public int getUniformHandle(final int id){
+		return (id >= 0 && id < this.uniformHandles.length) ? this.uniformHandles[id] : INVALID_HANDLE;
+	}
+
 }
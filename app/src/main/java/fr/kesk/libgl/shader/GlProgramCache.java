@@ -0,0 +1,505 @@
+package fr.kesk.libgl.shader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import fr.kesk.libgl.tools.GLES20Utils;
+
+import android.opengl.GLES20;
+
+/**
+ * Cache of linked programs :
+ *	<ul>
+ * 	<li>programs are keyed by a hash of their sources (including header)</li>
+ * 	<li>programs sharing the same sources are linked once per context and reference counted</li>
+ * 	<li>if GL_OES_get_program_binary is supported and a directory is set, linked binaries are
+ * 		stored on disk and reloaded at next run instead of compiling shaders</li>
+ *	</ul>
+ * Stored binaries are invalidated if the GL renderer/version changes or if the driver
+ * rejects them, in this case the program is compiled from sources and stored again.
+ * <br/>
+ * <br/>
+ * ! Warning : must be used in GL Thread only
+ *
+ * 	@author Thomas MILLET
+ *
+ */
+public class GlProgramCache {
+
+	/**
+	 * TAG log
+	 */
+	@SuppressWarnings("unused")
+	private final static String TAG = GlProgramCache.class.getName();
+
+	/**
+	 * Magic number of binary files ("LGPB")
+	 */
+	public static final int MAGIC = 0x4C475042;
+
+	/**
+	 * Version of binary files format
+	 */
+	public static final int VERSION = 1;
+
+	/**
+	 * Extension of binary files
+	 */
+	public static final String FILE_EXTENSION = ".bin";
+
+	/**
+	 * Program binary extension name
+	 */
+	private static final String PROGRAM_BINARY_EXTENSION = "GL_OES_get_program_binary";
+
+	/**
+	 * FNV-1a 64 bits offset basis
+	 */
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+
+	/**
+	 * FNV-1a 64 bits prime
+	 */
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	/**
+	 * Singleton instance
+	 */
+	private final static GlProgramCache instance = new GlProgramCache();
+
+	/**
+	 * Cached programs of current context by key
+	 */
+	private final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+	/**
+	 * Cached programs of current context by program
+	 */
+	private final Map<GlProgram, Entry> programs = new HashMap<GlProgram, Entry>();
+
+	/**
+	 * Binaries directory, null to disable disk storage
+	 */
+	private File directory;
+
+	/**
+	 * Identity of current GL implementation, null if not yet read
+	 */
+	private String identity;
+
+	/**
+	 * Indicates if program binaries are supported, null if not yet read
+	 */
+	private Boolean binarySupported;
+
+	/**
+	 * Number of programs loaded from disk since last invalidation
+	 */
+	private int loadedCount;
+
+	/**
+	 * Number of programs compiled since last invalidation
+	 */
+	private int compiledCount;
+
+	/**
+	 * Private constructor
+	 */
+	private GlProgramCache(){
+		//android.util.Log.d(TAG,"NEW");
+	}
+
+	/**
+	 * Get the singleton instance
+	 */
+	public static GlProgramCache getInstance(){
+		return instance;
+	}
+
+	/**
+	 * Set the directory where program binaries are stored
+	 *
+	 * @param directory The binaries directory, null to disable disk storage
+	 */
+	public void setDirectory(final File directory){
+		//android.util.Log.d(TAG,"setDirectory("+directory+")");
+		this.directory = directory;
+	}
+
+	/**
+	 * Get the directory where program binaries are stored
+	 *
+	 * @return The binaries directory, null if disk storage is disabled
+	 */
+	public File getDirectory(){
+		return this.directory;
+	}
+
+	/**
+	 * Get a program from shaders inputstreams, the program is linked (or loaded from disk)
+	 * at first call and shared by next calls, each call must be balanced by a call to release()
+	 *
+	 * @param vertexShaderInputStream The vertex shader inputstream
+	 * @param fragmentShaderInputStream The fragment shader inputstream
+	 * @param header The source code to insert before shaders code, null for none
+	 * @return The linked program
+	 * @throws GLException
+	 */
+	public GlProgram getProgram(final InputStream vertexShaderInputStream, final InputStream fragmentShaderInputStream, final String header){
+		return this.getProgram(GlProgram.readSource(vertexShaderInputStream, header), GlProgram.readSource(fragmentShaderInputStream, header));
+	}
+
+	/**
+	 * Get a program from shaders source code, the program is linked (or loaded from disk)
+	 * at first call and shared by next calls, each call must be balanced by a call to release()
+	 *
+	 * @param vertexShaderSource The vertex shader source code
+	 * @param fragmentShaderSource The fragment shader source code
+	 * @return The linked program
+	 * @throws GLException
+	 */
+	public GlProgram getProgram(final String vertexShaderSource, final String fragmentShaderSource){
+		//android.util.Log.d(TAG,"getProgram()");
+		final String key = getKey(vertexShaderSource, fragmentShaderSource);
+		Entry entry = this.entries.get(key);
+		if(entry == null){
+			GlProgram program = this.loadProgram(key);
+			if(program == null){
+				program = new GlProgram(vertexShaderSource, fragmentShaderSource);
+				this.compiledCount++;
+				this.storeProgram(key, program);
+			}
+			else{
+				this.loadedCount++;
+			}
+			entry = new Entry(key, program);
+			this.entries.put(key, entry);
+			this.programs.put(program, entry);
+		}
+		entry.refCount++;
+		return entry.program;
+	}
+
+	/**
+	 * Adopt a program linked outside of the cache from shaders source code (by GlProgramCompiler
+	 * for instance), the program is shared by next calls to getProgram(). If a program is already
+	 * cached for these sources, the adopted program is freed and the cached one is returned.
+	 * Each call must be balanced by a call to release()
+	 *
+	 * @param vertexShaderSource The vertex shader source code
+	 * @param fragmentShaderSource The fragment shader source code
+	 * @param program The linked program
+	 * @return The shared program
+	 */
+	public GlProgram adopt(final String vertexShaderSource, final String fragmentShaderSource, final GlProgram program){
+		//android.util.Log.d(TAG,"adopt()");
+		final String key = getKey(vertexShaderSource, fragmentShaderSource);
+		Entry entry = this.entries.get(key);
+		if(entry == null){
+			this.compiledCount++;
+			this.storeProgram(key, program);
+			entry = new Entry(key, program);
+			this.entries.put(key, entry);
+			this.programs.put(program, entry);
+		}
+		else if(entry.program != program){
+			program.free();
+		}
+		entry.refCount++;
+		return entry.program;
+	}
+
+	/**
+	 * Indicates if a program is cached for shaders source code
+	 *
+	 * @param vertexShaderSource The vertex shader source code
+	 * @param fragmentShaderSource The fragment shader source code
+	 * @return true if getProgram() returns a shared program without linking
+	 */
+	public boolean contains(final String vertexShaderSource, final String fragmentShaderSource){
+		return this.entries.containsKey(getKey(vertexShaderSource, fragmentShaderSource));
+	}
+
+	/**
+	 * Release a program obtained by getProgram(), the program is freed when
+	 * no more used
+	 *
+	 * @param program The program to release
+	 */
+	public void release(final GlProgram program){
+		//android.util.Log.d(TAG,"release()");
+		final Entry entry = this.programs.get(program);
+		if(entry == null){
+			program.free();
+		}
+		else if(--entry.refCount <= 0){
+			this.entries.remove(entry.key);
+			this.programs.remove(program);
+			program.free();
+		}
+	}
+
+	/**
+	 * Invalidate cached programs after a context loss, handles are not freed
+	 * as they belong to the lost context, stored binaries are kept
+	 */
+	public void invalidate(){
+		//android.util.Log.d(TAG,"invalidate()");
+		this.entries.clear();
+		this.programs.clear();
+		this.identity = null;
+		this.binarySupported = null;
+		this.loadedCount = 0;
+		this.compiledCount = 0;
+	}
+
+	/**
+	 * Free all cached programs of current context
+	 */
+	public void free(){
+		//android.util.Log.d(TAG,"free()");
+		for(GlProgram program : this.programs.keySet()){
+			program.free();
+		}
+		this.entries.clear();
+		this.programs.clear();
+	}
+
+	/**
+	 * Delete all stored binaries
+	 */
+	public void clear(){
+		//android.util.Log.d(TAG,"clear()");
+		if(this.directory != null){
+			final File[] files = this.directory.listFiles();
+			if(files != null){
+				for(File file : files){
+					if(file.getName().endsWith(FILE_EXTENSION)){
+						file.delete();
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Get the number of programs loaded from disk since last invalidation
+	 */
+	public int getLoadedCount(){
+		return this.loadedCount;
+	}
+
+	/**
+	 * Get the number of programs compiled since last invalidation
+	 */
+	public int getCompiledCount(){
+		return this.compiledCount;
+	}
+
+	/**
+	 * Get the cache key of shaders sources (64 bits FNV-1a hash in hexadecimal)
+	 *
+	 * @param vertexShaderSource The vertex shader source code
+	 * @param fragmentShaderSource The fragment shader source code
+	 * @return The key
+	 */
+	public static String getKey(final String vertexShaderSource, final String fragmentShaderSource){
+		long hash = FNV_OFFSET;
+		hash = hash(hash, vertexShaderSource);
+		hash = (hash ^ 0xFFFF) * FNV_PRIME;
+		hash = hash(hash, fragmentShaderSource);
+		final String hex = Long.toHexString(hash);
+		return "0000000000000000".substring(hex.length()) + hex;
+	}
+
+	/**
+	 * Write a program binary in a stream
+	 *
+	 * @param outputStream The output stream
+	 * @param identity The GL implementation identity
+	 * @param format The binary format
+	 * @param binary The binary data
+	 * @param length The binary length
+	 * @throws IOException
+	 */
+	public static void writeBinary(final OutputStream outputStream, final String identity, final int format, final byte[] binary, final int length) throws IOException{
+		final DataOutputStream dataOut = new DataOutputStream(outputStream);
+		dataOut.writeInt(MAGIC);
+		dataOut.writeInt(VERSION);
+		dataOut.writeUTF(identity);
+		dataOut.writeInt(format);
+		dataOut.writeInt(length);
+		dataOut.write(binary, 0, length);
+		dataOut.flush();
+	}
+
+	/**
+	 * Read a program binary from a stream
+	 *
+	 * @param inputStream The input stream
+	 * @param identity The GL implementation identity
+	 * @param format Array of length 1 to retrieve the binary format
+	 * @return The binary data, null if the binary is invalid or has been produced by another implementation
+	 * @throws IOException
+	 */
+	public static byte[] readBinary(final InputStream inputStream, final String identity, final int[] format) throws IOException{
+		final DataInputStream dataIn = new DataInputStream(inputStream);
+		if(dataIn.readInt() != MAGIC
+				|| dataIn.readInt() != VERSION
+				|| !dataIn.readUTF().equals(identity)){
+			return null;
+		}
+		format[0] = dataIn.readInt();
+		final int length = dataIn.readInt();
+		if(length <= 0){
+			return null;
+		}
+		final byte[] binary = new byte[length];
+		dataIn.readFully(binary);
+		return binary;
+	}
+
+	/**
+	 * Update a FNV-1a hash with a string
+	 */
+	private static long hash(long hash, final String value){
+		for(int i=0; i < value.length(); i++){
+			final char c = value.charAt(i);
+			hash = (hash ^ (c & 0xFF)) * FNV_PRIME;
+			hash = (hash ^ (c >>> 8)) * FNV_PRIME;
+		}
+		return hash;
+	}
+
+	/**
+	 * Indicates if program binaries can be stored/loaded
+	 */
+	private boolean isBinarySupported(){
+		if(this.directory == null){
+			return false;
+		}
+		if(this.binarySupported == null){
+			final String extensions = GLES20.glGetString(GLES20.GL_EXTENSIONS);
+			this.binarySupported = Boolean.valueOf(extensions != null && extensions.contains(PROGRAM_BINARY_EXTENSION));
+			this.identity = GLES20.glGetString(GLES20.GL_RENDERER) + "|" + GLES20.glGetString(GLES20.GL_VERSION);
+		}
+		return this.binarySupported.booleanValue();
+	}
+
+	/**
+	 * Load a program from its stored binary
+	 *
+	 * @return The program, null if no valid binary is stored
+	 */
+	private GlProgram loadProgram(final String key){
+		if(!this.isBinarySupported()){
+			return null;
+		}
+		final File file = new File(this.directory, key + FILE_EXTENSION);
+		if(!file.exists()){
+			return null;
+		}
+		//android.util.Log.d(TAG,"loadProgram("+key+")");
+		final int[] format = new int[1];
+		byte[] binary = null;
+		InputStream in = null;
+		try{
+			in = new BufferedInputStream(new FileInputStream(file));
+			binary = readBinary(in, this.identity, format);
+		}catch(IOException ioe){
+			binary = null;
+		}finally{
+			if(in != null){
+				try{
+					in.close();
+				}catch(IOException ioe){}
+			}
+		}
+		if(binary != null){
+			final int programHandle = GLES20.glCreateProgram();
+			if(programHandle != GlProgram.UNBIND_HANDLE){
+				if(GLES20Utils.glProgramBinary(programHandle, format[0], binary, binary.length)){
+					return new GlProgram(programHandle);
+				}
+				GLES20.glDeleteProgram(programHandle);
+			}
+		}
+		//Invalid or rejected binary
+		file.delete();
+		return null;
+	}
+
+	/**
+	 * Store the binary of a linked program
+	 */
+	private void storeProgram(final String key, final GlProgram program){
+		if(!this.isBinarySupported()){
+			return;
+		}
+		//android.util.Log.d(TAG,"storeProgram("+key+")");
+		final int length = GLES20Utils.glGetProgramBinaryLength(program.programHandle);
+		if(length <= 0){
+			return;
+		}
+		final byte[] binary = new byte[length];
+		final int[] format = new int[1];
+		final int binaryLength = GLES20Utils.glGetProgramBinary(program.programHandle, binary, format);
+		if(binaryLength <= 0){
+			return;
+		}
+		final File file = new File(this.directory, key + FILE_EXTENSION);
+		OutputStream out = null;
+		try{
+			this.directory.mkdirs();
+			out = new BufferedOutputStream(new FileOutputStream(file));
+			writeBinary(out, this.identity, format[0], binary, binaryLength);
+		}catch(IOException ioe){
+			file.delete();
+		}finally{
+			if(out != null){
+				try{
+					out.close();
+				}catch(IOException ioe){}
+			}
+		}
+	}
+
+	/**
+	 * Cache entry
+	 */
+	private static class Entry{
+
+		/**
+		 * Program key
+		 */
+		final String key;
+
+		/**
+		 * Shared program
+		 */
+		final GlProgram program;
+
+		/**
+		 * Number of users
+		 */
+		int refCount;
+
+		/**
+		 * Constructor
+		 */
+		Entry(final String key, final GlProgram program){
+			this.key = key;
+			this.program = program;
+		}
+	}
+}
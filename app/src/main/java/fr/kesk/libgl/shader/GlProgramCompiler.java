@@ -0,0 +1,410 @@
+package fr.kesk.libgl.shader;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import android.opengl.GLES20;
+
+/**
+ * Background programs compiler :
+ *	<ul>
+ * 	<li>programs are compiled and linked in a worker thread using a secondary context
+ * 		sharing objects with the render context (see ContextFactory)</li>
+ * 	<li>ready programs are handed off to the render thread through a lock-free queue
+ * 		and published by publish() which must be called by the render thread (once per frame)</li>
+ * 	<li>if the secondary context cannot be created, programs are compiled by publish()
+ * 		in the render thread</li>
+ *	</ul>
+ * The worker thread and its context are only created at first submit().
+ * <br/>
+ * <br/>
+ * ! Warning : submit(), publish(), start() and stop() must be called from GL Thread
+ *
+ * 	@author Thomas MILLET
+ *
+ */
+public class GlProgramCompiler {
+
+	/**
+	 * TAG log
+	 */
+	@SuppressWarnings("unused")
+	private final static String TAG = GlProgramCompiler.class.getName();
+
+	/**
+	 * Name of worker thread
+	 */
+	private static final String THREAD_NAME = "GlProgramCompiler";
+
+	/**
+	 * Factory of contexts used by the worker thread
+	 */
+	private ContextFactory contextFactory;
+
+	/**
+	 * Current worker, null if not started
+	 */
+	private Worker worker;
+
+	/**
+	 * Number of submitted requests not yet published
+	 */
+	private int pendingCount;
+
+	/**
+	 * Start the compiler, the worker thread is created at first submit()
+	 *
+	 * @param contextFactory The factory of secondary contexts, null to compile in render thread
+	 */
+	public void start(final ContextFactory contextFactory){
+		//android.util.Log.d(TAG,"start()");
+		this.stop();
+		this.contextFactory = contextFactory;
+	}
+
+	/**
+	 * Stop the compiler, the worker thread is stopped and its context destroyed,
+	 * requests not yet published are cancelled (requests not yet compiled are
+	 * dropped, programs compiled but not published are freed)
+	 */
+	public void stop(){
+		//android.util.Log.d(TAG,"stop()");
+		final Worker worker = this.worker;
+		this.worker = null;
+		this.contextFactory = null;
+		if(worker != null){
+			//Cancel requests not yet compiled, worker only finishes its current request
+			Request request;
+			while((request = worker.pendingRequests.poll()) != null){
+				request.state = Request.CANCELLED;
+			}
+			worker.pendingRequests.offer(Worker.STOP);
+			boolean interrupted = false;
+			while(worker.isAlive()){
+				try{
+					worker.join();
+				}catch(InterruptedException ie){
+					interrupted = true;
+				}
+			}
+			if(interrupted){
+				Thread.currentThread().interrupt();
+			}
+			//Programs are shared with the render context
+			while((request = worker.doneRequests.poll()) != null){
+				if(request.program != null){
+					request.program.free();
+					request.program = null;
+				}
+				request.state = Request.CANCELLED;
+			}
+		}
+		this.pendingCount = 0;
+	}
+
+	/**
+	 * Submit a program compilation
+	 *
+	 * @param vertexShaderSource The vertex shader source code
+	 * @param fragmentShaderSource The fragment shader source code
+	 * @param callback The callback invoked in render thread once program is ready, can be null
+	 * @return The request to follow compilation
+	 */
+	public Request submit(final String vertexShaderSource, final String fragmentShaderSource, final Callback callback){
+		//android.util.Log.d(TAG,"submit()");
+		if(this.worker == null){
+			this.worker = new Worker(this, this.contextFactory);
+			this.worker.start();
+		}
+		final Request request = new Request(vertexShaderSource, fragmentShaderSource, callback);
+		this.pendingCount++;
+		this.worker.pendingRequests.offer(request);
+		return request;
+	}
+
+	/**
+	 * Publish ready programs to render thread, callbacks of ready requests are invoked
+	 *
+	 * @return The number of published requests
+	 */
+	public int publish(){
+		if(this.worker == null){
+			return 0;
+		}
+		int count = 0;
+		Request request;
+		while((request = this.worker.doneRequests.poll()) != null){
+			if(request.program == null && request.error == null){
+				//No secondary context, compile in render thread
+				try{
+					request.program = this.createProgram(request.vertexShaderSource, request.fragmentShaderSource);
+				}catch(RuntimeException re){
+					request.error = re;
+				}
+			}
+			request.state = (request.error == null) ? Request.READY : Request.FAILED;
+			this.pendingCount--;
+			count++;
+			if(request.callback != null){
+				request.callback.onProgramReady(request);
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Get the number of submitted requests not yet published
+	 */
+	public int getPendingCount(){
+		return this.pendingCount;
+	}
+
+	/**
+	 * Indicates if programs are compiled in a secondary context
+	 *
+	 * @return true if the worker thread owns a context, false if not started or
+	 * if programs are compiled in render thread
+	 */
+	public boolean isParallel(){
+		return this.worker != null && this.worker.context != null;
+	}
+
+	/**
+	 * Compile and link a program in current context, called by the worker thread
+	 * (or render thread as fallback), the program must be completed before returning
+	 *
+	 * @param vertexShaderSource The vertex shader source code
+	 * @param fragmentShaderSource The fragment shader source code
+	 * @return The linked program
+	 */
+	protected GlProgram createProgram(final String vertexShaderSource, final String fragmentShaderSource){
+		final GlProgram program = new GlProgram(vertexShaderSource, fragmentShaderSource);
+		GLES20.glFinish();
+		return program;
+	}
+
+	/**
+	 * Factory of secondary contexts sharing objects with the render context
+	 */
+	public static interface ContextFactory{
+
+		/**
+		 * Create a secondary context, called in worker thread
+		 *
+		 * @return The context
+		 * @throws RuntimeException if the context cannot be created
+		 */
+		public Context createContext();
+	}
+
+	/**
+	 * Secondary context
+	 */
+	public static interface Context{
+
+		/**
+		 * Make the context current in calling thread
+		 */
+		public void makeCurrent();
+
+		/**
+		 * Release and destroy the context
+		 */
+		public void destroy();
+	}
+
+	/**
+	 * Callback of ready programs
+	 */
+	public static interface Callback{
+
+		/**
+		 * Called in render thread when a requested program is ready or failed
+		 *
+		 * @param request The request, see getState()
+		 */
+		public void onProgramReady(final Request request);
+	}
+
+	/**
+	 * Compilation request
+	 */
+	public static class Request{
+
+		/**
+		 * Request state : not yet published
+		 */
+		public static final int PENDING = 0;
+
+		/**
+		 * Request state : program is ready
+		 */
+		public static final int READY = 1;
+
+		/**
+		 * Request state : compilation failed, see getError()
+		 */
+		public static final int FAILED = 2;
+
+		/**
+		 * Request state : cancelled by stop()
+		 */
+		public static final int CANCELLED = 3;
+
+		/**
+		 * The vertex shader source code
+		 */
+		public final String vertexShaderSource;
+
+		/**
+		 * The fragment shader source code
+		 */
+		public final String fragmentShaderSource;
+
+		/**
+		 * The callback, null for none
+		 */
+		private final Callback callback;
+
+		/**
+		 * The linked program (set by worker)
+		 */
+		private GlProgram program;
+
+		/**
+		 * The compilation error (set by worker)
+		 */
+		private RuntimeException error;
+
+		/**
+		 * The state seen by render thread
+		 */
+		private int state = PENDING;
+
+		/**
+		 * Constructor
+		 */
+		private Request(final String vertexShaderSource, final String fragmentShaderSource, final Callback callback){
+			this.vertexShaderSource = vertexShaderSource;
+			this.fragmentShaderSource = fragmentShaderSource;
+			this.callback = callback;
+		}
+
+		/**
+		 * Get the state of request in render thread
+		 *
+		 * @return PENDING, READY, FAILED or CANCELLED
+		 */
+		public int getState(){
+			return this.state;
+		}
+
+		/**
+		 * Get the linked program
+		 *
+		 * @return The program if READY, null otherwise
+		 */
+		public GlProgram getProgram(){
+			return (this.state == READY) ? this.program : null;
+		}
+
+		/**
+		 * Get the compilation error
+		 *
+		 * @return The error if FAILED, null otherwise
+		 */
+		public RuntimeException getError(){
+			return (this.state == FAILED) ? this.error : null;
+		}
+	}
+
+	/**
+	 * Worker thread owning the secondary context
+	 */
+	private static class Worker extends Thread{
+
+		/**
+		 * Request used to stop the worker
+		 */
+		static final Request STOP = new Request(null, null, null);
+
+		/**
+		 * The owning compiler
+		 */
+		private final GlProgramCompiler compiler;
+
+		/**
+		 * The contexts factory, null for none
+		 */
+		private final ContextFactory contextFactory;
+
+		/**
+		 * Requests to compile
+		 */
+		final LinkedBlockingQueue<Request> pendingRequests = new LinkedBlockingQueue<Request>();
+
+		/**
+		 * Requests handed off to render thread
+		 */
+		final ConcurrentLinkedQueue<Request> doneRequests = new ConcurrentLinkedQueue<Request>();
+
+		/**
+		 * The secondary context, null if not available
+		 */
+		volatile Context context;
+
+		/**
+		 * Constructor
+		 */
+		Worker(final GlProgramCompiler compiler, final ContextFactory contextFactory){
+			super(THREAD_NAME);
+			this.compiler = compiler;
+			this.contextFactory = contextFactory;
+			this.setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			//android.util.Log.d(TAG,"run()");
+			Context context = null;
+			if(this.contextFactory != null){
+				try{
+					context = this.contextFactory.createContext();
+					context.makeCurrent();
+				}catch(RuntimeException re){
+					//android.util.Log.w(TAG,"No secondary context : "+re.getMessage());
+					if(context != null){
+						context.destroy();
+					}
+					context = null;
+				}
+			}
+			this.context = context;
+			try{
+				while(true){
+					final Request request;
+					try{
+						request = this.pendingRequests.take();
+					}catch(InterruptedException ie){
+						break;
+					}
+					if(request == STOP){
+						break;
+					}
+					if(context != null){
+						try{
+							request.program = this.compiler.createProgram(request.vertexShaderSource, request.fragmentShaderSource);
+						}catch(RuntimeException re){
+							request.error = re;
+						}
+					}
+					this.doneRequests.offer(request);
+				}
+			}finally{
+				if(context != null){
+					context.destroy();
+				}
+			}
+		}
+	}
+}
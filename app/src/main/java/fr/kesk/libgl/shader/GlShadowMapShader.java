@@ -8,7 +8,6 @@ import android.annotation.SuppressLint;
 import android.opengl.GLES20;
 import android.opengl.GLException;
 import android.opengl.Matrix;
-import fr.kesk.libgl.GlAssets;
 import fr.kesk.libgl.GlContext;
 import fr.kesk.libgl.GlAssets.Camera;
 import fr.kesk.libgl.GlAssets.Geometry.Element;
@@ -19,10 +18,15 @@ import fr.kesk.libgl.buffer.GlBuffer;
 import fr.kesk.libgl.buffer.GlFrameBufferObject;
 import fr.kesk.libgl.buffer.GlRenderBufferObject;
 import fr.kesk.libgl.buffer.GlFrameBufferObject.Attachment;
+import fr.kesk.libgl.pipeline.GlState;
+import fr.kesk.libgl.pipeline.GlVertexLayouts;
 import fr.kesk.libgl.texture.GlTexture;
 import fr.kesk.libgl.texture.GlTextureSet;
-import fr.kesk.libgl.tools.GLES20Utils;
+import fr.kesk.libgl.tools.Frustum;
+import fr.kesk.libgl.tools.InstanceUtils;
 import fr.kesk.libgl.tools.MatrixUtils;
+import fr.kesk.libgl.tools.ShadowUtils;
+import fr.kesk.libgl.tools.InstanceUtils.InstanceGroup;
 
 /**
  * Shader used to generate simple ShadowMap texture for reuse
@@ -35,8 +39,29 @@ import fr.kesk.libgl.tools.MatrixUtils;
  * Basic shadow map offers a good compromise, a slot is available in texture for 
  * additional treatments (blur, bloom ...)
  * <br/>
+ * <br/>
+ * This class is the common shadow rendering engine, the depth encoding is set at construction 
+ * (ENCODING_PACKED, ENCODING_VSM or ENCODING_DEPTH based on OES_depth_texture, falling back to 
+ * ENCODING_PACKED if not supported). Custom encodings can be added using new Encoding instances.
+ * <br/>
+ * <br/>
+ * If caching is enabled (see setCaching()), a shadow map is only rendered again when the light 
+ * matrices or the casters models change, using one shadow map per light (see setShadowMap()) 
+ * keeps each map cached.
+ * <br/>
  * These assets must be used in rendering shader to add shadows, see
  * fr.kesk.libgl.shader.gsgl.map.shadowmap.fgt for shader samples. 
+ * <br/>
+ * <br/>
+ * If nodes bounds are up to date (see BoundsUtils.updateBounds()), casters outside the light
+ * frustum are culled and the light projection can be fitted to the casters bounds and to the
+ * view frustum (see setFitting() and setViewFrustum()) to improve texels usage.
+ * <br/>
+ * <br/>
+ * For directional lights, cascaded shadow maps can be enabled using setCascades() : the
+ * view frustum is split in up to 4 parts, each one is rendered with its own fitted projection
+ * in a tile of a square atlas texture. Cascades matrices and far distances are stored in 
+ * cascadeMatrices and cascadeSplits of the shadow map.
  *
  * @author Thomas MILLET
  *
@@ -50,14 +75,54 @@ public class GlShadowMapShader implements GlShader {
 	private final static String TAG = GlShadowMapShader.class.getName();
 	
 	/**
-	 * Location of ShadowMap vertex shader
+	 * Ids of attributes and uniforms (see GlProgram.getId())
+	 */
+	private final static int U_MVP_MATRIX_MAT4 = GlProgram.getId("u_mvpMatrixMat4");
+	private final static int U_VP_MATRIX_MAT4 = GlProgram.getId("u_vpMatrixMat4");
+	private final static int U_MODEL_MATRIX_ARRAY_MAT4 = GlProgram.getId("u_modelMatrixArrayMat4");
+	private final static int A_POSITION_VEC4 = GlProgram.getId("a_PositionVec4");
+	private final static int A_INSTANCE_FLOAT = GlProgram.getId("a_InstanceFloat");
+	
+	/**
+	 * Packed RGBA depth encoding in [vec3PackX,vec3PackY,vec3PackZ, 0]
 	 */
-	private final static String VERTEX_SHADER = "/fr/kesk/libgl/shader/gsgl/map/shadowmap.vtx";
+	public static final Encoding ENCODING_PACKED = new Encoding("/fr/kesk/libgl/shader/gsgl/map/shadowmap.vtx", 
+			"/fr/kesk/libgl/shader/gsgl/map/shadowmap.fgt", GLES20.GL_RGBA, GLES20.GL_UNSIGNED_SHORT_4_4_4_4, 
+			GlTexture.SIZEOF_UNSIGNED_SHORT_4_4_4_4, false, null);
 	
 	/**
-	 * Location of ShadowMap fragment shader
+	 * VSM moments encoding in [depth, depth*depth, 0, 0]
 	 */
-	private final static String FRAGMENT_SHADER = "/fr/kesk/libgl/shader/gsgl/map/shadowmap.fgt";
+	public static final Encoding ENCODING_VSM = new Encoding("/fr/kesk/libgl/shader/gsgl/map/vsm_shadowmap.vtx", 
+			"/fr/kesk/libgl/shader/gsgl/map/vsm_shadowmap.fgt", GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, 
+			GlTexture.SIZEOF_UNSIGNED_BYTE, false, null);
+	
+	/**
+	 * Native depth texture encoding (OES_depth_texture)
+	 */
+	public static final Encoding ENCODING_DEPTH = new Encoding("/fr/kesk/libgl/shader/gsgl/map/shadowmap.vtx", 
+			"/fr/kesk/libgl/shader/gsgl/map/depth_shadowmap.fgt", GLES20.GL_DEPTH_COMPONENT, GLES20.GL_UNSIGNED_SHORT, 
+			2, true, "GL_OES_depth_texture");
+	
+	/**
+	 * Location of instanced ShadowMap vertex shader
+	 */
+	private final static String INSTANCED_VERTEX_SHADER = "/fr/kesk/libgl/shader/gsgl/map/shadowmap_instanced.vtx";
+	
+	/**
+	 * Number of uniform vectors used by the instanced vertex shader outside models array
+	 */
+	private final static int INSTANCED_RESERVED_VECTORS = 4;
+	
+	/**
+	 * Minimum near plane of fitted perspective projections
+	 */
+	private final static float FITTING_MIN_NEAR = 0.1f;
+	
+	/**
+	 * Maximum number of cascades
+	 */
+	public static final int MAX_CASCADES = 4;
 	
 	/**
 	 * VERY_LOW quality settings
@@ -88,17 +153,42 @@ public class GlShadowMapShader implements GlShader {
 	 * Texture border size matching quality
 	 */
 	private int quality = QUALITY_MEDIUM;
-	 
+	
 	/**
-	 * Handle on light MVP matrix in shader
+	 * The depth encoding
 	 */
-	private int u_lightMvpMatrixMat4Handle;
+	private Encoding encoding;
 	
+	/**
+	 * Indicates if shadow maps are cached
+	 */
+	private boolean caching = false;
+	 
 	/**
 	 * Handle on position in shader
 	 */
 	private int a_PositionVec4Handle;
 	
+	/**
+	 * Handle on models array in instanced shader
+	 */
+	private int u_modelMatrixArrayMat4Handle;
+	
+	/**
+	 * Handle on position in instanced shader
+	 */
+	private int a_InstancedPositionVec4Handle;
+	
+	/**
+	 * Handle on instance index in instanced shader
+	 */
+	private int a_InstanceFloatHandle;
+	
+	/**
+	 * Number of instances per batch in instanced shader
+	 */
+	private int batchSize;
+	
 	/**
 	 * The bound FBO
 	 */
@@ -114,6 +204,16 @@ public class GlShadowMapShader implements GlShader {
 	 */
 	private GlProgram program;
 	
+	/**
+	 * Attributes layouts of casters Elements for program
+	 */
+	private GlVertexLayouts vertexLayouts;
+	
+	/**
+	 * The associated program for instanced shadow generation (compiled on first use)
+	 */
+	private GlProgram instancedProgram;
+	
 	/**
 	 * Stores the V, P and MVP matrixes based on light view
 	 */
@@ -127,12 +227,12 @@ public class GlShadowMapShader implements GlShader {
 	/**
 	 * Stores the original view port for restoration
 	 */
-	public float[] viewPort;
+	public final int[] viewPort = new int[4];
 	
 	/**
 	 * Stores the original cull face mode
 	 */
-	public float[] cullfaceMode;
+	public int cullfaceMode;
 	
 	/**
 	 * The bias matrix for shadow matrix generation
@@ -152,6 +252,103 @@ public class GlShadowMapShader implements GlShader {
 	 */
 	public int lightType;
 	
+	/**
+	 * The light frustum used for casters culling
+	 */
+	public final Frustum lightFrustum = new Frustum();
+	
+	/**
+	 * Indicates if casters outside the light frustum are culled
+	 */
+	public boolean cullCasters = true;
+	
+	/**
+	 * Indicates if the light projection is fitted to casters bounds
+	 */
+	private boolean fitting = false;
+	
+	/**
+	 * Indicates if the light projection is fitted to the view frustum
+	 */
+	private boolean fittingView = false;
+	
+	/**
+	 * The view frustum world corners used for fitting
+	 */
+	private final float[] viewCorners = new float[ShadowUtils.CORNERS_SIZE];
+	
+	/**
+	 * The light field of view in Y for perspective projections, 0 for orthographic
+	 */
+	private float lightFovy = 0f;
+	
+	/**
+	 * The number of cascades
+	 */
+	private int cascades = 1;
+	
+	/**
+	 * The number of tiles per side in atlas
+	 */
+	private int tiles = 1;
+	
+	/**
+	 * The cascades split scheme factor
+	 */
+	private float cascadesLambda = 0.5f;
+	
+	/**
+	 * The view near and far distances
+	 */
+	private final float[] viewDepthRange = new float[2];
+	
+	/**
+	 * The cascades splits distances
+	 */
+	private final float[] splits = new float[MAX_CASCADES + 1];
+	
+	/**
+	 * The current cascade world corners
+	 */
+	private final float[] cascadeCorners = new float[ShadowUtils.CORNERS_SIZE];
+	
+	/**
+	 * The current cascade atlas matrix
+	 */
+	private final float[] atlasMatrix = new float[16];
+	
+	/**
+	 * The VP matrices of cascades
+	 */
+	private final float[] cascadeVpMatrices = new float[MAX_CASCADES << 4];
+	
+	/**
+	 * Casters state of the current rendering used for caching (see collectCasters())
+	 */
+	private float[] casters = new float[64];
+	
+	/**
+	 * Number of floats used in casters
+	 */
+	private int castersSize;
+	
+	/**
+	 * Default constructor using ENCODING_PACKED
+	 */
+	public GlShadowMapShader(){
+		this(ENCODING_PACKED);
+	}
+	
+	/**
+	 * Constructor with specified encoding
+	 * 
+	 * @param encoding The depth encoding (ENCODING_PACKED, ENCODING_VSM, ENCODING_DEPTH ...)
+	 */
+	public GlShadowMapShader(final Encoding encoding){
+		//android.util.Log.d(TAG,"NEW");
+		this.encoding = encoding;
+	}
+	
 	/* (non-Javadoc)
 	 * @see fr.kesk.libgl.shader.GlShader#compile()
 	 */
@@ -161,18 +358,21 @@ public class GlShadowMapShader implements GlShader {
 		//android.util.Log.d(TAG,"initialize()");
 		//Build program if needed
 		if(this.program == null){
+			if(!this.encoding.isSupported()){
+				this.encoding = ENCODING_PACKED;
+			}
 			InputStream vertIn = null;
 			InputStream fragIn = null;
 			try{
-				vertIn = this.getClass().getResourceAsStream(VERTEX_SHADER);
-				fragIn = this.getClass().getResourceAsStream(FRAGMENT_SHADER);
-				this.program = new GlProgram(vertIn, fragIn);
+				vertIn = this.getClass().getResourceAsStream(this.encoding.vertexShader);
+				fragIn = this.getClass().getResourceAsStream(this.encoding.fragmentShader);
+				this.program = GlProgramCache.getInstance().getProgram(vertIn, fragIn, null);
 				this.program.start();
 				
-				//Context
-				this.u_lightMvpMatrixMat4Handle = this.program.getUniformHandle("u_mvpMatrixMat4");
 				//Attributes
-				this.a_PositionVec4Handle = this.program.getAttributeHandle("a_PositionVec4");
+				this.a_PositionVec4Handle = this.program.getAttributeHandle(A_POSITION_VEC4);
+				this.vertexLayouts = new GlVertexLayouts();
+				this.vertexLayouts.setAttribute(Element.POSITION, this.a_PositionVec4Handle);
 				
 			}finally{
 				if(vertIn != null){
@@ -198,8 +398,10 @@ public class GlShadowMapShader implements GlShader {
 			this.fbo = new GlFrameBufferObject();
 			
 			//Build shadow map		
-			this.fbo.attach(this.currentShadowMap, Attachment.TYPE_COLOR);
-			this.fbo.attach(new GlRenderBufferObject(GLES20.GL_DEPTH_COMPONENT16, this.quality, this.quality), Attachment.TYPE_DEPTH);
+			if(!this.encoding.depthTexture){
+				this.fbo.attach(new GlRenderBufferObject(GLES20.GL_DEPTH_COMPONENT16, this.quality * this.tiles, this.quality * this.tiles), Attachment.TYPE_DEPTH);
+			}
+			this.attachShadowMap();
 			
 			if(this.fbo.getStatus() != GlFrameBufferObject.STATUS_COMPLETE){
 				throw new GLException(0, "Failed to initialize FBO (status "+this.fbo.getStatus()+")");
@@ -208,6 +410,7 @@ public class GlShadowMapShader implements GlShader {
 		
 		//Setup a default camera
 		Matrix.orthoM(lightMvpCache, 16, -10, 10, -10, 10, 0.1f, 100f);
+		this.lightFovy = 0f;
 		
 		//Default Light
 		this.lightType = Light.DIRECTIONAL;
@@ -217,12 +420,19 @@ public class GlShadowMapShader implements GlShader {
 		this.lightModel[6] = -1f;		
 	}	
 	
-	/* (non-Javadoc)
-	 * @see fr.kesk.libgl.shader.GlShader#setQuality(int)
+	/**
+	 * Set the size of shadow maps (QUALITY_*), must be called before compile() as the FBO
+	 * and shadow maps are allocated at this size
+	 * 
+	 * @param quality The shadow map size (QUALITY_*)
+	 * @throws IllegalStateException if called with another size after compile()
 	 */
 	@Override
 	public void setQuality(final int quality) {
 		//android.util.Log.d(TAG,"setQuality("+quality+")");
+		if(this.fbo != null && quality != this.quality){
+			throw new IllegalStateException("shadow map quality must be set before compile()");
+		}
 		this.quality = quality;
 	}
 	
@@ -281,13 +491,96 @@ public class GlShadowMapShader implements GlShader {
 	public void setCamera(final Node cameraNodeInstance, final  int cameraIndex){
 		//android.util.Log.d(TAG,"setCamera("+cameraNodeInstance.id+","+cameraIndex+")");
 		if(cameraNodeInstance.cameraInstances[cameraIndex].type == Camera.ORTHOGRAPHIC){
+			this.lightFovy = 0f;
 			Matrix.orthoM(lightMvpCache, 16, -cameraNodeInstance.cameraInstances[cameraIndex].settings[Camera.XMAG], cameraNodeInstance.cameraInstances[cameraIndex].settings[Camera.XMAG], -cameraNodeInstance.cameraInstances[cameraIndex].settings[Camera.YMAG], cameraNodeInstance.cameraInstances[cameraIndex].settings[Camera.YMAG], cameraNodeInstance.cameraInstances[cameraIndex].settings[Camera.ZNEAR], cameraNodeInstance.cameraInstances[cameraIndex].settings[Camera.ZFAR]);
 		}
 		else{
+			this.lightFovy = cameraNodeInstance.cameraInstances[cameraIndex].settings[Camera.YFOV];
 			MatrixUtils.perspectiveM(this.lightMvpCache, 16, cameraNodeInstance.cameraInstances[cameraIndex].settings[Camera.YFOV], 1, cameraNodeInstance.cameraInstances[cameraIndex].settings[Camera.ZNEAR], cameraNodeInstance.cameraInstances[cameraIndex].settings[Camera.ZFAR]);
 		}
 	}
 
+	/**
+	 * Enables shadow maps caching, a shadow map is rendered again only if light matrices
+	 * or casters models have changed since its last rendering (see GlShadowMapTexture.invalidate())
+	 * 
+	 * @param caching true to enable caching
+	 */
+	public void setCaching(final boolean caching){
+		//android.util.Log.d(TAG,"setCaching("+caching+")");
+		this.caching = caching;
+	}
+	
+	/**
+	 * Get the depth encoding in use
+	 * 
+	 * @return The depth encoding
+	 */
+	public Encoding getEncoding(){
+		return this.encoding;
+	}
+	
+	/**
+	 * Enables the fitting of the light projection to the bounds of the casters (root node 
+	 * tree bounds) at each rendering, projection set by setCamera() is used if bounds are
+	 * unknown. Only near and far planes are fitted for perspective projections.
+	 * 
+	 * @param fitting true to enable fitting
+	 */
+	public void setFitting(final boolean fitting){
+		//android.util.Log.d(TAG,"setFitting("+fitting+")");
+		this.fitting = fitting;
+	}
+	
+	/**
+	 * Enables cascaded shadow maps for directional lights, must be called before compile()
+	 * (only the count and lambda can be changed later if the atlas tiles are the same).
+	 * Cascades are used only if fitting is enabled and the view frustum is set, each cascade
+	 * is rendered at quality size in a tile of the atlas.
+	 * 
+	 * @param count The number of cascades (1 to disable, MAX_CASCADES at most)
+	 * @param lambda The split scheme factor in [0,1], 1 for logarithmic, 0 for uniform
+	 * @throws IllegalStateException if the atlas size changes after compile()
+	 */
+	public void setCascades(final int count, final float lambda){
+		//android.util.Log.d(TAG,"setCascades("+count+", "+lambda+")");
+		final int cascades = Math.max(1, Math.min(MAX_CASCADES, count));
+		final int tiles = (int)Math.ceil(Math.sqrt(cascades));
+		if(this.fbo != null && tiles != this.tiles){
+			throw new IllegalStateException("cascades atlas must be set before compile()");
+		}
+		this.cascades = cascades;
+		this.tiles = tiles;
+		this.cascadesLambda = lambda;
+	}
+	
+	/**
+	 * Set the view frustum used to fit orthographic light projection to the visible part 
+	 * of the scene, must be called when the view changes
+	 * 
+	 * @param pMatrix The view projection matrix, null to disable view fitting
+	 * @param vMatrix The view matrix
+	 */
+	public void setViewFrustum(final float[] pMatrix, final float[] vMatrix){
+		//android.util.Log.d(TAG,"setViewFrustum()");
+		if(pMatrix == null){
+			this.fittingView = false;
+			return;
+		}
+		MatrixUtils.multiplyMM(this.lightMvpCache, 48, pMatrix, 0, vMatrix, 0);
+		this.fittingView = ShadowUtils.getFrustumCorners(this.viewCorners, 0, this.lightMvpCache, 48);
+		ShadowUtils.getDepthRange(this.viewDepthRange, 0, pMatrix, 0);
+	}
+	
+	/**
+	 * Set the view frustum from context matrices (see setViewFrustum(float[], float[]))
+	 * 
+	 * @param glContext The GL context
+	 */
+	public void setViewFrustum(final GlContext glContext){
+		this.setViewFrustum(glContext.pMatrix, glContext.vMatrix);
+	}
+	
 	/**
 	 * Get the current generated shadow map in a GlVSMShadowMapTexture instance
 	 * 
@@ -315,17 +608,70 @@ public class GlShadowMapShader implements GlShader {
 	 */
 	public GlShadowMapTexture newShadowMap(){
 		//android.util.Log.d(TAG,"newShadowMap()");
-		this.currentShadowMap = new GlShadowMapTexture(this.shadowTextures.size, this.quality, this.fbo);
+		this.currentShadowMap = this.createShadowMap(this.shadowTextures.size, this.quality * this.tiles, this.fbo);
 		this.shadowTextures.put(this.currentShadowMap);
+		if(this.fbo != null){
+			this.attachShadowMap();
+			this.fbo.unbind();
+		}
 		return this.currentShadowMap;
 	}
 	
+	/**
+	 * Set the current shadow map used in FBO (one shadow map per light keeps each
+	 * one cached)
+	 * 
+	 * @param shadowMap A shadow map created by newShadowMap()
+	 */
+	public void setShadowMap(final GlShadowMapTexture shadowMap){
+		//android.util.Log.d(TAG,"setShadowMap("+shadowMap.id+")");
+		if(shadowMap != this.currentShadowMap){
+			this.currentShadowMap = shadowMap;
+			if(this.fbo != null){
+				this.attachShadowMap();
+				this.fbo.unbind();
+			}
+		}
+	}
+	
+	/**
+	 * Create a shadow map texture, can be overridden to provide specific textures
+	 * 
+	 * @param id The shadow map ID
+	 * @param size The shadow map size
+	 * @param fbo The FBO owning the shadow map for buffer access
+	 * @return The new shadow map
+	 */
+	protected GlShadowMapTexture createShadowMap(final int id, final int size, final GlFrameBufferObject fbo){
+		return new GlShadowMapTexture(id, size, fbo, this.encoding);
+	}
+	
+	/**
+	 * Attach the current shadow map to the FBO, FBO is left bound
+	 */
+	private void attachShadowMap(){
+		this.currentShadowMap.fbo = this.fbo;
+		this.fbo.attach(this.currentShadowMap, this.encoding.depthTexture ? Attachment.TYPE_DEPTH : Attachment.TYPE_COLOR);
+	}
+	
 	/* (non-Javadoc)
 	 * @see fr.kesk.libgl.shader.GlShader#render(fr.kesk.libgl.GlAssets.Node)
 	 */
 	@Override
 	public void render(Node nodeInstance) {
 		//android.util.Log.d(TAG,"render("+nodeInstance.id+")");
+		this.render(nodeInstance, null);
+	}
+	
+	/**
+	 * Render the shadow map using instances groups built from nodeInstance
+	 * (see InstanceUtils.buildGroups()) instead of recursive drawing.
+	 * 
+	 * @param nodeInstance The node instance used as root node for light settings
+	 * @param instanceGroups The instances groups to draw, null to draw nodeInstance recursively
+	 */
+	public void render(final Node nodeInstance, final InstanceGroup[] instanceGroups) {
+		//android.util.Log.d(TAG,"render("+nodeInstance.id+", "+instanceGroups+")");
 		if(this.lightType == Light.DIRECTIONAL){
 			this.lightModel[4] = this.lightModel[5] = this.lightModel[6] = 0f;
 			this.lightModel[7] = 1f;
@@ -335,31 +681,183 @@ public class GlShadowMapShader implements GlShader {
 			this.lightModel[2] = this.lightModel[6]-this.lightModel[10];
 			this.lightModel[3] = 1f;
 			Matrix.setLookAtM(this.lightMvpCache, 0, this.lightModel[0], this.lightModel[1], this.lightModel[2], this.lightModel[4], this.lightModel[5], this.lightModel[6], 0f, 1f, 0f);
+			if(this.cascades > 1 && this.fitting && this.fittingView && this.lightFovy == 0f){
+				this.renderCascades(nodeInstance, instanceGroups);
+				return;
+			}
+			this.fitProjection(nodeInstance);
 			MatrixUtils.multiplyMM(this.lightMvpCache, 32, this.lightMvpCache, 16, this.lightMvpCache, 0);
-			MatrixUtils.multiplyMM(this.currentShadowMap.shadowMatrix, 0, GlShadowMapShader.BIAS_MATRIX, 0, this.lightMvpCache, 32);
 		}
 		else if(this.lightType == Light.POINT){
 			this.lightModel[4] = this.lightModel[5] = this.lightModel[6] = 0f;
 			this.lightModel[7] = 1f;
 			MatrixUtils.multiplyMV(this.lightModel, 4, nodeInstance.model, 0, this.lightModel, 4);
 			Matrix.setLookAtM(this.lightMvpCache, 0, this.lightModel[0], this.lightModel[1], this.lightModel[2], this.lightModel[4], this.lightModel[5], this.lightModel[6], 0f, 1f, 0f);
+			this.fitProjection(nodeInstance);
 			MatrixUtils.multiplyMM(this.lightMvpCache, 32, this.lightMvpCache, 16, this.lightMvpCache, 0);
-			MatrixUtils.multiplyMM(this.currentShadowMap.shadowMatrix, 0, GlShadowMapShader.BIAS_MATRIX, 0, this.lightMvpCache, 32);
 		}
 		
+		//Skip rendering if cached
+		if(this.caching){
+			this.castersSize = 0;
+			this.collectCasters(nodeInstance);
+		}
+		if(this.caching && this.currentShadowMap.isCached(this.lightMvpCache, 32, 1, this.casters, this.castersSize)){
+			return;
+		}
+		MatrixUtils.multiplyMM(this.currentShadowMap.shadowMatrix, 0, GlShadowMapShader.BIAS_MATRIX, 0, this.lightMvpCache, 32);
+		
+		this.lightFrustum.set(this.lightMvpCache, 32);
+		this.lightFrustum.resetStats();
 
 		//Render the scene in the FBO
+		this.beginPass();
+		this.drawPass(nodeInstance, instanceGroups);
+		this.endPass();
+		this.currentShadowMap.cascades = 1;
+		if(this.caching){
+			this.currentShadowMap.setCached(this.lightMvpCache, 32, 1, this.casters, this.castersSize);
+		}
+	}
+	
+	/**
+	 * Render cascades of a directional light in atlas tiles, light view must be set
+	 * 
+	 * @param nodeInstance The node instance used as root node
+	 * @param instanceGroups The instances groups to draw, null to draw nodeInstance recursively
+	 */
+	private void renderCascades(final Node nodeInstance, final InstanceGroup[] instanceGroups){
+		final float near = this.viewDepthRange[0];
+		final float far = this.viewDepthRange[1];
+		ShadowUtils.computeSplits(this.splits, 0, this.cascades, near, far, this.cascadesLambda);
+		for(int cascade=0; cascade < this.cascades; cascade++){
+			ShadowUtils.getSplitCorners(this.cascadeCorners, 0, this.viewCorners, 0, near, far, this.splits[cascade], this.splits[cascade + 1]);
+			ShadowUtils.fitOrthoM(this.lightMvpCache, 16, this.lightMvpCache, 0, nodeInstance.treeBounds, 0, this.cascadeCorners, 0, this.quality);
+			MatrixUtils.multiplyMM(this.cascadeVpMatrices, cascade << 4, this.lightMvpCache, 16, this.lightMvpCache, 0);
+		}
+		
+		//Skip rendering if cached
+		if(this.caching){
+			this.castersSize = 0;
+			this.collectCasters(nodeInstance);
+		}
+		if(this.caching && this.currentShadowMap.isCached(this.cascadeVpMatrices, 0, this.cascades, this.casters, this.castersSize)){
+			return;
+		}
+		this.lightFrustum.resetStats();
+		
+		//Render the cascades in the FBO
+		this.beginPass();
+		for(int cascade=0; cascade < this.cascades; cascade++){
+			System.arraycopy(this.cascadeVpMatrices, cascade << 4, this.lightMvpCache, 32, 16);
+			this.lightFrustum.set(this.lightMvpCache, 32);
+			
+			//Atlas * bias * VP
+			ShadowUtils.setAtlasM(this.atlasMatrix, 0, cascade, this.tiles);
+			MatrixUtils.multiplyMM(this.currentShadowMap.cascadeMatrices, cascade << 4, GlShadowMapShader.BIAS_MATRIX, 0, this.lightMvpCache, 32);
+			MatrixUtils.multiplyMM(this.currentShadowMap.cascadeMatrices, cascade << 4, this.atlasMatrix, 0, this.currentShadowMap.cascadeMatrices, cascade << 4);
+			this.currentShadowMap.cascadeSplits[cascade] = this.splits[cascade + 1];
+			
+			GlState.setViewport((cascade % this.tiles) * this.quality, (cascade / this.tiles) * this.quality, this.quality, this.quality);
+			this.drawPass(nodeInstance, instanceGroups);
+		}
+		this.endPass();
+		for(int cascade=this.cascades; cascade < MAX_CASCADES; cascade++){
+			this.currentShadowMap.cascadeSplits[cascade] = Float.MAX_VALUE;
+		}
+		System.arraycopy(this.currentShadowMap.cascadeMatrices, 0, this.currentShadowMap.shadowMatrix, 0, 16);
+		this.currentShadowMap.cascades = this.cascades;
+		if(this.caching){
+			this.currentShadowMap.setCached(this.cascadeVpMatrices, 0, this.cascades, this.casters, this.castersSize);
+		}
+	}
+	
+	/**
+	 * Bind the FBO and set GL states for shadow map rendering
+	 */
+	private void beginPass(){
 		this.fbo.bind();
-		this.program.start();
-		this.cullfaceMode = GlContext.glGetState(GLES20.GL_CULL_FACE_MODE);
-		this.viewPort = GlContext.glGetState(GLES20.GL_VIEWPORT);
-		GLES20.glCullFace(GLES20.GL_FRONT);
-		GLES20.glViewport(0, 0, this.quality, this.quality);
+		this.cullfaceMode = GlState.getCullFace();
+		GlState.getViewport(this.viewPort, 0);
+		GlState.setCullFace(GLES20.GL_FRONT);
+		GlState.setViewport(0, 0, this.currentShadowMap.size, this.currentShadowMap.size);
 		GLES20.glClear(GLES20.GL_DEPTH_BUFFER_BIT | GLES20.GL_COLOR_BUFFER_BIT);
-		this.drawNode(nodeInstance);
+	}
+	
+	/**
+	 * Draw casters using recursive drawing or instances groups
+	 * 
+	 * @param nodeInstance The node instance used as root node
+	 * @param instanceGroups The instances groups to draw, null to draw nodeInstance recursively
+	 */
+	private void drawPass(final Node nodeInstance, final InstanceGroup[] instanceGroups){
+		if(instanceGroups == null){
+			this.program.start();
+			this.drawNode(nodeInstance);
+			this.vertexLayouts.unbind();
+		}
+		else{
+			this.drawInstances(instanceGroups);
+		}
+	}
+	
+	/**
+	 * Unbind the FBO and restore GL states
+	 */
+	private void endPass(){
 		this.fbo.unbind();
-		GLES20.glCullFace((int)this.cullfaceMode[0]);
-		GLES20.glViewport((int)this.viewPort[0],(int)this.viewPort[1],(int)this.viewPort[2],(int)this.viewPort[3]);
+		GlState.bindBuffer(GLES20.GL_ARRAY_BUFFER, GlBuffer.UNBIND_HANDLE);
+		GlState.setCullFace(this.cullfaceMode);
+		GlState.setViewport(this.viewPort[0], this.viewPort[1], this.viewPort[2], this.viewPort[3]);
+	}
+	
+	/**
+	 * Collect casters models and geometries (tree structure included) in casters
+	 * for caching, exact values are compared instead of a hash to avoid collisions
+	 * 
+	 * @param nodeInstance The root node of casters
+	 */
+	private void collectCasters(final Node nodeInstance){
+		final int geometries = (nodeInstance.geometryInstances != null) ? nodeInstance.geometryInstances.length : 0;
+		final int required = this.castersSize + 18 + geometries;
+		if(required > this.casters.length){
+			final float[] casters = new float[Math.max(required, this.casters.length << 1)];
+			System.arraycopy(this.casters, 0, casters, 0, this.castersSize);
+			this.casters = casters;
+		}
+		System.arraycopy(nodeInstance.model, 0, this.casters, this.castersSize, 16);
+		this.castersSize += 16;
+		this.casters[this.castersSize++] = geometries;
+		for(int index=0; index < geometries; index++){
+			this.casters[this.castersSize++] = nodeInstance.geometryInstances[index].geometry.elements.size();
+		}
+		if(nodeInstance.nodeInstances != null){
+			this.casters[this.castersSize++] = nodeInstance.nodeInstances.length;
+			for(Node childNode : nodeInstance.nodeInstances){
+				this.collectCasters(childNode);
+			}
+		}
+		else{
+			this.casters[this.castersSize++] = 0;
+		}
+	}
+	
+	/**
+	 * Fit the light projection to casters bounds and view frustum if enabled
+	 * 
+	 * @param nodeInstance The root node of casters
+	 */
+	private void fitProjection(final Node nodeInstance){
+		if(!this.fitting){
+			return;
+		}
+		if(this.lightFovy == 0f){
+			ShadowUtils.fitOrthoM(this.lightMvpCache, 16, this.lightMvpCache, 0, nodeInstance.treeBounds, 0, 
+					this.fittingView ? this.viewCorners : null, 0, this.quality);
+		}
+		else{
+			ShadowUtils.fitPerspectiveM(this.lightMvpCache, 16, this.lightFovy, this.lightMvpCache, 0, nodeInstance.treeBounds, 0, FITTING_MIN_NEAR);
+		}
 	}
 	
 	/**
@@ -368,21 +866,19 @@ public class GlShadowMapShader implements GlShader {
 	 * @param nodeInstance The node instance
 	 */
 	private void drawNode(Node nodeInstance){
-		MatrixUtils.multiplyMM(this.lightMvpCache, 48, this.lightMvpCache, 32, nodeInstance.model, 0);
-		GLES20.glUniformMatrix4fv(this.u_lightMvpMatrixMat4Handle, 1, false, this.lightMvpCache, 48);
+		if(this.cullCasters && this.lightFrustum.test(nodeInstance.treeBounds, 0) == Frustum.OUTSIDE){
+			return;
+		}
 		
-		if(nodeInstance.geometryInstances != null){
+		if(nodeInstance.geometryInstances != null
+				&& (!this.cullCasters || nodeInstance.nodeInstances == null || this.lightFrustum.test(nodeInstance.bounds, 0) != Frustum.OUTSIDE)){
+			this.lightFrustum.visible++;
+			MatrixUtils.multiplyMM(this.lightMvpCache, 48, this.lightMvpCache, 32, nodeInstance.model, 0);
+			this.program.setUniformMatrix4fv(U_MVP_MATRIX_MAT4, 1, this.lightMvpCache, 48);
 			for(GeometryInstance geometryInstance : nodeInstance.geometryInstances){
 				for(Element element : geometryInstance.geometry.elements){
-					if(element.handle == GlBuffer.UNBIND_HANDLE){
-						element.toGlBuffer().toVertexAttribute(this.a_PositionVec4Handle, 0, false);
-						GLES20.glDrawArrays(element.type, 0, element.count);
-					}
-					else{
-						GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, element.handle);
-						GLES20Utils.glVertexAttribPointer(this.a_PositionVec4Handle, element.inputs[0][GlAssets.Geometry.Element.SIZE], GLES20.GL_FLOAT, false, element.stride, element.inputs[0][GlAssets.Geometry.Element.OFFSET]);
-						GLES20.glDrawArrays(element.type, 0, element.count);
-					}
+					this.vertexLayouts.bind(element);
+					GLES20.glDrawArrays(element.type, 0, element.count);
 				}
 			}
 		}
@@ -393,6 +889,49 @@ public class GlShadowMapShader implements GlShader {
 		}
 	}
 
+	/**
+	 * Draw instances groups using the instanced program
+	 * 
+	 * @param instanceGroups The instances groups
+	 */
+	private void drawInstances(final InstanceGroup[] instanceGroups){
+		if(this.instancedProgram == null){
+			this.batchSize = InstanceUtils.getBatchSize(INSTANCED_RESERVED_VECTORS);
+			InputStream vertIn = null;
+			InputStream fragIn = null;
+			try{
+				vertIn = this.getClass().getResourceAsStream(INSTANCED_VERTEX_SHADER);
+				fragIn = this.getClass().getResourceAsStream(this.encoding.fragmentShader);
+				this.instancedProgram = GlProgramCache.getInstance().getProgram(vertIn, fragIn, InstanceUtils.getBatchSizeHeader(this.batchSize));
+				
+				//Context
+				this.u_modelMatrixArrayMat4Handle = this.instancedProgram.getUniformHandle(U_MODEL_MATRIX_ARRAY_MAT4);
+				//Attributes
+				this.a_InstancedPositionVec4Handle = this.instancedProgram.getAttributeHandle(A_POSITION_VEC4);
+				this.a_InstanceFloatHandle = this.instancedProgram.getAttributeHandle(A_INSTANCE_FLOAT);
+			}finally{
+				if(vertIn != null){
+					try{
+						vertIn.close();
+					}catch(IOException ioe){}
+				}
+				if(fragIn != null){
+					try{
+						fragIn.close();
+					}catch(IOException ioe){}
+				}
+			}
+		}
+		
+		this.instancedProgram.start();
+		this.instancedProgram.enableAttributes();
+		this.instancedProgram.setUniformMatrix4fv(U_VP_MATRIX_MAT4, 1, this.lightMvpCache, 32);
+		for(InstanceGroup instanceGroup : instanceGroups){
+			InstanceUtils.drawGroup(instanceGroup, this.batchSize, this.u_modelMatrixArrayMat4Handle, this.a_InstancedPositionVec4Handle, this.a_InstanceFloatHandle);
+		}
+		this.instancedProgram.disableAttribute(this.a_InstanceFloatHandle);
+	}
+
 	/* (non-Javadoc)
 	 * @see fr.kesk.libgl.shader.GlShader#free()
 	 */
@@ -403,13 +942,98 @@ public class GlShadowMapShader implements GlShader {
 			this.fbo.free();
 		}
 		if(this.program != null){
-			this.program.free();
+			GlProgramCache.getInstance().release(this.program);
+		}
+		if(this.vertexLayouts != null){
+			this.vertexLayouts.free();
+		}
+		if(this.instancedProgram != null){
+			GlProgramCache.getInstance().release(this.instancedProgram);
 		}
 		if(this.shadowTextures != null){
 			this.shadowTextures.free();
 		}
 	}
 	
+	/**
+	 * Depth encoding of a shadow map : shaders used to write depth and texture format
+	 * 
+	 * @author Thomas MILLET
+	 *
+	 */
+	public static class Encoding{
+		
+		/**
+		 * The vertex shader resource path
+		 */
+		public final String vertexShader;
+		
+		/**
+		 * The fragment shader resource path
+		 */
+		public final String fragmentShader;
+		
+		/**
+		 * The texture format
+		 */
+		public final int format;
+		
+		/**
+		 * The texture type
+		 */
+		public final int type;
+		
+		/**
+		 * The size of a pixel in bytes
+		 */
+		public final int bytesPerPixel;
+		
+		/**
+		 * Indicates if depth is written in a depth texture
+		 */
+		public final boolean depthTexture;
+		
+		/**
+		 * The required GL extension, null if none
+		 */
+		public final String extension;
+		
+		/**
+		 * Default constructor
+		 * 
+		 * @param vertexShader The vertex shader resource path
+		 * @param fragmentShader The fragment shader resource path
+		 * @param format The texture format
+		 * @param type The texture type
+		 * @param bytesPerPixel The size of a pixel in bytes
+		 * @param depthTexture true if depth is written in a depth texture
+		 * @param extension The required GL extension, null if none
+		 */
+		public Encoding(final String vertexShader, final String fragmentShader, final int format, final int type,
+				final int bytesPerPixel, final boolean depthTexture, final String extension){
+			this.vertexShader = vertexShader;
+			this.fragmentShader = fragmentShader;
+			this.format = format;
+			this.type = type;
+			this.bytesPerPixel = bytesPerPixel;
+			this.depthTexture = depthTexture;
+			this.extension = extension;
+		}
+		
+		/**
+		 * Indicates if this encoding is supported by the current context
+		 * 
+		 * @return true if supported
+		 */
+		public boolean isSupported(){
+			if(this.extension == null){
+				return true;
+			}
+			final String extensions = GlContext.getExtensions();
+			return extensions != null && extensions.contains(this.extension);
+		}
+	}
+	
 	/**
 	 * Specific implementation of GlTexture to store ShadowMap texture
 	 * 
@@ -431,34 +1055,130 @@ public class GlShadowMapShader implements GlShader {
 		/**
 		 * The bound FBO
 		 */
-		private final GlFrameBufferObject fbo;
+		private GlFrameBufferObject fbo;
+		
+		/**
+		 * The depth encoding
+		 */
+		private final Encoding encoding;
 		
 		/**
 		 * The associated shadow matrix
 		 */
 		public final float[]shadowMatrix = new float[16];
 		
+		/**
+		 * The number of rendered cascades
+		 */
+		public int cascades = 1;
+		
+		/**
+		 * The shadow matrices of cascades (atlas tile * bias * VP)
+		 */
+		public final float[]cascadeMatrices = new float[MAX_CASCADES << 4];
+		
+		/**
+		 * The far distances of cascades in view space (MAX_VALUE for unused cascades)
+		 */
+		public final float[]cascadeSplits = new float[MAX_CASCADES];
+		
+		/**
+		 * The light VP matrices of the last rendering
+		 */
+		private final float[]cachedMatrices = new float[MAX_CASCADES << 4];
+		
+		/**
+		 * The number of cached matrices (0 if not cached)
+		 */
+		private int cachedCount = 0;
+		
+		/**
+		 * The casters state of the last rendering
+		 */
+		private float[] cachedCasters = new float[0];
+		
+		/**
+		 * The number of floats used in cachedCasters
+		 */
+		private int cachedCastersSize;
+		
 		/**
 		 * Default constructor
 		 * 
+		 * @param id The shadow map ID
 		 * @param size The shadow map texture size
 		 * @param fbo The FBO owning this attachment for buffer access
+		 * @param encoding The depth encoding
 		 */
-		private GlShadowMapTexture(final int id, final int size, final GlFrameBufferObject fbo){
+		protected GlShadowMapTexture(final int id, final int size, final GlFrameBufferObject fbo, final Encoding encoding){
 			super();
 			//android.util.Log.d(TAG,"NEW");
 			this.id = id;
 			this.size = size;
 			this.fbo = fbo;
+			this.encoding = encoding;
 			MatrixUtils.setIdentityM(this.shadowMatrix, 0);
 		}
 		
+		/**
+		 * Force the rendering of this shadow map at next render() call when caching is enabled
+		 */
+		public void invalidate(){
+			this.cachedCount = 0;
+		}
+		
+		/**
+		 * Indicates if the last rendering used the same matrices and casters
+		 * 
+		 * @param matrices The light VP matrices
+		 * @param offset The matrices offset
+		 * @param count The number of matrices
+		 * @param casters The casters state
+		 * @param castersSize The number of floats in casters state
+		 * @return true if the shadow map is up to date
+		 */
+		private boolean isCached(final float[] matrices, final int offset, final int count, final float[] casters, final int castersSize){
+			if(this.cachedCount != count || this.cachedCastersSize != castersSize){
+				return false;
+			}
+			for(int index=0; index < count << 4; index++){
+				if(this.cachedMatrices[index] != matrices[offset + index]){
+					return false;
+				}
+			}
+			for(int index=0; index < castersSize; index++){
+				if(this.cachedCasters[index] != casters[index]){
+					return false;
+				}
+			}
+			return true;
+		}
+		
+		/**
+		 * Store the matrices and casters of the last rendering
+		 * 
+		 * @param matrices The light VP matrices
+		 * @param offset The matrices offset
+		 * @param count The number of matrices
+		 * @param casters The casters state
+		 * @param castersSize The number of floats in casters state
+		 */
+		private void setCached(final float[] matrices, final int offset, final int count, final float[] casters, final int castersSize){
+			System.arraycopy(matrices, offset, this.cachedMatrices, 0, count << 4);
+			this.cachedCount = count;
+			if(this.cachedCasters.length < castersSize){
+				this.cachedCasters = new float[casters.length];
+			}
+			System.arraycopy(casters, 0, this.cachedCasters, 0, castersSize);
+			this.cachedCastersSize = castersSize;
+		}
+		
 		/* (non-Javadoc)
 		 * @see fr.kesk.libgl.texture.GlTexture#getBytes()
 		 */
 		@Override
 		public ByteBuffer getBytes() {
-			if(this.fbo != null){
+			if(this.fbo != null && !this.encoding.depthTexture){
 				return (ByteBuffer)this.fbo.read(0, 0, this.size, this.size).position(0);
 			}
 			else{
@@ -495,7 +1215,7 @@ public class GlShadowMapShader implements GlShader {
 		 */
 		@Override
 		public int getSize() {
-			return this.size * this.size * SIZEOF_UNSIGNED_SHORT_4_4_4_4;
+			return this.size * this.size * this.encoding.bytesPerPixel;
 		}
 
 		/* (non-Javadoc)
@@ -519,7 +1239,7 @@ public class GlShadowMapShader implements GlShader {
 		 */
 		@Override
 		public int getFormat() {
-			return GLES20.GL_RGBA;
+			return this.encoding.format;
 		}
 
 		/* (non-Javadoc)
@@ -527,7 +1247,7 @@ public class GlShadowMapShader implements GlShader {
 		 */
 		@Override
 		public int getType() {
-			return GLES20.GL_UNSIGNED_SHORT_4_4_4_4;
+			return this.encoding.type;
 		}
 
 		/* (non-Javadoc)
@@ -155,7 +155,24 @@ public class GlTextureSet {
 			return this.put(this.tmpTextureArray)[0];
 		}
 	}
-	
+
+	/**
+	 * Add an already uploaded texture to the current GlTextures (see GlTextureStreamer)
+	 *
+	 * @param provider The provider to register, its handle must be set
+	 */
+	void register(final GlTexture provider){
+		synchronized(this.providers){
+			this.providers.append(provider.getId(), provider);
+			this.size++;
+
+			//Callback on listener
+			if(this.onTextureEventListener != null){
+				this.onTextureEventListener.onTextureBound(0,provider.handle);
+			}
+		}
+	}
+
 	/**
 	 * @return the onTextureEventListener
 	 */
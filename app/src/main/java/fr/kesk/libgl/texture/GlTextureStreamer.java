@@ -0,0 +1,616 @@
+package fr.kesk.libgl.texture;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import android.opengl.GLES20;
+
+/**
+ * Asynchronous textures uploader :
+ *	<ul>
+ * 	<li>mip levels are generated on CPU by worker threads (box or Kaiser filtering)</li>
+ * 	<li>a low resolution preview (smallest level larger than PREVIEW_SIZE) is uploaded and
+ * 		bound to the texture as soon as levels are generated</li>
+ * 	<li>the full mip chain is then uploaded from the smallest to the largest level across
+ * 		several frames, respecting a per frame bytes budget (large levels are split in rows bands)</li>
+ * 	<li>once complete, the texture handle is switched to the full mip chain</li>
+ *	</ul>
+ * Only uncompressed 2D power of two textures of type TYPE_UNSIGNED_BYTE using a mipmap minification
+ * filter are streamed, others are uploaded synchronously using GlTextureSet.put().
+ * <br/>
+ * <br/>
+ * ! Warning : stream(), update() and free() must be called in GL Thread only, update() once per frame
+ *
+ * 	@author Thomas MILLET
+ *
+ */
+public class GlTextureStreamer {
+
+	/**
+	 * TAG log
+	 */
+	@SuppressWarnings("unused")
+	private final static String TAG = GlTextureStreamer.class.getName();
+
+	/**
+	 * Mip levels generated using a 2x2 box filter
+	 */
+	public static final int FILTER_BOX = 0;
+
+	/**
+	 * Mip levels generated using a Kaiser windowed sinc filter (8 taps)
+	 */
+	public static final int FILTER_KAISER = 1;
+
+	/**
+	 * Default bytes budget per frame
+	 */
+	public static final int DEFAULT_BUDGET = 512 * 1024;
+
+	/**
+	 * Maximum size of preview level
+	 */
+	public static final int PREVIEW_SIZE = 64;
+
+	/**
+	 * Kaiser window beta parameter
+	 */
+	private static final double KAISER_BETA = 4.0;
+
+	/**
+	 * Number of taps of Kaiser filter
+	 */
+	private static final int KAISER_TAPS = 8;
+
+	/**
+	 * Kaiser filter weights (taps from -3 to +4 around 2x)
+	 */
+	private static final float[] KAISER_WEIGHTS = computeKaiserWeights();
+
+	/**
+	 * The mip levels filter
+	 */
+	private final int filter;
+
+	/**
+	 * The bytes budget per frame
+	 */
+	private int budget;
+
+	/**
+	 * Workers, created at first stream()
+	 */
+	private ExecutorService executor;
+
+	/**
+	 * Jobs with generated levels handed off to GL Thread
+	 */
+	private final ConcurrentLinkedQueue<Job> readyJobs = new ConcurrentLinkedQueue<Job>();
+
+	/**
+	 * Jobs being uploaded (GL Thread only)
+	 */
+	private final List<Job> uploadingJobs = new ArrayList<Job>();
+
+	/**
+	 * Number of streamed textures not yet complete
+	 */
+	private int pendingCount;
+
+	/**
+	 * Default constructor using Kaiser filter and default budget
+	 */
+	public GlTextureStreamer(){
+		this(FILTER_KAISER, DEFAULT_BUDGET);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param filter The mip levels filter FILTER_BOX or FILTER_KAISER
+	 * @param budget The bytes budget per frame
+	 */
+	public GlTextureStreamer(final int filter, final int budget){
+		//android.util.Log.d(TAG,"NEW");
+		this.filter = filter;
+		this.budget = budget;
+	}
+
+	/**
+	 * Set the bytes budget per frame, at least one rows band is uploaded per frame
+	 *
+	 * @param budget The bytes budget
+	 */
+	public void setBudget(final int budget){
+		this.budget = budget;
+	}
+
+	/**
+	 * Get the bytes budget per frame
+	 */
+	public int getBudget(){
+		return this.budget;
+	}
+
+	/**
+	 * Get the number of streamed textures not yet complete
+	 */
+	public int getPendingCount(){
+		return this.pendingCount;
+	}
+
+	/**
+	 * Indicates if a texture can be streamed
+	 *
+	 * @param texture The texture
+	 * @return true if streamable, false if it must be uploaded synchronously
+	 */
+	public static boolean isStreamable(final GlTexture texture){
+		final int minFilter = texture.getMinificationFilter();
+		final int width = texture.getWidth();
+		final int height = texture.getHeight();
+		return texture.getTarget() == GlTexture.TARGET_TEXTURE_2D
+				&& texture.getCompressionFormat() == GlTexture.COMP_FALSE
+				&& texture.getType() == GlTexture.TYPE_UNSIGNED_BYTE
+				&& minFilter != GlTexture.MIN_FILTER_LOW && minFilter != GlTexture.MIN_FILTER_HIGH
+				&& width > 0 && (width & (width - 1)) == 0
+				&& height > 0 && (height & (height - 1)) == 0;
+	}
+
+	/**
+	 * Stream a texture in a texture set, the texture is registered in the set once
+	 * its preview is uploaded. Textures which are not streamable are put synchronously.
+	 *
+	 * @param textureSet The texture set
+	 * @param texture The texture to stream
+	 */
+	public void stream(final GlTextureSet textureSet, final GlTexture texture){
+		//android.util.Log.d(TAG,"stream("+texture.getId()+")");
+		if(!isStreamable(texture)){
+			textureSet.put(texture);
+			return;
+		}
+		if(this.executor == null){
+			this.executor = Executors.newFixedThreadPool(Math.max(1, Runtime.getRuntime().availableProcessors() - 1), new ThreadFactory(){
+				@Override
+				public Thread newThread(final Runnable runnable) {
+					final Thread thread = new Thread(runnable, TAG);
+					thread.setDaemon(true);
+					thread.setPriority(Thread.MIN_PRIORITY);
+					return thread;
+				}
+			});
+		}
+		final Job job = new Job(textureSet, texture, texture.getBytes());
+		this.pendingCount++;
+		this.executor.execute(job);
+	}
+
+	/**
+	 * Upload generated levels in the limit of the budget, must be called once per frame
+	 *
+	 * @return The number of uploaded bytes
+	 */
+	public int update(){
+		Job job;
+		int uploaded = 0;
+		while((job = this.readyJobs.poll()) != null){
+			if(job.levels == null){
+				//Generation failed, fallback on synchronous upload
+				this.pendingCount--;
+				job.textureSet.put(job.texture);
+				continue;
+			}
+			GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 1);
+			uploaded += this.uploadPreview(job);
+			//Textures not larger than the preview are already complete
+			if(job.levels != null){
+				this.uploadingJobs.add(job);
+			}
+		}
+		if(!this.uploadingJobs.isEmpty()){
+			GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 1);
+			while(!this.uploadingJobs.isEmpty() && uploaded < this.budget){
+				job = this.uploadingJobs.get(0);
+				//At least one row left in budget, except for the first step of the frame
+				if(uploaded > 0 && job.getWidth(job.level) * job.components > this.budget - uploaded){
+					break;
+				}
+				uploaded += this.uploadStep(job, this.budget - uploaded);
+				if(job.level < 0){
+					this.complete(job);
+					this.uploadingJobs.remove(0);
+				}
+			}
+		}
+		if(uploaded > 0){
+			GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 4);
+		}
+		return uploaded;
+	}
+
+	/**
+	 * Stop workers and free textures being uploaded
+	 */
+	public void free(){
+		//android.util.Log.d(TAG,"free()");
+		if(this.executor != null){
+			this.executor.shutdownNow();
+			this.executor = null;
+		}
+		this.readyJobs.clear();
+		for(Job job : this.uploadingJobs){
+			if(job.handle != GlTexture.UNBIND_HANDLE){
+				GLES20.glDeleteTextures(1, new int[]{job.handle}, 0);
+			}
+		}
+		this.uploadingJobs.clear();
+		this.pendingCount = 0;
+	}
+
+	/**
+	 * Get the number of components per pixel of a TYPE_UNSIGNED_BYTE format
+	 *
+	 * @param format The texture format
+	 * @return The number of bytes per pixel
+	 */
+	public static int getComponents(final int format){
+		switch(format){
+			case GlTexture.FORMAT_ALPHA :
+			case GlTexture.FORMAT_LUMINANCE :
+				return 1;
+			case GlTexture.FORMAT_LUMINANCE_ALPHA :
+				return 2;
+			case GlTexture.FORMAT_RGB :
+				return 3;
+			default :
+				return 4;
+		}
+	}
+
+	/**
+	 * Generate the mip chain of an image
+	 *
+	 * @param level0 The pixels of level 0
+	 * @param width The width of level 0
+	 * @param height The height of level 0
+	 * @param components The number of bytes per pixel
+	 * @param filter FILTER_BOX or FILTER_KAISER
+	 * @return The levels pixels, index 0 is level0
+	 */
+	public static byte[][] generateMipmaps(final byte[] level0, final int width, final int height, final int components, final int filter){
+		int levelsCount = 1;
+		for(int size = Math.max(width, height); size > 1; size >>= 1){
+			levelsCount++;
+		}
+		final byte[][] levels = new byte[levelsCount][];
+		levels[0] = level0;
+		int levelWidth = width;
+		int levelHeight = height;
+		for(int level=1; level < levelsCount; level++){
+			final int dstWidth = Math.max(1, levelWidth >> 1);
+			final int dstHeight = Math.max(1, levelHeight >> 1);
+			levels[level] = new byte[dstWidth * dstHeight * components];
+			if(filter == FILTER_KAISER){
+				downsampleKaiser(levels[level - 1], levelWidth, levelHeight, levels[level], dstWidth, dstHeight, components);
+			}
+			else{
+				downsampleBox(levels[level - 1], levelWidth, levelHeight, levels[level], dstWidth, dstHeight, components);
+			}
+			levelWidth = dstWidth;
+			levelHeight = dstHeight;
+		}
+		return levels;
+	}
+
+	/**
+	 * Downsample an image by 2 using a 2x2 box filter
+	 */
+	private static void downsampleBox(final byte[] src, final int srcWidth, final int srcHeight,
+			final byte[] dst, final int dstWidth, final int dstHeight, final int components){
+		final int srcStride = srcWidth * components;
+		int dstIndex = 0;
+		for(int y=0; y < dstHeight; y++){
+			final int row0 = Math.min(y << 1, srcHeight - 1) * srcStride;
+			final int row1 = Math.min((y << 1) + 1, srcHeight - 1) * srcStride;
+			for(int x=0; x < dstWidth; x++){
+				final int col0 = Math.min(x << 1, srcWidth - 1) * components;
+				final int col1 = Math.min((x << 1) + 1, srcWidth - 1) * components;
+				for(int c=0; c < components; c++){
+					final int sum = (src[row0 + col0 + c] & 0xFF) + (src[row0 + col1 + c] & 0xFF)
+								+ (src[row1 + col0 + c] & 0xFF) + (src[row1 + col1 + c] & 0xFF);
+					dst[dstIndex++] = (byte)((sum + 2) >> 2);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Downsample an image by 2 using a separable Kaiser windowed sinc filter
+	 */
+	private static void downsampleKaiser(final byte[] src, final int srcWidth, final int srcHeight,
+			final byte[] dst, final int dstWidth, final int dstHeight, final int components){
+		//Horizontal pass
+		final float[] tmp = new float[dstWidth * srcHeight * components];
+		for(int y=0; y < srcHeight; y++){
+			final int srcRow = y * srcWidth * components;
+			final int tmpRow = y * dstWidth * components;
+			for(int x=0; x < dstWidth; x++){
+				for(int c=0; c < components; c++){
+					float sum = 0;
+					for(int tap=0; tap < KAISER_TAPS; tap++){
+						final int sx = Math.min(Math.max((x << 1) - 3 + tap, 0), srcWidth - 1);
+						sum += KAISER_WEIGHTS[tap] * (src[srcRow + sx * components + c] & 0xFF);
+					}
+					tmp[tmpRow + x * components + c] = sum;
+				}
+			}
+		}
+		//Vertical pass
+		final int tmpStride = dstWidth * components;
+		int dstIndex = 0;
+		for(int y=0; y < dstHeight; y++){
+			for(int x=0; x < tmpStride; x++){
+				float sum = 0;
+				for(int tap=0; tap < KAISER_TAPS; tap++){
+					final int sy = Math.min(Math.max((y << 1) - 3 + tap, 0), srcHeight - 1);
+					sum += KAISER_WEIGHTS[tap] * tmp[sy * tmpStride + x];
+				}
+				final int value = Math.round(sum);
+				dst[dstIndex++] = (byte)((value < 0) ? 0 : (value > 255) ? 255 : value);
+			}
+		}
+	}
+
+	/**
+	 * Compute normalized Kaiser filter weights for a downsampling by 2
+	 */
+	private static float[] computeKaiserWeights(){
+		final float[] weights = new float[KAISER_TAPS];
+		final double halfWidth = KAISER_TAPS / 2.0;
+		final double i0Beta = besselI0(KAISER_BETA);
+		double total = 0;
+		for(int tap=0; tap < KAISER_TAPS; tap++){
+			//Distance to the center of output pixel (between taps 3 and 4)
+			final double distance = tap - 3.5;
+			final double t = distance / 2.0;
+			final double sinc = Math.sin(Math.PI * t) / (Math.PI * t);
+			final double ratio = distance / halfWidth;
+			final double window = besselI0(KAISER_BETA * Math.sqrt(1.0 - ratio * ratio)) / i0Beta;
+			weights[tap] = (float)(sinc * window);
+			total += weights[tap];
+		}
+		for(int tap=0; tap < KAISER_TAPS; tap++){
+			weights[tap] /= total;
+		}
+		return weights;
+	}
+
+	/**
+	 * Modified Bessel function of the first kind (order 0)
+	 */
+	private static double besselI0(final double x){
+		double sum = 1.0;
+		double term = 1.0;
+		final double halfX = x / 2.0;
+		for(int k=1; k < 32; k++){
+			term *= (halfX / k) * (halfX / k);
+			sum += term;
+		}
+		return sum;
+	}
+
+	/**
+	 * Upload the preview of a job and register the texture, textures not larger than the
+	 * preview size are fully uploaded and completed (job levels are released)
+	 *
+	 * @return The number of uploaded bytes
+	 */
+	private int uploadPreview(final Job job){
+		int level = 0;
+		while(level < job.levels.length - 1 && Math.max(job.getWidth(level), job.getHeight(level)) > PREVIEW_SIZE){
+			level++;
+		}
+		if(level == 0){
+			int uploaded = 0;
+			while(job.level >= 0){
+				uploaded += this.uploadStep(job, Integer.MAX_VALUE);
+			}
+			this.complete(job);
+			return uploaded;
+		}
+		final GlTexture texture = job.texture;
+		final int[] handles = new int[1];
+		GLES20.glGenTextures(1, handles, 0);
+		GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, handles[0]);
+		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GlTexture.MIN_FILTER_HIGH);
+		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, texture.getMagnificationFilter());
+		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, texture.getWrapMode(GLES20.GL_TEXTURE_WRAP_S));
+		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, texture.getWrapMode(GLES20.GL_TEXTURE_WRAP_T));
+		texture.onUpload();
+		GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, texture.getFormat(), job.getWidth(level), job.getHeight(level), 0,
+				texture.getFormat(), texture.getType(), ByteBuffer.wrap(job.levels[level]));
+		texture.handle = handles[0];
+		job.textureSet.register(texture);
+		return job.levels[level].length;
+	}
+
+	/**
+	 * Upload the next part of the mip chain of a job
+	 *
+	 * @param job The job
+	 * @param allowance The remaining bytes budget (at least one rows band is uploaded)
+	 * @return The number of uploaded bytes
+	 */
+	private int uploadStep(final Job job, final int allowance){
+		final GlTexture texture = job.texture;
+		if(job.handle == GlTexture.UNBIND_HANDLE){
+			final int[] handles = new int[1];
+			GLES20.glGenTextures(1, handles, 0);
+			job.handle = handles[0];
+			GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, job.handle);
+			GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, texture.getMinificationFilter());
+			GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, texture.getMagnificationFilter());
+			GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, texture.getWrapMode(GLES20.GL_TEXTURE_WRAP_S));
+			GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, texture.getWrapMode(GLES20.GL_TEXTURE_WRAP_T));
+			texture.onUpload();
+		}
+		else{
+			GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, job.handle);
+		}
+		final int level = job.level;
+		final int width = job.getWidth(level);
+		final int height = job.getHeight(level);
+		final byte[] data = job.levels[level];
+
+		//Whole level
+		if(job.row == 0 && data.length <= allowance){
+			GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, level, texture.getFormat(), width, height, 0,
+					texture.getFormat(), texture.getType(), ByteBuffer.wrap(data));
+			job.level--;
+			return data.length;
+		}
+
+		//Rows band
+		if(job.row == 0){
+			GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, level, texture.getFormat(), width, height, 0,
+					texture.getFormat(), texture.getType(), null);
+		}
+		final int rowSize = width * job.components;
+		final int rows = Math.min(Math.max(1, allowance / rowSize), height - job.row);
+		GLES20.glTexSubImage2D(GLES20.GL_TEXTURE_2D, level, 0, job.row, width, rows,
+				texture.getFormat(), texture.getType(), ByteBuffer.wrap(data, job.row * rowSize, rows * rowSize));
+		job.row += rows;
+		if(job.row == height){
+			job.row = 0;
+			job.level--;
+		}
+		return rows * rowSize;
+	}
+
+	/**
+	 * Switch the texture to its complete mip chain
+	 */
+	private void complete(final Job job){
+		//android.util.Log.d(TAG,"complete("+job.texture.getId()+")");
+		final GlTexture texture = job.texture;
+		this.pendingCount--;
+		if(texture.handle == GlTexture.UNBIND_HANDLE){
+			texture.handle = job.handle;
+			job.textureSet.register(texture);
+		}
+		else if(job.textureSet.getTexture(texture.getId()) == texture){
+			GLES20.glDeleteTextures(1, new int[]{texture.handle}, 0);
+			texture.handle = job.handle;
+		}
+		else{
+			//Removed while streaming
+			GLES20.glDeleteTextures(1, new int[]{job.handle}, 0);
+		}
+		job.handle = GlTexture.UNBIND_HANDLE;
+		job.levels = null;
+	}
+
+	/**
+	 * Streaming job, levels are generated by a worker then uploaded in GL Thread
+	 */
+	private class Job implements Runnable{
+
+		/**
+		 * The target texture set
+		 */
+		final GlTextureSet textureSet;
+
+		/**
+		 * The streamed texture
+		 */
+		final GlTexture texture;
+
+		/**
+		 * The level 0 pixels
+		 */
+		final ByteBuffer pixels;
+
+		/**
+		 * Width of level 0
+		 */
+		final int width;
+
+		/**
+		 * Height of level 0
+		 */
+		final int height;
+
+		/**
+		 * Bytes per pixel
+		 */
+		final int components;
+
+		/**
+		 * Generated levels, null if generation failed
+		 */
+		byte[][] levels;
+
+		/**
+		 * Handle of the full mip chain texture
+		 */
+		int handle = GlTexture.UNBIND_HANDLE;
+
+		/**
+		 * Next level to upload
+		 */
+		int level;
+
+		/**
+		 * Next row to upload in level
+		 */
+		int row;
+
+		/**
+		 * Constructor
+		 */
+		Job(final GlTextureSet textureSet, final GlTexture texture, final ByteBuffer pixels){
+			this.textureSet = textureSet;
+			this.texture = texture;
+			this.pixels = pixels;
+			this.width = texture.getWidth();
+			this.height = texture.getHeight();
+			this.components = getComponents(texture.getFormat());
+		}
+
+		/**
+		 * Get the width of a level
+		 */
+		int getWidth(final int level){
+			return Math.max(1, this.width >> level);
+		}
+
+		/**
+		 * Get the height of a level
+		 */
+		int getHeight(final int level){
+			return Math.max(1, this.height >> level);
+		}
+
+		@Override
+		public void run() {
+			try{
+				final byte[] level0 = new byte[this.width * this.height * this.components];
+				final ByteBuffer source = this.pixels.duplicate();
+				source.get(level0);
+				this.levels = generateMipmaps(level0, this.width, this.height, this.components, filter);
+				this.level = this.levels.length - 1;
+			}catch(RuntimeException re){
+				this.levels = null;
+			}catch(OutOfMemoryError oome){
+				this.levels = null;
+			}
+			readyJobs.offer(this);
+		}
+	}
+}
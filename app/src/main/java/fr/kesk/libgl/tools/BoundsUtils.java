@@ -0,0 +1,298 @@
+package fr.kesk.libgl.tools;
+
+import java.nio.FloatBuffer;
+
+import fr.kesk.libgl.GlAssets.Geometry.Element;
+import fr.kesk.libgl.GlAssets.Node;
+import fr.kesk.libgl.GlAssets.Node.GeometryInstance;
+
+/**
+ * Tools class for bounding volumes treatments.
+ * <br/>
+ * <br/>
+ * Bounds are stored in a float array as an AABB and a sphere :
+ * <pre>
+ * [minX, minY, minZ, maxX, maxY, maxZ, centerX, centerY, centerZ, radius]
+ * </pre>
+ * Empty bounds have a negative radius, unknown bounds (never culled) have an
+ * infinite radius.
+ *
+ * @author Thomas MILLET
+ *
+ */
+public final class BoundsUtils {
+
+	/**
+	 * TAG log
+	 */
+	@SuppressWarnings("unused")
+	private final static String TAG = BoundsUtils.class.getName();
+
+	/**
+	 * Number of floats in bounds
+	 */
+	public static final int BOUNDS_SIZE = 10;
+
+	/**
+	 * Offset of AABB min in bounds
+	 */
+	public static final int MIN = 0;
+
+	/**
+	 * Offset of AABB max in bounds
+	 */
+	public static final int MAX = 3;
+
+	/**
+	 * Offset of sphere center in bounds
+	 */
+	public static final int CENTER = 6;
+
+	/**
+	 * Offset of sphere radius in bounds
+	 */
+	public static final int RADIUS = 9;
+	
+	/**
+	 * TMP bounds used for nodes updates (per thread)
+	 */
+	private final static ThreadLocal<float[]> tmpBounds = new ThreadLocal<float[]>(){
+		@Override
+		protected float[] initialValue() {
+			return new float[BOUNDS_SIZE];
+		}
+	};
+
+	/**
+	 * Set bounds as empty
+	 *
+	 * @param bounds The bounds to set
+	 * @param offset The bounds offset
+	 */
+	public static void setEmpty(final float[] bounds, final int offset){
+		bounds[offset] = bounds[offset + 1] = bounds[offset + 2] = Float.MAX_VALUE;
+		bounds[offset + 3] = bounds[offset + 4] = bounds[offset + 5] = -Float.MAX_VALUE;
+		bounds[offset + 6] = bounds[offset + 7] = bounds[offset + 8] = 0f;
+		bounds[offset + 9] = -1f;
+	}
+
+	/**
+	 * Set bounds as unknown (infinite)
+	 *
+	 * @param bounds The bounds to set
+	 * @param offset The bounds offset
+	 */
+	public static void setInfinite(final float[] bounds, final int offset){
+		bounds[offset] = bounds[offset + 1] = bounds[offset + 2] = -Float.MAX_VALUE;
+		bounds[offset + 3] = bounds[offset + 4] = bounds[offset + 5] = Float.MAX_VALUE;
+		bounds[offset + 6] = bounds[offset + 7] = bounds[offset + 8] = 0f;
+		bounds[offset + 9] = Float.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * Indicates if bounds are empty
+	 *
+	 * @param bounds The bounds
+	 * @param offset The bounds offset
+	 * @return true if empty
+	 */
+	public static boolean isEmpty(final float[] bounds, final int offset){
+		return bounds[offset + RADIUS] < 0f;
+	}
+
+	/**
+	 * Indicates if bounds are unknown (infinite)
+	 *
+	 * @param bounds The bounds
+	 * @param offset The bounds offset
+	 * @return true if infinite
+	 */
+	public static boolean isInfinite(final float[] bounds, final int offset){
+		return bounds[offset + RADIUS] == Float.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * Compute bounds of a list of points stored in a float array
+	 *
+	 * @param bounds The bounds to set
+	 * @param offset The bounds offset
+	 * @param values The points values
+	 * @param valuesOffset The first point offset
+	 * @param stride The number of floats between 2 points
+	 * @param count The number of points
+	 */
+	public static void compute(final float[] bounds, final int offset, final float[] values, final int valuesOffset, final int stride, final int count){
+		setEmpty(bounds, offset);
+		if(count == 0){
+			return;
+		}
+		for(int i=0, index=valuesOffset; i < count; i++, index+=stride){
+			for(int c=0; c < 3; c++){
+				final float value = values[index + c];
+				if(value < bounds[offset + c]) bounds[offset + c] = value;
+				if(value > bounds[offset + 3 + c]) bounds[offset + 3 + c] = value;
+			}
+		}
+		setCenter(bounds, offset);
+		float radius2 = 0f;
+		for(int i=0, index=valuesOffset; i < count; i++, index+=stride){
+			final float dx = values[index] - bounds[offset + 6];
+			final float dy = values[index + 1] - bounds[offset + 7];
+			final float dz = values[index + 2] - bounds[offset + 8];
+			radius2 = Math.max(radius2, dx * dx + dy * dy + dz * dz);
+		}
+		bounds[offset + 9] = (float)Math.sqrt(radius2);
+	}
+
+	/**
+	 * Compute bounds of a list of points stored in a FloatBuffer (absolute access)
+	 *
+	 * @param bounds The bounds to set
+	 * @param offset The bounds offset
+	 * @param values The points values
+	 * @param valuesIndex The first point index
+	 * @param stride The number of floats between 2 points
+	 * @param count The number of points
+	 */
+	public static void compute(final float[] bounds, final int offset, final FloatBuffer values, final int valuesIndex, final int stride, final int count){
+		setEmpty(bounds, offset);
+		if(count == 0){
+			return;
+		}
+		for(int i=0, index=valuesIndex; i < count; i++, index+=stride){
+			for(int c=0; c < 3; c++){
+				final float value = values.get(index + c);
+				if(value < bounds[offset + c]) bounds[offset + c] = value;
+				if(value > bounds[offset + 3 + c]) bounds[offset + 3 + c] = value;
+			}
+		}
+		setCenter(bounds, offset);
+		float radius2 = 0f;
+		for(int i=0, index=valuesIndex; i < count; i++, index+=stride){
+			final float dx = values.get(index) - bounds[offset + 6];
+			final float dy = values.get(index + 1) - bounds[offset + 7];
+			final float dz = values.get(index + 2) - bounds[offset + 8];
+			radius2 = Math.max(radius2, dx * dx + dy * dy + dz * dz);
+		}
+		bounds[offset + 9] = (float)Math.sqrt(radius2);
+	}
+
+	/**
+	 * Merge bounds into others, sphere is recomputed from the resulting AABB
+	 *
+	 * @param dst The bounds to update
+	 * @param dstOffset The dst offset
+	 * @param src The bounds to merge
+	 * @param srcOffset The src offset
+	 */
+	public static void union(final float[] dst, final int dstOffset, final float[] src, final int srcOffset){
+		if(isEmpty(src, srcOffset) || isInfinite(dst, dstOffset)){
+			return;
+		}
+		if(isEmpty(dst, dstOffset)){
+			System.arraycopy(src, srcOffset, dst, dstOffset, BOUNDS_SIZE);
+			return;
+		}
+		if(isInfinite(src, srcOffset)){
+			setInfinite(dst, dstOffset);
+			return;
+		}
+		for(int c=0; c < 3; c++){
+			dst[dstOffset + c] = Math.min(dst[dstOffset + c], src[srcOffset + c]);
+			dst[dstOffset + 3 + c] = Math.max(dst[dstOffset + 3 + c], src[srcOffset + 3 + c]);
+		}
+		setCenter(dst, dstOffset);
+		final float ex = dst[dstOffset + 3] - dst[dstOffset + 6];
+		final float ey = dst[dstOffset + 4] - dst[dstOffset + 7];
+		final float ez = dst[dstOffset + 5] - dst[dstOffset + 8];
+		dst[dstOffset + 9] = (float)Math.sqrt(ex * ex + ey * ey + ez * ez);
+	}
+
+	/**
+	 * Transform bounds by an affine matrix
+	 *
+	 * @param dst The resulting bounds (can be src)
+	 * @param dstOffset The dst offset
+	 * @param matrix The matrix
+	 * @param matrixOffset The matrix offset
+	 * @param src The bounds to transform
+	 * @param srcOffset The src offset
+	 */
+	public static void transform(final float[] dst, final int dstOffset, final float[] matrix, final int matrixOffset, final float[] src, final int srcOffset){
+		if(isEmpty(src, srcOffset)){
+			setEmpty(dst, dstOffset);
+			return;
+		}
+		if(isInfinite(src, srcOffset)){
+			setInfinite(dst, dstOffset);
+			return;
+		}
+		final float cx = src[srcOffset + 6], cy = src[srcOffset + 7], cz = src[srcOffset + 8];
+		final float radius = src[srcOffset + 9];
+		MatrixUtils.batchMultiplyMAABB(dst, dstOffset, matrix, matrixOffset, src, srcOffset, 1);
+		dst[dstOffset + 6] = matrix[matrixOffset] * cx + matrix[matrixOffset + 4] * cy + matrix[matrixOffset + 8] * cz + matrix[matrixOffset + 12];
+		dst[dstOffset + 7] = matrix[matrixOffset + 1] * cx + matrix[matrixOffset + 5] * cy + matrix[matrixOffset + 9] * cz + matrix[matrixOffset + 13];
+		dst[dstOffset + 8] = matrix[matrixOffset + 2] * cx + matrix[matrixOffset + 6] * cy + matrix[matrixOffset + 10] * cz + matrix[matrixOffset + 14];
+		dst[dstOffset + 9] = radius * getMaxScale(matrix, matrixOffset);
+	}
+
+	/**
+	 * Update world bounds of a node and its subnodes from geometries elements bounds, must be
+	 * called after nodes transformations
+	 *
+	 * @param node The node to update
+	 */
+	public static void updateBounds(final Node node){
+		setEmpty(node.bounds, 0);
+		if(node.geometryInstances != null){
+			final float[] tmp = tmpBounds.get();
+			for(GeometryInstance geometryInstance : node.geometryInstances){
+				for(Element element : geometryInstance.geometry.elements){
+					transform(tmp, 0, node.model, 0, element.bounds, 0);
+					union(node.bounds, 0, tmp, 0);
+				}
+			}
+		}
+		System.arraycopy(node.bounds, 0, node.treeBounds, 0, BOUNDS_SIZE);
+		if(node.nodeInstances != null){
+			for(Node subnode : node.nodeInstances){
+				updateBounds(subnode);
+				union(node.treeBounds, 0, subnode.treeBounds, 0);
+			}
+		}
+	}
+
+	/**
+	 * Update world bounds of a node subtree (treeBounds) from its bounds and the tree bounds
+	 * of its subnodes, which must be up to date
+	 *
+	 * @param node The node to update
+	 */
+	public static void updateTreeBounds(final Node node){
+		System.arraycopy(node.bounds, 0, node.treeBounds, 0, BOUNDS_SIZE);
+		if(node.nodeInstances != null){
+			for(Node subnode : node.nodeInstances){
+				union(node.treeBounds, 0, subnode.treeBounds, 0);
+			}
+		}
+	}
+
+	/**
+	 * Get the maximum scale factor of an affine matrix
+	 */
+	private static float getMaxScale(final float[] m, final int offset){
+		final float sx = m[offset] * m[offset] + m[offset + 1] * m[offset + 1] + m[offset + 2] * m[offset + 2];
+		final float sy = m[offset + 4] * m[offset + 4] + m[offset + 5] * m[offset + 5] + m[offset + 6] * m[offset + 6];
+		final float sz = m[offset + 8] * m[offset + 8] + m[offset + 9] * m[offset + 9] + m[offset + 10] * m[offset + 10];
+		return (float)Math.sqrt(Math.max(sx, Math.max(sy, sz)));
+	}
+
+	/**
+	 * Set sphere center at AABB center
+	 */
+	private static void setCenter(final float[] bounds, final int offset){
+		bounds[offset + 6] = (bounds[offset] + bounds[offset + 3]) * 0.5f;
+		bounds[offset + 7] = (bounds[offset + 1] + bounds[offset + 4]) * 0.5f;
+		bounds[offset + 8] = (bounds[offset + 2] + bounds[offset + 5]) * 0.5f;
+	}
+}
@@ -0,0 +1,245 @@
+package fr.kesk.libgl.tools;
+
+import java.util.List;
+
+import fr.kesk.libgl.GlContext;
+import fr.kesk.libgl.GlAssets.Node;
+
+/**
+ * View frustum used to cull nodes based on their bounds (see BoundsUtils).
+ * <br/>
+ * <br/>
+ * Planes are extracted from a projection * view matrix, each plane is stored
+ * as [a, b, c, d] with a normalized normal pointing inside the frustum.
+ * <br/>
+ * <br/>
+ * Culling statistics are available in tested, culled and visible counters and
+ * reset by resetStats().
+ *
+ * @author Thomas MILLET
+ *
+ */
+public class Frustum {
+
+	/**
+	 * TAG log
+	 */
+	@SuppressWarnings("unused")
+	private final static String TAG = Frustum.class.getName();
+
+	/**
+	 * Bounds outside the frustum
+	 */
+	public static final int OUTSIDE = 0;
+
+	/**
+	 * Bounds intersecting the frustum
+	 */
+	public static final int INTERSECT = 1;
+
+	/**
+	 * Bounds inside the frustum
+	 */
+	public static final int INSIDE = 2;
+
+	/**
+	 * Number of planes
+	 */
+	public static final int PLANES_COUNT = 6;
+
+	/**
+	 * Frustum planes (LEFT, RIGHT, BOTTOM, TOP, NEAR, FAR)
+	 */
+	public final float[] planes = new float[PLANES_COUNT << 2];
+
+	/**
+	 * The projection * view matrix
+	 */
+	public final float[] vpMatrix = new float[16];
+
+	/**
+	 * Number of bounds tested since last reset
+	 */
+	public int tested = 0;
+
+	/**
+	 * Number of bounds culled since last reset
+	 */
+	public int culled = 0;
+
+	/**
+	 * Number of visible nodes since last reset
+	 */
+	public int visible = 0;
+
+	/**
+	 * Set frustum from context projection and view matrices
+	 *
+	 * @param glContext The GL context
+	 */
+	public void set(final GlContext glContext){
+		this.set(glContext.pMatrix, glContext.vMatrix);
+	}
+
+	/**
+	 * Set frustum from projection and view matrices
+	 *
+	 * @param pMatrix The projection matrix
+	 * @param vMatrix The view matrix
+	 */
+	public void set(final float[] pMatrix, final float[] vMatrix){
+		MatrixUtils.multiplyMM(this.vpMatrix, 0, pMatrix, 0, vMatrix, 0);
+		this.set(this.vpMatrix, 0);
+	}
+
+	/**
+	 * Set frustum from a projection * view matrix
+	 *
+	 * @param m The projection * view matrix
+	 * @param offset The matrix offset
+	 */
+	public void set(final float[] m, final int offset){
+		if(m != this.vpMatrix){
+			System.arraycopy(m, offset, this.vpMatrix, 0, 16);
+		}
+		final float[] vp = this.vpMatrix;
+		for(int plane=0; plane < PLANES_COUNT; plane++){
+			//Row 3 +/- row (plane / 2)
+			final int row = plane >> 1;
+			final float sign = ((plane & 1) == 0) ? 1f : -1f;
+			final int p = plane << 2;
+			this.planes[p] = vp[3] + sign * vp[row];
+			this.planes[p + 1] = vp[7] + sign * vp[4 + row];
+			this.planes[p + 2] = vp[11] + sign * vp[8 + row];
+			this.planes[p + 3] = vp[15] + sign * vp[12 + row];
+			final float length = (float)Math.sqrt(this.planes[p] * this.planes[p] + this.planes[p + 1] * this.planes[p + 1] + this.planes[p + 2] * this.planes[p + 2]);
+			if(length > 0f){
+				this.planes[p] /= length;
+				this.planes[p + 1] /= length;
+				this.planes[p + 2] /= length;
+				this.planes[p + 3] /= length;
+			}
+		}
+	}
+
+	/**
+	 * Reset culling statistics
+	 */
+	public void resetStats(){
+		this.tested = this.culled = this.visible = 0;
+	}
+
+	/**
+	 * Test a sphere against the frustum
+	 *
+	 * @param x The center X
+	 * @param y The center Y
+	 * @param z The center Z
+	 * @param radius The radius
+	 * @return OUTSIDE, INTERSECT or INSIDE
+	 */
+	public int testSphere(final float x, final float y, final float z, final float radius){
+		int result = INSIDE;
+		for(int p=0; p < (PLANES_COUNT << 2); p+=4){
+			final float distance = this.planes[p] * x + this.planes[p + 1] * y + this.planes[p + 2] * z + this.planes[p + 3];
+			if(distance < -radius){
+				return OUTSIDE;
+			}
+			if(distance < radius){
+				result = INTERSECT;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Test an AABB against the frustum
+	 *
+	 * @param bounds The bounds holding the AABB
+	 * @param offset The bounds offset
+	 * @return OUTSIDE, INTERSECT or INSIDE
+	 */
+	public int testAABB(final float[] bounds, final int offset){
+		int result = INSIDE;
+		for(int p=0; p < (PLANES_COUNT << 2); p+=4){
+			final float a = this.planes[p], b = this.planes[p + 1], c = this.planes[p + 2], d = this.planes[p + 3];
+			//Positive vertex (farthest along normal)
+			final float px = (a >= 0f) ? bounds[offset + 3] : bounds[offset];
+			final float py = (b >= 0f) ? bounds[offset + 4] : bounds[offset + 1];
+			final float pz = (c >= 0f) ? bounds[offset + 5] : bounds[offset + 2];
+			if(a * px + b * py + c * pz + d < 0f){
+				return OUTSIDE;
+			}
+			//Negative vertex
+			final float nx = (a >= 0f) ? bounds[offset] : bounds[offset + 3];
+			final float ny = (b >= 0f) ? bounds[offset + 1] : bounds[offset + 4];
+			final float nz = (c >= 0f) ? bounds[offset + 2] : bounds[offset + 5];
+			if(a * nx + b * ny + c * nz + d < 0f){
+				result = INTERSECT;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Test bounds against the frustum, sphere first then AABB if needed
+	 *
+	 * @param bounds The bounds
+	 * @param offset The bounds offset
+	 * @return OUTSIDE, INTERSECT or INSIDE
+	 */
+	public int test(final float[] bounds, final int offset){
+		this.tested++;
+		if(BoundsUtils.isEmpty(bounds, offset)){
+			this.culled++;
+			return OUTSIDE;
+		}
+		if(BoundsUtils.isInfinite(bounds, offset)){
+			return INTERSECT;
+		}
+		int result = this.testSphere(bounds[offset + 6], bounds[offset + 7], bounds[offset + 8], bounds[offset + 9]);
+		if(result == INTERSECT){
+			result = this.testAABB(bounds, offset);
+		}
+		if(result == OUTSIDE){
+			this.culled++;
+		}
+		return result;
+	}
+
+	/**
+	 * Collect visible nodes of a hierarchy, nodes bounds must be up
+	 * to date (see BoundsUtils.updateBounds())
+	 *
+	 * @param node The root node
+	 * @param visibleNodes The list to fill with visible nodes having geometries
+	 */
+	public void collect(final Node node, final List<Node> visibleNodes){
+		this.collect(node, visibleNodes, false);
+	}
+
+	/**
+	 * 	Inner recursive method to collect nodes, inside indicates parent is fully inside
+	 */
+	private void collect(final Node node, final List<Node> visibleNodes, final boolean inside){
+		boolean subtreeInside = inside;
+		if(!inside){
+			final int treeResult = this.test(node.treeBounds, 0);
+			if(treeResult == OUTSIDE){
+				return;
+			}
+			subtreeInside = (treeResult == INSIDE);
+		}
+		if(node.geometryInstances != null){
+			if(subtreeInside || node.nodeInstances == null || this.test(node.bounds, 0) != OUTSIDE){
+				this.visible++;
+				visibleNodes.add(node);
+			}
+		}
+		if(node.nodeInstances != null){
+			for(Node subnode : node.nodeInstances){
+				this.collect(subnode, visibleNodes, subtreeInside);
+			}
+		}
+	}
+}
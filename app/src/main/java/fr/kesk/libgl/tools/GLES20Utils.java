@@ -22,5 +22,35 @@ public class GLES20Utils {
 	 * Workaround to use VBO on Android 2.2, call this method instead of GLES20.glDrawElements()
 	 */
     native public static void glDrawElements(int mode, int count, int type, int offset);
+    
+    /**
+	 * Get the size of a linked program binary (GL_OES_get_program_binary)
+	 */
+    native public static int glGetProgramBinaryLength(int program);
+    
+    /**
+	 * Get a linked program binary (GL_OES_get_program_binary), returns the binary length or -1 if not supported
+	 */
+    native public static int glGetProgramBinary(int program, byte[] binary, int[] format);
+    
+    /**
+	 * Load a program binary (GL_OES_get_program_binary), returns true if the program is linked
+	 */
+    native public static boolean glProgramBinary(int program, int format, byte[] binary, int length);
+    
+    /**
+	 * Create a vertex array object (GL_OES_vertex_array_object), returns 0 if not supported
+	 */
+    native public static int glGenVertexArrayOES();
+    
+    /**
+	 * Bind a vertex array object (GL_OES_vertex_array_object), 0 binds the default vertex array
+	 */
+    native public static void glBindVertexArrayOES(int array);
+    
+    /**
+	 * Delete a vertex array object (GL_OES_vertex_array_object)
+	 */
+    native public static void glDeleteVertexArrayOES(int array);
 
 }
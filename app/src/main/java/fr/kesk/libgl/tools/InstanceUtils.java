@@ -0,0 +1,294 @@
+package fr.kesk.libgl.tools;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import fr.kesk.libgl.GlContext;
+import fr.kesk.libgl.GlAssets.Geometry;
+import fr.kesk.libgl.GlAssets.Geometry.Element;
+import fr.kesk.libgl.GlAssets.Node;
+import fr.kesk.libgl.GlAssets.Node.GeometryInstance;
+import fr.kesk.libgl.GlAssets.Node.GeometryInstance.MaterialInstance;
+import fr.kesk.libgl.buffer.GlBuffer;
+import fr.kesk.libgl.pipeline.GlState;
+
+import android.opengl.GLES20;
+
+/**
+ * Tools class for instances drawing without hardware instancing support.
+ * <br/>
+ * <br/>
+ * Geometry instances sharing the same geometry and materials are grouped and
+ * their model matrices are uploaded in batches as uniform array, each batch is drawn
+ * in a single call using replicated positions (see Element.toInstancedGlBuffer()).
+ * <br/>
+ * <br/>
+ * Shaders must declare :
+ * <pre>{@code
+ *  uniform mat4 u_modelMatrixArrayMat4[INSTANCE_BATCH_SIZE];
+ *  attribute float a_InstanceFloat;
+ * }</pre>
+ *
+ * @author Thomas MILLET
+ *
+ */
+public class InstanceUtils {
+
+	/**
+	 * TAG log
+	 */
+	@SuppressWarnings("unused")
+	private final static String TAG = InstanceUtils.class.getName();
+
+	/**
+	 * Maximum number of instances in a batch (limits replicated geometry size)
+	 */
+	public static final int MAX_BATCH_SIZE = 64;
+
+	/**
+	 * Number of uniform vectors used by a mat4
+	 */
+	public static final int MAT4_UNIFORM_VECTORS = 4;
+
+	/**
+	 * Define name to set batch size in shaders
+	 */
+	public static final String BATCH_SIZE_DEFINE = "INSTANCE_BATCH_SIZE";
+
+	/**
+	 * Cache of GL_MAX_VERTEX_UNIFORM_VECTORS
+	 */
+	private static int maxVertexUniformVectors = 0;
+
+	/**
+	 * Get the batch size based on current GL implementation uniform limit
+	 *
+	 * ! Warning : must be called in GL Thread only
+	 *
+	 * @param reservedVectors The number of uniform vectors used by the shader outside the models array
+	 * @return The number of instances per batch
+	 */
+	public static int getBatchSize(final int reservedVectors){
+		//android.util.Log.d(TAG,"getBatchSize("+reservedVectors+")");
+		if(maxVertexUniformVectors == 0){
+			maxVertexUniformVectors = (int)GlContext.glGetState(GLES20.GL_MAX_VERTEX_UNIFORM_VECTORS)[0];
+		}
+		return getBatchSize(maxVertexUniformVectors, reservedVectors);
+	}
+
+	/**
+	 * Get the batch size based on a given uniform limit
+	 *
+	 * @param maxVertexUniformVectors The GL_MAX_VERTEX_UNIFORM_VECTORS value
+	 * @param reservedVectors The number of uniform vectors used by the shader outside the models array
+	 * @return The number of instances per batch in [1, MAX_BATCH_SIZE]
+	 */
+	public static int getBatchSize(final int maxVertexUniformVectors, final int reservedVectors){
+		final int batchSize = (maxVertexUniformVectors - reservedVectors) / MAT4_UNIFORM_VECTORS;
+		return Math.max(1, Math.min(batchSize, MAX_BATCH_SIZE));
+	}
+
+	/**
+	 * Get the shader header defining the batch size
+	 *
+	 * @param batchSize The number of instances per batch
+	 * @return The header to use in GlProgram
+	 */
+	public static String getBatchSizeHeader(final int batchSize){
+		return "#define "+BATCH_SIZE_DEFINE+" "+batchSize;
+	}
+
+	/**
+	 * Group the geometry instances of nodes and subnodes sharing the same geometry
+	 * and materials, model matrices are copied so groups must be rebuilt or updated
+	 * using update() when nodes are transformed.
+	 *
+	 * @param nodeInstances The root nodes instances
+	 * @return The list of instances groups
+	 */
+	public static InstanceGroup[] buildGroups(final Node[] nodeInstances){
+		//android.util.Log.d(TAG,"buildGroups()");
+		final List<InstanceGroup> groups = new ArrayList<InstanceGroup>();
+		final Map<Geometry, List<InstanceGroup>> groupsByGeometry = new HashMap<Geometry, List<InstanceGroup>>();
+		for(Node nodeInstance : nodeInstances){
+			collect(nodeInstance, groups, groupsByGeometry);
+		}
+		return groups.toArray(new InstanceGroup[groups.size()]);
+	}
+
+	/**
+	 * Draw an instances group using the current program
+	 *
+	 * @param group The instances group to draw
+	 * @param batchSize The number of instances per batch (shader array size)
+	 * @param modelArrayHandle The handle of the models uniform array
+	 * @param positionHandle The handle of the position attribute
+	 * @param instanceHandle The handle of the instance index attribute
+	 */
+	public static void drawGroup(final InstanceGroup group, final int batchSize, final int modelArrayHandle, final int positionHandle, final int instanceHandle){
+		for(Element element : group.geometry.elements){
+			final GlBuffer<float[]> buffer = element.toInstancedGlBuffer(batchSize);
+
+			//Batches
+			if(buffer != null){
+				if(buffer.handle == GlBuffer.UNBIND_HANDLE){
+					buffer.createVBO(GlBuffer.USAGE_STATIC_DRAW, GlBuffer.TARGET_ARRAY_BUFFER, true);
+				}
+				buffer.toVertexAttribute(positionHandle, 0, true);
+				buffer.toVertexAttribute(instanceHandle, 1, true);
+				for(int first=0; first < group.count; first += batchSize){
+					final int instances = Math.min(batchSize, group.count - first);
+					GLES20.glUniformMatrix4fv(modelArrayHandle, instances, false, group.models, first << 4);
+					GLES20.glDrawArrays(element.type, 0, element.count * instances);
+				}
+				buffer.unbind();
+			}
+			//Fallback on one draw per instance
+			else{
+				GLES20.glDisableVertexAttribArray(instanceHandle);
+				GLES20.glVertexAttrib1f(instanceHandle, 0f);
+				if(element.handle == GlBuffer.UNBIND_HANDLE){
+					element.toGlBuffer().toVertexAttribute(positionHandle, Element.getPositionInput(element.inputs), false);
+				}
+				else{
+					GlState.bindBuffer(GLES20.GL_ARRAY_BUFFER, element.handle);
+					final int[] positionInput = element.inputs[Element.getPositionInput(element.inputs)];
+					GLES20Utils.glVertexAttribPointer(positionHandle, positionInput[Element.SIZE], GLES20.GL_FLOAT, false, element.stride, positionInput[Element.OFFSET]);
+				}
+				for(int index=0; index < group.count; index++){
+					GLES20.glUniformMatrix4fv(modelArrayHandle, 1, false, group.models, index << 4);
+					GLES20.glDrawArrays(element.type, 0, element.count);
+				}
+				GlState.bindBuffer(GLES20.GL_ARRAY_BUFFER, GlBuffer.UNBIND_HANDLE);
+				GLES20.glEnableVertexAttribArray(instanceHandle);
+			}
+		}
+	}
+
+	/**
+	 * 	Inner recursive method to group instances
+	 */
+	private static void collect(final Node node, final List<InstanceGroup> groups, final Map<Geometry, List<InstanceGroup>> groupsByGeometry){
+		if(node.geometryInstances != null){
+			for(GeometryInstance geometryInstance : node.geometryInstances){
+				List<InstanceGroup> geometryGroups = groupsByGeometry.get(geometryInstance.geometry);
+				if(geometryGroups == null){
+					geometryGroups = new ArrayList<InstanceGroup>();
+					groupsByGeometry.put(geometryInstance.geometry, geometryGroups);
+				}
+				InstanceGroup group = null;
+				for(InstanceGroup geometryGroup : geometryGroups){
+					if(geometryGroup.accept(geometryInstance)){
+						group = geometryGroup;
+						break;
+					}
+				}
+				if(group == null){
+					group = new InstanceGroup(geometryInstance.geometry, geometryInstance.materials);
+					geometryGroups.add(group);
+					groups.add(group);
+				}
+				group.add(node);
+			}
+		}
+		if(node.nodeInstances != null){
+			for(Node subnode : node.nodeInstances){
+				collect(subnode, groups, groupsByGeometry);
+			}
+		}
+	}
+
+	/**
+	 * Group of geometry instances sharing the same geometry and materials
+	 *
+	 * @author Thomas MILLET
+	 *
+	 */
+	public static final class InstanceGroup{
+
+		/**
+		 * The shared geometry
+		 */
+		public final Geometry geometry;
+
+		/**
+		 * The shared material instances
+		 */
+		public final MaterialInstance[] materials;
+
+		/**
+		 * The nodes owning the instances
+		 */
+		public Node[] nodes = new Node[4];
+
+		/**
+		 * The model matrices of instances (16 floats per instance)
+		 */
+		public float[] models = new float[64];
+
+		/**
+		 * The number of instances in group
+		 */
+		public int count = 0;
+
+		/**
+		 * Default constructor
+		 *
+		 * @param geometry The shared geometry
+		 * @param materials The shared material instances
+		 */
+		public InstanceGroup(final Geometry geometry, final MaterialInstance[] materials){
+			this.geometry = geometry;
+			this.materials = materials;
+		}
+
+		/**
+		 * Indicates if a geometry instance can be added to this group
+		 *
+		 * @param geometryInstance The geometry instance to test
+		 * @return true if geometry and materials targets are the same
+		 */
+		public boolean accept(final GeometryInstance geometryInstance){
+			if(geometryInstance.geometry != this.geometry) return false;
+			if(geometryInstance.materials == this.materials) return true;
+			if(geometryInstance.materials == null || this.materials == null
+					|| geometryInstance.materials.length != this.materials.length) return false;
+			for(int mIndex=0; mIndex < this.materials.length; mIndex++){
+				if(geometryInstance.materials[mIndex].target != this.materials[mIndex].target){
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Add a node instance to this group
+		 *
+		 * @param node The node owning the geometry instance
+		 */
+		public void add(final Node node){
+			if(this.count == this.nodes.length){
+				final Node[] nodes = new Node[this.count << 1];
+				System.arraycopy(this.nodes, 0, nodes, 0, this.count);
+				this.nodes = nodes;
+				final float[] models = new float[this.count << 5];
+				System.arraycopy(this.models, 0, models, 0, this.count << 4);
+				this.models = models;
+			}
+			this.nodes[this.count] = node;
+			System.arraycopy(node.model, 0, this.models, this.count << 4, 16);
+			this.count++;
+		}
+
+		/**
+		 * Copy again the model matrices of nodes after transformations
+		 */
+		public void update(){
+			for(int index=0; index < this.count; index++){
+				System.arraycopy(this.nodes[index].model, 0, this.models, index << 4, 16);
+			}
+		}
+	}
+}
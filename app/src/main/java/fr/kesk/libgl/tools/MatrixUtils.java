@@ -1,5 +1,7 @@
 package fr.kesk.libgl.tools;
 
+import java.nio.FloatBuffer;
+
 import android.opengl.Matrix;
 
 /**
@@ -7,6 +9,10 @@ import android.opengl.Matrix;
  * <br/>
  * <br/>
  * Replace Android class with dedicated methods and perfs.
+ * <br/>
+ * <br/>
+ * Methods are reentrant and lock free, temporary matrices are either provided
+ * by caller or stored per thread.
  * 
  * @author Thomas MILLET
  *
@@ -20,14 +26,14 @@ public final class MatrixUtils extends Matrix{
 	private final static String TAG = MatrixUtils.class.getName();
 	
 	/**
-	 * Cache matrix
-	 */
-	private final static float[]sTemp = new float[32];
-	
-	/**
-	 * Cache lookat vector
+	 * Cache matrix per thread
 	 */
-	private final static float[]lookAtTemp = new float[8];
+	private final static ThreadLocal<float[]> sTemp = new ThreadLocal<float[]>(){
+		@Override
+		protected float[] initialValue() {
+			return new float[32];
+		}
+	};
 	
 	/**
 	 * Set a vector to the origin
@@ -137,16 +143,379 @@ public final class MatrixUtils extends Matrix{
 	 */
 	public static void multiplyMV(final float[] result, final int resultOffset, final float[] lhs, final int lhsOffset, final float[] rhs, final int rhsOffset){
 		//android.util.Log.d(TAG,"multiplyMV()");
-		synchronized(sTemp){
-			sTemp[0] = rhs[rhsOffset];
-			sTemp[1] = rhs[rhsOffset + 1];
-			sTemp[2] = rhs[rhsOffset + 2];
-			sTemp[3] = rhs[rhsOffset + 3];
-			System.arraycopy(lhs, lhsOffset, sTemp, 4, 16);
-			result[3 + resultOffset] = (sTemp[7] * sTemp[0]) + (sTemp[11] * sTemp[1]) + (sTemp[15] * sTemp[2]) + (sTemp[19] * sTemp[3]);
-			result[2 + resultOffset] = (sTemp[6] * sTemp[0]) + (sTemp[10] * sTemp[1]) + (sTemp[14] * sTemp[2]) + (sTemp[18] * sTemp[3]);
-			result[1 + resultOffset] = (sTemp[5] * sTemp[0]) + (sTemp[9] * sTemp[1]) + (sTemp[13]  * sTemp[2]) + (sTemp[17] * sTemp[3]);
-			result[0 + resultOffset] = (sTemp[4] * sTemp[0]) + (sTemp[8] * sTemp[1]) + (sTemp[12]  * sTemp[2]) + (sTemp[16] * sTemp[3]);
+		final float x = rhs[rhsOffset];
+		final float y = rhs[rhsOffset + 1];
+		final float z = rhs[rhsOffset + 2];
+		final float w = rhs[rhsOffset + 3];
+		final float r0 = (lhs[lhsOffset] * x) + (lhs[lhsOffset + 4] * y) + (lhs[lhsOffset + 8] * z) + (lhs[lhsOffset + 12] * w);
+		final float r1 = (lhs[lhsOffset + 1] * x) + (lhs[lhsOffset + 5] * y) + (lhs[lhsOffset + 9] * z) + (lhs[lhsOffset + 13] * w);
+		final float r2 = (lhs[lhsOffset + 2] * x) + (lhs[lhsOffset + 6] * y) + (lhs[lhsOffset + 10] * z) + (lhs[lhsOffset + 14] * w);
+		final float r3 = (lhs[lhsOffset + 3] * x) + (lhs[lhsOffset + 7] * y) + (lhs[lhsOffset + 11] * z) + (lhs[lhsOffset + 15] * w);
+		result[resultOffset] = r0;
+		result[resultOffset + 1] = r1;
+		result[resultOffset + 2] = r2;
+		result[resultOffset + 3] = r3;
+	}
+	
+	/**
+	 * Indicates if a matrix is affine (last row is [0, 0, 0, 1])
+	 * 
+	 * @param m The matrix to test
+	 * @param mOffset The matrix offset
+	 * @return true if the matrix is affine
+	 */
+	public static boolean isAffineM(final float[] m, final int mOffset){
+		return m[mOffset + 3] == 0f && m[mOffset + 7] == 0f && m[mOffset + 11] == 0f && m[mOffset + 15] == 1f;
+	}
+	
+	/**
+	 * Affine matrix multiplication (3x4 product), both matrices must be affine (see isAffineM()).
+	 * <br/>
+	 * <br/>
+	 * Result can be the same array as lhs or rhs.
+	 * 
+	 * @param result The float array that holds the result.
+	 * @param resultOffset The offset into result array
+	 * @param lhs The float array that holds the left-hand-side matrix.
+	 * @param lhsOffset The offset into the lhs array where the lhs is stored
+	 * @param rhs The float array that holds the right-hand-side matrix
+	 * @param rhsOffset The offset into the rhs array where the rhs is stored.
+	 */
+	public static void multiplyAffineMM(final float[] result, final int resultOffset, final float[] lhs, final int lhsOffset, final float[] rhs, final int rhsOffset){
+		//android.util.Log.d(TAG,"multiplyAffineMM()");
+		final float a0 = lhs[lhsOffset], a1 = lhs[lhsOffset + 1], a2 = lhs[lhsOffset + 2];
+		final float a4 = lhs[lhsOffset + 4], a5 = lhs[lhsOffset + 5], a6 = lhs[lhsOffset + 6];
+		final float a8 = lhs[lhsOffset + 8], a9 = lhs[lhsOffset + 9], a10 = lhs[lhsOffset + 10];
+		final float a12 = lhs[lhsOffset + 12], a13 = lhs[lhsOffset + 13], a14 = lhs[lhsOffset + 14];
+		final float b0 = rhs[rhsOffset], b1 = rhs[rhsOffset + 1], b2 = rhs[rhsOffset + 2];
+		final float b4 = rhs[rhsOffset + 4], b5 = rhs[rhsOffset + 5], b6 = rhs[rhsOffset + 6];
+		final float b8 = rhs[rhsOffset + 8], b9 = rhs[rhsOffset + 9], b10 = rhs[rhsOffset + 10];
+		final float b12 = rhs[rhsOffset + 12], b13 = rhs[rhsOffset + 13], b14 = rhs[rhsOffset + 14];
+		
+		result[resultOffset] = a0 * b0 + a4 * b1 + a8 * b2;
+		result[resultOffset + 1] = a1 * b0 + a5 * b1 + a9 * b2;
+		result[resultOffset + 2] = a2 * b0 + a6 * b1 + a10 * b2;
+		result[resultOffset + 3] = 0f;
+		result[resultOffset + 4] = a0 * b4 + a4 * b5 + a8 * b6;
+		result[resultOffset + 5] = a1 * b4 + a5 * b5 + a9 * b6;
+		result[resultOffset + 6] = a2 * b4 + a6 * b5 + a10 * b6;
+		result[resultOffset + 7] = 0f;
+		result[resultOffset + 8] = a0 * b8 + a4 * b9 + a8 * b10;
+		result[resultOffset + 9] = a1 * b8 + a5 * b9 + a9 * b10;
+		result[resultOffset + 10] = a2 * b8 + a6 * b9 + a10 * b10;
+		result[resultOffset + 11] = 0f;
+		result[resultOffset + 12] = a0 * b12 + a4 * b13 + a8 * b14 + a12;
+		result[resultOffset + 13] = a1 * b12 + a5 * b13 + a9 * b14 + a13;
+		result[resultOffset + 14] = a2 * b12 + a6 * b13 + a10 * b14 + a14;
+		result[resultOffset + 15] = 1f;
+	}
+	
+	/**
+	 * Matrix multiplication using the affine path if both matrices are affine
+	 * 
+	 * @param result The float array that holds the result (must not overlap lhs if not affine)
+	 * @param resultOffset The offset into result array
+	 * @param lhs The float array that holds the left-hand-side matrix.
+	 * @param lhsOffset The offset into the lhs array where the lhs is stored
+	 * @param rhs The float array that holds the right-hand-side matrix
+	 * @param rhsOffset The offset into the rhs array where the rhs is stored.
+	 * @param affine true if both matrices are known to be affine
+	 */
+	public static void multiplyMM(final float[] result, final int resultOffset, final float[] lhs, final int lhsOffset, final float[] rhs, final int rhsOffset, final boolean affine){
+		if(affine){
+			multiplyAffineMM(result, resultOffset, lhs, lhsOffset, rhs, rhsOffset);
+		}
+		else{
+			multiplyMM(result, resultOffset, lhs, lhsOffset, rhs, rhsOffset);
+		}
+	}
+	
+	/**
+	 * Inverse an affine matrix (inverse of 3x3 part and translation)
+	 * 
+	 * @param inv The float array that holds the result (can be the same as m)
+	 * @param invOffset The offset into inv array
+	 * @param m The affine matrix to inverse
+	 * @param mOffset The offset into m array
+	 * @return false if the matrix is not invertible
+	 */
+	public static boolean invertAffineM(final float[] inv, final int invOffset, final float[] m, final int mOffset){
+		//android.util.Log.d(TAG,"invertAffineM()");
+		final float m0 = m[mOffset], m1 = m[mOffset + 1], m2 = m[mOffset + 2];
+		final float m4 = m[mOffset + 4], m5 = m[mOffset + 5], m6 = m[mOffset + 6];
+		final float m8 = m[mOffset + 8], m9 = m[mOffset + 9], m10 = m[mOffset + 10];
+		final float m12 = m[mOffset + 12], m13 = m[mOffset + 13], m14 = m[mOffset + 14];
+		
+		//Cofactors
+		final float c0 = m5 * m10 - m6 * m9;
+		final float c1 = m6 * m8 - m4 * m10;
+		final float c2 = m4 * m9 - m5 * m8;
+		final float det = m0 * c0 + m1 * c1 + m2 * c2;
+		if(det == 0f){
+			return false;
+		}
+		final float invDet = 1f / det;
+		
+		final float i0 = c0 * invDet;
+		final float i1 = (m2 * m9 - m1 * m10) * invDet;
+		final float i2 = (m1 * m6 - m2 * m5) * invDet;
+		final float i4 = c1 * invDet;
+		final float i5 = (m0 * m10 - m2 * m8) * invDet;
+		final float i6 = (m2 * m4 - m0 * m6) * invDet;
+		final float i8 = c2 * invDet;
+		final float i9 = (m1 * m8 - m0 * m9) * invDet;
+		final float i10 = (m0 * m5 - m1 * m4) * invDet;
+		
+		inv[invOffset] = i0;
+		inv[invOffset + 1] = i1;
+		inv[invOffset + 2] = i2;
+		inv[invOffset + 3] = 0f;
+		inv[invOffset + 4] = i4;
+		inv[invOffset + 5] = i5;
+		inv[invOffset + 6] = i6;
+		inv[invOffset + 7] = 0f;
+		inv[invOffset + 8] = i8;
+		inv[invOffset + 9] = i9;
+		inv[invOffset + 10] = i10;
+		inv[invOffset + 11] = 0f;
+		inv[invOffset + 12] = -(i0 * m12 + i4 * m13 + i8 * m14);
+		inv[invOffset + 13] = -(i1 * m12 + i5 * m13 + i9 * m14);
+		inv[invOffset + 14] = -(i2 * m12 + i6 * m13 + i10 * m14);
+		inv[invOffset + 15] = 1f;
+		return true;
+	}
+	
+	/**
+	 * Extract the normal matrix (transpose of the inverse of the 3x3 part) of an affine
+	 * matrix as a mat3 (9 floats, column major)
+	 * 
+	 * @param normal The float array that holds the mat3 result
+	 * @param normalOffset The offset into normal array
+	 * @param m The affine matrix
+	 * @param mOffset The offset into m array
+	 * @return false if the matrix is not invertible
+	 */
+	public static boolean normalM(final float[] normal, final int normalOffset, final float[] m, final int mOffset){
+		//android.util.Log.d(TAG,"normalM()");
+		final float m0 = m[mOffset], m1 = m[mOffset + 1], m2 = m[mOffset + 2];
+		final float m4 = m[mOffset + 4], m5 = m[mOffset + 5], m6 = m[mOffset + 6];
+		final float m8 = m[mOffset + 8], m9 = m[mOffset + 9], m10 = m[mOffset + 10];
+		
+		//Transpose of inverse is cofactors matrix / det
+		final float c0 = m5 * m10 - m6 * m9;
+		final float c1 = m6 * m8 - m4 * m10;
+		final float c2 = m4 * m9 - m5 * m8;
+		final float det = m0 * c0 + m1 * c1 + m2 * c2;
+		if(det == 0f){
+			return false;
+		}
+		final float invDet = 1f / det;
+		
+		normal[normalOffset] = c0 * invDet;
+		normal[normalOffset + 1] = c1 * invDet;
+		normal[normalOffset + 2] = c2 * invDet;
+		normal[normalOffset + 3] = (m2 * m9 - m1 * m10) * invDet;
+		normal[normalOffset + 4] = (m0 * m10 - m2 * m8) * invDet;
+		normal[normalOffset + 5] = (m1 * m8 - m0 * m9) * invDet;
+		normal[normalOffset + 6] = (m1 * m6 - m2 * m5) * invDet;
+		normal[normalOffset + 7] = (m2 * m4 - m0 * m6) * invDet;
+		normal[normalOffset + 8] = (m0 * m5 - m1 * m4) * invDet;
+		return true;
+	}
+	
+	/**
+	 * Set a matrix from translate, rotate and scale parameters (T * R * S) without
+	 * intermediate matrices
+	 * 
+	 * @param m The matrix to set
+	 * @param mOffset The offset into m array
+	 * @param tx X translate coordinate
+	 * @param ty Y translate coordinate
+	 * @param tz Z translate coordinate
+	 * @param a The angle in degrees
+	 * @param ax X axis coordinate
+	 * @param ay Y axis coordinate
+	 * @param az Z axis coordinate
+	 * @param sx scale factor X
+	 * @param sy scale factor Y
+	 * @param sz scale factor Z
+	 */
+	public static void setTRSM(final float[] m, final int mOffset, final float tx, final float ty, final float tz, final float a, final float ax, final float ay, final float az, final float sx, final float sy, final float sz){
+		//android.util.Log.d(TAG,"setTRSM()");
+		setRotateM(m, mOffset, a, ax, ay, az);
+		m[mOffset] *= sx;
+		m[mOffset + 1] *= sx;
+		m[mOffset + 2] *= sx;
+		m[mOffset + 4] *= sy;
+		m[mOffset + 5] *= sy;
+		m[mOffset + 6] *= sy;
+		m[mOffset + 8] *= sz;
+		m[mOffset + 9] *= sz;
+		m[mOffset + 10] *= sz;
+		m[mOffset + 12] = tx;
+		m[mOffset + 13] = ty;
+		m[mOffset + 14] = tz;
+	}
+	
+	/**
+	 * Multiply a matrix by a list of contiguous vec4 (result and source can be the same)
+	 * 
+	 * @param result The float array that holds the resulting vectors
+	 * @param resultOffset The offset into result array
+	 * @param lhs The float array that holds the matrix
+	 * @param lhsOffset The offset into the lhs array where the matrix is stored
+	 * @param rhs The float array that holds the vectors
+	 * @param rhsOffset The offset into the rhs array where the first vector is stored
+	 * @param count The number of vectors
+	 */
+	public static void batchMultiplyMV4(final float[] result, final int resultOffset, final float[] lhs, final int lhsOffset, final float[] rhs, final int rhsOffset, final int count){
+		//android.util.Log.d(TAG,"batchMultiplyMV4()");
+		final float m0 = lhs[lhsOffset], m1 = lhs[lhsOffset + 1], m2 = lhs[lhsOffset + 2], m3 = lhs[lhsOffset + 3];
+		final float m4 = lhs[lhsOffset + 4], m5 = lhs[lhsOffset + 5], m6 = lhs[lhsOffset + 6], m7 = lhs[lhsOffset + 7];
+		final float m8 = lhs[lhsOffset + 8], m9 = lhs[lhsOffset + 9], m10 = lhs[lhsOffset + 10], m11 = lhs[lhsOffset + 11];
+		final float m12 = lhs[lhsOffset + 12], m13 = lhs[lhsOffset + 13], m14 = lhs[lhsOffset + 14], m15 = lhs[lhsOffset + 15];
+		for(int i=0, src=rhsOffset, dst=resultOffset; i < count; i++, src+=4, dst+=4){
+			final float x = rhs[src];
+			final float y = rhs[src + 1];
+			final float z = rhs[src + 2];
+			final float w = rhs[src + 3];
+			result[dst] = m0 * x + m4 * y + m8 * z + m12 * w;
+			result[dst + 1] = m1 * x + m5 * y + m9 * z + m13 * w;
+			result[dst + 2] = m2 * x + m6 * y + m10 * z + m14 * w;
+			result[dst + 3] = m3 * x + m7 * y + m11 * z + m15 * w;
+		}
+	}
+	
+	/**
+	 * Multiply a matrix by a list of contiguous vec3 points (w=1, no perspective division)
+	 * 
+	 * @param result The float array that holds the resulting points
+	 * @param resultOffset The offset into result array
+	 * @param lhs The float array that holds the matrix
+	 * @param lhsOffset The offset into the lhs array where the matrix is stored
+	 * @param rhs The float array that holds the points
+	 * @param rhsOffset The offset into the rhs array where the first point is stored
+	 * @param count The number of points
+	 */
+	public static void batchMultiplyMV3(final float[] result, final int resultOffset, final float[] lhs, final int lhsOffset, final float[] rhs, final int rhsOffset, final int count){
+		//android.util.Log.d(TAG,"batchMultiplyMV3()");
+		final float m0 = lhs[lhsOffset], m1 = lhs[lhsOffset + 1], m2 = lhs[lhsOffset + 2];
+		final float m4 = lhs[lhsOffset + 4], m5 = lhs[lhsOffset + 5], m6 = lhs[lhsOffset + 6];
+		final float m8 = lhs[lhsOffset + 8], m9 = lhs[lhsOffset + 9], m10 = lhs[lhsOffset + 10];
+		final float m12 = lhs[lhsOffset + 12], m13 = lhs[lhsOffset + 13], m14 = lhs[lhsOffset + 14];
+		for(int i=0, src=rhsOffset, dst=resultOffset; i < count; i++, src+=3, dst+=3){
+			final float x = rhs[src];
+			final float y = rhs[src + 1];
+			final float z = rhs[src + 2];
+			result[dst] = m0 * x + m4 * y + m8 * z + m12;
+			result[dst + 1] = m1 * x + m5 * y + m9 * z + m13;
+			result[dst + 2] = m2 * x + m6 * y + m10 * z + m14;
+		}
+	}
+	
+	/**
+	 * Multiply a matrix by a list of contiguous vectors stored in a FloatBuffer (absolute
+	 * access, buffers positions are not modified)
+	 * 
+	 * @param result The buffer that holds the resulting vectors
+	 * @param resultIndex The index of first vector in result buffer
+	 * @param lhs The float array that holds the matrix
+	 * @param lhsOffset The offset into the lhs array where the matrix is stored
+	 * @param rhs The buffer that holds the vectors
+	 * @param rhsIndex The index of first vector in rhs buffer
+	 * @param size The vectors size (3 for points with w=1, 4 for vec4)
+	 * @param stride The number of floats between 2 vectors in buffers
+	 * @param count The number of vectors
+	 */
+	public static void batchMultiplyMV(final FloatBuffer result, final int resultIndex, final float[] lhs, final int lhsOffset, final FloatBuffer rhs, final int rhsIndex, final int size, final int stride, final int count){
+		//android.util.Log.d(TAG,"batchMultiplyMV()");
+		final float m0 = lhs[lhsOffset], m1 = lhs[lhsOffset + 1], m2 = lhs[lhsOffset + 2], m3 = lhs[lhsOffset + 3];
+		final float m4 = lhs[lhsOffset + 4], m5 = lhs[lhsOffset + 5], m6 = lhs[lhsOffset + 6], m7 = lhs[lhsOffset + 7];
+		final float m8 = lhs[lhsOffset + 8], m9 = lhs[lhsOffset + 9], m10 = lhs[lhsOffset + 10], m11 = lhs[lhsOffset + 11];
+		final float m12 = lhs[lhsOffset + 12], m13 = lhs[lhsOffset + 13], m14 = lhs[lhsOffset + 14], m15 = lhs[lhsOffset + 15];
+		if(size == 4){
+			for(int i=0, src=rhsIndex, dst=resultIndex; i < count; i++, src+=stride, dst+=stride){
+				final float x = rhs.get(src);
+				final float y = rhs.get(src + 1);
+				final float z = rhs.get(src + 2);
+				final float w = rhs.get(src + 3);
+				result.put(dst, m0 * x + m4 * y + m8 * z + m12 * w);
+				result.put(dst + 1, m1 * x + m5 * y + m9 * z + m13 * w);
+				result.put(dst + 2, m2 * x + m6 * y + m10 * z + m14 * w);
+				result.put(dst + 3, m3 * x + m7 * y + m11 * z + m15 * w);
+			}
+		}
+		else{
+			for(int i=0, src=rhsIndex, dst=resultIndex; i < count; i++, src+=stride, dst+=stride){
+				final float x = rhs.get(src);
+				final float y = rhs.get(src + 1);
+				final float z = rhs.get(src + 2);
+				result.put(dst, m0 * x + m4 * y + m8 * z + m12);
+				result.put(dst + 1, m1 * x + m5 * y + m9 * z + m13);
+				result.put(dst + 2, m2 * x + m6 * y + m10 * z + m14);
+			}
+		}
+	}
+	
+	/**
+	 * Multiply a list of matrices pairs stored contiguously (16 floats per matrix)
+	 * 
+	 * @param result The float array that holds the resulting matrices
+	 * @param resultOffset The offset into result array
+	 * @param lhs The float array that holds the left-hand-side matrices
+	 * @param lhsOffset The offset into the lhs array where the first matrix is stored
+	 * @param rhs The float array that holds the right-hand-side matrices
+	 * @param rhsOffset The offset into the rhs array where the first matrix is stored
+	 * @param count The number of matrices pairs
+	 */
+	public static void batchMultiplyMM(final float[] result, final int resultOffset, final float[] lhs, final int lhsOffset, final float[] rhs, final int rhsOffset, final int count){
+		//android.util.Log.d(TAG,"batchMultiplyMM()");
+		for(int i=0, offset=0; i < count; i++, offset+=16){
+			multiplyMM(result, resultOffset + offset, lhs, lhsOffset + offset, rhs, rhsOffset + offset);
+		}
+	}
+	
+	/**
+	 * Transform a list of axis aligned bounding boxes by a matrix, resulting boxes are
+	 * the axis aligned boxes enclosing the transformed ones.
+	 * <br/>
+	 * <br/>
+	 * Boxes are stored as [minX, minY, minZ, maxX, maxY, maxZ] (result and source can be the same)
+	 * 
+	 * @param result The float array that holds the resulting boxes
+	 * @param resultOffset The offset into result array
+	 * @param lhs The float array that holds the matrix
+	 * @param lhsOffset The offset into the lhs array where the matrix is stored
+	 * @param rhs The float array that holds the boxes
+	 * @param rhsOffset The offset into the rhs array where the first box is stored
+	 * @param count The number of boxes
+	 */
+	public static void batchMultiplyMAABB(final float[] result, final int resultOffset, final float[] lhs, final int lhsOffset, final float[] rhs, final int rhsOffset, final int count){
+		//android.util.Log.d(TAG,"batchMultiplyMAABB()");
+		final float m0 = lhs[lhsOffset], m1 = lhs[lhsOffset + 1], m2 = lhs[lhsOffset + 2];
+		final float m4 = lhs[lhsOffset + 4], m5 = lhs[lhsOffset + 5], m6 = lhs[lhsOffset + 6];
+		final float m8 = lhs[lhsOffset + 8], m9 = lhs[lhsOffset + 9], m10 = lhs[lhsOffset + 10];
+		final float m12 = lhs[lhsOffset + 12], m13 = lhs[lhsOffset + 13], m14 = lhs[lhsOffset + 14];
+		for(int i=0, src=rhsOffset, dst=resultOffset; i < count; i++, src+=6, dst+=6){
+			//Center and half extents
+			final float cx = (rhs[src] + rhs[src + 3]) * 0.5f;
+			final float cy = (rhs[src + 1] + rhs[src + 4]) * 0.5f;
+			final float cz = (rhs[src + 2] + rhs[src + 5]) * 0.5f;
+			final float ex = (rhs[src + 3] - rhs[src]) * 0.5f;
+			final float ey = (rhs[src + 4] - rhs[src + 1]) * 0.5f;
+			final float ez = (rhs[src + 5] - rhs[src + 2]) * 0.5f;
+			final float tcx = m0 * cx + m4 * cy + m8 * cz + m12;
+			final float tcy = m1 * cx + m5 * cy + m9 * cz + m13;
+			final float tcz = m2 * cx + m6 * cy + m10 * cz + m14;
+			final float tex = Math.abs(m0) * ex + Math.abs(m4) * ey + Math.abs(m8) * ez;
+			final float tey = Math.abs(m1) * ex + Math.abs(m5) * ey + Math.abs(m9) * ez;
+			final float tez = Math.abs(m2) * ex + Math.abs(m6) * ey + Math.abs(m10) * ez;
+			result[dst] = tcx - tex;
+			result[dst + 1] = tcy - tey;
+			result[dst + 2] = tcz - tez;
+			result[dst + 3] = tcx + tex;
+			result[dst + 4] = tcy + tey;
+			result[dst + 5] = tcz + tez;
 		}
 	}
 
@@ -216,11 +585,47 @@ public final class MatrixUtils extends Matrix{
      */
 	public static void rotateM(float[] rm, int rmOffset, float[] m, int mOffset, float a, float x, float y, float z) {
 		//android.util.Log.d(TAG,"rotateM()");
-		synchronized(sTemp) {
-            setRotateM(sTemp, 0, a, x, y, z);
-            MatrixUtils.multiplyMM(rm, rmOffset, m, mOffset, sTemp, 0);
-        }
+		rotateM(rm, rmOffset, m, mOffset, a, x, y, z, sTemp.get(), 0);
     }
+	
+	/**
+     * Rotates matrix m by angle a (in degrees) around the axis (x, y, z) using
+     * a caller provided temporary matrix
+     * 
+     * @param rm returns the result
+     * @param rmOffset index into rm where the result matrix starts
+     * @param m source matrix
+     * @param mOffset index into m where the source matrix starts
+     * @param a angle to rotate in degrees
+     * @param x scale factor x
+     * @param y scale factor y
+     * @param z scale factor z
+     * @param tmp temporary matrix (16 floats)
+     * @param tmpOffset index into tmp where the temporary matrix starts
+     */
+	public static void rotateM(float[] rm, int rmOffset, float[] m, int mOffset, float a, float x, float y, float z, float[] tmp, int tmpOffset) {
+		//android.util.Log.d(TAG,"rotateM()");
+		setRotateM(tmp, tmpOffset, a, x, y, z);
+		MatrixUtils.multiplyMM(rm, rmOffset, m, mOffset, tmp, tmpOffset);
+	}
+	
+	/**
+     * Rotates matrix m in place by angle a (in degrees) around the axis (x, y, z)
+     * 
+     * @param m source matrix
+     * @param mOffset index into m where the source matrix starts
+     * @param a angle to rotate in degrees
+     * @param x scale factor x
+     * @param y scale factor y
+     * @param z scale factor z
+     */
+	public static void rotateM(float[] m, int mOffset, float a, float x, float y, float z) {
+		//android.util.Log.d(TAG,"rotateM()");
+		final float[] tmp = sTemp.get();
+		setRotateM(tmp, 0, a, x, y, z);
+		MatrixUtils.multiplyMM(tmp, 16, m, mOffset, tmp, 0);
+		System.arraycopy(tmp, 16, m, mOffset, 16);
+	}
 	 
 	/**
 	 * Build a LookAt matrix from a model matrix
@@ -235,17 +640,12 @@ public final class MatrixUtils extends Matrix{
 	 */
 	public static final void setLookAtMM(final float[] matrix, final int matrixOffset, final float[] nodeModel, final int nodeModelOffset, final float xUp, final float yUp, final float zUp){
 		//android.util.Log.d(TAG,"setLookAtMM()");
-		synchronized(lookAtTemp) {
-			//eye
-			lookAtTemp[0] = lookAtTemp[1] = lookAtTemp[2] = 0;
-			lookAtTemp[3] = 1;
-			//Direction
-			lookAtTemp[4] = lookAtTemp[5] = lookAtTemp[7] = 0;
-			lookAtTemp[6] = -1;
-			MatrixUtils.multiplyMV(lookAtTemp, 0, nodeModel, nodeModelOffset, lookAtTemp, 0);
-			MatrixUtils.multiplyMV(lookAtTemp,  4, nodeModel, nodeModelOffset, lookAtTemp, 4);
-			Matrix.setLookAtM(matrix, matrixOffset, lookAtTemp[0], lookAtTemp[1], lookAtTemp[2], lookAtTemp[0]+lookAtTemp[4], lookAtTemp[1]+lookAtTemp[5], lookAtTemp[2]+lookAtTemp[6], xUp, yUp, zUp);
-		}
+		//eye = model * [0, 0, 0, 1]
+		final float eyeX = nodeModel[nodeModelOffset + 12];
+		final float eyeY = nodeModel[nodeModelOffset + 13];
+		final float eyeZ = nodeModel[nodeModelOffset + 14];
+		//Direction = model * [0, 0, -1, 0]
+		Matrix.setLookAtM(matrix, matrixOffset, eyeX, eyeY, eyeZ, eyeX - nodeModel[nodeModelOffset + 8], eyeY - nodeModel[nodeModelOffset + 9], eyeZ - nodeModel[nodeModelOffset + 10], xUp, yUp, zUp);
 	}
 		
 }
@@ -0,0 +1,388 @@
+package fr.kesk.libgl.tools;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import fr.kesk.libgl.GlAssets.Node;
+
+/**
+ * Flattened representation of Node hierarchies for transformations propagation.
+ * <br/>
+ * <br/>
+ * Nodes are stored in parent-before-child order (depth first) and their local
+ * and world matrices are stored in 2 contiguous arrays (16 floats per node). World
+ * matrices are then computed in a single linear pass without recursion.
+ * <br/>
+ * <br/>
+ * Subnodes of a node are stored just after it, the subtree of node at index i is
+ * then the range [i, ends[i]).
+ * <br/>
+ * <br/>
+ * Local transformations only mark nodes as dirty, world matrices are recomputed lazily
+ * by update() once per frame and only for dirty subtrees.
+ * <br/>
+ * <br/>
+ * <b>Caution : </b>this class is not thread safe, updates must be done in a single thread
+ *
+ * @author Thomas MILLET
+ *
+ */
+public class NodeArray {
+
+	/**
+	 * TAG log
+	 */
+	@SuppressWarnings("unused")
+	private final static String TAG = NodeArray.class.getName();
+
+	/**
+	 * Parent index of root nodes
+	 */
+	public final static int NO_PARENT = -1;
+
+	/**
+	 * The nodes in parent-before-child order
+	 */
+	public final Node[] nodes;
+
+	/**
+	 * The parent index of each node (NO_PARENT for roots)
+	 */
+	public final int[] parents;
+
+	/**
+	 * The end index (exclusive) of each node subtree
+	 */
+	public final int[] ends;
+
+	/**
+	 * The local matrices (relative to parent), 16 floats per node
+	 */
+	public final float[] locals;
+
+	/**
+	 * The world matrices, 16 floats per node
+	 */
+	public final float[] worlds;
+
+	/**
+	 * The number of nodes
+	 */
+	public final int size;
+	
+	/**
+	 * Dirty flag of each node (local matrix modified since last update)
+	 */
+	private final boolean[] dirtyNodes;
+	
+	/**
+	 * Affine flag of each local matrix
+	 */
+	private final boolean[] localAffines;
+	
+	/**
+	 * Affine flag of each world matrix
+	 */
+	private final boolean[] worldAffines;
+	
+	/**
+	 * Flag of nodes whose subtree bounds must be updated by updateBounds()
+	 */
+	private final boolean[] staleTrees;
+	
+	/**
+	 * Global dirty flag, true if at least one node is dirty
+	 */
+	private boolean dirty = false;
+
+	/**
+	 * TMP Matrix used for transformations
+	 */
+	private final float[] tmpMatrix = new float[32];
+
+	/**
+	 * Default constructor
+	 *
+	 * @param rootNodes The root nodes of hierarchies to flatten
+	 * @param prepared true if nodes models are already prepared (see NodeUtils.prepareNode()),
+	 * 					in that case local matrices are computed from models
+	 */
+	public NodeArray(final Node[] rootNodes, final boolean prepared){
+		//android.util.Log.d(TAG,"NEW");
+		final List<Node> nodeList = new ArrayList<Node>();
+		final List<Integer> parentList = new ArrayList<Integer>();
+		for(Node rootNode : rootNodes){
+			flatten(rootNode, NO_PARENT, nodeList, parentList);
+		}
+
+		this.size = nodeList.size();
+		this.nodes = nodeList.toArray(new Node[this.size]);
+		this.parents = new int[this.size];
+		this.ends = new int[this.size];
+		this.locals = new float[this.size << 4];
+		this.worlds = new float[this.size << 4];
+		this.dirtyNodes = new boolean[this.size];
+		this.staleTrees = new boolean[this.size];
+		this.localAffines = new boolean[this.size];
+		this.worldAffines = new boolean[this.size];
+
+		for(int index=0; index < this.size; index++){
+			this.parents[index] = parentList.get(index);
+			this.ends[index] = index + 1;
+		}
+		//Subtrees ends, children are always after parents
+		for(int index=this.size-1; index >= 0; index--){
+			final int parent = this.parents[index];
+			if(parent != NO_PARENT && this.ends[index] > this.ends[parent]){
+				this.ends[parent] = this.ends[index];
+			}
+		}
+
+		for(int index=0; index < this.size; index++){
+			final int offset = index << 4;
+			final int parent = this.parents[index];
+			System.arraycopy(this.nodes[index].model, 0, this.worlds, offset, 16);
+			this.worldAffines[index] = MatrixUtils.isAffineM(this.worlds, offset);
+			if(!prepared || parent == NO_PARENT){
+				System.arraycopy(this.nodes[index].model, 0, this.locals, offset, 16);
+			}
+			else if(this.worldAffines[parent]){
+				MatrixUtils.invertAffineM(this.tmpMatrix, 0, this.worlds, parent << 4);
+				MatrixUtils.multiplyMM(this.locals, offset, this.tmpMatrix, 0, this.worlds, offset, this.worldAffines[index]);
+			}
+			else{
+				MatrixUtils.invertM(this.tmpMatrix, 0, this.worlds, parent << 4);
+				MatrixUtils.multiplyMM(this.locals, offset, this.tmpMatrix, 0, this.worlds, offset);
+			}
+			this.localAffines[index] = MatrixUtils.isAffineM(this.locals, offset);
+		}
+
+		if(!prepared){
+			this.update(0, this.size);
+		}
+	}
+
+	/**
+	 * Get the index of a node in this array
+	 *
+	 * @param node The node instance
+	 * @return The node index or -1 if not found
+	 */
+	public int indexOf(final Node node){
+		for(int index=0; index < this.size; index++){
+			if(this.nodes[index] == node){
+				return index;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Set the local matrix of a node
+	 *
+	 * @param index The node index
+	 * @param matrix The local matrix
+	 * @param offset The matrix offset
+	 */
+	public void setLocal(final int index, final float[] matrix, final int offset){
+		System.arraycopy(matrix, offset, this.locals, index << 4, 16);
+		this.localAffines[index] = MatrixUtils.isAffineM(this.locals, index << 4);
+		this.invalidate(index);
+	}
+	
+	/**
+	 * Set the local matrix of a node from a TRS transform (see TransformUtils)
+	 *
+	 * @param index The node index
+	 * @param transform The local transform
+	 * @param offset The transform offset
+	 */
+	public void setLocalT(final int index, final float[] transform, final int offset){
+		TransformUtils.toMatrixT(this.locals, index << 4, transform, offset);
+		this.localAffines[index] = true;
+		this.invalidate(index);
+	}
+	
+	/**
+	 * Mark a node as dirty, its subtree world matrices will be computed at next update()
+	 * 
+	 * @param index The node index
+	 */
+	public void invalidate(final int index){
+		this.dirtyNodes[index] = true;
+		this.dirty = true;
+	}
+	
+	/**
+	 * Indicates if at least one node has been modified since last update
+	 * 
+	 * @return true if an update is needed
+	 */
+	public boolean isDirty(){
+		return this.dirty;
+	}
+
+	/**
+	 * Indicates if the world matrix of a node is affine (updated at update())
+	 * 
+	 * @param index The node index
+	 * @return true if the world matrix is affine
+	 */
+	public boolean isAffine(final int index){
+		return this.worldAffines[index];
+	}
+	
+	/**
+	 * Multiply the local matrix of a node by a Matrix (transformation in parent space)
+	 *
+	 * @param index The node index
+	 * @param matrix The matrix to apply
+	 * @param offset The matrix offset
+	 */
+	public void multiplyML(final int index, final float[] matrix, final int offset){
+		this.localAffines[index] &= MatrixUtils.isAffineM(matrix, offset);
+		MatrixUtils.multiplyMM(this.locals, index << 4, matrix, offset, this.locals, index << 4, this.localAffines[index]);
+		this.invalidate(index);
+	}
+
+	/**
+	 * Scale a node in parent space
+	 *
+	 * @param index The node index
+	 * @param x scale factor X
+	 * @param y scale factor Y
+	 * @param z scale factor Z
+	 */
+	public void scale(final int index, final float x, final float y, final float z){
+		MatrixUtils.setIdentityM(this.tmpMatrix, 0);
+		MatrixUtils.scaleM(this.tmpMatrix, 0, x, y, z);
+		this.multiplyML(index, this.tmpMatrix, 0);
+	}
+
+	/**
+	 * Rotate a node in parent space
+	 *
+	 * @param index The node index
+	 * @param a The angle in degrees
+	 * @param x X axis coordinate
+	 * @param y Y axis coordinate
+	 * @param z Z axis coordinate
+	 */
+	public void rotate(final int index, final float a, final float x, final float y, final float z){
+		MatrixUtils.setRotateM(this.tmpMatrix, 0, a, x, y, z);
+		this.multiplyML(index, this.tmpMatrix, 0);
+	}
+
+	/**
+	 * Translate a node in parent space
+	 *
+	 * @param index The node index
+	 * @param x X translate coordinate
+	 * @param y Y translate coordinate
+	 * @param z Z translate coordinate
+	 */
+	public void translate(final int index, final float x, final float y, final float z){
+		MatrixUtils.setIdentityM(this.tmpMatrix, 0);
+		MatrixUtils.translateM(this.tmpMatrix, 0, x, y, z);
+		this.multiplyML(index, this.tmpMatrix, 0);
+	}
+
+	/**
+	 * Compute world matrices of dirty subtrees in a single linear pass, a subtree
+	 * is computed only once whatever the number of modifications in it
+	 */
+	public void update(){
+		//android.util.Log.d(TAG,"update()");
+		this.update(false);
+	}
+
+	/**
+	 * Compute world matrices of dirty subtrees (see update()) and their world bounds
+	 * (see BoundsUtils.updateBounds()), tree bounds of their ancestors are updated too.
+	 * Nodes bounds are then up to date for NodeBVH refit (see NodeBVHUpdater.update(NodeArray)).
+	 *
+	 * @return true if at least one node has moved
+	 */
+	public boolean updateBounds(){
+		//android.util.Log.d(TAG,"updateBounds()");
+		return this.update(true);
+	}
+
+	/**
+	 * 	Inner method to update dirty subtrees
+	 */
+	private boolean update(final boolean bounds){
+		if(!this.dirty){
+			return false;
+		}
+		int index = 0;
+		while(index < this.size){
+			if(this.dirtyNodes[index]){
+				final int end = this.ends[index];
+				for(int subIndex=index; subIndex < end; subIndex++){
+					this.dirtyNodes[subIndex] = false;
+				}
+				this.update(index, end);
+				if(bounds){
+					BoundsUtils.updateBounds(this.nodes[index]);
+					for(int parent=this.parents[index]; parent != NO_PARENT && !this.staleTrees[parent]; parent=this.parents[parent]){
+						this.staleTrees[parent] = true;
+					}
+				}
+				index = end;
+			}
+			else{
+				index++;
+			}
+		}
+		//Ancestors after their subnodes, children are always after parents
+		if(bounds){
+			for(index=this.size-1; index >= 0; index--){
+				if(this.staleTrees[index]){
+					this.staleTrees[index] = false;
+					BoundsUtils.updateTreeBounds(this.nodes[index]);
+				}
+			}
+		}
+		this.dirty = false;
+		return true;
+	}
+
+	/**
+	 * Compute world matrices of nodes in range [from, to), parents
+	 * of nodes in range must be up to date
+	 *
+	 * @param from The first node index
+	 * @param to The last node index (exclusive)
+	 */
+	public void update(final int from, final int to){
+		//android.util.Log.d(TAG,"update("+from+", "+to+")");
+		for(int index=from; index < to; index++){
+			final int offset = index << 4;
+			final int parent = this.parents[index];
+			if(parent == NO_PARENT){
+				System.arraycopy(this.locals, offset, this.worlds, offset, 16);
+				this.worldAffines[index] = this.localAffines[index];
+			}
+			else{
+				this.worldAffines[index] = this.worldAffines[parent] && this.localAffines[index];
+				MatrixUtils.multiplyMM(this.worlds, offset, this.worlds, parent << 4, this.locals, offset, this.worldAffines[index]);
+			}
+			System.arraycopy(this.worlds, offset, this.nodes[index].model, 0, 16);
+		}
+	}
+
+	/**
+	 * 	Inner recursive method to flatten nodes
+	 */
+	private static void flatten(final Node node, final int parent, final List<Node> nodeList, final List<Integer> parentList){
+		final int index = nodeList.size();
+		nodeList.add(node);
+		parentList.add(parent);
+		if(node.nodeInstances != null){
+			for(Node subnode : node.nodeInstances){
+				flatten(subnode, index, nodeList, parentList);
+			}
+		}
+	}
+}
@@ -0,0 +1,621 @@
+package fr.kesk.libgl.tools;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import fr.kesk.libgl.GlAssets.Node;
+
+/**
+ * Bounding volume hierarchy over world bounds of nodes having geometries.
+ * <br/>
+ * <br/>
+ * The tree is built using binned SAH and stored in flat arrays, it can be refitted
+ * when nodes move without changing its topology. Nodes bounds must be up to date (see
+ * BoundsUtils.updateBounds()) and are read by readBounds() which must be called in the
+ * thread updating nodes, build() and refit() can then be called in any thread.
+ * <br/>
+ * <br/>
+ * Queries fill a list of nodes and use a preallocated stack, they are not thread safe.
+ *
+ * @author Thomas MILLET
+ *
+ */
+public class NodeBVH {
+
+	/**
+	 * TAG log
+	 */
+	@SuppressWarnings("unused")
+	private final static String TAG = NodeBVH.class.getName();
+
+	/**
+	 * Maximum number of items in a leaf
+	 */
+	public static final int LEAF_SIZE = 4;
+
+	/**
+	 * Number of bins used by SAH build
+	 */
+	private static final int BINS = 8;
+
+	/**
+	 * The nodes in original order
+	 */
+	public final Node[] nodes;
+
+	/**
+	 * Number of items
+	 */
+	public final int size;
+
+	/**
+	 * Original index of items in tree order
+	 */
+	private final int[] indexes;
+
+	/**
+	 * Bounds of items in original order (AABB, 6 floats per item)
+	 */
+	private final float[] sourceBounds;
+
+	/**
+	 * Bounds of items in tree order (AABB, 6 floats per item)
+	 */
+	private final float[] itemBounds;
+
+	/**
+	 * Tree nodes bounds (AABB, 6 floats per tree node)
+	 */
+	private final float[] treeBounds;
+
+	/**
+	 * Left child of tree nodes (right is left + 1)
+	 */
+	private final int[] lefts;
+
+	/**
+	 * First item of leaves
+	 */
+	private final int[] firsts;
+
+	/**
+	 * Number of items of leaves (0 for inner nodes)
+	 */
+	private final int[] counts;
+
+	/**
+	 * Number of tree nodes
+	 */
+	private int treeSize = 0;
+
+	/**
+	 * Traversal stack
+	 */
+	private final int[] stack;
+
+	/**
+	 * Bins counts used by build
+	 */
+	private final int[] binCounts = new int[BINS];
+
+	/**
+	 * Bins bounds used by build
+	 */
+	private final float[] binBounds = new float[BINS * 6];
+
+	/**
+	 * Right sweep areas used by build
+	 */
+	private final float[] rightAreas = new float[BINS];
+
+	/**
+	 * TMP bounds used by build
+	 */
+	private final float[] tmpBounds = new float[6];
+
+	/**
+	 * Default constructor
+	 *
+	 * @param nodes The nodes to index
+	 */
+	public NodeBVH(final Node[] nodes){
+		//android.util.Log.d(TAG,"NEW");
+		this.nodes = nodes;
+		this.size = nodes.length;
+		this.indexes = new int[this.size];
+		this.sourceBounds = new float[this.size * 6];
+		this.itemBounds = new float[this.size * 6];
+		final int maxTreeSize = Math.max(1, (this.size << 1) - 1);
+		this.treeBounds = new float[maxTreeSize * 6];
+		this.lefts = new int[maxTreeSize];
+		this.firsts = new int[maxTreeSize];
+		this.counts = new int[maxTreeSize];
+		this.stack = new int[maxTreeSize];
+		for(int index=0; index < this.size; index++){
+			this.indexes[index] = index;
+		}
+	}
+
+	/**
+	 * Get the nodes having geometries in hierarchies (Scene.nodeInstances for instance)
+	 *
+	 * @param rootNodes The root nodes
+	 * @return The nodes having geometries
+	 */
+	public static Node[] getNodes(final Node[] rootNodes){
+		final List<Node> nodes = new ArrayList<Node>();
+		for(Node node : rootNodes){
+			getNodes(node, nodes);
+		}
+		return nodes.toArray(new Node[nodes.size()]);
+	}
+
+	/**
+	 * 	Inner recursive method to collect nodes having geometries
+	 */
+	private static void getNodes(final Node node, final List<Node> nodes){
+		if(node.geometryInstances != null){
+			nodes.add(node);
+		}
+		if(node.nodeInstances != null){
+			for(Node subnode : node.nodeInstances){
+				getNodes(subnode, nodes);
+			}
+		}
+	}
+
+	/**
+	 * Indicates if the tree has been built
+	 *
+	 * @return true if built
+	 */
+	public boolean isBuilt(){
+		return this.treeSize > 0;
+	}
+
+	/**
+	 * Read the world bounds of nodes, must be called in the thread updating nodes
+	 */
+	public void readBounds(){
+		readBounds(this.nodes, this.sourceBounds);
+	}
+
+	/**
+	 * Set the world bounds of nodes from a snapshot (see readBounds(Node[], float[]))
+	 *
+	 * @param bounds The bounds of nodes in original order (6 floats per node)
+	 */
+	public void setBounds(final float[] bounds){
+		System.arraycopy(bounds, 0, this.sourceBounds, 0, this.size * 6);
+	}
+
+	/**
+	 * Read world bounds of nodes into a snapshot array
+	 *
+	 * @param nodes The nodes
+	 * @param bounds The snapshot array (6 floats per node)
+	 */
+	public static void readBounds(final Node[] nodes, final float[] bounds){
+		for(int index=0, offset=0; index < nodes.length; index++, offset+=6){
+			System.arraycopy(nodes[index].bounds, BoundsUtils.MIN, bounds, offset, 6);
+		}
+	}
+
+	/**
+	 * Build the tree from current bounds
+	 */
+	public void build(){
+		//android.util.Log.d(TAG,"build()");
+		this.loadItems();
+		this.treeSize = 1;
+		if(this.size == 0){
+			this.counts[0] = 0;
+			this.firsts[0] = 0;
+			this.lefts[0] = -1;
+			setEmpty(this.treeBounds, 0);
+			return;
+		}
+		this.buildNode(0, 0, this.size);
+	}
+
+	/**
+	 * Refit the tree from current bounds keeping its topology
+	 */
+	public void refit(){
+		//android.util.Log.d(TAG,"refit()");
+		this.loadItems();
+		for(int node=this.treeSize-1; node >= 0; node--){
+			final int offset = node * 6;
+			if(this.lefts[node] < 0){
+				this.computeBounds(this.treeBounds, offset, this.firsts[node], this.firsts[node] + this.counts[node]);
+			}
+			else{
+				final int left = this.lefts[node] * 6;
+				System.arraycopy(this.treeBounds, left, this.treeBounds, offset, 6);
+				union(this.treeBounds, offset, this.treeBounds, left + 6);
+			}
+		}
+	}
+
+	/**
+	 * Collect nodes intersecting a frustum
+	 *
+	 * @param frustum The frustum
+	 * @param result The list to fill
+	 */
+	public void query(final Frustum frustum, final List<Node> result){
+		if(this.size == 0) return;
+		int top = 0;
+		this.stack[top++] = 0;
+		while(top > 0){
+			final int node = this.stack[--top];
+			frustum.tested++;
+			final int test = frustum.testAABB(this.treeBounds, node * 6);
+			if(test == Frustum.OUTSIDE){
+				frustum.culled++;
+				continue;
+			}
+			if(test == Frustum.INSIDE || this.lefts[node] < 0){
+				top = this.collect(node, result, top, frustum, test == Frustum.INSIDE);
+			}
+			else{
+				this.stack[top++] = this.lefts[node];
+				this.stack[top++] = this.lefts[node] + 1;
+			}
+		}
+	}
+
+	/**
+	 * Collect nodes whose bounds intersect an AABB (light volumes for instance)
+	 *
+	 * @param bounds The bounds holding the AABB (see BoundsUtils)
+	 * @param offset The bounds offset
+	 * @param result The list to fill
+	 */
+	public void query(final float[] bounds, final int offset, final List<Node> result){
+		if(this.size == 0) return;
+		int top = 0;
+		this.stack[top++] = 0;
+		while(top > 0){
+			final int node = this.stack[--top];
+			if(!overlaps(this.treeBounds, node * 6, bounds, offset)){
+				continue;
+			}
+			if(this.lefts[node] < 0){
+				for(int item=this.firsts[node], end=item+this.counts[node]; item < end; item++){
+					if(overlaps(this.itemBounds, item * 6, bounds, offset)){
+						result.add(this.nodes[this.indexes[item]]);
+					}
+				}
+			}
+			else{
+				this.stack[top++] = this.lefts[node];
+				this.stack[top++] = this.lefts[node] + 1;
+			}
+		}
+	}
+
+	/**
+	 * Collect nodes whose bounds intersect a sphere (point lights volumes for instance)
+	 *
+	 * @param x The center X
+	 * @param y The center Y
+	 * @param z The center Z
+	 * @param radius The radius
+	 * @param result The list to fill
+	 */
+	public void query(final float x, final float y, final float z, final float radius, final List<Node> result){
+		if(this.size == 0) return;
+		int top = 0;
+		this.stack[top++] = 0;
+		while(top > 0){
+			final int node = this.stack[--top];
+			if(!overlaps(this.treeBounds, node * 6, x, y, z, radius)){
+				continue;
+			}
+			if(this.lefts[node] < 0){
+				for(int item=this.firsts[node], end=item+this.counts[node]; item < end; item++){
+					if(overlaps(this.itemBounds, item * 6, x, y, z, radius)){
+						result.add(this.nodes[this.indexes[item]]);
+					}
+				}
+			}
+			else{
+				this.stack[top++] = this.lefts[node];
+				this.stack[top++] = this.lefts[node] + 1;
+			}
+		}
+	}
+
+	/**
+	 * Collect nodes whose bounds are hit by a ray
+	 *
+	 * @param ray The ray as [originX, originY, originZ, directionX, directionY, directionZ]
+	 * @param offset The ray offset
+	 * @param maxDistance The maximum distance along the ray (in direction length unit)
+	 * @param result The list to fill
+	 */
+	public void query(final float[] ray, final int offset, final float maxDistance, final List<Node> result){
+		if(this.size == 0) return;
+		final float ox = ray[offset], oy = ray[offset + 1], oz = ray[offset + 2];
+		final float idx = 1f / ray[offset + 3], idy = 1f / ray[offset + 4], idz = 1f / ray[offset + 5];
+		int top = 0;
+		this.stack[top++] = 0;
+		while(top > 0){
+			final int node = this.stack[--top];
+			if(intersectRay(this.treeBounds, node * 6, ox, oy, oz, idx, idy, idz, maxDistance) < 0f){
+				continue;
+			}
+			if(this.lefts[node] < 0){
+				for(int item=this.firsts[node], end=item+this.counts[node]; item < end; item++){
+					if(intersectRay(this.itemBounds, item * 6, ox, oy, oz, idx, idy, idz, maxDistance) >= 0f){
+						result.add(this.nodes[this.indexes[item]]);
+					}
+				}
+			}
+			else{
+				this.stack[top++] = this.lefts[node];
+				this.stack[top++] = this.lefts[node] + 1;
+			}
+		}
+	}
+
+	/**
+	 * Intersect a ray with an AABB (slabs method)
+	 *
+	 * @param bounds The AABB
+	 * @param offset The AABB offset
+	 * @param ox The ray origin X
+	 * @param oy The ray origin Y
+	 * @param oz The ray origin Z
+	 * @param idx The inverse of ray direction X
+	 * @param idy The inverse of ray direction Y
+	 * @param idz The inverse of ray direction Z
+	 * @param maxDistance The maximum distance along the ray
+	 * @return The entry distance or -1 if not hit
+	 */
+	public static float intersectRay(final float[] bounds, final int offset, final float ox, final float oy, final float oz,
+			final float idx, final float idy, final float idz, final float maxDistance){
+		//NaN values (origin on a slab with a parallel direction) are ignored by comparisons
+		float tmin = 0f, tmax = maxDistance;
+		float t1 = (bounds[offset] - ox) * idx, t2 = (bounds[offset + 3] - ox) * idx;
+		if(t1 > t2){ final float t = t1; t1 = t2; t2 = t; }
+		if(t1 > tmin) tmin = t1;
+		if(t2 < tmax) tmax = t2;
+		t1 = (bounds[offset + 1] - oy) * idy;
+		t2 = (bounds[offset + 4] - oy) * idy;
+		if(t1 > t2){ final float t = t1; t1 = t2; t2 = t; }
+		if(t1 > tmin) tmin = t1;
+		if(t2 < tmax) tmax = t2;
+		t1 = (bounds[offset + 2] - oz) * idz;
+		t2 = (bounds[offset + 5] - oz) * idz;
+		if(t1 > t2){ final float t = t1; t1 = t2; t2 = t; }
+		if(t1 > tmin) tmin = t1;
+		if(t2 < tmax) tmax = t2;
+		return (tmin > tmax) ? -1f : tmin;
+	}
+
+	/**
+	 * 	Collect all items under a tree node
+	 */
+	private int collect(final int root, final List<Node> result, int top, final Frustum frustum, final boolean inside){
+		final int base = top;
+		this.stack[top++] = root;
+		while(top > base){
+			final int node = this.stack[--top];
+			if(this.lefts[node] < 0){
+				for(int item=this.firsts[node], end=item+this.counts[node]; item < end; item++){
+					if(inside || frustum.testAABB(this.itemBounds, item * 6) != Frustum.OUTSIDE){
+						frustum.visible++;
+						result.add(this.nodes[this.indexes[item]]);
+					}
+				}
+			}
+			else{
+				this.stack[top++] = this.lefts[node];
+				this.stack[top++] = this.lefts[node] + 1;
+			}
+		}
+		return base;
+	}
+
+	/**
+	 * 	Load items bounds in tree order
+	 */
+	private void loadItems(){
+		for(int item=0; item < this.size; item++){
+			System.arraycopy(this.sourceBounds, this.indexes[item] * 6, this.itemBounds, item * 6, 6);
+		}
+	}
+
+	/**
+	 * 	Inner recursive build method using binned SAH
+	 */
+	private void buildNode(final int node, final int start, final int end){
+		final int offset = node * 6;
+		this.computeBounds(this.treeBounds, offset, start, end);
+		final int count = end - start;
+		if(count <= LEAF_SIZE){
+			this.setLeaf(node, start, count);
+			return;
+		}
+
+		//Centroids bounds
+		setEmpty(this.tmpBounds, 0);
+		for(int item=start; item < end; item++){
+			for(int c=0; c < 3; c++){
+				final float centroid = this.centroid(item, c);
+				this.tmpBounds[c] = Math.min(this.tmpBounds[c], centroid);
+				this.tmpBounds[3 + c] = Math.max(this.tmpBounds[3 + c], centroid);
+			}
+		}
+		int axis = 0;
+		float extent = this.tmpBounds[3] - this.tmpBounds[0];
+		for(int c=1; c < 3; c++){
+			if(this.tmpBounds[3 + c] - this.tmpBounds[c] > extent){
+				extent = this.tmpBounds[3 + c] - this.tmpBounds[c];
+				axis = c;
+			}
+		}
+		if(!(extent > 0f) || extent == Float.POSITIVE_INFINITY){
+			this.split(node, start, (start + end) >>> 1, end);
+			return;
+		}
+		final float cmin = this.tmpBounds[axis];
+		final float scale = BINS / extent;
+
+		//Fill bins
+		for(int bin=0; bin < BINS; bin++){
+			this.binCounts[bin] = 0;
+			setEmpty(this.binBounds, bin * 6);
+		}
+		for(int item=start; item < end; item++){
+			final int bin = Math.min(BINS - 1, (int)((this.centroid(item, axis) - cmin) * scale));
+			this.binCounts[bin]++;
+			union(this.binBounds, bin * 6, this.itemBounds, item * 6);
+		}
+
+		//Sweep from right
+		setEmpty(this.tmpBounds, 0);
+		for(int bin=BINS-1; bin > 0; bin--){
+			union(this.tmpBounds, 0, this.binBounds, bin * 6);
+			this.rightAreas[bin] = area(this.tmpBounds, 0);
+		}
+		//Sweep from left and find best split
+		setEmpty(this.tmpBounds, 0);
+		int leftCount = 0;
+		int bestSplit = -1;
+		float bestCost = area(this.treeBounds, offset) * count;
+		for(int bin=0; bin < BINS-1; bin++){
+			union(this.tmpBounds, 0, this.binBounds, bin * 6);
+			leftCount += this.binCounts[bin];
+			if(leftCount == 0 || leftCount == count) continue;
+			final float cost = area(this.tmpBounds, 0) * leftCount + this.rightAreas[bin + 1] * (count - leftCount);
+			if(cost < bestCost){
+				bestCost = cost;
+				bestSplit = bin + 1;
+			}
+		}
+		if(bestSplit < 0){
+			this.split(node, start, (start + end) >>> 1, end);
+			return;
+		}
+
+		//Partition
+		int mid = start;
+		for(int item=start; item < end; item++){
+			final int bin = Math.min(BINS - 1, (int)((this.centroid(item, axis) - cmin) * scale));
+			if(bin < bestSplit){
+				this.swap(item, mid++);
+			}
+		}
+		if(mid == start || mid == end){
+			mid = (start + end) >>> 1;
+		}
+		this.split(node, start, mid, end);
+	}
+
+	/**
+	 * 	Create children of an inner node
+	 */
+	private void split(final int node, final int start, final int mid, final int end){
+		final int left = this.treeSize;
+		this.treeSize += 2;
+		this.lefts[node] = left;
+		this.counts[node] = 0;
+		this.buildNode(left, start, mid);
+		this.buildNode(left + 1, mid, end);
+	}
+
+	/**
+	 * 	Set a leaf node
+	 */
+	private void setLeaf(final int node, final int first, final int count){
+		this.lefts[node] = -1;
+		this.firsts[node] = first;
+		this.counts[node] = count;
+	}
+
+	/**
+	 * 	Compute the bounds of items range
+	 */
+	private void computeBounds(final float[] bounds, final int offset, final int start, final int end){
+		setEmpty(bounds, offset);
+		for(int item=start; item < end; item++){
+			union(bounds, offset, this.itemBounds, item * 6);
+		}
+	}
+
+	/**
+	 * 	Get the centroid of an item on an axis
+	 */
+	private float centroid(final int item, final int axis){
+		final float min = this.itemBounds[item * 6 + axis];
+		final float max = this.itemBounds[item * 6 + 3 + axis];
+		return (max < min) ? 0f : (min * 0.5f + max * 0.5f);
+	}
+
+	/**
+	 * 	Swap 2 items
+	 */
+	private void swap(final int a, final int b){
+		if(a == b) return;
+		final int index = this.indexes[a];
+		this.indexes[a] = this.indexes[b];
+		this.indexes[b] = index;
+		for(int c=0; c < 6; c++){
+			final float value = this.itemBounds[a * 6 + c];
+			this.itemBounds[a * 6 + c] = this.itemBounds[b * 6 + c];
+			this.itemBounds[b * 6 + c] = value;
+		}
+	}
+
+	/**
+	 * 	Set an AABB as empty
+	 */
+	private static void setEmpty(final float[] bounds, final int offset){
+		bounds[offset] = bounds[offset + 1] = bounds[offset + 2] = Float.MAX_VALUE;
+		bounds[offset + 3] = bounds[offset + 4] = bounds[offset + 5] = -Float.MAX_VALUE;
+	}
+
+	/**
+	 * 	Merge an AABB into another one
+	 */
+	private static void union(final float[] dst, final int dstOffset, final float[] src, final int srcOffset){
+		for(int c=0; c < 3; c++){
+			if(src[srcOffset + c] < dst[dstOffset + c]) dst[dstOffset + c] = src[srcOffset + c];
+			if(src[srcOffset + 3 + c] > dst[dstOffset + 3 + c]) dst[dstOffset + 3 + c] = src[srcOffset + 3 + c];
+		}
+	}
+
+	/**
+	 * 	Half surface area of an AABB (0 if empty)
+	 */
+	private static float area(final float[] bounds, final int offset){
+		final float dx = bounds[offset + 3] - bounds[offset];
+		final float dy = bounds[offset + 4] - bounds[offset + 1];
+		final float dz = bounds[offset + 5] - bounds[offset + 2];
+		if(dx < 0f || dy < 0f || dz < 0f) return 0f;
+		return dx * dy + dy * dz + dz * dx;
+	}
+
+	/**
+	 * 	Test overlap of 2 AABB
+	 */
+	private static boolean overlaps(final float[] a, final int aOffset, final float[] b, final int bOffset){
+		return a[aOffset] <= b[bOffset + 3] && a[aOffset + 3] >= b[bOffset]
+				&& a[aOffset + 1] <= b[bOffset + 4] && a[aOffset + 4] >= b[bOffset + 1]
+				&& a[aOffset + 2] <= b[bOffset + 5] && a[aOffset + 5] >= b[bOffset + 2];
+	}
+
+	/**
+	 * 	Test overlap of an AABB and a sphere
+	 */
+	private static boolean overlaps(final float[] a, final int aOffset, final float x, final float y, final float z, final float radius){
+		if(a[aOffset + 3] < a[aOffset]) return false;
+		final float dx = Math.max(a[aOffset] - x, Math.max(0f, x - a[aOffset + 3]));
+		final float dy = Math.max(a[aOffset + 1] - y, Math.max(0f, y - a[aOffset + 4]));
+		final float dz = Math.max(a[aOffset + 2] - z, Math.max(0f, z - a[aOffset + 5]));
+		return dx * dx + dy * dy + dz * dz <= radius * radius;
+	}
+}
@@ -0,0 +1,187 @@
+package fr.kesk.libgl.tools;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import fr.kesk.libgl.GlAssets.Node;
+
+/**
+ * Double buffered NodeBVH built and refitted in a worker thread.
+ * <br/>
+ * <br/>
+ * The front tree is used for queries in GL Thread while the back tree is updated
+ * by the worker, trees are swapped when the worker is done. Typical calls in GL Thread :
+ * <pre>{@code
+ * 	final NodeBVH bvh = updater.getFront();
+ * 	bvh.query(frustum, visibleNodes);
+ * 	...
+ * 	BoundsUtils.updateBounds(node);
+ * 	updater.update(false);
+ * }</pre>
+ * Nodes transformed using a NodeArray built on the same hierarchies can be propagated
+ * and refitted in one call, only moved subtrees bounds are updated :
+ * <pre>{@code
+ * 	nodeArray.translate(index, x, y, z);
+ * 	...
+ * 	updater.update(nodeArray);
+ * }</pre>
+ * The front tree must not be kept after a call to update().
+ *
+ * @author Thomas MILLET
+ *
+ */
+public class NodeBVHUpdater {
+
+	/**
+	 * TAG log
+	 */
+	@SuppressWarnings("unused")
+	private final static String TAG = NodeBVHUpdater.class.getName();
+
+	/**
+	 * The indexed nodes
+	 */
+	public final Node[] nodes;
+
+	/**
+	 * Snapshot of nodes bounds read in GL Thread
+	 */
+	private final float[] snapshot;
+
+	/**
+	 * The tree used by GL Thread
+	 */
+	private volatile NodeBVH front;
+
+	/**
+	 * The tree updated by the worker
+	 */
+	private NodeBVH back;
+
+	/**
+	 * The worker
+	 */
+	private final ExecutorService executor;
+
+	/**
+	 * The pending update
+	 */
+	private Future<?> pending;
+
+	/**
+	 * Indicates if nodes moved since last scheduled update
+	 */
+	private boolean moved = false;
+
+	/**
+	 * Default constructor, first tree is built in current thread
+	 *
+	 * @param rootNodes The root nodes (Scene.nodeInstances for instance) with up to date bounds
+	 */
+	public NodeBVHUpdater(final Node[] rootNodes){
+		this(rootNodes, Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(final Runnable r) {
+				final Thread thread = new Thread(r, TAG);
+				thread.setDaemon(true);
+				return thread;
+			}
+		}));
+	}
+
+	/**
+	 * Constructor using a given worker, first tree is built in current thread
+	 *
+	 * @param rootNodes The root nodes with up to date bounds
+	 * @param executor The single thread worker, shut down by free()
+	 */
+	NodeBVHUpdater(final Node[] rootNodes, final ExecutorService executor){
+		//android.util.Log.d(TAG,"NEW");
+		this.nodes = NodeBVH.getNodes(rootNodes);
+		this.snapshot = new float[this.nodes.length * 6];
+		this.front = new NodeBVH(this.nodes);
+		this.front.readBounds();
+		this.front.build();
+		this.back = new NodeBVH(this.nodes);
+		this.executor = executor;
+	}
+
+	/**
+	 * Get the current tree for queries
+	 *
+	 * @return The front tree
+	 */
+	public NodeBVH getFront(){
+		return this.front;
+	}
+
+	/**
+	 * Snapshot nodes bounds and update the back tree in the worker, does nothing
+	 * if the previous update is still running.
+	 *
+	 * ! Warning : must be called in GL Thread only
+	 *
+	 * @param rebuild true to rebuild the tree, false to refit it
+	 * @return true if an update has been scheduled
+	 */
+	public boolean update(final boolean rebuild){
+		//android.util.Log.d(TAG,"update("+rebuild+")");
+		if(this.pending != null && !this.pending.isDone()){
+			return false;
+		}
+		NodeBVH.readBounds(this.nodes, this.snapshot);
+		this.pending = this.executor.submit(new Runnable() {
+			@Override
+			public void run() {
+				final NodeBVH bvh = NodeBVHUpdater.this.back;
+				bvh.setBounds(NodeBVHUpdater.this.snapshot);
+				if(rebuild || !bvh.isBuilt()){
+					bvh.build();
+				}
+				else{
+					bvh.refit();
+				}
+				NodeBVHUpdater.this.back = NodeBVHUpdater.this.front;
+				NodeBVHUpdater.this.front = bvh;
+			}
+		});
+		this.moved = false;
+		return true;
+	}
+
+	/**
+	 * Propagate the transformations of a NodeArray built on the same hierarchies, update
+	 * the bounds of moved nodes and refit the back tree in the worker. If the previous update
+	 * is still running, the refit is scheduled by a next call.
+	 *
+	 * ! Warning : must be called in GL Thread only
+	 *
+	 * @param nodeArray The NodeArray holding the transformations
+	 * @return true if an update has been scheduled
+	 */
+	public boolean update(final NodeArray nodeArray){
+		//android.util.Log.d(TAG,"update(NodeArray)");
+		if(nodeArray.updateBounds()){
+			this.moved = true;
+		}
+		return this.moved && this.update(false);
+	}
+
+	/**
+	 * Indicates if an update is running
+	 *
+	 * @return true if running
+	 */
+	public boolean isUpdating(){
+		return this.pending != null && !this.pending.isDone();
+	}
+
+	/**
+	 * Stop the worker thread
+	 */
+	public void free(){
+		this.executor.shutdownNow();
+	}
+}
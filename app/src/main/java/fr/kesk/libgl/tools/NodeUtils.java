@@ -4,6 +4,13 @@ import fr.kesk.libgl.GlAssets.Node;
 
 /**
  * Tools class for Node treatments
+ * <br/>
+ * <br/>
+ * Transformations are applied eagerly on the whole subtree, use NodeArray for
+ * lazy updates of frequently transformed hierarchies.
+ * <br/>
+ * <br/>
+ * Methods are reentrant and lock free, temporary matrices are stored per thread.
  * 
  * @author Thomas MILLET
  *
@@ -22,14 +29,14 @@ public class NodeUtils {
 	private final static String TAG = NodeUtils.class.getName();
 	
 	/**
-	 * TMP Matrix used for preparing nodes
+	 * TMP Matrix used for transformations (per thread)
 	 */
-	private final static float[] prepareMatrix = new float[16];
-	
-	/**
-	 * TMP Matrix used for transformations
-	 */
-	private final static float[] tmpMatrix = new float[16];
+	private final static ThreadLocal<float[]> tmpMatrix = new ThreadLocal<float[]>(){
+		@Override
+		protected float[] initialValue() {
+			return new float[16];
+		}
+	};
 		
 	/**
 	 * Prepare a node for Matrix operations by applying node transformations recursively.
@@ -43,9 +50,11 @@ public class NodeUtils {
 	 */
 	public static void prepareNode(final Node node){
 		//android.util.Log.d(TAG,"prepareNode()");
-		synchronized(prepareMatrix) {
-			MatrixUtils.setIdentityM(prepareMatrix, 0);
-			_prepareNode(node, prepareMatrix);	
+		//Root node model is relative to identity
+		if(node.nodeInstances != null){
+			for(Node subnnode : node.nodeInstances){
+				 _prepareNode(subnnode, node.model);
+			}
 		}
 	}
 	
@@ -74,11 +83,10 @@ public class NodeUtils {
 	 * @param z scale factor Z
 	 */
 	public static void scaleN(final Node node, final float x, final float y, final float z){
-		synchronized (tmpMatrix) {
-			MatrixUtils.setIdentityM(tmpMatrix, 0);
-			MatrixUtils.scaleM(tmpMatrix, 0, x, y, z);
-			multiplyMN(node, tmpMatrix, 0);
-		}
+		final float[] matrix = tmpMatrix.get();
+		MatrixUtils.setIdentityM(matrix, 0);
+		MatrixUtils.scaleM(matrix, 0, x, y, z);
+		multiplyMN(node, matrix, 0);
 	}	
 	
 	/**
@@ -91,10 +99,9 @@ public class NodeUtils {
 	 * @param z scale factor Z
 	 */
 	public static void rotateN(final Node node, final float a, final float x, final float y, final float z){
-		synchronized (tmpMatrix) {
-			MatrixUtils.setRotateM(tmpMatrix, 0, a, x, y, z);
-			multiplyMN(node, tmpMatrix, 0);
-		}
+		final float[] matrix = tmpMatrix.get();
+		MatrixUtils.setRotateM(matrix, 0, a, x, y, z);
+		multiplyMN(node, matrix, 0);
 	}
 	
 	/**
@@ -106,11 +113,10 @@ public class NodeUtils {
 	 * @param z Z translate coordinate
 	 */
 	public static void translateN(final Node node, final float x, final float y, final float z){
-		synchronized (tmpMatrix) {
-			MatrixUtils.setIdentityM(tmpMatrix, 0);
-			MatrixUtils.translateM(tmpMatrix, 0, x, y, z);
-			multiplyMN(node, tmpMatrix, 0);
-		}
+		final float[] matrix = tmpMatrix.get();
+		MatrixUtils.setIdentityM(matrix, 0);
+		MatrixUtils.translateM(matrix, 0, x, y, z);
+		multiplyMN(node, matrix, 0);
 	}
 	
 	/**
@@ -0,0 +1,301 @@
+package fr.kesk.libgl.tools;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import fr.kesk.libgl.GlContext;
+import fr.kesk.libgl.GlAssets.Geometry.Element;
+import fr.kesk.libgl.GlAssets.Node;
+import fr.kesk.libgl.GlAssets.Node.GeometryInstance;
+
+import android.opengl.Matrix;
+
+/**
+ * Ray picking of nodes geometries.
+ * <br/>
+ * <br/>
+ * The ray is computed from screen coordinates using the inverse of projection * view
+ * matrices, candidates nodes are found using their world bounds (or a NodeBVH) and
+ * triangles are tested in local space using TriangleBVH built lazily per element.
+ * <br/>
+ * <br/>
+ * Elements positions must be available, VBO only elements need a CPU copy of positions
+ * (see BinaryLoader.keepPositions), elements without positions are ignored.
+ * <br/>
+ * <br/>
+ * Results are stored in public fields and no allocation is done once trees are built :
+ * <pre>{@code
+ * 	picker.setRay(glContext, x, y, width, height);
+ * 	if(picker.pick(scene.nodeInstances)){
+ * 		//picker.node, picker.element, picker.triangle, picker.distance, picker.point
+ * 	}
+ * }</pre>
+ *
+ * @author Thomas MILLET
+ *
+ */
+public class Picker {
+
+	/**
+	 * TAG log
+	 */
+	@SuppressWarnings("unused")
+	private final static String TAG = Picker.class.getName();
+
+	/**
+	 * The current world ray as [originX, originY, originZ, directionX, directionY, directionZ],
+	 * direction is normalized
+	 */
+	public final float[] ray = new float[6];
+
+	/**
+	 * The picked node (null if none)
+	 */
+	public Node node;
+
+	/**
+	 * The picked element (null if none)
+	 */
+	public Element element;
+
+	/**
+	 * The picked triangle index in element (-1 if none)
+	 */
+	public int triangle = -1;
+
+	/**
+	 * The distance of the hit from ray origin
+	 */
+	public float distance;
+
+	/**
+	 * The world hit point
+	 */
+	public final float[] point = new float[3];
+
+	/**
+	 * The barycentric coordinates of the hit in triangle [u, v]
+	 */
+	public final float[] barycentric = new float[2];
+
+	/**
+	 * Cache of triangles trees
+	 */
+	private final Map<Element, TriangleBVH> cache = new WeakHashMap<Element, TriangleBVH>();
+
+	/**
+	 * Candidates nodes from NodeBVH
+	 */
+	private final List<Node> candidates = new ArrayList<Node>();
+
+	/**
+	 * TMP matrices (inverse and projection * view)
+	 */
+	private final float[] tmpMatrix = new float[32];
+
+	/**
+	 * TMP vectors
+	 */
+	private final float[] tmpVector = new float[8];
+
+	/**
+	 * Ray in local space
+	 */
+	private final float[] localRay = new float[6];
+
+	/**
+	 * TMP hit
+	 */
+	private final float[] hit = new float[TriangleBVH.HIT_SIZE];
+
+	/**
+	 * Set the ray from screen coordinates using context matrices
+	 *
+	 * @param glContext The GL context
+	 * @param x The screen X (pixels from left)
+	 * @param y The screen Y (pixels from top)
+	 * @param width The viewport width
+	 * @param height The viewport height
+	 * @return false if the matrices cannot be inverted
+	 */
+	public boolean setRay(final GlContext glContext, final float x, final float y, final int width, final int height){
+		return this.setRay(glContext.pMatrix, glContext.vMatrix, x, y, width, height);
+	}
+
+	/**
+	 * Set the ray from screen coordinates
+	 *
+	 * @param pMatrix The projection matrix
+	 * @param vMatrix The view matrix
+	 * @param x The screen X (pixels from left)
+	 * @param y The screen Y (pixels from top)
+	 * @param width The viewport width
+	 * @param height The viewport height
+	 * @return false if the matrices cannot be inverted
+	 */
+	public boolean setRay(final float[] pMatrix, final float[] vMatrix, final float x, final float y, final int width, final int height){
+		//android.util.Log.d(TAG,"setRay("+x+", "+y+")");
+		MatrixUtils.multiplyMM(this.tmpMatrix, 16, pMatrix, 0, vMatrix, 0);
+		if(!Matrix.invertM(this.tmpMatrix, 0, this.tmpMatrix, 16)){
+			return false;
+		}
+		final float nx = 2f * x / width - 1f;
+		final float ny = 1f - 2f * y / height;
+
+		//Near point
+		this.tmpVector[4] = nx;
+		this.tmpVector[5] = ny;
+		this.tmpVector[6] = -1f;
+		this.tmpVector[7] = 1f;
+		MatrixUtils.multiplyMV(this.tmpVector, 0, this.tmpMatrix, 0, this.tmpVector, 4);
+		this.ray[0] = this.tmpVector[0] / this.tmpVector[3];
+		this.ray[1] = this.tmpVector[1] / this.tmpVector[3];
+		this.ray[2] = this.tmpVector[2] / this.tmpVector[3];
+
+		//Far point
+		this.tmpVector[4] = nx;
+		this.tmpVector[5] = ny;
+		this.tmpVector[6] = 1f;
+		this.tmpVector[7] = 1f;
+		MatrixUtils.multiplyMV(this.tmpVector, 0, this.tmpMatrix, 0, this.tmpVector, 4);
+		final float dx = this.tmpVector[0] / this.tmpVector[3] - this.ray[0];
+		final float dy = this.tmpVector[1] / this.tmpVector[3] - this.ray[1];
+		final float dz = this.tmpVector[2] / this.tmpVector[3] - this.ray[2];
+		final float length = (float)Math.sqrt(dx * dx + dy * dy + dz * dz);
+		this.ray[3] = dx / length;
+		this.ray[4] = dy / length;
+		this.ray[5] = dz / length;
+		return true;
+	}
+
+	/**
+	 * Pick the closest node of hierarchies, nodes bounds must be up to date
+	 * (see BoundsUtils.updateBounds())
+	 *
+	 * @param rootNodes The root nodes (Scene.nodeInstances for instance)
+	 * @return true if a node has been hit
+	 */
+	public boolean pick(final Node[] rootNodes){
+		this.reset();
+		final float idx = 1f / this.ray[3], idy = 1f / this.ray[4], idz = 1f / this.ray[5];
+		for(Node rootNode : rootNodes){
+			this.pick(rootNode, idx, idy, idz);
+		}
+		return this.node != null;
+	}
+
+	/**
+	 * Pick the closest node using a NodeBVH
+	 *
+	 * @param bvh The NodeBVH
+	 * @return true if a node has been hit
+	 */
+	public boolean pick(final NodeBVH bvh){
+		this.reset();
+		this.candidates.clear();
+		bvh.query(this.ray, 0, Float.MAX_VALUE, this.candidates);
+		for(int index=0; index < this.candidates.size(); index++){
+			this.pickGeometries(this.candidates.get(index));
+		}
+		this.candidates.clear();
+		return this.node != null;
+	}
+
+	/**
+	 * Get the triangles tree of an element, built at first call
+	 *
+	 * @param element The element
+	 * @return The TriangleBVH or null if positions are not available
+	 */
+	public TriangleBVH getTriangleBVH(final Element element){
+		TriangleBVH bvh = this.cache.get(element);
+		if(bvh == null){
+			if(element.getPositions() == null){
+				return null;
+			}
+			bvh = new TriangleBVH(element);
+			this.cache.put(element, bvh);
+		}
+		return bvh;
+	}
+
+	/**
+	 * Clear the triangles trees cache
+	 */
+	public void clearCache(){
+		this.cache.clear();
+	}
+
+	/**
+	 * 	Reset results
+	 */
+	private void reset(){
+		this.node = null;
+		this.element = null;
+		this.triangle = -1;
+		this.distance = Float.MAX_VALUE;
+	}
+
+	/**
+	 * 	Inner recursive method to pick in hierarchy
+	 */
+	private void pick(final Node node, final float idx, final float idy, final float idz){
+		if(NodeBVH.intersectRay(node.treeBounds, BoundsUtils.MIN, this.ray[0], this.ray[1], this.ray[2], idx, idy, idz, this.distance) < 0f){
+			return;
+		}
+		if(node.geometryInstances != null
+				&& NodeBVH.intersectRay(node.bounds, BoundsUtils.MIN, this.ray[0], this.ray[1], this.ray[2], idx, idy, idz, this.distance) >= 0f){
+			this.pickGeometries(node);
+		}
+		if(node.nodeInstances != null){
+			for(Node subnode : node.nodeInstances){
+				this.pick(subnode, idx, idy, idz);
+			}
+		}
+	}
+
+	/**
+	 * 	Test geometries of a node in local space
+	 */
+	private void pickGeometries(final Node node){
+		if(node.geometryInstances == null || !MatrixUtils.invertAffineM(this.tmpMatrix, 0, node.model, 0)){
+			return;
+		}
+		//Local ray, distances are preserved as direction is not normalized
+		this.tmpVector[4] = this.ray[0];
+		this.tmpVector[5] = this.ray[1];
+		this.tmpVector[6] = this.ray[2];
+		this.tmpVector[7] = 1f;
+		MatrixUtils.multiplyMV(this.tmpVector, 0, this.tmpMatrix, 0, this.tmpVector, 4);
+		System.arraycopy(this.tmpVector, 0, this.localRay, 0, 3);
+		this.tmpVector[4] = this.ray[3];
+		this.tmpVector[5] = this.ray[4];
+		this.tmpVector[6] = this.ray[5];
+		this.tmpVector[7] = 0f;
+		MatrixUtils.multiplyMV(this.tmpVector, 0, this.tmpMatrix, 0, this.tmpVector, 4);
+		System.arraycopy(this.tmpVector, 0, this.localRay, 3, 3);
+
+		for(GeometryInstance geometryInstance : node.geometryInstances){
+			for(int eIndex=0; eIndex < geometryInstance.geometry.elements.size(); eIndex++){
+				final Element element = geometryInstance.geometry.elements.get(eIndex);
+				final TriangleBVH bvh = this.getTriangleBVH(element);
+				if(bvh != null){
+					final int triangle = bvh.intersect(this.localRay, 0, this.distance, this.hit, 0);
+					if(triangle >= 0){
+						this.node = node;
+						this.element = element;
+						this.triangle = triangle;
+						this.distance = this.hit[TriangleBVH.DISTANCE];
+						this.barycentric[0] = this.hit[TriangleBVH.U];
+						this.barycentric[1] = this.hit[TriangleBVH.V];
+						this.point[0] = this.ray[0] + this.ray[3] * this.distance;
+						this.point[1] = this.ray[1] + this.ray[4] * this.distance;
+						this.point[2] = this.ray[2] + this.ray[5] * this.distance;
+					}
+				}
+			}
+		}
+	}
+}
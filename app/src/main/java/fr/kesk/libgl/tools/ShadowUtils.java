@@ -0,0 +1,272 @@
+package fr.kesk.libgl.tools;
+
+import android.opengl.Matrix;
+
+/**
+ * Tools class for shadow maps light frustum fitting.
+ * <br/>
+ * <br/>
+ * Light projections are fitted to the casters bounds and, for directional lights,
+ * to the intersection of the view frustum and the casters bounds in light view space.
+ * Casters between the light and the view frustum are kept by extending the near plane
+ * to the closest caster.
+ *
+ * @author Thomas MILLET
+ *
+ */
+public final class ShadowUtils {
+
+	/**
+	 * TAG log
+	 */
+	@SuppressWarnings("unused")
+	private final static String TAG = ShadowUtils.class.getName();
+
+	/**
+	 * Number of floats for frustum corners
+	 */
+	public static final int CORNERS_SIZE = 24;
+
+	/**
+	 * Margin added to fitted projections bounds
+	 */
+	private static final float MARGIN = 0.01f;
+
+	/**
+	 * NDC cube corners
+	 */
+	private static final float[] NDC_CORNERS = new float[]{-1f, -1f, -1f,
+															1f, -1f, -1f,
+															1f, 1f, -1f,
+															-1f, 1f, -1f,
+															-1f, -1f, 1f,
+															1f, -1f, 1f,
+															1f, 1f, 1f,
+															-1f, 1f, 1f};
+
+	/**
+	 * TMP buffers (matrix, vectors, bounds) per thread
+	 */
+	private final static ThreadLocal<float[]> sTemp = new ThreadLocal<float[]>(){
+		@Override
+		protected float[] initialValue() {
+			return new float[16 + 8 + BoundsUtils.BOUNDS_SIZE];
+		}
+	};
+
+	/**
+	 * Get the 8 world corners of a view frustum (near corners first)
+	 *
+	 * @param corners The array to fill with corners (see CORNERS_SIZE)
+	 * @param offset The corners offset
+	 * @param vpMatrix The projection * view matrix of the frustum
+	 * @param vpOffset The matrix offset
+	 * @return false if the matrix cannot be inverted
+	 */
+	public static boolean getFrustumCorners(final float[] corners, final int offset, final float[] vpMatrix, final int vpOffset){
+		final float[] tmp = sTemp.get();
+		if(!Matrix.invertM(tmp, 0, vpMatrix, vpOffset)){
+			return false;
+		}
+		for(int corner=0; corner < 8; corner++){
+			tmp[20] = NDC_CORNERS[corner * 3];
+			tmp[21] = NDC_CORNERS[corner * 3 + 1];
+			tmp[22] = NDC_CORNERS[corner * 3 + 2];
+			tmp[23] = 1f;
+			MatrixUtils.multiplyMV(tmp, 16, tmp, 0, tmp, 20);
+			corners[offset + corner * 3] = tmp[16] / tmp[19];
+			corners[offset + corner * 3 + 1] = tmp[17] / tmp[19];
+			corners[offset + corner * 3 + 2] = tmp[18] / tmp[19];
+		}
+		return true;
+	}
+
+	/**
+	 * Get the near and far planes distances of a projection matrix
+	 *
+	 * @param range The array to fill with [near, far]
+	 * @param rangeOffset The range offset
+	 * @param pMatrix The perspective or orthographic projection matrix
+	 * @param pOffset The matrix offset
+	 */
+	public static void getDepthRange(final float[] range, final int rangeOffset, final float[] pMatrix, final int pOffset){
+		final float m10 = pMatrix[pOffset + 10];
+		final float m14 = pMatrix[pOffset + 14];
+		if(pMatrix[pOffset + 11] != 0f){
+			range[rangeOffset] = m14 / (m10 - 1f);
+			range[rangeOffset + 1] = m14 / (m10 + 1f);
+		}
+		else{
+			range[rangeOffset] = (m14 + 1f) / m10;
+			range[rangeOffset + 1] = (m14 - 1f) / m10;
+		}
+	}
+
+	/**
+	 * Compute cascades splits distances using the practical split scheme (blend of
+	 * logarithmic and uniform splits)
+	 *
+	 * @param splits The array to fill with count + 1 distances (first is near, last is far)
+	 * @param offset The splits offset
+	 * @param count The number of cascades
+	 * @param near The view near plane distance
+	 * @param far The view far plane distance
+	 * @param lambda The blend factor in [0,1], 1 for logarithmic, 0 for uniform
+	 */
+	public static void computeSplits(final float[] splits, final int offset, final int count, final float near, final float far, final float lambda){
+		splits[offset] = near;
+		for(int split=1; split < count; split++){
+			final float ratio = (float)split / count;
+			final float logSplit = near * (float)Math.pow(far / near, ratio);
+			final float uniformSplit = near + (far - near) * ratio;
+			splits[offset + split] = lambda * logSplit + (1f - lambda) * uniformSplit;
+		}
+		splits[offset + count] = far;
+	}
+
+	/**
+	 * Get the corners of a part of a view frustum between 2 distances
+	 *
+	 * @param dst The array to fill with corners (see CORNERS_SIZE)
+	 * @param dstOffset The dst offset
+	 * @param corners The view frustum corners (see getFrustumCorners())
+	 * @param cornersOffset The corners offset
+	 * @param near The view near plane distance
+	 * @param far The view far plane distance
+	 * @param splitNear The near distance of the part
+	 * @param splitFar The far distance of the part
+	 */
+	public static void getSplitCorners(final float[] dst, final int dstOffset, final float[] corners, final int cornersOffset,
+			final float near, final float far, final float splitNear, final float splitFar){
+		final float nearRatio = (splitNear - near) / (far - near);
+		final float farRatio = (splitFar - near) / (far - near);
+		for(int corner=0; corner < 4; corner++){
+			for(int c=0; c < 3; c++){
+				final float nearValue = corners[cornersOffset + corner * 3 + c];
+				final float farValue = corners[cornersOffset + 12 + corner * 3 + c];
+				dst[dstOffset + corner * 3 + c] = nearValue + (farValue - nearValue) * nearRatio;
+				dst[dstOffset + 12 + corner * 3 + c] = nearValue + (farValue - nearValue) * farRatio;
+			}
+		}
+	}
+
+	/**
+	 * Set a matrix mapping [0,1] texture coordinates to a tile of a square atlas
+	 *
+	 * @param m The matrix to set
+	 * @param offset The matrix offset
+	 * @param tile The tile index (row major from bottom left)
+	 * @param tiles The number of tiles per side
+	 */
+	public static void setAtlasM(final float[] m, final int offset, final int tile, final int tiles){
+		final float scale = 1f / tiles;
+		MatrixUtils.setIdentityM(m, offset);
+		m[offset] = m[offset + 5] = scale;
+		m[offset + 12] = (tile % tiles) * scale;
+		m[offset + 13] = (tile / tiles) * scale;
+	}
+
+	/**
+	 * Fit an orthographic light projection to casters bounds and view frustum corners
+	 *
+	 * @param m The projection matrix to set
+	 * @param offset The projection offset
+	 * @param lightView The light view matrix
+	 * @param lightViewOffset The light view offset
+	 * @param casterBounds The world bounds of casters (see BoundsUtils)
+	 * @param casterOffset The bounds offset
+	 * @param corners The world corners of the view frustum (see getFrustumCorners()), null to fit casters only
+	 * @param cornersOffset The corners offset
+	 * @param size The shadow map size used to snap bounds on texels, 0 to disable snapping
+	 * @return false if casters bounds are empty or infinite (projection is not modified)
+	 */
+	public static boolean fitOrthoM(final float[] m, final int offset, final float[] lightView, final int lightViewOffset,
+			final float[] casterBounds, final int casterOffset, final float[] corners, final int cornersOffset, final int size){
+		if(BoundsUtils.isEmpty(casterBounds, casterOffset) || BoundsUtils.isInfinite(casterBounds, casterOffset)){
+			return false;
+		}
+		final float[] tmp = sTemp.get();
+		final int b = 24;
+		MatrixUtils.batchMultiplyMAABB(tmp, b, lightView, lightViewOffset, casterBounds, casterOffset, 1);
+		float minX = tmp[b], minY = tmp[b + 1], maxX = tmp[b + 3], maxY = tmp[b + 4];
+		float far = -tmp[b + 2];
+		final float near = -tmp[b + 5];
+
+		if(corners != null){
+			//Receivers bounds in light view
+			float rMinX = Float.MAX_VALUE, rMinY = Float.MAX_VALUE, rMinZ = Float.MAX_VALUE;
+			float rMaxX = -Float.MAX_VALUE, rMaxY = -Float.MAX_VALUE;
+			for(int corner=0; corner < 8; corner++){
+				tmp[20] = corners[cornersOffset + corner * 3];
+				tmp[21] = corners[cornersOffset + corner * 3 + 1];
+				tmp[22] = corners[cornersOffset + corner * 3 + 2];
+				tmp[23] = 1f;
+				MatrixUtils.multiplyMV(tmp, 16, lightView, lightViewOffset, tmp, 20);
+				rMinX = Math.min(rMinX, tmp[16]);
+				rMaxX = Math.max(rMaxX, tmp[16]);
+				rMinY = Math.min(rMinY, tmp[17]);
+				rMaxY = Math.max(rMaxY, tmp[17]);
+				rMinZ = Math.min(rMinZ, tmp[18]);
+			}
+			//Intersection, kept on casters if disjoint
+			if(rMinX < maxX && rMaxX > minX && rMinY < maxY && rMaxY > minY){
+				minX = Math.max(minX, rMinX);
+				maxX = Math.min(maxX, rMaxX);
+				minY = Math.max(minY, rMinY);
+				maxY = Math.min(maxY, rMaxY);
+				far = Math.min(far, -rMinZ);
+			}
+		}
+
+		if(size > 0){
+			final float unitX = (maxX - minX) / size;
+			final float unitY = (maxY - minY) / size;
+			if(unitX > 0f){
+				minX = (float)Math.floor(minX / unitX) * unitX;
+				maxX = (float)Math.ceil(maxX / unitX) * unitX;
+			}
+			if(unitY > 0f){
+				minY = (float)Math.floor(minY / unitY) * unitY;
+				maxY = (float)Math.ceil(maxY / unitY) * unitY;
+			}
+		}
+		if(maxX - minX < MARGIN){
+			maxX = minX + MARGIN;
+		}
+		if(maxY - minY < MARGIN){
+			maxY = minY + MARGIN;
+		}
+		Matrix.orthoM(m, offset, minX, maxX, minY, maxY, near - MARGIN, Math.max(far, near) + MARGIN);
+		return true;
+	}
+
+	/**
+	 * Fit near and far planes of a perspective light projection to casters bounds
+	 *
+	 * @param m The projection matrix to set
+	 * @param offset The projection offset
+	 * @param fovy The field of view in Y (degrees)
+	 * @param lightView The light view matrix
+	 * @param lightViewOffset The light view offset
+	 * @param casterBounds The world bounds of casters (see BoundsUtils)
+	 * @param casterOffset The bounds offset
+	 * @param minNear The minimum near plane distance
+	 * @return false if casters bounds are empty, infinite or behind the light (projection is not modified)
+	 */
+	public static boolean fitPerspectiveM(final float[] m, final int offset, final float fovy, final float[] lightView, final int lightViewOffset,
+			final float[] casterBounds, final int casterOffset, final float minNear){
+		if(BoundsUtils.isEmpty(casterBounds, casterOffset) || BoundsUtils.isInfinite(casterBounds, casterOffset)){
+			return false;
+		}
+		final float[] tmp = sTemp.get();
+		final int b = 24;
+		MatrixUtils.batchMultiplyMAABB(tmp, b, lightView, lightViewOffset, casterBounds, casterOffset, 1);
+		final float far = -tmp[b + 2];
+		if(far <= minNear){
+			return false;
+		}
+		final float near = Math.max(minNear, -tmp[b + 5]);
+		MatrixUtils.perspectiveM(m, offset, fovy, 1, near, far + MARGIN);
+		return true;
+	}
+}
@@ -0,0 +1,362 @@
+package fr.kesk.libgl.tools;
+
+/**
+ * Tools for TRS transforms treatments.
+ * <br/>
+ * <br/>
+ * A transform is stored in a float array as translation, rotation quaternion
+ * and scale :
+ * <pre>
+ * [tx, ty, tz, qx, qy, qz, qw, sx, sy, sz]
+ * </pre>
+ * Transforms can be composed and interpolated without trigonometry and converted
+ * to a model matrix once per frame using toMatrixT().
+ * <br/>
+ * <br/>
+ * Quaternions are stored as [x, y, z, w].
+ *
+ * @author Thomas MILLET
+ *
+ */
+public final class TransformUtils {
+
+	/**
+	 * TAG log
+	 */
+	@SuppressWarnings("unused")
+	private final static String TAG = TransformUtils.class.getName();
+
+	/**
+	 * Number of floats in a transform
+	 */
+	public static final int TRS_SIZE = 10;
+
+	/**
+	 * Offset of translation in transform
+	 */
+	public static final int TRANSLATE = 0;
+
+	/**
+	 * Offset of rotation quaternion in transform
+	 */
+	public static final int ROTATE = 3;
+
+	/**
+	 * Offset of scale in transform
+	 */
+	public static final int SCALE = 7;
+
+	/**
+	 * Dot threshold above which slerp falls back on nlerp (nearly parallel quaternions)
+	 */
+	private static final float SLERP_THRESHOLD = 0.9995f;
+
+	/**
+	 * Set a transform to identity
+	 *
+	 * @param t The transform to set
+	 * @param tOffset The transform offset
+	 */
+	public static void setIdentityT(final float[] t, final int tOffset){
+		t[tOffset] = t[tOffset + 1] = t[tOffset + 2] = 0f;
+		t[tOffset + 3] = t[tOffset + 4] = t[tOffset + 5] = 0f;
+		t[tOffset + 6] = 1f;
+		t[tOffset + 7] = t[tOffset + 8] = t[tOffset + 9] = 1f;
+	}
+
+	/**
+	 * Set a quaternion from an angle and an axis
+	 *
+	 * @param q The quaternion to set
+	 * @param qOffset The quaternion offset
+	 * @param a The angle in degrees
+	 * @param x X axis coordinate
+	 * @param y Y axis coordinate
+	 * @param z Z axis coordinate
+	 */
+	public static void setRotateQ(final float[] q, final int qOffset, final float a, final float x, final float y, final float z){
+		final float length = (float)Math.sqrt(x * x + y * y + z * z);
+		if(length == 0f){
+			q[qOffset] = q[qOffset + 1] = q[qOffset + 2] = 0f;
+			q[qOffset + 3] = 1f;
+			return;
+		}
+		final double halfAngle = Math.toRadians(a) * 0.5;
+		final float sin = (float)Math.sin(halfAngle) / length;
+		q[qOffset] = x * sin;
+		q[qOffset + 1] = y * sin;
+		q[qOffset + 2] = z * sin;
+		q[qOffset + 3] = (float)Math.cos(halfAngle);
+	}
+
+	/**
+	 * Multiply 2 quaternions (rotation rhs then lhs), result can be lhs or rhs
+	 *
+	 * @param result The resulting quaternion
+	 * @param resultOffset The result offset
+	 * @param lhs The left-hand-side quaternion
+	 * @param lhsOffset The lhs offset
+	 * @param rhs The right-hand-side quaternion
+	 * @param rhsOffset The rhs offset
+	 */
+	public static void multiplyQQ(final float[] result, final int resultOffset, final float[] lhs, final int lhsOffset, final float[] rhs, final int rhsOffset){
+		final float ax = lhs[lhsOffset], ay = lhs[lhsOffset + 1], az = lhs[lhsOffset + 2], aw = lhs[lhsOffset + 3];
+		final float bx = rhs[rhsOffset], by = rhs[rhsOffset + 1], bz = rhs[rhsOffset + 2], bw = rhs[rhsOffset + 3];
+		result[resultOffset] = aw * bx + ax * bw + ay * bz - az * by;
+		result[resultOffset + 1] = aw * by - ax * bz + ay * bw + az * bx;
+		result[resultOffset + 2] = aw * bz + ax * by - ay * bx + az * bw;
+		result[resultOffset + 3] = aw * bw - ax * bx - ay * by - az * bz;
+	}
+
+	/**
+	 * Normalize a quaternion
+	 *
+	 * @param result The resulting quaternion
+	 * @param resultOffset The result offset
+	 * @param q The quaternion to normalize
+	 * @param qOffset The quaternion offset
+	 */
+	public static void normalizeQ(final float[] result, final int resultOffset, final float[] q, final int qOffset){
+		final float x = q[qOffset], y = q[qOffset + 1], z = q[qOffset + 2], w = q[qOffset + 3];
+		final float length = (float)Math.sqrt(x * x + y * y + z * z + w * w);
+		if(length > 0f){
+			final float invLength = 1f / length;
+			result[resultOffset] = x * invLength;
+			result[resultOffset + 1] = y * invLength;
+			result[resultOffset + 2] = z * invLength;
+			result[resultOffset + 3] = w * invLength;
+		}
+	}
+
+	/**
+	 * Normalized linear interpolation between 2 quaternions (shortest path)
+	 *
+	 * @param result The resulting quaternion
+	 * @param resultOffset The result offset
+	 * @param from The start quaternion
+	 * @param fromOffset The start offset
+	 * @param to The end quaternion
+	 * @param toOffset The end offset
+	 * @param alpha The interpolation factor in [0,1]
+	 */
+	public static void nlerpQ(final float[] result, final int resultOffset, final float[] from, final int fromOffset, final float[] to, final int toOffset, final float alpha){
+		final float ax = from[fromOffset], ay = from[fromOffset + 1], az = from[fromOffset + 2], aw = from[fromOffset + 3];
+		float bx = to[toOffset], by = to[toOffset + 1], bz = to[toOffset + 2], bw = to[toOffset + 3];
+		if(ax * bx + ay * by + az * bz + aw * bw < 0f){
+			bx = -bx; by = -by; bz = -bz; bw = -bw;
+		}
+		result[resultOffset] = ax + (bx - ax) * alpha;
+		result[resultOffset + 1] = ay + (by - ay) * alpha;
+		result[resultOffset + 2] = az + (bz - az) * alpha;
+		result[resultOffset + 3] = aw + (bw - aw) * alpha;
+		normalizeQ(result, resultOffset, result, resultOffset);
+	}
+
+	/**
+	 * Spherical linear interpolation between 2 quaternions (shortest path)
+	 *
+	 * @param result The resulting quaternion
+	 * @param resultOffset The result offset
+	 * @param from The start quaternion
+	 * @param fromOffset The start offset
+	 * @param to The end quaternion
+	 * @param toOffset The end offset
+	 * @param alpha The interpolation factor in [0,1]
+	 */
+	public static void slerpQ(final float[] result, final int resultOffset, final float[] from, final int fromOffset, final float[] to, final int toOffset, final float alpha){
+		final float ax = from[fromOffset], ay = from[fromOffset + 1], az = from[fromOffset + 2], aw = from[fromOffset + 3];
+		float bx = to[toOffset], by = to[toOffset + 1], bz = to[toOffset + 2], bw = to[toOffset + 3];
+		float dot = ax * bx + ay * by + az * bz + aw * bw;
+		if(dot < 0f){
+			bx = -bx; by = -by; bz = -bz; bw = -bw;
+			dot = -dot;
+		}
+		//Close quaternions, nlerp is accurate enough
+		if(dot > SLERP_THRESHOLD){
+			result[resultOffset] = ax + (bx - ax) * alpha;
+			result[resultOffset + 1] = ay + (by - ay) * alpha;
+			result[resultOffset + 2] = az + (bz - az) * alpha;
+			result[resultOffset + 3] = aw + (bw - aw) * alpha;
+			normalizeQ(result, resultOffset, result, resultOffset);
+			return;
+		}
+		final double theta = Math.acos(dot);
+		final double invSin = 1.0 / Math.sin(theta);
+		final float fromFactor = (float)(Math.sin((1 - alpha) * theta) * invSin);
+		final float toFactor = (float)(Math.sin(alpha * theta) * invSin);
+		result[resultOffset] = ax * fromFactor + bx * toFactor;
+		result[resultOffset + 1] = ay * fromFactor + by * toFactor;
+		result[resultOffset + 2] = az * fromFactor + bz * toFactor;
+		result[resultOffset + 3] = aw * fromFactor + bw * toFactor;
+	}
+
+	/**
+	 * Rotate a vec3 by a quaternion
+	 *
+	 * @param result The resulting vector
+	 * @param resultOffset The result offset
+	 * @param q The quaternion
+	 * @param qOffset The quaternion offset
+	 * @param v The vector to rotate
+	 * @param vOffset The vector offset
+	 */
+	public static void multiplyQV(final float[] result, final int resultOffset, final float[] q, final int qOffset, final float[] v, final int vOffset){
+		final float qx = q[qOffset], qy = q[qOffset + 1], qz = q[qOffset + 2], qw = q[qOffset + 3];
+		final float vx = v[vOffset], vy = v[vOffset + 1], vz = v[vOffset + 2];
+		//t = 2 * cross(q.xyz, v)
+		final float tx = 2f * (qy * vz - qz * vy);
+		final float ty = 2f * (qz * vx - qx * vz);
+		final float tz = 2f * (qx * vy - qy * vx);
+		//v + w * t + cross(q.xyz, t)
+		result[resultOffset] = vx + qw * tx + (qy * tz - qz * ty);
+		result[resultOffset + 1] = vy + qw * ty + (qz * tx - qx * tz);
+		result[resultOffset + 2] = vz + qw * tz + (qx * ty - qy * tx);
+	}
+
+	/**
+	 * Compose 2 transforms (rhs then lhs), exact for uniform scales of lhs only. Result
+	 * can be lhs or rhs.
+	 *
+	 * @param result The resulting transform
+	 * @param resultOffset The result offset
+	 * @param lhs The parent transform
+	 * @param lhsOffset The lhs offset
+	 * @param rhs The child transform
+	 * @param rhsOffset The rhs offset
+	 */
+	public static void multiplyTT(final float[] result, final int resultOffset, final float[] lhs, final int lhsOffset, final float[] rhs, final int rhsOffset){
+		final float sx = lhs[lhsOffset + 7], sy = lhs[lhsOffset + 8], sz = lhs[lhsOffset + 9];
+		final float tx = lhs[lhsOffset], ty = lhs[lhsOffset + 1], tz = lhs[lhsOffset + 2];
+		final float csx = rhs[rhsOffset + 7], csy = rhs[rhsOffset + 8], csz = rhs[rhsOffset + 9];
+
+		//Translation : lhs.t + lhs.q * (lhs.s * rhs.t)
+		final float px = rhs[rhsOffset] * sx;
+		final float py = rhs[rhsOffset + 1] * sy;
+		final float pz = rhs[rhsOffset + 2] * sz;
+		final float qx = lhs[lhsOffset + 3], qy = lhs[lhsOffset + 4], qz = lhs[lhsOffset + 5], qw = lhs[lhsOffset + 6];
+		final float cx = 2f * (qy * pz - qz * py);
+		final float cy = 2f * (qz * px - qx * pz);
+		final float cz = 2f * (qx * py - qy * px);
+		final float rx = px + qw * cx + (qy * cz - qz * cy);
+		final float ry = py + qw * cy + (qz * cx - qx * cz);
+		final float rz = pz + qw * cz + (qx * cy - qy * cx);
+
+		multiplyQQ(result, resultOffset + ROTATE, lhs, lhsOffset + ROTATE, rhs, rhsOffset + ROTATE);
+		result[resultOffset] = tx + rx;
+		result[resultOffset + 1] = ty + ry;
+		result[resultOffset + 2] = tz + rz;
+		result[resultOffset + 7] = sx * csx;
+		result[resultOffset + 8] = sy * csy;
+		result[resultOffset + 9] = sz * csz;
+	}
+
+	/**
+	 * Interpolate 2 transforms (linear for translation and scale, slerp for rotation)
+	 *
+	 * @param result The resulting transform
+	 * @param resultOffset The result offset
+	 * @param from The start transform
+	 * @param fromOffset The start offset
+	 * @param to The end transform
+	 * @param toOffset The end offset
+	 * @param alpha The interpolation factor in [0,1]
+	 */
+	public static void interpolateT(final float[] result, final int resultOffset, final float[] from, final int fromOffset, final float[] to, final int toOffset, final float alpha){
+		for(int i=0; i < 3; i++){
+			result[resultOffset + i] = from[fromOffset + i] + (to[toOffset + i] - from[fromOffset + i]) * alpha;
+			result[resultOffset + SCALE + i] = from[fromOffset + SCALE + i] + (to[toOffset + SCALE + i] - from[fromOffset + SCALE + i]) * alpha;
+		}
+		slerpQ(result, resultOffset + ROTATE, from, fromOffset + ROTATE, to, toOffset + ROTATE, alpha);
+	}
+
+	/**
+	 * Convert a transform to a model matrix (T * R * S)
+	 *
+	 * @param m The matrix to set
+	 * @param mOffset The matrix offset
+	 * @param t The transform
+	 * @param tOffset The transform offset
+	 */
+	public static void toMatrixT(final float[] m, final int mOffset, final float[] t, final int tOffset){
+		final float x = t[tOffset + 3], y = t[tOffset + 4], z = t[tOffset + 5], w = t[tOffset + 6];
+		final float sx = t[tOffset + 7], sy = t[tOffset + 8], sz = t[tOffset + 9];
+		final float x2 = x + x, y2 = y + y, z2 = z + z;
+		final float xx = x * x2, xy = x * y2, xz = x * z2;
+		final float yy = y * y2, yz = y * z2, zz = z * z2;
+		final float wx = w * x2, wy = w * y2, wz = w * z2;
+
+		m[mOffset] = (1f - (yy + zz)) * sx;
+		m[mOffset + 1] = (xy + wz) * sx;
+		m[mOffset + 2] = (xz - wy) * sx;
+		m[mOffset + 3] = 0f;
+		m[mOffset + 4] = (xy - wz) * sy;
+		m[mOffset + 5] = (1f - (xx + zz)) * sy;
+		m[mOffset + 6] = (yz + wx) * sy;
+		m[mOffset + 7] = 0f;
+		m[mOffset + 8] = (xz + wy) * sz;
+		m[mOffset + 9] = (yz - wx) * sz;
+		m[mOffset + 10] = (1f - (xx + yy)) * sz;
+		m[mOffset + 11] = 0f;
+		m[mOffset + 12] = t[tOffset];
+		m[mOffset + 13] = t[tOffset + 1];
+		m[mOffset + 14] = t[tOffset + 2];
+		m[mOffset + 15] = 1f;
+	}
+
+	/**
+	 * Decompose an affine model matrix without shear into a transform
+	 *
+	 * @param t The transform to set
+	 * @param tOffset The transform offset
+	 * @param m The matrix to decompose
+	 * @param mOffset The matrix offset
+	 */
+	public static void fromMatrixT(final float[] t, final int tOffset, final float[] m, final int mOffset){
+		final float sx = (float)Math.sqrt(m[mOffset] * m[mOffset] + m[mOffset + 1] * m[mOffset + 1] + m[mOffset + 2] * m[mOffset + 2]);
+		final float sy = (float)Math.sqrt(m[mOffset + 4] * m[mOffset + 4] + m[mOffset + 5] * m[mOffset + 5] + m[mOffset + 6] * m[mOffset + 6]);
+		final float sz = (float)Math.sqrt(m[mOffset + 8] * m[mOffset + 8] + m[mOffset + 9] * m[mOffset + 9] + m[mOffset + 10] * m[mOffset + 10]);
+		final float isx = sx == 0f ? 0f : 1f / sx;
+		final float isy = sy == 0f ? 0f : 1f / sy;
+		final float isz = sz == 0f ? 0f : 1f / sz;
+		final float m00 = m[mOffset] * isx, m10 = m[mOffset + 1] * isx, m20 = m[mOffset + 2] * isx;
+		final float m01 = m[mOffset + 4] * isy, m11 = m[mOffset + 5] * isy, m21 = m[mOffset + 6] * isy;
+		final float m02 = m[mOffset + 8] * isz, m12 = m[mOffset + 9] * isz, m22 = m[mOffset + 10] * isz;
+
+		t[tOffset] = m[mOffset + 12];
+		t[tOffset + 1] = m[mOffset + 13];
+		t[tOffset + 2] = m[mOffset + 14];
+		t[tOffset + 7] = sx;
+		t[tOffset + 8] = sy;
+		t[tOffset + 9] = sz;
+
+		final float trace = m00 + m11 + m22;
+		if(trace > 0f){
+			final float s = (float)Math.sqrt(trace + 1f) * 2f;
+			t[tOffset + 3] = (m21 - m12) / s;
+			t[tOffset + 4] = (m02 - m20) / s;
+			t[tOffset + 5] = (m10 - m01) / s;
+			t[tOffset + 6] = 0.25f * s;
+		}
+		else if(m00 > m11 && m00 > m22){
+			final float s = (float)Math.sqrt(1f + m00 - m11 - m22) * 2f;
+			t[tOffset + 3] = 0.25f * s;
+			t[tOffset + 4] = (m01 + m10) / s;
+			t[tOffset + 5] = (m02 + m20) / s;
+			t[tOffset + 6] = (m21 - m12) / s;
+		}
+		else if(m11 > m22){
+			final float s = (float)Math.sqrt(1f + m11 - m00 - m22) * 2f;
+			t[tOffset + 3] = (m01 + m10) / s;
+			t[tOffset + 4] = 0.25f * s;
+			t[tOffset + 5] = (m12 + m21) / s;
+			t[tOffset + 6] = (m02 - m20) / s;
+		}
+		else{
+			final float s = (float)Math.sqrt(1f + m22 - m00 - m11) * 2f;
+			t[tOffset + 3] = (m02 + m20) / s;
+			t[tOffset + 4] = (m12 + m21) / s;
+			t[tOffset + 5] = 0.25f * s;
+			t[tOffset + 6] = (m10 - m01) / s;
+		}
+	}
+}
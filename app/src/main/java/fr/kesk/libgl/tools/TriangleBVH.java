@@ -0,0 +1,385 @@
+package fr.kesk.libgl.tools;
+
+import fr.kesk.libgl.GlAssets.Geometry.Element;
+
+/**
+ * Bounding volume hierarchy over the triangles of an element used for ray picking.
+ * <br/>
+ * <br/>
+ * The tree is built once in local space using median splits on the largest axis of
+ * triangles centroids and stored in flat arrays. TRIANGLES, TRISTRIPS and TRIFANS
+ * elements are supported, other types have no triangles.
+ * <br/>
+ * <br/>
+ * Queries use a preallocated stack, they are not thread safe.
+ *
+ * @author Thomas MILLET
+ *
+ */
+public class TriangleBVH {
+
+	/**
+	 * TAG log
+	 */
+	@SuppressWarnings("unused")
+	private final static String TAG = TriangleBVH.class.getName();
+
+	/**
+	 * Maximum number of triangles in a leaf
+	 */
+	public static final int LEAF_SIZE = 4;
+
+	/**
+	 * Index of distance in hit result
+	 */
+	public static final int DISTANCE = 0;
+
+	/**
+	 * Index of barycentric U in hit result
+	 */
+	public static final int U = 1;
+
+	/**
+	 * Index of barycentric V in hit result
+	 */
+	public static final int V = 2;
+
+	/**
+	 * Size of hit result
+	 */
+	public static final int HIT_SIZE = 3;
+
+	/**
+	 * The positions
+	 */
+	public final float[] positions;
+
+	/**
+	 * The number of components per position
+	 */
+	public final int components;
+
+	/**
+	 * Number of triangles
+	 */
+	public final int size;
+
+	/**
+	 * Vertices indexes of triangles in tree order (3 per triangle)
+	 */
+	private final int[] triangles;
+
+	/**
+	 * Original index of triangles in tree order
+	 */
+	private final int[] indexes;
+
+	/**
+	 * Centroids of triangles in tree order (3 floats per triangle)
+	 */
+	private final float[] centroids;
+
+	/**
+	 * Tree nodes bounds (AABB, 6 floats per tree node)
+	 */
+	private final float[] treeBounds;
+
+	/**
+	 * Left child of tree nodes (right is left + 1, -1 for leaves)
+	 */
+	private final int[] lefts;
+
+	/**
+	 * First triangle of leaves
+	 */
+	private final int[] firsts;
+
+	/**
+	 * Number of triangles of leaves
+	 */
+	private final int[] counts;
+
+	/**
+	 * Number of tree nodes
+	 */
+	private int treeSize = 0;
+
+	/**
+	 * Traversal stack
+	 */
+	private final int[] stack;
+
+	/**
+	 * Build the tree of an element from its positions
+	 *
+	 * @param element The element (positions must be available, see Element.getPositions())
+	 */
+	public TriangleBVH(final Element element){
+		this(element.getPositions(), element.getPositionSize(), element.type, element.count);
+	}
+
+	/**
+	 * Build the tree from positions
+	 *
+	 * @param positions The positions
+	 * @param components The number of components per position
+	 * @param type The type of element (TRIANGLES, TRISTRIPS, TRIFANS)
+	 * @param count The number of vertices
+	 */
+	public TriangleBVH(final float[] positions, final int components, final int type, final int count){
+		//android.util.Log.d(TAG,"NEW");
+		this.positions = positions;
+		this.components = components;
+		switch(type){
+			case Element.TRIANGLES :
+				this.size = count / 3;
+				break;
+			case Element.TRISTRIPS :
+			case Element.TRIFANS :
+				this.size = Math.max(0, count - 2);
+				break;
+			default :
+				this.size = 0;
+		}
+		this.triangles = new int[this.size * 3];
+		this.indexes = new int[this.size];
+		this.centroids = new float[this.size * 3];
+		for(int triangle=0; triangle < this.size; triangle++){
+			final int t = triangle * 3;
+			switch(type){
+				case Element.TRIANGLES :
+					this.triangles[t] = t;
+					this.triangles[t + 1] = t + 1;
+					this.triangles[t + 2] = t + 2;
+					break;
+				case Element.TRISTRIPS :
+					this.triangles[t] = triangle;
+					this.triangles[t + 1] = triangle + 1;
+					this.triangles[t + 2] = triangle + 2;
+					break;
+				default :
+					this.triangles[t] = 0;
+					this.triangles[t + 1] = triangle + 1;
+					this.triangles[t + 2] = triangle + 2;
+			}
+			this.indexes[triangle] = triangle;
+			for(int c=0; c < 3; c++){
+				this.centroids[t + c] = (positions[this.triangles[t] * components + c]
+						+ positions[this.triangles[t + 1] * components + c]
+						+ positions[this.triangles[t + 2] * components + c]) / 3f;
+			}
+		}
+		final int maxTreeSize = Math.max(1, (this.size << 1) - 1);
+		this.treeBounds = new float[maxTreeSize * 6];
+		this.lefts = new int[maxTreeSize];
+		this.firsts = new int[maxTreeSize];
+		this.counts = new int[maxTreeSize];
+		this.stack = new int[maxTreeSize];
+		this.treeSize = 1;
+		this.buildNode(0, 0, this.size);
+	}
+
+	/**
+	 * Get the local bounds of the tree
+	 *
+	 * @param bounds The array to fill with the AABB
+	 * @param offset The array offset
+	 */
+	public void getBounds(final float[] bounds, final int offset){
+		System.arraycopy(this.treeBounds, 0, bounds, offset, 6);
+	}
+
+	/**
+	 * Find the closest triangle hit by a ray
+	 *
+	 * @param ray The ray as [originX, originY, originZ, directionX, directionY, directionZ]
+	 * @param offset The ray offset
+	 * @param maxDistance The maximum distance along the ray (in direction length unit)
+	 * @param hit The array to fill with [distance, u, v] of the hit (see HIT_SIZE)
+	 * @param hitOffset The hit offset
+	 * @return The index of the hit triangle or -1 if none
+	 */
+	public int intersect(final float[] ray, final int offset, final float maxDistance, final float[] hit, final int hitOffset){
+		if(this.size == 0) return -1;
+		final float ox = ray[offset], oy = ray[offset + 1], oz = ray[offset + 2];
+		final float dx = ray[offset + 3], dy = ray[offset + 4], dz = ray[offset + 5];
+		final float idx = 1f / dx, idy = 1f / dy, idz = 1f / dz;
+		float best = maxDistance;
+		int result = -1;
+		int top = 0;
+		if(NodeBVH.intersectRay(this.treeBounds, 0, ox, oy, oz, idx, idy, idz, best) < 0f){
+			return -1;
+		}
+		this.stack[top++] = 0;
+		while(top > 0){
+			final int node = this.stack[--top];
+			if(this.lefts[node] < 0){
+				for(int triangle=this.firsts[node], end=triangle+this.counts[node]; triangle < end; triangle++){
+					if(this.intersectTriangle(triangle, ox, oy, oz, dx, dy, dz, best, hit, hitOffset)){
+						best = hit[hitOffset + DISTANCE];
+						result = this.indexes[triangle];
+					}
+				}
+			}
+			else{
+				final int left = this.lefts[node];
+				final float leftDistance = NodeBVH.intersectRay(this.treeBounds, left * 6, ox, oy, oz, idx, idy, idz, best);
+				final float rightDistance = NodeBVH.intersectRay(this.treeBounds, (left + 1) * 6, ox, oy, oz, idx, idy, idz, best);
+				//Push farthest first to visit closest first
+				if(leftDistance >= 0f && rightDistance >= 0f){
+					if(leftDistance < rightDistance){
+						this.stack[top++] = left + 1;
+						this.stack[top++] = left;
+					}
+					else{
+						this.stack[top++] = left;
+						this.stack[top++] = left + 1;
+					}
+				}
+				else if(leftDistance >= 0f){
+					this.stack[top++] = left;
+				}
+				else if(rightDistance >= 0f){
+					this.stack[top++] = left + 1;
+				}
+			}
+		}
+		if(result >= 0){
+			hit[hitOffset + DISTANCE] = best;
+		}
+		return result;
+	}
+
+	/**
+	 * 	Ray/triangle intersection (Moller-Trumbore), both faces are hit
+	 */
+	private boolean intersectTriangle(final int triangle, final float ox, final float oy, final float oz,
+			final float dx, final float dy, final float dz, final float maxDistance, final float[] hit, final int hitOffset){
+		final int t = triangle * 3;
+		final int p0 = this.triangles[t] * this.components;
+		final int p1 = this.triangles[t + 1] * this.components;
+		final int p2 = this.triangles[t + 2] * this.components;
+		final float[] p = this.positions;
+		final float e1x = p[p1] - p[p0], e1y = p[p1 + 1] - p[p0 + 1], e1z = p[p1 + 2] - p[p0 + 2];
+		final float e2x = p[p2] - p[p0], e2y = p[p2 + 1] - p[p0 + 1], e2z = p[p2 + 2] - p[p0 + 2];
+		final float px = dy * e2z - dz * e2y, py = dz * e2x - dx * e2z, pz = dx * e2y - dy * e2x;
+		final float det = e1x * px + e1y * py + e1z * pz;
+		if(det == 0f){
+			return false;
+		}
+		final float invDet = 1f / det;
+		final float tx = ox - p[p0], ty = oy - p[p0 + 1], tz = oz - p[p0 + 2];
+		final float u = (tx * px + ty * py + tz * pz) * invDet;
+		if(u < 0f || u > 1f){
+			return false;
+		}
+		final float qx = ty * e1z - tz * e1y, qy = tz * e1x - tx * e1z, qz = tx * e1y - ty * e1x;
+		final float v = (dx * qx + dy * qy + dz * qz) * invDet;
+		if(v < 0f || u + v > 1f){
+			return false;
+		}
+		final float distance = (e2x * qx + e2y * qy + e2z * qz) * invDet;
+		if(distance < 0f || distance >= maxDistance){
+			return false;
+		}
+		hit[hitOffset + DISTANCE] = distance;
+		hit[hitOffset + U] = u;
+		hit[hitOffset + V] = v;
+		return true;
+	}
+
+	/**
+	 * 	Inner recursive build method using median splits
+	 */
+	private void buildNode(final int node, final int start, final int end){
+		final int offset = node * 6;
+		this.treeBounds[offset] = this.treeBounds[offset + 1] = this.treeBounds[offset + 2] = Float.MAX_VALUE;
+		this.treeBounds[offset + 3] = this.treeBounds[offset + 4] = this.treeBounds[offset + 5] = -Float.MAX_VALUE;
+		for(int triangle=start; triangle < end; triangle++){
+			for(int vertex=0; vertex < 3; vertex++){
+				final int p = this.triangles[triangle * 3 + vertex] * this.components;
+				for(int c=0; c < 3; c++){
+					final float value = this.positions[p + c];
+					if(value < this.treeBounds[offset + c]) this.treeBounds[offset + c] = value;
+					if(value > this.treeBounds[offset + 3 + c]) this.treeBounds[offset + 3 + c] = value;
+				}
+			}
+		}
+		if(end - start <= LEAF_SIZE){
+			this.lefts[node] = -1;
+			this.firsts[node] = start;
+			this.counts[node] = end - start;
+			return;
+		}
+
+		//Largest axis of centroids
+		int axis = 0;
+		float extent = -1f;
+		for(int c=0; c < 3; c++){
+			float min = Float.MAX_VALUE, max = -Float.MAX_VALUE;
+			for(int triangle=start; triangle < end; triangle++){
+				final float value = this.centroids[triangle * 3 + c];
+				if(value < min) min = value;
+				if(value > max) max = value;
+			}
+			if(max - min > extent){
+				extent = max - min;
+				axis = c;
+			}
+		}
+
+		final int mid = (start + end) >>> 1;
+		this.select(start, end - 1, mid, axis);
+
+		final int left = this.treeSize;
+		this.treeSize += 2;
+		this.lefts[node] = left;
+		this.counts[node] = 0;
+		this.buildNode(left, start, mid);
+		this.buildNode(left + 1, mid, end);
+	}
+
+	/**
+	 * 	Partition triangles so that the nth one is at its sorted place on axis (quickselect)
+	 */
+	private void select(int left, int right, final int nth, final int axis){
+		while(right > left){
+			final float pivot = this.centroids[((left + right) >>> 1) * 3 + axis];
+			int i = left, j = right;
+			while(i <= j){
+				while(this.centroids[i * 3 + axis] < pivot) i++;
+				while(this.centroids[j * 3 + axis] > pivot) j--;
+				if(i <= j){
+					this.swap(i++, j--);
+				}
+			}
+			if(nth <= j){
+				right = j;
+			}
+			else if(nth >= i){
+				left = i;
+			}
+			else{
+				return;
+			}
+		}
+	}
+
+	/**
+	 * 	Swap 2 triangles
+	 */
+	private void swap(final int a, final int b){
+		if(a == b) return;
+		final int index = this.indexes[a];
+		this.indexes[a] = this.indexes[b];
+		this.indexes[b] = index;
+		for(int c=0; c < 3; c++){
+			final int vertex = this.triangles[a * 3 + c];
+			this.triangles[a * 3 + c] = this.triangles[b * 3 + c];
+			this.triangles[b * 3 + c] = vertex;
+			final float centroid = this.centroids[a * 3 + c];
+			this.centroids[a * 3 + c] = this.centroids[b * 3 + c];
+			this.centroids[b * 3 + c] = centroid;
+		}
+	}
+}
@@ -14,6 +14,9 @@ import javax.microedition.khronos.opengles.GL10;
 
 import fr.kesk.libgl.ContextManager;
 import fr.kesk.libgl.GlContext;
+import fr.kesk.libgl.pipeline.GlState;
+import fr.kesk.libgl.shader.GlProgramCache;
+import fr.kesk.libgl.shader.GlProgramCompiler;
 import fr.kesk.libgl.ui.GlElement;
 
 import android.app.Activity;
@@ -55,6 +58,7 @@ public class GlSceneView extends SurfaceView implements SurfaceHolder.Callback,
     private EGLWindowSurfaceFactory mEGLWindowSurfaceFactory;
     private boolean mPreserveEGLContextOnPause;
     protected final GlContext glContext; 
+    private final GlProgramCompiler mProgramCompiler = new GlProgramCompiler();
     
     /**
      * Standard View constructor. In order to render something, you
@@ -124,6 +128,10 @@ public class GlSceneView extends SurfaceView implements SurfaceHolder.Callback,
         // setType is not needed for SDK 2.0 or newer. Uncomment this
         // statement if back-porting this code to older SDKs.
         // holder.setType(SurfaceHolder.SURFACE_TYPE_GPU);
+        // Store program binaries in application cache
+        if(GlProgramCache.getInstance().getDirectory() == null){
+        	GlProgramCache.getInstance().setDirectory(getContext().getCacheDir());
+        }
     }
 
     /**
@@ -212,6 +220,16 @@ public class GlSceneView extends SurfaceView implements SurfaceHolder.Callback,
    		return this.glContext;
    	}
 
+   	/**
+   	 * Get the background programs compiler, programs are compiled in a context
+   	 * sharing objects with the view context and published before each frame.
+   	 * <p>
+   	 * Must be used from the GL thread (ie in GlElement.create()).
+   	 */
+   	public GlProgramCompiler getProgramCompiler() {
+   		return this.mProgramCompiler;
+   	}
+
 	/**
      * Install a custom EGLContextFactory.
      * <p>If this method is
@@ -436,6 +454,58 @@ public class GlSceneView extends SurfaceView implements SurfaceHolder.Callback,
         }
     }
 
+    /**
+     * Factory of secondary contexts sharing objects with the view context, used by
+     * the programs compiler. A 1x1 pbuffer surface is used as some drivers do not
+     * support surfaceless contexts.
+     */
+    private static class SharedContextFactory implements GlProgramCompiler.ContextFactory {
+        private static final int EGL_CONTEXT_CLIENT_VERSION = 0x3098;
+        private static final int GL_VERSION = 2;
+        private final EGL10 mEgl;
+        private final EGLDisplay mEglDisplay;
+        private final EGLConfig mEglConfig;
+        private final EGLContext mSharedContext;
+
+        public SharedContextFactory(EGL10 egl, EGLDisplay display, EGLConfig config, EGLContext sharedContext) {
+            mEgl = egl;
+            mEglDisplay = display;
+            mEglConfig = config;
+            mSharedContext = sharedContext;
+        }
+
+        public GlProgramCompiler.Context createContext() {
+            int[] attrib_list = {EGL_CONTEXT_CLIENT_VERSION, GL_VERSION,
+                    EGL10.EGL_NONE };
+            final EGLContext context = mEgl.eglCreateContext(mEglDisplay, mEglConfig, mSharedContext, attrib_list);
+            if (context == null || context == EGL10.EGL_NO_CONTEXT) {
+                EglHelper.throwEglException("eglCreateContext", mEgl.eglGetError());
+            }
+            int[] surface_attrib_list = {EGL10.EGL_WIDTH, 1, EGL10.EGL_HEIGHT, 1,
+                    EGL10.EGL_NONE };
+            final EGLSurface surface = mEgl.eglCreatePbufferSurface(mEglDisplay, mEglConfig, surface_attrib_list);
+            if (surface == null || surface == EGL10.EGL_NO_SURFACE) {
+                int error = mEgl.eglGetError();
+                mEgl.eglDestroyContext(mEglDisplay, context);
+                EglHelper.throwEglException("eglCreatePbufferSurface", error);
+            }
+            return new GlProgramCompiler.Context() {
+                public void makeCurrent() {
+                    if (!mEgl.eglMakeCurrent(mEglDisplay, surface, surface, context)) {
+                        EglHelper.throwEglException("eglMakeCurrent", mEgl.eglGetError());
+                    }
+                }
+
+                public void destroy() {
+                    mEgl.eglMakeCurrent(mEglDisplay, EGL10.EGL_NO_SURFACE,
+                            EGL10.EGL_NO_SURFACE, EGL10.EGL_NO_CONTEXT);
+                    mEgl.eglDestroySurface(mEglDisplay, surface);
+                    mEgl.eglDestroyContext(mEglDisplay, context);
+                }
+            };
+        }
+    }
+
     /**
      * An interface for customizing the eglCreateWindowSurface and eglDestroySurface calls.
      * <p>
@@ -681,6 +751,13 @@ public class GlSceneView extends SurfaceView implements SurfaceHolder.Callback,
                 throwEglException("createContext");
             }
 
+            /*
+             * Programs compiler uses a secondary context sharing objects
+             */
+            if (view != null) {
+                view.mProgramCompiler.start(new SharedContextFactory(mEgl, mEglDisplay, mEglConfig, mEglContext));
+            }
+
             mEglSurface = null;
         }
 
@@ -789,6 +866,7 @@ public class GlSceneView extends SurfaceView implements SurfaceHolder.Callback,
             if (mEglContext != null) {
                 GlSceneView view = mGLSceneViewWeakRef.get();
                 if (view != null) {
+                    view.mProgramCompiler.stop();
                     view.mEGLContextFactory.destroyContext(mEgl, mEglDisplay, mEglContext);
                 }
                 mEglContext = null;
@@ -1049,6 +1127,8 @@ public class GlSceneView extends SurfaceView implements SurfaceHolder.Callback,
 	                    if (createEglContext) {
 	                        GlSceneView view = mGLSceneViewWeakRef.get();
 	                        if (view != null) {
+	                            GlState.reset(w, h);
+	                            GlProgramCache.getInstance().invalidate();
 	                            view.rootElement.create(view);
 	                        }
 	                        createEglContext = false;
@@ -1057,6 +1137,8 @@ public class GlSceneView extends SurfaceView implements SurfaceHolder.Callback,
 	                    if (sizeChanged) {
 	                        GlSceneView view = mGLSceneViewWeakRef.get();
 	                        if (view != null) {
+	                        	//Keep GlState viewport in sync with the surface (saved/restored by passes)
+	                        	GlState.setViewport(0, 0, w, h);
 	                        	view.rootElement.resize(w, h);
 	                        }
 	                        sizeChanged = false;
@@ -1093,8 +1175,10 @@ public class GlSceneView extends SurfaceView implements SurfaceHolder.Callback,
                             
                             lastDrawTime = currentTime;
                             
+                        	view.mProgramCompiler.publish();
                         	view.rootElement.layout(elapsedTime);
                             
+                        	GlState.newFrame();
                         	view.rootElement.draw();
                         }
                     }
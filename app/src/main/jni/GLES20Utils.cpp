@@ -1,5 +1,7 @@
 #include "GLES20Utils.h"
+#include <EGL/egl.h>
 #include <GLES2/gl2.h>
+#include <GLES2/gl2ext.h>
 //#include <android/log.h> //__android_log_write(ANDROID_LOG_DEBUG,TAG,MSG);
 
 void Java_fr_kesk_libgl_tools_GLES20Utils_glVertexAttribPointer
@@ -13,3 +15,74 @@ void Java_fr_kesk_libgl_tools_GLES20Utils_glDrawElements
 {
 	glDrawElements(mode, count, type, (void*) offset);
 }
+
+jint Java_fr_kesk_libgl_tools_GLES20Utils_glGetProgramBinaryLength
+  (JNIEnv *env, jclass c, jint program)
+{
+	GLint length = 0;
+	glGetProgramiv(program, GL_PROGRAM_BINARY_LENGTH_OES, &length);
+	return length;
+}
+
+jint Java_fr_kesk_libgl_tools_GLES20Utils_glGetProgramBinary
+  (JNIEnv *env, jclass c, jint program, jbyteArray binary, jintArray format)
+{
+	static PFNGLGETPROGRAMBINARYOESPROC glGetProgramBinaryOES = (PFNGLGETPROGRAMBINARYOESPROC) eglGetProcAddress("glGetProgramBinaryOES");
+	if(glGetProgramBinaryOES == NULL){
+		return -1;
+	}
+	GLsizei length = 0;
+	GLenum binaryFormat = 0;
+	jbyte* data = env->GetByteArrayElements(binary, NULL);
+	glGetProgramBinaryOES(program, env->GetArrayLength(binary), &length, &binaryFormat, data);
+	env->ReleaseByteArrayElements(binary, data, 0);
+	jint formatValue = binaryFormat;
+	env->SetIntArrayRegion(format, 0, 1, &formatValue);
+	return length;
+}
+
+jboolean Java_fr_kesk_libgl_tools_GLES20Utils_glProgramBinary
+  (JNIEnv *env, jclass c, jint program, jint format, jbyteArray binary, jint length)
+{
+	static PFNGLPROGRAMBINARYOESPROC glProgramBinaryOES = (PFNGLPROGRAMBINARYOESPROC) eglGetProcAddress("glProgramBinaryOES");
+	if(glProgramBinaryOES == NULL){
+		return JNI_FALSE;
+	}
+	jbyte* data = env->GetByteArrayElements(binary, NULL);
+	glProgramBinaryOES(program, format, data, length);
+	env->ReleaseByteArrayElements(binary, data, JNI_ABORT);
+	GLint status = GL_FALSE;
+	glGetProgramiv(program, GL_LINK_STATUS, &status);
+	return (status == GL_TRUE) ? JNI_TRUE : JNI_FALSE;
+}
+
+jint Java_fr_kesk_libgl_tools_GLES20Utils_glGenVertexArrayOES
+  (JNIEnv *env, jclass c)
+{
+	static PFNGLGENVERTEXARRAYSOESPROC glGenVertexArraysOES = (PFNGLGENVERTEXARRAYSOESPROC) eglGetProcAddress("glGenVertexArraysOES");
+	if(glGenVertexArraysOES == NULL){
+		return 0;
+	}
+	GLuint array = 0;
+	glGenVertexArraysOES(1, &array);
+	return array;
+}
+
+void Java_fr_kesk_libgl_tools_GLES20Utils_glBindVertexArrayOES
+  (JNIEnv *env, jclass c, jint array)
+{
+	static PFNGLBINDVERTEXARRAYOESPROC glBindVertexArrayOES = (PFNGLBINDVERTEXARRAYOESPROC) eglGetProcAddress("glBindVertexArrayOES");
+	if(glBindVertexArrayOES != NULL){
+		glBindVertexArrayOES(array);
+	}
+}
+
+void Java_fr_kesk_libgl_tools_GLES20Utils_glDeleteVertexArrayOES
+  (JNIEnv *env, jclass c, jint array)
+{
+	static PFNGLDELETEVERTEXARRAYSOESPROC glDeleteVertexArraysOES = (PFNGLDELETEVERTEXARRAYSOESPROC) eglGetProcAddress("glDeleteVertexArraysOES");
+	if(glDeleteVertexArraysOES != NULL){
+		GLuint handle = array;
+		glDeleteVertexArraysOES(1, &handle);
+	}
+}
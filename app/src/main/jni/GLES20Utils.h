@@ -23,6 +23,54 @@ JNIEXPORT void JNICALL Java_fr_kesk_libgl_tools_GLES20Utils_glVertexAttribPointe
 JNIEXPORT void JNICALL Java_fr_kesk_libgl_tools_GLES20Utils_glDrawElements
   (JNIEnv *, jclass, jint, jint, jint, jint);
 
+/*
+ * Class:     fr_kesk_libgl_tools_GLES20Utils
+ * Method:    glGetProgramBinaryLength
+ * Signature: (I)I
+ */
+JNIEXPORT jint JNICALL Java_fr_kesk_libgl_tools_GLES20Utils_glGetProgramBinaryLength
+  (JNIEnv *, jclass, jint);
+
+/*
+ * Class:     fr_kesk_libgl_tools_GLES20Utils
+ * Method:    glGetProgramBinary
+ * Signature: (I[B[I)I
+ */
+JNIEXPORT jint JNICALL Java_fr_kesk_libgl_tools_GLES20Utils_glGetProgramBinary
+  (JNIEnv *, jclass, jint, jbyteArray, jintArray);
+
+/*
+ * Class:     fr_kesk_libgl_tools_GLES20Utils
+ * Method:    glProgramBinary
+ * Signature: (II[BI)Z
+ */
+JNIEXPORT jboolean JNICALL Java_fr_kesk_libgl_tools_GLES20Utils_glProgramBinary
+  (JNIEnv *, jclass, jint, jint, jbyteArray, jint);
+
+/*
+ * Class:     fr_kesk_libgl_tools_GLES20Utils
+ * Method:    glGenVertexArrayOES
+ * Signature: ()I
+ */
+JNIEXPORT jint JNICALL Java_fr_kesk_libgl_tools_GLES20Utils_glGenVertexArrayOES
+  (JNIEnv *, jclass);
+
+/*
+ * Class:     fr_kesk_libgl_tools_GLES20Utils
+ * Method:    glBindVertexArrayOES
+ * Signature: (I)V
+ */
+JNIEXPORT void JNICALL Java_fr_kesk_libgl_tools_GLES20Utils_glBindVertexArrayOES
+  (JNIEnv *, jclass, jint);
+
+/*
+ * Class:     fr_kesk_libgl_tools_GLES20Utils
+ * Method:    glDeleteVertexArrayOES
+ * Signature: (I)V
+ */
+JNIEXPORT void JNICALL Java_fr_kesk_libgl_tools_GLES20Utils_glDeleteVertexArrayOES
+  (JNIEnv *, jclass, jint);
+
 #ifdef __cplusplus
 }
 #endif
@@ -0,0 +1,1050 @@
+package android.opengl;
+
+import java.nio.Buffer;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Recording JVM implementation of android.opengl.GLES20 for unit tests.
+ * <br/>
+ * <br/>
+ * Each call is appended to a log (see getCalls(), count() and reset()), names are
+ * generated incrementally, compilations and links always succeed and active attributes
+ * and uniforms of programs are parsed from the attached shaders sources.
+ * <br/>
+ * <br/>
+ * Viewport, enabled capabilities and extensions string are kept to answer queries.
+ *
+ * @author Thomas MILLET
+ *
+ */
+public class GLES20 {
+
+	public static final int GL_ACTIVE_TEXTURE = 34016;
+	public static final int GL_DEPTH_BUFFER_BIT = 256;
+	public static final int GL_STENCIL_BUFFER_BIT = 1024;
+	public static final int GL_COLOR_BUFFER_BIT = 16384;
+	public static final int GL_FALSE = 0;
+	public static final int GL_TRUE = 1;
+	public static final int GL_POINTS = 0;
+	public static final int GL_LINES = 1;
+	public static final int GL_LINE_LOOP = 2;
+	public static final int GL_LINE_STRIP = 3;
+	public static final int GL_TRIANGLES = 4;
+	public static final int GL_TRIANGLE_STRIP = 5;
+	public static final int GL_TRIANGLE_FAN = 6;
+	public static final int GL_ZERO = 0;
+	public static final int GL_ONE = 1;
+	public static final int GL_SRC_COLOR = 768;
+	public static final int GL_ONE_MINUS_SRC_COLOR = 769;
+	public static final int GL_SRC_ALPHA = 770;
+	public static final int GL_ONE_MINUS_SRC_ALPHA = 771;
+	public static final int GL_DST_ALPHA = 772;
+	public static final int GL_ONE_MINUS_DST_ALPHA = 773;
+	public static final int GL_DST_COLOR = 774;
+	public static final int GL_ONE_MINUS_DST_COLOR = 775;
+	public static final int GL_SRC_ALPHA_SATURATE = 776;
+	public static final int GL_FUNC_ADD = 32774;
+	public static final int GL_BLEND_EQUATION = 32777;
+	public static final int GL_BLEND_EQUATION_RGB = 32777;
+	public static final int GL_BLEND_EQUATION_ALPHA = 34877;
+	public static final int GL_FUNC_SUBTRACT = 32778;
+	public static final int GL_FUNC_REVERSE_SUBTRACT = 32779;
+	public static final int GL_BLEND_DST_RGB = 32968;
+	public static final int GL_BLEND_SRC_RGB = 32969;
+	public static final int GL_BLEND_DST_ALPHA = 32970;
+	public static final int GL_BLEND_SRC_ALPHA = 32971;
+	public static final int GL_CONSTANT_COLOR = 32769;
+	public static final int GL_ONE_MINUS_CONSTANT_COLOR = 32770;
+	public static final int GL_CONSTANT_ALPHA = 32771;
+	public static final int GL_ONE_MINUS_CONSTANT_ALPHA = 32772;
+	public static final int GL_BLEND_COLOR = 32773;
+	public static final int GL_ARRAY_BUFFER = 34962;
+	public static final int GL_ELEMENT_ARRAY_BUFFER = 34963;
+	public static final int GL_ARRAY_BUFFER_BINDING = 34964;
+	public static final int GL_ELEMENT_ARRAY_BUFFER_BINDING = 34965;
+	public static final int GL_STREAM_DRAW = 35040;
+	public static final int GL_STATIC_DRAW = 35044;
+	public static final int GL_DYNAMIC_DRAW = 35048;
+	public static final int GL_BUFFER_SIZE = 34660;
+	public static final int GL_BUFFER_USAGE = 34661;
+	public static final int GL_CURRENT_VERTEX_ATTRIB = 34342;
+	public static final int GL_FRONT = 1028;
+	public static final int GL_BACK = 1029;
+	public static final int GL_FRONT_AND_BACK = 1032;
+	public static final int GL_TEXTURE_2D = 3553;
+	public static final int GL_CULL_FACE = 2884;
+	public static final int GL_BLEND = 3042;
+	public static final int GL_DITHER = 3024;
+	public static final int GL_STENCIL_TEST = 2960;
+	public static final int GL_DEPTH_TEST = 2929;
+	public static final int GL_SCISSOR_TEST = 3089;
+	public static final int GL_POLYGON_OFFSET_FILL = 32823;
+	public static final int GL_SAMPLE_ALPHA_TO_COVERAGE = 32926;
+	public static final int GL_SAMPLE_COVERAGE = 32928;
+	public static final int GL_NO_ERROR = 0;
+	public static final int GL_INVALID_ENUM = 1280;
+	public static final int GL_INVALID_VALUE = 1281;
+	public static final int GL_INVALID_OPERATION = 1282;
+	public static final int GL_OUT_OF_MEMORY = 1285;
+	public static final int GL_CW = 2304;
+	public static final int GL_CCW = 2305;
+	public static final int GL_LINE_WIDTH = 2849;
+	public static final int GL_ALIASED_POINT_SIZE_RANGE = 33901;
+	public static final int GL_ALIASED_LINE_WIDTH_RANGE = 33902;
+	public static final int GL_CULL_FACE_MODE = 2885;
+	public static final int GL_FRONT_FACE = 2886;
+	public static final int GL_DEPTH_RANGE = 2928;
+	public static final int GL_DEPTH_WRITEMASK = 2930;
+	public static final int GL_DEPTH_CLEAR_VALUE = 2931;
+	public static final int GL_DEPTH_FUNC = 2932;
+	public static final int GL_STENCIL_CLEAR_VALUE = 2961;
+	public static final int GL_STENCIL_FUNC = 2962;
+	public static final int GL_STENCIL_FAIL = 2964;
+	public static final int GL_STENCIL_PASS_DEPTH_FAIL = 2965;
+	public static final int GL_STENCIL_PASS_DEPTH_PASS = 2966;
+	public static final int GL_STENCIL_REF = 2967;
+	public static final int GL_STENCIL_VALUE_MASK = 2963;
+	public static final int GL_STENCIL_WRITEMASK = 2968;
+	public static final int GL_STENCIL_BACK_FUNC = 34816;
+	public static final int GL_STENCIL_BACK_FAIL = 34817;
+	public static final int GL_STENCIL_BACK_PASS_DEPTH_FAIL = 34818;
+	public static final int GL_STENCIL_BACK_PASS_DEPTH_PASS = 34819;
+	public static final int GL_STENCIL_BACK_REF = 36003;
+	public static final int GL_STENCIL_BACK_VALUE_MASK = 36004;
+	public static final int GL_STENCIL_BACK_WRITEMASK = 36005;
+	public static final int GL_VIEWPORT = 2978;
+	public static final int GL_SCISSOR_BOX = 3088;
+	public static final int GL_COLOR_CLEAR_VALUE = 3106;
+	public static final int GL_COLOR_WRITEMASK = 3107;
+	public static final int GL_UNPACK_ALIGNMENT = 3317;
+	public static final int GL_PACK_ALIGNMENT = 3333;
+	public static final int GL_MAX_TEXTURE_SIZE = 3379;
+	public static final int GL_MAX_VIEWPORT_DIMS = 3386;
+	public static final int GL_SUBPIXEL_BITS = 3408;
+	public static final int GL_RED_BITS = 3410;
+	public static final int GL_GREEN_BITS = 3411;
+	public static final int GL_BLUE_BITS = 3412;
+	public static final int GL_ALPHA_BITS = 3413;
+	public static final int GL_DEPTH_BITS = 3414;
+	public static final int GL_STENCIL_BITS = 3415;
+	public static final int GL_POLYGON_OFFSET_UNITS = 10752;
+	public static final int GL_POLYGON_OFFSET_FACTOR = 32824;
+	public static final int GL_TEXTURE_BINDING_2D = 32873;
+	public static final int GL_SAMPLE_BUFFERS = 32936;
+	public static final int GL_SAMPLES = 32937;
+	public static final int GL_SAMPLE_COVERAGE_VALUE = 32938;
+	public static final int GL_SAMPLE_COVERAGE_INVERT = 32939;
+	public static final int GL_NUM_COMPRESSED_TEXTURE_FORMATS = 34466;
+	public static final int GL_COMPRESSED_TEXTURE_FORMATS = 34467;
+	public static final int GL_DONT_CARE = 4352;
+	public static final int GL_FASTEST = 4353;
+	public static final int GL_NICEST = 4354;
+	public static final int GL_GENERATE_MIPMAP_HINT = 33170;
+	public static final int GL_BYTE = 5120;
+	public static final int GL_UNSIGNED_BYTE = 5121;
+	public static final int GL_SHORT = 5122;
+	public static final int GL_UNSIGNED_SHORT = 5123;
+	public static final int GL_INT = 5124;
+	public static final int GL_UNSIGNED_INT = 5125;
+	public static final int GL_FLOAT = 5126;
+	public static final int GL_FIXED = 5132;
+	public static final int GL_DEPTH_COMPONENT = 6402;
+	public static final int GL_ALPHA = 6406;
+	public static final int GL_RGB = 6407;
+	public static final int GL_RGBA = 6408;
+	public static final int GL_LUMINANCE = 6409;
+	public static final int GL_LUMINANCE_ALPHA = 6410;
+	public static final int GL_UNSIGNED_SHORT_4_4_4_4 = 32819;
+	public static final int GL_UNSIGNED_SHORT_5_5_5_1 = 32820;
+	public static final int GL_UNSIGNED_SHORT_5_6_5 = 33635;
+	public static final int GL_FRAGMENT_SHADER = 35632;
+	public static final int GL_VERTEX_SHADER = 35633;
+	public static final int GL_MAX_VERTEX_ATTRIBS = 34921;
+	public static final int GL_MAX_VERTEX_UNIFORM_VECTORS = 36347;
+	public static final int GL_MAX_VARYING_VECTORS = 36348;
+	public static final int GL_MAX_COMBINED_TEXTURE_IMAGE_UNITS = 35661;
+	public static final int GL_MAX_VERTEX_TEXTURE_IMAGE_UNITS = 35660;
+	public static final int GL_MAX_TEXTURE_IMAGE_UNITS = 34930;
+	public static final int GL_MAX_FRAGMENT_UNIFORM_VECTORS = 36349;
+	public static final int GL_SHADER_TYPE = 35663;
+	public static final int GL_DELETE_STATUS = 35712;
+	public static final int GL_LINK_STATUS = 35714;
+	public static final int GL_VALIDATE_STATUS = 35715;
+	public static final int GL_ATTACHED_SHADERS = 35717;
+	public static final int GL_ACTIVE_UNIFORMS = 35718;
+	public static final int GL_ACTIVE_UNIFORM_MAX_LENGTH = 35719;
+	public static final int GL_ACTIVE_ATTRIBUTES = 35721;
+	public static final int GL_ACTIVE_ATTRIBUTE_MAX_LENGTH = 35722;
+	public static final int GL_SHADING_LANGUAGE_VERSION = 35724;
+	public static final int GL_CURRENT_PROGRAM = 35725;
+	public static final int GL_NEVER = 512;
+	public static final int GL_LESS = 513;
+	public static final int GL_EQUAL = 514;
+	public static final int GL_LEQUAL = 515;
+	public static final int GL_GREATER = 516;
+	public static final int GL_NOTEQUAL = 517;
+	public static final int GL_GEQUAL = 518;
+	public static final int GL_ALWAYS = 519;
+	public static final int GL_KEEP = 7680;
+	public static final int GL_REPLACE = 7681;
+	public static final int GL_INCR = 7682;
+	public static final int GL_DECR = 7683;
+	public static final int GL_INVERT = 5386;
+	public static final int GL_INCR_WRAP = 34055;
+	public static final int GL_DECR_WRAP = 34056;
+	public static final int GL_VENDOR = 7936;
+	public static final int GL_RENDERER = 7937;
+	public static final int GL_VERSION = 7938;
+	public static final int GL_EXTENSIONS = 7939;
+	public static final int GL_NEAREST = 9728;
+	public static final int GL_LINEAR = 9729;
+	public static final int GL_NEAREST_MIPMAP_NEAREST = 9984;
+	public static final int GL_LINEAR_MIPMAP_NEAREST = 9985;
+	public static final int GL_NEAREST_MIPMAP_LINEAR = 9986;
+	public static final int GL_LINEAR_MIPMAP_LINEAR = 9987;
+	public static final int GL_TEXTURE_MAG_FILTER = 10240;
+	public static final int GL_TEXTURE_MIN_FILTER = 10241;
+	public static final int GL_TEXTURE_WRAP_S = 10242;
+	public static final int GL_TEXTURE_WRAP_T = 10243;
+	public static final int GL_TEXTURE = 5890;
+	public static final int GL_TEXTURE_CUBE_MAP = 34067;
+	public static final int GL_TEXTURE_BINDING_CUBE_MAP = 34068;
+	public static final int GL_TEXTURE_CUBE_MAP_POSITIVE_X = 34069;
+	public static final int GL_TEXTURE_CUBE_MAP_NEGATIVE_X = 34070;
+	public static final int GL_TEXTURE_CUBE_MAP_POSITIVE_Y = 34071;
+	public static final int GL_TEXTURE_CUBE_MAP_NEGATIVE_Y = 34072;
+	public static final int GL_TEXTURE_CUBE_MAP_POSITIVE_Z = 34073;
+	public static final int GL_TEXTURE_CUBE_MAP_NEGATIVE_Z = 34074;
+	public static final int GL_MAX_CUBE_MAP_TEXTURE_SIZE = 34076;
+	public static final int GL_TEXTURE0 = 33984;
+	public static final int GL_TEXTURE1 = 33985;
+	public static final int GL_TEXTURE2 = 33986;
+	public static final int GL_TEXTURE3 = 33987;
+	public static final int GL_TEXTURE4 = 33988;
+	public static final int GL_TEXTURE5 = 33989;
+	public static final int GL_TEXTURE6 = 33990;
+	public static final int GL_TEXTURE7 = 33991;
+	public static final int GL_TEXTURE8 = 33992;
+	public static final int GL_TEXTURE9 = 33993;
+	public static final int GL_TEXTURE10 = 33994;
+	public static final int GL_TEXTURE11 = 33995;
+	public static final int GL_TEXTURE12 = 33996;
+	public static final int GL_TEXTURE13 = 33997;
+	public static final int GL_TEXTURE14 = 33998;
+	public static final int GL_TEXTURE15 = 33999;
+	public static final int GL_TEXTURE16 = 34000;
+	public static final int GL_TEXTURE17 = 34001;
+	public static final int GL_TEXTURE18 = 34002;
+	public static final int GL_TEXTURE19 = 34003;
+	public static final int GL_TEXTURE20 = 34004;
+	public static final int GL_TEXTURE21 = 34005;
+	public static final int GL_TEXTURE22 = 34006;
+	public static final int GL_TEXTURE23 = 34007;
+	public static final int GL_TEXTURE24 = 34008;
+	public static final int GL_TEXTURE25 = 34009;
+	public static final int GL_TEXTURE26 = 34010;
+	public static final int GL_TEXTURE27 = 34011;
+	public static final int GL_TEXTURE28 = 34012;
+	public static final int GL_TEXTURE29 = 34013;
+	public static final int GL_TEXTURE30 = 34014;
+	public static final int GL_TEXTURE31 = 34015;
+	public static final int GL_REPEAT = 10497;
+	public static final int GL_CLAMP_TO_EDGE = 33071;
+	public static final int GL_MIRRORED_REPEAT = 33648;
+	public static final int GL_FLOAT_VEC2 = 35664;
+	public static final int GL_FLOAT_VEC3 = 35665;
+	public static final int GL_FLOAT_VEC4 = 35666;
+	public static final int GL_INT_VEC2 = 35667;
+	public static final int GL_INT_VEC3 = 35668;
+	public static final int GL_INT_VEC4 = 35669;
+	public static final int GL_BOOL = 35670;
+	public static final int GL_BOOL_VEC2 = 35671;
+	public static final int GL_BOOL_VEC3 = 35672;
+	public static final int GL_BOOL_VEC4 = 35673;
+	public static final int GL_FLOAT_MAT2 = 35674;
+	public static final int GL_FLOAT_MAT3 = 35675;
+	public static final int GL_FLOAT_MAT4 = 35676;
+	public static final int GL_SAMPLER_2D = 35678;
+	public static final int GL_SAMPLER_CUBE = 35680;
+	public static final int GL_VERTEX_ATTRIB_ARRAY_ENABLED = 34338;
+	public static final int GL_VERTEX_ATTRIB_ARRAY_SIZE = 34339;
+	public static final int GL_VERTEX_ATTRIB_ARRAY_STRIDE = 34340;
+	public static final int GL_VERTEX_ATTRIB_ARRAY_TYPE = 34341;
+	public static final int GL_VERTEX_ATTRIB_ARRAY_NORMALIZED = 34922;
+	public static final int GL_VERTEX_ATTRIB_ARRAY_POINTER = 34373;
+	public static final int GL_VERTEX_ATTRIB_ARRAY_BUFFER_BINDING = 34975;
+	public static final int GL_IMPLEMENTATION_COLOR_READ_TYPE = 35738;
+	public static final int GL_IMPLEMENTATION_COLOR_READ_FORMAT = 35739;
+	public static final int GL_COMPILE_STATUS = 35713;
+	public static final int GL_INFO_LOG_LENGTH = 35716;
+	public static final int GL_SHADER_SOURCE_LENGTH = 35720;
+	public static final int GL_SHADER_COMPILER = 36346;
+	public static final int GL_SHADER_BINARY_FORMATS = 36344;
+	public static final int GL_NUM_SHADER_BINARY_FORMATS = 36345;
+	public static final int GL_LOW_FLOAT = 36336;
+	public static final int GL_MEDIUM_FLOAT = 36337;
+	public static final int GL_HIGH_FLOAT = 36338;
+	public static final int GL_LOW_INT = 36339;
+	public static final int GL_MEDIUM_INT = 36340;
+	public static final int GL_HIGH_INT = 36341;
+	public static final int GL_FRAMEBUFFER = 36160;
+	public static final int GL_RENDERBUFFER = 36161;
+	public static final int GL_RGBA4 = 32854;
+	public static final int GL_RGB5_A1 = 32855;
+	public static final int GL_RGB565 = 36194;
+	public static final int GL_DEPTH_COMPONENT16 = 33189;
+	public static final int GL_STENCIL_INDEX = 6401;
+	public static final int GL_STENCIL_INDEX8 = 36168;
+	public static final int GL_RENDERBUFFER_WIDTH = 36162;
+	public static final int GL_RENDERBUFFER_HEIGHT = 36163;
+	public static final int GL_RENDERBUFFER_INTERNAL_FORMAT = 36164;
+	public static final int GL_RENDERBUFFER_RED_SIZE = 36176;
+	public static final int GL_RENDERBUFFER_GREEN_SIZE = 36177;
+	public static final int GL_RENDERBUFFER_BLUE_SIZE = 36178;
+	public static final int GL_RENDERBUFFER_ALPHA_SIZE = 36179;
+	public static final int GL_RENDERBUFFER_DEPTH_SIZE = 36180;
+	public static final int GL_RENDERBUFFER_STENCIL_SIZE = 36181;
+	public static final int GL_FRAMEBUFFER_ATTACHMENT_OBJECT_TYPE = 36048;
+	public static final int GL_FRAMEBUFFER_ATTACHMENT_OBJECT_NAME = 36049;
+	public static final int GL_FRAMEBUFFER_ATTACHMENT_TEXTURE_LEVEL = 36050;
+	public static final int GL_FRAMEBUFFER_ATTACHMENT_TEXTURE_CUBE_MAP_FACE = 36051;
+	public static final int GL_COLOR_ATTACHMENT0 = 36064;
+	public static final int GL_DEPTH_ATTACHMENT = 36096;
+	public static final int GL_STENCIL_ATTACHMENT = 36128;
+	public static final int GL_NONE = 0;
+	public static final int GL_FRAMEBUFFER_COMPLETE = 36053;
+	public static final int GL_FRAMEBUFFER_INCOMPLETE_ATTACHMENT = 36054;
+	public static final int GL_FRAMEBUFFER_INCOMPLETE_MISSING_ATTACHMENT = 36055;
+	public static final int GL_FRAMEBUFFER_INCOMPLETE_DIMENSIONS = 36057;
+	public static final int GL_FRAMEBUFFER_UNSUPPORTED = 36061;
+	public static final int GL_FRAMEBUFFER_BINDING = 36006;
+	public static final int GL_RENDERBUFFER_BINDING = 36007;
+	public static final int GL_MAX_RENDERBUFFER_SIZE = 34024;
+	public static final int GL_INVALID_FRAMEBUFFER_OPERATION = 1286;
+
+	/**
+	 * Extensions returned by glGetString(GL_EXTENSIONS)
+	 */
+	public static String extensions = "";
+
+	/**
+	 * Renderer returned by glGetString(GL_RENDERER)
+	 */
+	public static String renderer = "JVM";
+
+	/**
+	 * Version returned by glGetString(GL_VERSION)
+	 */
+	public static String version = "OpenGL ES 2.0";
+
+	/**
+	 * Calls log
+	 */
+	private static final List<String> calls = new ArrayList<String>();
+
+	/**
+	 * Last generated name
+	 */
+	private static int lastName = 0;
+
+	/**
+	 * Sources of shaders
+	 */
+	private static final Map<Integer, String> shaders = new HashMap<Integer, String>();
+
+	/**
+	 * Attached shaders of programs
+	 */
+	private static final Map<Integer, List<Integer>> attachedShaders = new HashMap<Integer, List<Integer>>();
+
+	/**
+	 * Linked programs
+	 */
+	private static final Map<Integer, Program> programs = new HashMap<Integer, Program>();
+
+	/**
+	 * Enabled capabilities
+	 */
+	private static final Set<Integer> enabled = new HashSet<Integer>();
+
+	/**
+	 * Current viewport
+	 */
+	private static final int[] viewport = new int[4];
+
+	/**
+	 * Variable declaration in GLSL
+	 */
+	private static final Pattern DECLARATION = Pattern.compile("(attribute|uniform)\\s+(?:(?:lowp|mediump|highp)\\s+)?(\\w+)\\s+(\\w+)\\s*(?:\\[\\s*(\\w+)\\s*\\])?\\s*;");
+
+	/**
+	 * Define directive in GLSL
+	 */
+	private static final Pattern DEFINE = Pattern.compile("#define\\s+(\\w+)\\s+(\\d+)");
+
+	/**
+	 * Active variables of a linked program
+	 */
+	private static final class Program{
+		final List<String> attributes = new ArrayList<String>();
+		final List<Integer> attributeTypes = new ArrayList<Integer>();
+		final List<String> uniforms = new ArrayList<String>();
+		final List<Integer> uniformTypes = new ArrayList<Integer>();
+		final List<Integer> uniformSizes = new ArrayList<Integer>();
+		final StringBuilder sources = new StringBuilder();
+	}
+
+	/**
+	 * Reset calls log and states
+	 */
+	public static synchronized void reset(){
+		calls.clear();
+		shaders.clear();
+		attachedShaders.clear();
+		programs.clear();
+		enabled.clear();
+		viewport[0] = viewport[1] = viewport[2] = viewport[3] = 0;
+		extensions = "";
+	}
+
+	/**
+	 * Clear calls log only
+	 */
+	public static synchronized void clearCalls(){
+		calls.clear();
+	}
+
+	/**
+	 * Get a copy of calls log, each call is "name(arg0, arg1...)"
+	 */
+	public static synchronized List<String> getCalls(){
+		return new ArrayList<String>(calls);
+	}
+
+	/**
+	 * Count calls starting with prefix (name or name with arguments)
+	 */
+	public static synchronized int count(final String prefix){
+		int count = 0;
+		for(String call : calls){
+			if(call.startsWith(prefix)){
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Append a call to log
+	 */
+	public static synchronized void record(final String name, final Object... args){
+		final StringBuilder call = new StringBuilder(name).append('(');
+		for(int index=0; index < args.length; index++){
+			if(index > 0){
+				call.append(", ");
+			}
+			final Object arg = args[index];
+			call.append((arg != null && arg.getClass().isArray()) ? "[]" : String.valueOf(arg));
+		}
+		calls.add(call.append(')').toString());
+	}
+
+	/**
+	 * Get the sources of the shaders of a linked program (fake program binary)
+	 */
+	public static synchronized String getProgramSources(final int program){
+		final Program linked = programs.get(program);
+		return (linked != null) ? linked.sources.toString() : null;
+	}
+
+	/**
+	 * Link a program from sources (fake program binary)
+	 */
+	public static synchronized void linkProgramSources(final int program, final String sources){
+		final Program linked = new Program();
+		parse(linked, sources);
+		programs.put(program, linked);
+	}
+
+	/**
+	 * Generate names
+	 */
+	private static synchronized void generate(final int n, final int[] names, final int offset){
+		for(int index=0; index < n; index++){
+			names[offset + index] = ++lastName;
+		}
+	}
+
+	/**
+	 * Parse active variables of sources
+	 */
+	private static void parse(final Program program, final String sources){
+		program.sources.append(sources);
+		final Map<String, Integer> defines = new HashMap<String, Integer>();
+		final Matcher define = DEFINE.matcher(sources);
+		while(define.find()){
+			defines.put(define.group(1), Integer.valueOf(define.group(2)));
+		}
+		final Matcher declaration = DECLARATION.matcher(sources);
+		while(declaration.find()){
+			final String name = declaration.group(3);
+			final int type = getType(declaration.group(2));
+			if("attribute".equals(declaration.group(1))){
+				if(!program.attributes.contains(name)){
+					program.attributes.add(name);
+					program.attributeTypes.add(type);
+				}
+			}
+			else if(!program.uniforms.contains(name)){
+				int size = 1;
+				final String length = declaration.group(4);
+				if(length != null){
+					size = defines.containsKey(length) ? defines.get(length) : Integer.parseInt(length);
+				}
+				program.uniforms.add(name);
+				program.uniformTypes.add(type);
+				program.uniformSizes.add(size);
+			}
+		}
+	}
+
+	/**
+	 * Get GL type of a GLSL type
+	 */
+	private static int getType(final String type){
+		if("float".equals(type)) return GL_FLOAT;
+		if("vec2".equals(type)) return GL_FLOAT_VEC2;
+		if("vec3".equals(type)) return GL_FLOAT_VEC3;
+		if("vec4".equals(type)) return GL_FLOAT_VEC4;
+		if("mat2".equals(type)) return GL_FLOAT_MAT2;
+		if("mat3".equals(type)) return GL_FLOAT_MAT3;
+		if("mat4".equals(type)) return GL_FLOAT_MAT4;
+		if("int".equals(type)) return GL_INT;
+		if("ivec2".equals(type)) return GL_INT_VEC2;
+		if("ivec3".equals(type)) return GL_INT_VEC3;
+		if("ivec4".equals(type)) return GL_INT_VEC4;
+		if("bool".equals(type)) return GL_BOOL;
+		if("samplerCube".equals(type)) return GL_SAMPLER_CUBE;
+		return GL_SAMPLER_2D;
+	}
+
+	/**
+	 * Copy a name in a bytes array
+	 */
+	private static void copyName(final String name, final int bufsize, final int[] length, final int lengthOffset, final byte[] dst, final int dstOffset){
+		final byte[] bytes = name.getBytes();
+		final int count = Math.min(bytes.length, bufsize - 1);
+		System.arraycopy(bytes, 0, dst, dstOffset, count);
+		dst[dstOffset + count] = 0;
+		length[lengthOffset] = count;
+	}
+
+	public static int glCreateShader(int type){
+		record("glCreateShader", type);
+		final int[] name = new int[1];
+		generate(1, name, 0);
+		return name[0];
+	}
+
+	public static synchronized void glShaderSource(int shader, String string){
+		record("glShaderSource", shader, "...");
+		shaders.put(shader, string);
+	}
+
+	public static void glCompileShader(int shader){
+		record("glCompileShader", shader);
+	}
+
+	public static void glGetShaderiv(int shader, int pname, int[] params, int offset){
+		record("glGetShaderiv", shader, pname, params, offset);
+		params[offset] = (pname == GL_COMPILE_STATUS) ? GL_TRUE : 0;
+	}
+
+	public static String glGetShaderInfoLog(int shader){
+		record("glGetShaderInfoLog", shader);
+		return "";
+	}
+
+	public static int glCreateProgram(){
+		record("glCreateProgram");
+		final int[] name = new int[1];
+		generate(1, name, 0);
+		return name[0];
+	}
+
+	public static synchronized void glAttachShader(int program, int shader){
+		record("glAttachShader", program, shader);
+		List<Integer> list = attachedShaders.get(program);
+		if(list == null){
+			list = new ArrayList<Integer>();
+			attachedShaders.put(program, list);
+		}
+		list.add(shader);
+	}
+
+	public static synchronized void glLinkProgram(int program){
+		record("glLinkProgram", program);
+		final Program linked = new Program();
+		final List<Integer> list = attachedShaders.get(program);
+		if(list != null){
+			for(Integer shader : list){
+				parse(linked, shaders.get(shader) + "\n");
+			}
+		}
+		programs.put(program, linked);
+	}
+
+	public static synchronized void glDeleteProgram(int program){
+		record("glDeleteProgram", program);
+		programs.remove(program);
+		attachedShaders.remove(program);
+	}
+
+	public static void glUseProgram(int program){
+		record("glUseProgram", program);
+	}
+
+	public static synchronized void glGetProgramiv(int program, int pname, int[] params, int offset){
+		record("glGetProgramiv", program, pname, params, offset);
+		final Program linked = programs.get(program);
+		switch(pname){
+			case GL_LINK_STATUS :
+			case GL_VALIDATE_STATUS :
+				params[offset] = (linked != null) ? GL_TRUE : GL_FALSE;
+				break;
+			case GL_ACTIVE_ATTRIBUTES :
+				params[offset] = (linked != null) ? linked.attributes.size() : 0;
+				break;
+			case GL_ACTIVE_UNIFORMS :
+				params[offset] = (linked != null) ? linked.uniforms.size() : 0;
+				break;
+			case GL_ACTIVE_ATTRIBUTE_MAX_LENGTH :
+			case GL_ACTIVE_UNIFORM_MAX_LENGTH :
+				params[offset] = 256;
+				break;
+			default :
+				params[offset] = 0;
+		}
+	}
+
+	public static String glGetProgramInfoLog(int program){
+		record("glGetProgramInfoLog", program);
+		return "";
+	}
+
+	public static synchronized void glGetActiveAttrib(int program, int index, int bufsize, int[] length, int lengthOffset, int[] size, int sizeOffset, int[] type, int typeOffset, byte[] name, int nameOffset){
+		record("glGetActiveAttrib", program, index);
+		final Program linked = programs.get(program);
+		copyName(linked.attributes.get(index), bufsize, length, lengthOffset, name, nameOffset);
+		size[sizeOffset] = 1;
+		type[typeOffset] = linked.attributeTypes.get(index);
+	}
+
+	public static synchronized String glGetActiveAttrib(int program, int index, int[] size, int sizeOffset, int[] type, int typeOffset){
+		record("glGetActiveAttrib", program, index);
+		final Program linked = programs.get(program);
+		size[sizeOffset] = 1;
+		type[typeOffset] = linked.attributeTypes.get(index);
+		return linked.attributes.get(index);
+	}
+
+	public static synchronized void glGetActiveUniform(int program, int index, int bufsize, int[] length, int lengthOffset, int[] size, int sizeOffset, int[] type, int typeOffset, byte[] name, int nameOffset){
+		record("glGetActiveUniform", program, index);
+		final Program linked = programs.get(program);
+		copyName(linked.uniforms.get(index), bufsize, length, lengthOffset, name, nameOffset);
+		size[sizeOffset] = linked.uniformSizes.get(index);
+		type[typeOffset] = linked.uniformTypes.get(index);
+	}
+
+	public static synchronized String glGetActiveUniform(int program, int index, int[] size, int sizeOffset, int[] type, int typeOffset){
+		record("glGetActiveUniform", program, index);
+		final Program linked = programs.get(program);
+		size[sizeOffset] = linked.uniformSizes.get(index);
+		type[typeOffset] = linked.uniformTypes.get(index);
+		return linked.uniforms.get(index);
+	}
+
+	public static synchronized int glGetAttribLocation(int program, String name){
+		record("glGetAttribLocation", program, name);
+		final Program linked = programs.get(program);
+		return (linked != null) ? linked.attributes.indexOf(name) : -1;
+	}
+
+	public static synchronized int glGetUniformLocation(int program, String name){
+		record("glGetUniformLocation", program, name);
+		final Program linked = programs.get(program);
+		final int index = (linked != null) ? linked.uniforms.indexOf(name) : -1;
+		//Locations are program scoped, offset makes them distinct from attributes
+		return (index >= 0) ? 100 + index : -1;
+	}
+
+	public static void glGenBuffers(int n, int[] buffers, int offset){
+		record("glGenBuffers", n, buffers, offset);
+		generate(n, buffers, offset);
+	}
+
+	public static void glGenFramebuffers(int n, int[] framebuffers, int offset){
+		record("glGenFramebuffers", n, framebuffers, offset);
+		generate(n, framebuffers, offset);
+	}
+
+	public static void glGenRenderbuffers(int n, int[] renderbuffers, int offset){
+		record("glGenRenderbuffers", n, renderbuffers, offset);
+		generate(n, renderbuffers, offset);
+	}
+
+	public static void glGenTextures(int n, int[] textures, int offset){
+		record("glGenTextures", n, textures, offset);
+		generate(n, textures, offset);
+	}
+
+	public static int glCheckFramebufferStatus(int target){
+		record("glCheckFramebufferStatus", target);
+		return GL_FRAMEBUFFER_COMPLETE;
+	}
+
+	public static int glGetError(){
+		record("glGetError");
+		return GL_NO_ERROR;
+	}
+
+	public static synchronized void glViewport(int x, int y, int width, int height){
+		record("glViewport", x, y, width, height);
+		viewport[0] = x;
+		viewport[1] = y;
+		viewport[2] = width;
+		viewport[3] = height;
+	}
+
+	public static synchronized void glGetIntegerv(int pname, int[] params, int offset){
+		record("glGetIntegerv", pname, params, offset);
+		if(pname == GL_VIEWPORT){
+			System.arraycopy(viewport, 0, params, offset, 4);
+		}
+		else{
+			params[offset] = 0;
+		}
+	}
+
+	public static void glGetFloatv(int pname, float[] params, int offset){
+		record("glGetFloatv", pname, params, offset);
+		params[offset] = 0f;
+	}
+
+	public static String glGetString(int name){
+		record("glGetString", name);
+		switch(name){
+			case GL_EXTENSIONS :
+				return extensions;
+			case GL_RENDERER :
+				return renderer;
+			case GL_VERSION :
+				return version;
+			default :
+				return "";
+		}
+	}
+
+	public static synchronized void glEnable(int cap){
+		record("glEnable", cap);
+		enabled.add(cap);
+	}
+
+	public static synchronized void glDisable(int cap){
+		record("glDisable", cap);
+		enabled.remove(cap);
+	}
+
+	public static synchronized boolean glIsEnabled(int cap){
+		record("glIsEnabled", cap);
+		return enabled.contains(cap);
+	}
+
+	public static void glActiveTexture(int texture){
+		record("glActiveTexture", texture);
+	}
+
+	public static void glBindAttribLocation(int program, int index, String name){
+		record("glBindAttribLocation", program, index, name);
+	}
+
+	public static void glBindBuffer(int target, int buffer){
+		record("glBindBuffer", target, buffer);
+	}
+
+	public static void glBindFramebuffer(int target, int framebuffer){
+		record("glBindFramebuffer", target, framebuffer);
+	}
+
+	public static void glBindRenderbuffer(int target, int renderbuffer){
+		record("glBindRenderbuffer", target, renderbuffer);
+	}
+
+	public static void glBindTexture(int target, int texture){
+		record("glBindTexture", target, texture);
+	}
+
+	public static void glBlendColor(float red, float green, float blue, float alpha){
+		record("glBlendColor", red, green, blue, alpha);
+	}
+
+	public static void glBlendEquation(int mode){
+		record("glBlendEquation", mode);
+	}
+
+	public static void glBlendEquationSeparate(int modeRGB, int modeAlpha){
+		record("glBlendEquationSeparate", modeRGB, modeAlpha);
+	}
+
+	public static void glBlendFunc(int sfactor, int dfactor){
+		record("glBlendFunc", sfactor, dfactor);
+	}
+
+	public static void glBlendFuncSeparate(int srcRGB, int dstRGB, int srcAlpha, int dstAlpha){
+		record("glBlendFuncSeparate", srcRGB, dstRGB, srcAlpha, dstAlpha);
+	}
+
+	public static void glBufferData(int target, int size, Buffer data, int usage){
+		record("glBufferData", target, size, data, usage);
+	}
+
+	public static void glBufferSubData(int target, int offset, int size, Buffer data){
+		record("glBufferSubData", target, offset, size, data);
+	}
+
+	public static void glClear(int mask){
+		record("glClear", mask);
+	}
+
+	public static void glClearColor(float red, float green, float blue, float alpha){
+		record("glClearColor", red, green, blue, alpha);
+	}
+
+	public static void glClearDepthf(float depth){
+		record("glClearDepthf", depth);
+	}
+
+	public static void glClearStencil(int s){
+		record("glClearStencil", s);
+	}
+
+	public static void glColorMask(boolean red, boolean green, boolean blue, boolean alpha){
+		record("glColorMask", red, green, blue, alpha);
+	}
+
+	public static void glCompressedTexImage2D(int target, int level, int internalformat, int width, int height, int border, int imageSize, Buffer data){
+		record("glCompressedTexImage2D", target, level, internalformat, width, height, border, imageSize, data);
+	}
+
+	public static void glCompressedTexSubImage2D(int target, int level, int xoffset, int yoffset, int width, int height, int format, int imageSize, Buffer data){
+		record("glCompressedTexSubImage2D", target, level, xoffset, yoffset, width, height, format, imageSize, data);
+	}
+
+	public static void glCullFace(int mode){
+		record("glCullFace", mode);
+	}
+
+	public static void glDeleteBuffers(int n, int[] buffers, int offset){
+		record("glDeleteBuffers", n, buffers, offset);
+	}
+
+	public static void glDeleteFramebuffers(int n, int[] framebuffers, int offset){
+		record("glDeleteFramebuffers", n, framebuffers, offset);
+	}
+
+	public static void glDeleteRenderbuffers(int n, int[] renderbuffers, int offset){
+		record("glDeleteRenderbuffers", n, renderbuffers, offset);
+	}
+
+	public static void glDeleteShader(int shader){
+		record("glDeleteShader", shader);
+	}
+
+	public static void glDeleteTextures(int n, int[] textures, int offset){
+		record("glDeleteTextures", n, textures, offset);
+	}
+
+	public static void glDepthFunc(int func){
+		record("glDepthFunc", func);
+	}
+
+	public static void glDepthMask(boolean flag){
+		record("glDepthMask", flag);
+	}
+
+	public static void glDepthRangef(float zNear, float zFar){
+		record("glDepthRangef", zNear, zFar);
+	}
+
+	public static void glDetachShader(int program, int shader){
+		record("glDetachShader", program, shader);
+	}
+
+	public static void glDisableVertexAttribArray(int index){
+		record("glDisableVertexAttribArray", index);
+	}
+
+	public static void glDrawArrays(int mode, int first, int count){
+		record("glDrawArrays", mode, first, count);
+	}
+
+	public static void glDrawElements(int mode, int count, int type, Buffer indices){
+		record("glDrawElements", mode, count, type, indices);
+	}
+
+	public static void glDrawElements(int mode, int count, int type, int offset){
+		record("glDrawElements", mode, count, type, offset);
+	}
+
+	public static void glEnableVertexAttribArray(int index){
+		record("glEnableVertexAttribArray", index);
+	}
+
+	public static void glFinish(){
+		record("glFinish");
+	}
+
+	public static void glFlush(){
+		record("glFlush");
+	}
+
+	public static void glFramebufferRenderbuffer(int target, int attachment, int renderbuffertarget, int renderbuffer){
+		record("glFramebufferRenderbuffer", target, attachment, renderbuffertarget, renderbuffer);
+	}
+
+	public static void glFramebufferTexture2D(int target, int attachment, int textarget, int texture, int level){
+		record("glFramebufferTexture2D", target, attachment, textarget, texture, level);
+	}
+
+	public static void glFrontFace(int mode){
+		record("glFrontFace", mode);
+	}
+
+	public static void glGenerateMipmap(int target){
+		record("glGenerateMipmap", target);
+	}
+
+	public static void glPixelStorei(int pname, int param){
+		record("glPixelStorei", pname, param);
+	}
+
+	public static void glReadPixels(int x, int y, int width, int height, int format, int type, Buffer pixels){
+		record("glReadPixels", x, y, width, height, format, type, pixels);
+	}
+
+	public static void glRenderbufferStorage(int target, int internalformat, int width, int height){
+		record("glRenderbufferStorage", target, internalformat, width, height);
+	}
+
+	public static void glScissor(int x, int y, int width, int height){
+		record("glScissor", x, y, width, height);
+	}
+
+	public static void glStencilFunc(int func, int ref, int mask){
+		record("glStencilFunc", func, ref, mask);
+	}
+
+	public static void glStencilMask(int mask){
+		record("glStencilMask", mask);
+	}
+
+	public static void glStencilOp(int fail, int zfail, int zpass){
+		record("glStencilOp", fail, zfail, zpass);
+	}
+
+	public static void glTexImage2D(int target, int level, int internalformat, int width, int height, int border, int format, int type, Buffer pixels){
+		record("glTexImage2D", target, level, internalformat, width, height, border, format, type, pixels);
+	}
+
+	public static void glTexParameteri(int target, int pname, int param){
+		record("glTexParameteri", target, pname, param);
+	}
+
+	public static void glTexSubImage2D(int target, int level, int xoffset, int yoffset, int width, int height, int format, int type, Buffer pixels){
+		record("glTexSubImage2D", target, level, xoffset, yoffset, width, height, format, type, pixels);
+	}
+
+	public static void glUniform1f(int location, float x){
+		record("glUniform1f", location, x);
+	}
+
+	public static void glUniform1i(int location, int x){
+		record("glUniform1i", location, x);
+	}
+
+	public static void glUniform2f(int location, float x, float y){
+		record("glUniform2f", location, x, y);
+	}
+
+	public static void glUniform3f(int location, float x, float y, float z){
+		record("glUniform3f", location, x, y, z);
+	}
+
+	public static void glUniform4f(int location, float x, float y, float z, float w){
+		record("glUniform4f", location, x, y, z, w);
+	}
+
+	public static void glUniform1fv(int location, int count, float[] v, int offset){
+		record("glUniform1fv", location, count, v, offset);
+	}
+
+	public static void glUniform2fv(int location, int count, float[] v, int offset){
+		record("glUniform2fv", location, count, v, offset);
+	}
+
+	public static void glUniform3fv(int location, int count, float[] v, int offset){
+		record("glUniform3fv", location, count, v, offset);
+	}
+
+	public static void glUniform4fv(int location, int count, float[] v, int offset){
+		record("glUniform4fv", location, count, v, offset);
+	}
+
+	public static void glUniform1iv(int location, int count, int[] v, int offset){
+		record("glUniform1iv", location, count, v, offset);
+	}
+
+	public static void glUniformMatrix3fv(int location, int count, boolean transpose, float[] value, int offset){
+		record("glUniformMatrix3fv", location, count, transpose, value, offset);
+	}
+
+	public static void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value, int offset){
+		record("glUniformMatrix4fv", location, count, transpose, value, offset);
+	}
+
+	public static void glUniformMatrix4fv(int location, int count, boolean transpose, FloatBuffer value){
+		record("glUniformMatrix4fv", location, count, transpose, value);
+	}
+
+	public static void glValidateProgram(int program){
+		record("glValidateProgram", program);
+	}
+
+	public static void glVertexAttrib4fv(int indx, float[] values, int offset){
+		record("glVertexAttrib4fv", indx, values, offset);
+	}
+
+	public static void glVertexAttrib4f(int indx, float x, float y, float z, float w){
+		record("glVertexAttrib4f", indx, x, y, z, w);
+	}
+
+	public static void glVertexAttribPointer(int indx, int size, int type, boolean normalized, int stride, Buffer ptr){
+		record("glVertexAttribPointer", indx, size, type, normalized, stride, ptr);
+	}
+
+	public static void glVertexAttribPointer(int indx, int size, int type, boolean normalized, int stride, int offset){
+		record("glVertexAttribPointer", indx, size, type, normalized, stride, offset);
+	}
+
+	public static void glVertexAttrib1f(int indx, float x){
+		record("glVertexAttrib1f", indx, x);
+	}
+}
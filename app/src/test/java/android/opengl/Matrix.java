@@ -0,0 +1,296 @@
+package android.opengl;
+
+/**
+ * JVM implementation of android.opengl.Matrix for unit tests.
+ * <br/>
+ * <br/>
+ * The android.jar used by unit tests only contains stubs, this class comes first
+ * on the tests classpath and provides the same column major operations so that
+ * MatrixUtils (which extends Matrix) can be tested without a device.
+ *
+ * @author Thomas MILLET
+ *
+ */
+public class Matrix {
+
+	/**
+	 * Multiply two 4x4 matrices (result = lhs x rhs), result can overlap inputs
+	 */
+	public static void multiplyMM(float[] result, int resultOffset, float[] lhs, int lhsOffset, float[] rhs, int rhsOffset) {
+		final float[] tmp = new float[16];
+		for(int i=0; i < 4; i++){
+			for(int j=0; j < 4; j++){
+				float sum = 0f;
+				for(int k=0; k < 4; k++){
+					sum += lhs[lhsOffset + (k << 2) + j] * rhs[rhsOffset + (i << 2) + k];
+				}
+				tmp[(i << 2) + j] = sum;
+			}
+		}
+		System.arraycopy(tmp, 0, result, resultOffset, 16);
+	}
+
+	/**
+	 * Multiply a 4x4 matrix by a vec4 (resultVec = lhsMat x rhsVec)
+	 */
+	public static void multiplyMV(float[] resultVec, int resultVecOffset, float[] lhsMat, int lhsMatOffset, float[] rhsVec, int rhsVecOffset) {
+		final float[] tmp = new float[4];
+		for(int j=0; j < 4; j++){
+			float sum = 0f;
+			for(int k=0; k < 4; k++){
+				sum += lhsMat[lhsMatOffset + (k << 2) + j] * rhsVec[rhsVecOffset + k];
+			}
+			tmp[j] = sum;
+		}
+		System.arraycopy(tmp, 0, resultVec, resultVecOffset, 4);
+	}
+
+	/**
+	 * Transpose a 4x4 matrix
+	 */
+	public static void transposeM(float[] mTrans, int mTransOffset, float[] m, int mOffset) {
+		for(int i=0; i < 4; i++){
+			for(int j=0; j < 4; j++){
+				mTrans[mTransOffset + (i << 2) + j] = m[mOffset + (j << 2) + i];
+			}
+		}
+	}
+
+	/**
+	 * Inverse a 4x4 matrix (Gauss-Jordan with partial pivoting)
+	 */
+	public static boolean invertM(float[] mInv, int mInvOffset, float[] m, int mOffset) {
+		final double[] src = new double[16];
+		final double[] inv = new double[16];
+		for(int index=0; index < 16; index++){
+			src[index] = m[mOffset + index];
+		}
+		inv[0] = inv[5] = inv[10] = inv[15] = 1.0;
+		//Work on columns as rows, (M^T)^-1 = (M^-1)^T
+		for(int col=0; col < 4; col++){
+			int pivot = col;
+			for(int row=col + 1; row < 4; row++){
+				if(Math.abs(src[(row << 2) + col]) > Math.abs(src[(pivot << 2) + col])){
+					pivot = row;
+				}
+			}
+			if(Math.abs(src[(pivot << 2) + col]) < 1e-12){
+				return false;
+			}
+			for(int k=0; k < 4; k++){
+				double tmp = src[(col << 2) + k];
+				src[(col << 2) + k] = src[(pivot << 2) + k];
+				src[(pivot << 2) + k] = tmp;
+				tmp = inv[(col << 2) + k];
+				inv[(col << 2) + k] = inv[(pivot << 2) + k];
+				inv[(pivot << 2) + k] = tmp;
+			}
+			final double diag = src[(col << 2) + col];
+			for(int k=0; k < 4; k++){
+				src[(col << 2) + k] /= diag;
+				inv[(col << 2) + k] /= diag;
+			}
+			for(int row=0; row < 4; row++){
+				if(row != col){
+					final double factor = src[(row << 2) + col];
+					for(int k=0; k < 4; k++){
+						src[(row << 2) + k] -= factor * src[(col << 2) + k];
+						inv[(row << 2) + k] -= factor * inv[(col << 2) + k];
+					}
+				}
+			}
+		}
+		for(int index=0; index < 16; index++){
+			mInv[mInvOffset + index] = (float)inv[index];
+		}
+		return true;
+	}
+
+	/**
+	 * Compute an orthographic projection matrix
+	 */
+	public static void orthoM(float[] m, int mOffset, float left, float right, float bottom, float top, float near, float far) {
+		setIdentityM(m, mOffset);
+		m[mOffset] = 2f / (right - left);
+		m[mOffset + 5] = 2f / (top - bottom);
+		m[mOffset + 10] = -2f / (far - near);
+		m[mOffset + 12] = -(right + left) / (right - left);
+		m[mOffset + 13] = -(top + bottom) / (top - bottom);
+		m[mOffset + 14] = -(far + near) / (far - near);
+	}
+
+	/**
+	 * Compute a perspective projection matrix from frustum planes
+	 */
+	public static void frustumM(float[] m, int offset, float left, float right, float bottom, float top, float near, float far) {
+		for(int index=0; index < 16; index++){
+			m[offset + index] = 0f;
+		}
+		m[offset] = 2f * near / (right - left);
+		m[offset + 5] = 2f * near / (top - bottom);
+		m[offset + 8] = (right + left) / (right - left);
+		m[offset + 9] = (top + bottom) / (top - bottom);
+		m[offset + 10] = -(far + near) / (far - near);
+		m[offset + 11] = -1f;
+		m[offset + 14] = -2f * far * near / (far - near);
+	}
+
+	/**
+	 * Compute a perspective projection matrix from field of view
+	 */
+	public static void perspectiveM(float[] m, int offset, float fovy, float aspect, float zNear, float zFar) {
+		final float f = 1f / (float)Math.tan(fovy * (Math.PI / 360.0));
+		for(int index=0; index < 16; index++){
+			m[offset + index] = 0f;
+		}
+		m[offset] = f / aspect;
+		m[offset + 5] = f;
+		m[offset + 10] = (zFar + zNear) / (zNear - zFar);
+		m[offset + 11] = -1f;
+		m[offset + 14] = 2f * zFar * zNear / (zNear - zFar);
+	}
+
+	/**
+	 * Compute the length of a vector
+	 */
+	public static float length(float x, float y, float z) {
+		return (float)Math.sqrt(x * x + y * y + z * z);
+	}
+
+	/**
+	 * Set a matrix to identity
+	 */
+	public static void setIdentityM(float[] sm, int smOffset) {
+		for(int index=0; index < 16; index++){
+			sm[smOffset + index] = 0f;
+		}
+		sm[smOffset] = sm[smOffset + 5] = sm[smOffset + 10] = sm[smOffset + 15] = 1f;
+	}
+
+	/**
+	 * Scale a matrix into another one
+	 */
+	public static void scaleM(float[] sm, int smOffset, float[] m, int mOffset, float x, float y, float z) {
+		for(int i=0; i < 4; i++){
+			sm[smOffset + i] = m[mOffset + i] * x;
+			sm[smOffset + 4 + i] = m[mOffset + 4 + i] * y;
+			sm[smOffset + 8 + i] = m[mOffset + 8 + i] * z;
+			sm[smOffset + 12 + i] = m[mOffset + 12 + i];
+		}
+	}
+
+	/**
+	 * Scale a matrix in place
+	 */
+	public static void scaleM(float[] m, int mOffset, float x, float y, float z) {
+		for(int i=0; i < 4; i++){
+			m[mOffset + i] *= x;
+			m[mOffset + 4 + i] *= y;
+			m[mOffset + 8 + i] *= z;
+		}
+	}
+
+	/**
+	 * Translate a matrix into another one
+	 */
+	public static void translateM(float[] tm, int tmOffset, float[] m, int mOffset, float x, float y, float z) {
+		for(int i=0; i < 12; i++){
+			tm[tmOffset + i] = m[mOffset + i];
+		}
+		for(int i=0; i < 4; i++){
+			tm[tmOffset + 12 + i] = m[mOffset + i] * x + m[mOffset + 4 + i] * y + m[mOffset + 8 + i] * z + m[mOffset + 12 + i];
+		}
+	}
+
+	/**
+	 * Translate a matrix in place
+	 */
+	public static void translateM(float[] m, int mOffset, float x, float y, float z) {
+		for(int i=0; i < 4; i++){
+			m[mOffset + 12 + i] += m[mOffset + i] * x + m[mOffset + 4 + i] * y + m[mOffset + 8 + i] * z;
+		}
+	}
+
+	/**
+	 * Rotate a matrix into another one
+	 */
+	public static void rotateM(float[] rm, int rmOffset, float[] m, int mOffset, float a, float x, float y, float z) {
+		final float[] tmp = new float[16];
+		setRotateM(tmp, 0, a, x, y, z);
+		multiplyMM(rm, rmOffset, m, mOffset, tmp, 0);
+	}
+
+	/**
+	 * Rotate a matrix in place
+	 */
+	public static void rotateM(float[] m, int mOffset, float a, float x, float y, float z) {
+		rotateM(m, mOffset, m, mOffset, a, x, y, z);
+	}
+
+	/**
+	 * Set a rotation matrix, angle in degrees around axis (x, y, z)
+	 */
+	public static void setRotateM(float[] rm, int rmOffset, float a, float x, float y, float z) {
+		rm[rmOffset + 3] = rm[rmOffset + 7] = rm[rmOffset + 11] = 0f;
+		rm[rmOffset + 12] = rm[rmOffset + 13] = rm[rmOffset + 14] = 0f;
+		rm[rmOffset + 15] = 1f;
+		final double radians = Math.toRadians(a);
+		final float s = (float)Math.sin(radians);
+		final float c = (float)Math.cos(radians);
+		final float length = length(x, y, z);
+		if(length != 1f){
+			x /= length;
+			y /= length;
+			z /= length;
+		}
+		final float nc = 1f - c;
+		rm[rmOffset] = x * x * nc + c;
+		rm[rmOffset + 1] = x * y * nc + z * s;
+		rm[rmOffset + 2] = z * x * nc - y * s;
+		rm[rmOffset + 4] = x * y * nc - z * s;
+		rm[rmOffset + 5] = y * y * nc + c;
+		rm[rmOffset + 6] = y * z * nc + x * s;
+		rm[rmOffset + 8] = z * x * nc + y * s;
+		rm[rmOffset + 9] = y * z * nc - x * s;
+		rm[rmOffset + 10] = z * z * nc + c;
+	}
+
+	/**
+	 * Set a view matrix from eye, center and up vectors
+	 */
+	public static void setLookAtM(float[] rm, int rmOffset, float eyeX, float eyeY, float eyeZ,
+			float centerX, float centerY, float centerZ, float upX, float upY, float upZ) {
+		float fx = centerX - eyeX;
+		float fy = centerY - eyeY;
+		float fz = centerZ - eyeZ;
+		final float rlf = 1f / length(fx, fy, fz);
+		fx *= rlf;
+		fy *= rlf;
+		fz *= rlf;
+		float sx = fy * upZ - fz * upY;
+		float sy = fz * upX - fx * upZ;
+		float sz = fx * upY - fy * upX;
+		final float rls = 1f / length(sx, sy, sz);
+		sx *= rls;
+		sy *= rls;
+		sz *= rls;
+		final float ux = sy * fz - sz * fy;
+		final float uy = sz * fx - sx * fz;
+		final float uz = sx * fy - sy * fx;
+		rm[rmOffset] = sx;
+		rm[rmOffset + 1] = ux;
+		rm[rmOffset + 2] = -fx;
+		rm[rmOffset + 3] = 0f;
+		rm[rmOffset + 4] = sy;
+		rm[rmOffset + 5] = uy;
+		rm[rmOffset + 6] = -fy;
+		rm[rmOffset + 7] = 0f;
+		rm[rmOffset + 8] = sz;
+		rm[rmOffset + 9] = uz;
+		rm[rmOffset + 10] = -fz;
+		rm[rmOffset + 11] = 0f;
+		rm[rmOffset + 12] = rm[rmOffset + 13] = rm[rmOffset + 14] = 0f;
+		rm[rmOffset + 15] = 1f;
+		translateM(rm, rmOffset, -eyeX, -eyeY, -eyeZ);
+	}
+}
@@ -0,0 +1,109 @@
+package android.util;
+
+import java.util.Arrays;
+
+/**
+ * JVM implementation of android.util.SparseArray for unit tests (sorted keys, binary search).
+ *
+ * @author Thomas MILLET
+ *
+ */
+public class SparseArray<E> {
+
+	private int[] keys;
+	private Object[] values;
+	private int size;
+
+	public SparseArray(){
+		this(10);
+	}
+
+	public SparseArray(int initialCapacity){
+		this.keys = new int[Math.max(1, initialCapacity)];
+		this.values = new Object[this.keys.length];
+	}
+
+	public E get(int key){
+		return this.get(key, null);
+	}
+
+	@SuppressWarnings("unchecked")
+	public E get(int key, E valueIfKeyNotFound){
+		final int index = Arrays.binarySearch(this.keys, 0, this.size, key);
+		return (index >= 0) ? (E)this.values[index] : valueIfKeyNotFound;
+	}
+
+	public void delete(int key){
+		final int index = Arrays.binarySearch(this.keys, 0, this.size, key);
+		if(index >= 0){
+			this.removeAt(index);
+		}
+	}
+
+	public void remove(int key){
+		this.delete(key);
+	}
+
+	public void removeAt(int index){
+		System.arraycopy(this.keys, index + 1, this.keys, index, this.size - index - 1);
+		System.arraycopy(this.values, index + 1, this.values, index, this.size - index - 1);
+		this.values[--this.size] = null;
+	}
+
+	public void put(int key, E value){
+		int index = Arrays.binarySearch(this.keys, 0, this.size, key);
+		if(index >= 0){
+			this.values[index] = value;
+			return;
+		}
+		index = ~index;
+		if(this.size == this.keys.length){
+			this.keys = Arrays.copyOf(this.keys, this.size << 1);
+			this.values = Arrays.copyOf(this.values, this.size << 1);
+		}
+		System.arraycopy(this.keys, index, this.keys, index + 1, this.size - index);
+		System.arraycopy(this.values, index, this.values, index + 1, this.size - index);
+		this.keys[index] = key;
+		this.values[index] = value;
+		this.size++;
+	}
+
+	public void append(int key, E value){
+		this.put(key, value);
+	}
+
+	public int size(){
+		return this.size;
+	}
+
+	public int keyAt(int index){
+		return this.keys[index];
+	}
+
+	@SuppressWarnings("unchecked")
+	public E valueAt(int index){
+		return (E)this.values[index];
+	}
+
+	public void setValueAt(int index, E value){
+		this.values[index] = value;
+	}
+
+	public int indexOfKey(int key){
+		return Arrays.binarySearch(this.keys, 0, this.size, key);
+	}
+
+	public int indexOfValue(E value){
+		for(int index=0; index < this.size; index++){
+			if(this.values[index] == value){
+				return index;
+			}
+		}
+		return -1;
+	}
+
+	public void clear(){
+		Arrays.fill(this.values, 0, this.size, null);
+		this.size = 0;
+	}
+}
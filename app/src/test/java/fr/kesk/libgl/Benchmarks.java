@@ -0,0 +1,29 @@
+package fr.kesk.libgl;
+
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point of JMH benchmarks (classes named *Benchmark in test sources)
+ * <br/>
+ * <br/>
+ * Usage : Benchmarks [regexp], the optional regexp selects the benchmarks to run
+ *
+ * @author Thomas MILLET
+ *
+ */
+public class Benchmarks {
+
+	/**
+	 * Run benchmarks
+	 *
+	 * @param args Optional benchmarks regexp
+	 * @throws RunnerException
+	 */
+	public static void main(final String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder()
+				.include((args.length > 0) ? args[0] : ".*Benchmark.*")
+				.build()).run();
+	}
+}
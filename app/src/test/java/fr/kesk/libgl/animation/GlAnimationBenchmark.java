@@ -0,0 +1,103 @@
+package fr.kesk.libgl.animation;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fr.kesk.libgl.animation.GlAnimation.Channel;
+import fr.kesk.libgl.tools.TransformUtils;
+
+/**
+ * Sampling of 10k channels per frame (60 fps steps).
+ * <br/>
+ * <br/>
+ * Run with fr.kesk.libgl.Benchmarks
+ *
+ * @author Thomas MILLET
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GlAnimationBenchmark {
+
+	/**
+	 * Number of channels
+	 */
+	@Param({"10000"})
+	public int count;
+
+	/**
+	 * Number of keys per channel
+	 */
+	@Param({"64"})
+	public int keys;
+
+	/**
+	 * Interpolation of channels
+	 */
+	@Param({"0", "1", "2"})
+	public int interpolation;
+
+	private Channel[] channels;
+	private float[] transforms;
+	private float time;
+	private float duration;
+
+	@Setup
+	public void setup(){
+		final Random random = new Random(1L);
+		this.channels = new Channel[this.count];
+		this.transforms = new float[this.count * TransformUtils.TRS_SIZE];
+		for(int index=0; index < this.count; index++){
+			//Translate, rotate and scale channels
+			final int path = (index % 3 == 0) ? GlAnimation.TRANSLATE : (index % 3 == 1) ? GlAnimation.ROTATE : GlAnimation.SCALE;
+			final int components = (path == GlAnimation.ROTATE) ? 4 : 3;
+			final float[] times = GlAnimationTest.randomTimes(random, this.keys);
+			final float[] values = new float[this.keys * components];
+			final float[] tangents = new float[this.keys * components];
+			for(int key=0; key < this.keys; key++){
+				if(path == GlAnimation.ROTATE){
+					TransformUtils.setRotateQ(values, key << 2, random.nextFloat() * 360f, random.nextFloat(), random.nextFloat(), 1f);
+				}
+				else{
+					for(int i=0; i < components; i++){
+						values[key * components + i] = random.nextFloat();
+						tangents[key * components + i] = random.nextFloat() - 0.5f;
+					}
+				}
+			}
+			this.channels[index] = new Channel(index, path, this.interpolation, times, values, tangents, tangents);
+			this.duration = Math.max(this.duration, times[this.keys - 1]);
+		}
+	}
+
+	/**
+	 * Sample all channels at next frame time
+	 */
+	@Benchmark
+	public float sampleFrame(){
+		this.time += 1f / 60f;
+		if(this.time > this.duration){
+			this.time = 0f;
+		}
+		for(Channel channel : this.channels){
+			channel.sample(this.time, this.transforms, channel.target * TransformUtils.TRS_SIZE + channel.path);
+		}
+		return this.transforms[0];
+	}
+}
@@ -0,0 +1,167 @@
+package fr.kesk.libgl.animation;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import fr.kesk.libgl.animation.GlAnimation.Channel;
+import fr.kesk.libgl.tools.TransformUtils;
+
+/**
+ * GlAnimation keys lookup and sampling tests
+ *
+ * @author Thomas MILLET
+ *
+ */
+public class GlAnimationTest {
+
+	/**
+	 * Comparison tolerance
+	 */
+	private static final float EPSILON = 1e-5f;
+
+	/**
+	 * Build random ascending key times
+	 */
+	static float[] randomTimes(final Random random, final int count){
+		final float[] times = new float[count];
+		float time = random.nextFloat();
+		for(int index=0; index < count; index++){
+			times[index] = time;
+			time += 0.01f + random.nextFloat();
+		}
+		return times;
+	}
+
+	/**
+	 * Reference key lookup (linear search)
+	 */
+	private static int findKeyLinear(final float[] times, final float time){
+		int key = 0;
+		while(key < times.length - 1 && times[key + 1] <= time){
+			key++;
+		}
+		return key;
+	}
+
+	@Test
+	public void findKeyMatchesLinearSearch(){
+		final Random random = new Random(1L);
+		final float[] times = randomTimes(random, 200);
+		final Channel channel = new Channel(0, GlAnimation.TRANSLATE, GlAnimation.LINEAR, times, new float[200 * 3], null, null);
+		final float end = times[199] + 1f;
+
+		//Random access (binary search)
+		for(int test=0; test < 5000; test++){
+			final float time = random.nextFloat() * end - 0.5f;
+			assertEquals("time " + time, findKeyLinear(times, time), channel.findKey(time));
+		}
+		//Sequential access (cached key)
+		for(float time=-0.5f; time < end; time += 0.037f){
+			assertEquals("time " + time, findKeyLinear(times, time), channel.findKey(time));
+		}
+		//Exact key times
+		for(int key=0; key < times.length; key++){
+			assertEquals(key, channel.findKey(times[key]));
+		}
+	}
+
+	@Test
+	public void findKeyHandlesSingleAndEmptyChannels(){
+		final Channel single = new Channel(0, GlAnimation.SCALE, GlAnimation.LINEAR, new float[]{1f}, new float[]{2f, 2f, 2f}, null, null);
+		assertEquals(0, single.findKey(0f));
+		assertEquals(0, single.findKey(5f));
+
+		final Channel empty = new Channel(0, GlAnimation.SCALE, GlAnimation.LINEAR, new float[0], new float[0], null, null);
+		final float[] out = new float[]{7f, 7f, 7f};
+		empty.sample(1f, out, 0);
+		assertArrayEquals(new float[]{7f, 7f, 7f}, out, 0f);
+	}
+
+	@Test
+	public void stepKeepsPreviousKeyValue(){
+		final Channel channel = new Channel(0, GlAnimation.TRANSLATE, GlAnimation.STEP, new float[]{0f, 1f, 2f},
+				new float[]{0f, 0f, 0f, 1f, 2f, 3f, 4f, 5f, 6f}, null, null);
+		final float[] out = new float[3];
+		channel.sample(0.99f, out, 0);
+		assertArrayEquals(new float[]{0f, 0f, 0f}, out, 0f);
+		channel.sample(1.5f, out, 0);
+		assertArrayEquals(new float[]{1f, 2f, 3f}, out, 0f);
+		channel.sample(10f, out, 0);
+		assertArrayEquals(new float[]{4f, 5f, 6f}, out, 0f);
+	}
+
+	@Test
+	public void linearInterpolatesComponents(){
+		final Channel channel = new Channel(0, GlAnimation.TRANSLATE, GlAnimation.LINEAR, new float[]{1f, 3f},
+				new float[]{0f, 10f, -2f, 4f, 20f, 2f}, null, null);
+		final float[] out = new float[5];
+		channel.sample(1.5f, out, 2);
+		assertArrayEquals(new float[]{0f, 0f, 1f, 12.5f, -1f}, out, EPSILON);
+		channel.sample(0f, out, 2);
+		assertArrayEquals(new float[]{0f, 0f, 0f, 10f, -2f}, out, EPSILON);
+		channel.sample(3f, out, 2);
+		assertArrayEquals(new float[]{0f, 0f, 4f, 20f, 2f}, out, EPSILON);
+	}
+
+	@Test
+	public void linearRotationIsSpherical(){
+		final float[] values = new float[8];
+		TransformUtils.setRotateQ(values, 0, 0f, 0f, 1f, 0f);
+		TransformUtils.setRotateQ(values, 4, 90f, 0f, 1f, 0f);
+		final Channel channel = new Channel(0, GlAnimation.ROTATE, GlAnimation.LINEAR, new float[]{0f, 1f}, values, null, null);
+		assertEquals(4, channel.components);
+
+		final float[] expected = new float[4];
+		final float[] out = new float[4];
+		for(int step=0; step <= 10; step++){
+			TransformUtils.setRotateQ(expected, 0, 9f * step, 0f, 1f, 0f);
+			channel.sample(step * 0.1f, out, 0);
+			assertArrayEquals("step " + step, expected, out, 1e-4f);
+		}
+	}
+
+	@Test
+	public void bezierUsesHermiteTangents(){
+		//Tangents equal to the slope give back a straight line
+		final float[] values = new float[]{0f, 0f, 0f, 2f, 4f, 6f};
+		final float[] tangents = new float[]{1f, 2f, 3f, 1f, 2f, 3f};
+		final Channel line = new Channel(0, GlAnimation.TRANSLATE, GlAnimation.BEZIER, new float[]{0f, 2f}, values, tangents, tangents);
+		final float[] out = new float[3];
+		for(int step=0; step <= 8; step++){
+			line.sample(step * 0.25f, out, 0);
+			final float expected = step * 0.25f;
+			assertArrayEquals(new float[]{expected, expected * 2f, expected * 3f}, out, 1e-4f);
+		}
+
+		//Flat tangents ease in and out : value at 1/4 is below linear
+		final float[] flat = new float[6];
+		final Channel ease = new Channel(0, GlAnimation.TRANSLATE, GlAnimation.BEZIER, new float[]{0f, 1f}, values, flat, flat);
+		ease.sample(0.25f, out, 0);
+		assertEquals(2f * (3f * 0.0625f - 2f * 0.015625f), out[0], EPSILON);
+		ease.sample(0.5f, out, 0);
+		assertEquals(1f, out[0], EPSILON);
+	}
+
+	@Test
+	public void bezierWithoutTangentsFallsBackOnLinear(){
+		final Channel channel = new Channel(0, GlAnimation.SCALE, GlAnimation.BEZIER, new float[]{0f, 1f},
+				new float[]{1f, 1f, 1f, 3f, 3f, 3f}, null, null);
+		assertEquals(GlAnimation.LINEAR, channel.interpolation);
+		final float[] out = new float[3];
+		channel.sample(0.5f, out, 0);
+		assertArrayEquals(new float[]{2f, 2f, 2f}, out, EPSILON);
+	}
+
+	@Test
+	public void durationIsLastKeyOfAllChannels(){
+		final GlAnimation animation = new GlAnimation(1, new Channel[]{
+				new Channel(0, GlAnimation.TRANSLATE, GlAnimation.LINEAR, new float[]{0f, 2f}, new float[6], null, null),
+				new Channel(1, GlAnimation.SCALE, GlAnimation.LINEAR, new float[]{0f, 1f, 3.5f}, new float[9], null, null),
+				new Channel(2, GlAnimation.SCALE, GlAnimation.LINEAR, new float[0], new float[0], null, null)});
+		assertEquals(3.5f, animation.duration, 0f);
+	}
+}
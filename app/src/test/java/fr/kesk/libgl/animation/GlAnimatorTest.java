@@ -0,0 +1,91 @@
+package fr.kesk.libgl.animation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import fr.kesk.libgl.GlAssets.Node;
+import fr.kesk.libgl.animation.GlAnimation.Channel;
+import fr.kesk.libgl.tools.NodeArray;
+
+/**
+ * GlAnimator playback tests
+ *
+ * @author Thomas MILLET
+ *
+ */
+public class GlAnimatorTest {
+
+	/**
+	 * Build a root with one child, child is translated by 1 on X
+	 */
+	private static NodeArray createNodes(){
+		final Node root = new Node(0, Node.NODE);
+		final Node child = new Node(1, Node.NODE);
+		child.model[12] = 1f;
+		root.nodeInstances = new Node[]{child};
+		return new NodeArray(new Node[]{root}, false);
+	}
+
+	/**
+	 * Root translation from X=0 to X=10 in 2s
+	 */
+	private static GlAnimation createAnimation(){
+		return new GlAnimation(0, new Channel[]{
+				new Channel(0, GlAnimation.TRANSLATE, GlAnimation.LINEAR, new float[]{0f, 2f}, new float[]{0f, 0f, 0f, 10f, 0f, 0f}, null, null)});
+	}
+
+	@Test
+	public void layoutUpdatesWorldMatrices(){
+		final NodeArray nodes = createNodes();
+		final GlAnimator animator = new GlAnimator(nodes);
+		animator.play(createAnimation());
+		assertTrue(animator.isPlaying());
+
+		animator.layout(500);
+		assertEquals(2.5f, nodes.worlds[12], 1e-5f);
+		//Child keeps its local translation
+		assertEquals(3.5f, nodes.worlds[16 + 12], 1e-5f);
+		assertEquals(3.5f, nodes.nodes[1].model[12], 1e-5f);
+		assertFalse(nodes.isDirty());
+	}
+
+	@Test
+	public void layoutLoopsOrStopsAtEnd(){
+		final NodeArray nodes = createNodes();
+		final GlAnimator animator = new GlAnimator(nodes);
+		animator.play(createAnimation());
+		animator.layout(2500);
+		assertEquals(2.5f, nodes.worlds[12], 1e-4f);
+		assertTrue(animator.isPlaying());
+
+		animator.loop = false;
+		animator.layout(3000);
+		assertEquals(10f, nodes.worlds[12], 1e-5f);
+		assertFalse(animator.isPlaying());
+
+		//Paused animator does not move
+		animator.seek(1f);
+		assertEquals(5f, nodes.worlds[12], 1e-5f);
+		animator.layout(500);
+		assertEquals(5f, nodes.worlds[12], 1e-5f);
+	}
+
+	@Test
+	public void speedScalesElapsedTime(){
+		final NodeArray nodes = createNodes();
+		final GlAnimator animator = new GlAnimator(nodes);
+		animator.speed = 0.5f;
+		animator.play(createAnimation());
+		animator.layout(1000);
+		assertEquals(2.5f, nodes.worlds[12], 1e-5f);
+		animator.pause();
+		animator.layout(1000);
+		assertEquals(2.5f, nodes.worlds[12], 1e-5f);
+		animator.resume();
+		animator.layout(1000);
+		assertEquals(5f, nodes.worlds[12], 1e-5f);
+	}
+}
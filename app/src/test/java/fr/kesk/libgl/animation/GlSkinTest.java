@@ -0,0 +1,268 @@
+package fr.kesk.libgl.animation;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import android.opengl.Matrix;
+import fr.kesk.libgl.GlAssets.Node;
+import fr.kesk.libgl.tools.MatrixUtils;
+import fr.kesk.libgl.tools.NodeArray;
+import fr.kesk.libgl.tools.NodeArrayTest;
+
+/**
+ * GlSkin and GlSkinner tests against a CPU reference skinning
+ *
+ * @author Thomas MILLET
+ *
+ */
+public class GlSkinTest {
+
+	/**
+	 * Comparison tolerance
+	 */
+	private static final float EPSILON = 1e-4f;
+
+	/**
+	 * Number of joints
+	 */
+	private static final int JOINTS = 8;
+
+	/**
+	 * Build a random affine matrix with non uniform scale
+	 */
+	private static void randomTRS(final Random random, final float[] m, final int offset){
+		MatrixUtils.setTRSM(m, offset, random.nextFloat() * 4f - 2f, random.nextFloat() * 4f - 2f, random.nextFloat() * 4f - 2f,
+				random.nextFloat() * 360f, random.nextFloat(), random.nextFloat(), 1f,
+				0.25f + random.nextFloat() * 2f, 0.25f + random.nextFloat() * 2f, 0.25f + random.nextFloat() * 2f);
+	}
+
+	/**
+	 * Build a NodeArray with random world matrices
+	 */
+	static NodeArray createNodeArray(final Random random){
+		final NodeArray nodeArray = new NodeArray(new Node[]{NodeArrayTest.createHierarchy(JOINTS, 2, 1L)}, false);
+		for(int node=0; node < JOINTS; node++){
+			randomTRS(random, nodeArray.worlds, node << 4);
+		}
+		return nodeArray;
+	}
+
+	/**
+	 * Build a random skin of count vertices
+	 */
+	static GlSkin createSkin(final Random random, final int count, final int components){
+		final int[] joints = new int[JOINTS];
+		final float[] invBindMatrices = new float[JOINTS << 4];
+		for(int joint=0; joint < JOINTS; joint++){
+			joints[joint] = JOINTS - 1 - joint;
+			randomTRS(random, invBindMatrices, joint << 4);
+		}
+		final float[] bindShapeMatrix = new float[16];
+		randomTRS(random, bindShapeMatrix, 0);
+
+		final int[] vertexJoints = new int[count * GlSkin.MAX_INFLUENCES];
+		final float[] vertexWeights = new float[count * GlSkin.MAX_INFLUENCES];
+		final float[] positions = new float[count * components];
+		final float[] normals = new float[count * 3];
+		for(int vertex=0; vertex < count; vertex++){
+			//1 to 4 influences, last ones unused
+			final int influences = 1 + random.nextInt(GlSkin.MAX_INFLUENCES);
+			float total = 0f;
+			for(int influence=0; influence < influences; influence++){
+				vertexJoints[vertex * GlSkin.MAX_INFLUENCES + influence] = random.nextInt(JOINTS);
+				vertexWeights[vertex * GlSkin.MAX_INFLUENCES + influence] = 0.1f + random.nextFloat();
+				total += vertexWeights[vertex * GlSkin.MAX_INFLUENCES + influence];
+			}
+			for(int influence=0; influence < influences; influence++){
+				vertexWeights[vertex * GlSkin.MAX_INFLUENCES + influence] /= total;
+			}
+			for(int i=0; i < 3; i++){
+				positions[vertex * components + i] = random.nextFloat() * 2f - 1f;
+				normals[vertex * 3 + i] = random.nextFloat() * 2f - 1f;
+			}
+			if(components == 4){
+				positions[vertex * components + 3] = 1f;
+			}
+		}
+		return new GlSkin(joints, invBindMatrices, bindShapeMatrix, vertexJoints, vertexWeights, positions, components, normals);
+	}
+
+	/**
+	 * Reference skinning, positions and normals are computed per influence with android.opengl.Matrix
+	 */
+	private static void skinReference(final GlSkin skin, final NodeArray nodeArray, final float[] positions, final float[] normals){
+		final float[] joint = new float[16];
+		final float[] inverse = new float[16];
+		final float[] normalMatrix = new float[16];
+		final float[] src = new float[4];
+		final float[] dst = new float[4];
+		for(int vertex=0; vertex < skin.count; vertex++){
+			final float[] position = new float[3];
+			final float[] normal = new float[3];
+			for(int influence=0; influence < GlSkin.MAX_INFLUENCES; influence++){
+				final float weight = skin.vertexWeights[vertex * GlSkin.MAX_INFLUENCES + influence];
+				if(weight == 0f){
+					continue;
+				}
+				final int index = skin.vertexJoints[vertex * GlSkin.MAX_INFLUENCES + influence];
+				Matrix.multiplyMM(joint, 0, skin.invBindMatrices, index << 4, skin.bindShapeMatrix, 0);
+				Matrix.multiplyMM(joint, 0, nodeArray.worlds, skin.joints[index] << 4, joint, 0);
+
+				src[0] = skin.bindPositions[vertex * skin.components];
+				src[1] = skin.bindPositions[vertex * skin.components + 1];
+				src[2] = skin.bindPositions[vertex * skin.components + 2];
+				src[3] = 1f;
+				Matrix.multiplyMV(dst, 0, joint, 0, src, 0);
+				for(int i=0; i < 3; i++){
+					position[i] += weight * dst[i];
+				}
+
+				Matrix.invertM(inverse, 0, joint, 0);
+				Matrix.transposeM(normalMatrix, 0, inverse, 0);
+				src[0] = skin.bindNormals[vertex * 3];
+				src[1] = skin.bindNormals[vertex * 3 + 1];
+				src[2] = skin.bindNormals[vertex * 3 + 2];
+				src[3] = 0f;
+				Matrix.multiplyMV(dst, 0, normalMatrix, 0, src, 0);
+				for(int i=0; i < 3; i++){
+					normal[i] += weight * dst[i];
+				}
+			}
+			final float length = Matrix.length(normal[0], normal[1], normal[2]);
+			for(int i=0; i < 3; i++){
+				positions[vertex * 3 + i] = position[i];
+				normals[vertex * 3 + i] = normal[i] / length;
+			}
+		}
+	}
+
+	/**
+	 * Check skinned data against reference
+	 */
+	private static void assertSkinned(final GlSkin skin, final NodeArray nodeArray){
+		final float[] positions = new float[skin.count * 3];
+		final float[] normals = new float[skin.count * 3];
+		skinReference(skin, nodeArray, positions, normals);
+		for(int vertex=0; vertex < skin.count; vertex++){
+			for(int i=0; i < 3; i++){
+				assertEquals("position " + vertex, positions[vertex * 3 + i], skin.positions[vertex * skin.components + i],
+						EPSILON * Math.max(1f, Math.abs(positions[vertex * 3 + i])));
+				assertEquals("normal " + vertex, normals[vertex * 3 + i], skin.normals[vertex * 3 + i], EPSILON);
+			}
+			if(skin.components == 4){
+				//w is left untouched
+				assertEquals(1f, skin.positions[vertex * 4 + 3], 0f);
+			}
+		}
+	}
+
+	@Test
+	public void skinMatchesReference(){
+		final Random random = new Random(1L);
+		final NodeArray nodeArray = createNodeArray(random);
+		for(int components=3; components <= 4; components++){
+			final GlSkin skin = createSkin(random, 500, components);
+			skin.computePalette(nodeArray);
+			skin.skin();
+			assertSkinned(skin, nodeArray);
+		}
+	}
+
+	@Test
+	public void skinIgnoresUnusedInfluences(){
+		final Random random = new Random(2L);
+		final NodeArray nodeArray = createNodeArray(random);
+		final GlSkin skin = createSkin(random, 1, 3);
+		skin.vertexJoints[0] = 3;
+		skin.vertexWeights[0] = 1f;
+		for(int influence=1; influence < GlSkin.MAX_INFLUENCES; influence++){
+			//Invalid joint with 0 weight must not be read
+			skin.vertexJoints[influence] = JOINTS * 10;
+			skin.vertexWeights[influence] = 0f;
+		}
+		skin.computePalette(nodeArray);
+		skin.skin();
+		assertSkinned(skin, nodeArray);
+	}
+
+	@Test
+	public void skinnerMatchesSingleThread(){
+		final Random random = new Random(3L);
+		final NodeArray nodeArray = createNodeArray(random);
+		final GlSkinner skinner = new GlSkinner(3);
+		try{
+			//Growing then shrinking number of skins, tasks are reused
+			for(int count : new int[]{1, 5, 9, 2}){
+				final GlSkin[] skins = new GlSkin[count];
+				for(int index=0; index < count; index++){
+					skins[index] = createSkin(random, 50 + random.nextInt(200), 3);
+				}
+				for(int frame=0; frame < 3; frame++){
+					for(int node=0; node < JOINTS; node++){
+						randomTRS(random, nodeArray.worlds, node << 4);
+					}
+					skinner.skin(skins, nodeArray);
+					for(GlSkin skin : skins){
+						assertSkinned(skin, nodeArray);
+					}
+				}
+			}
+		}finally{
+			skinner.free();
+		}
+	}
+
+	@Test
+	public void skinnerRethrowsFirstError(){
+		final Random random = new Random(4L);
+		final NodeArray nodeArray = createNodeArray(random);
+		final GlSkinner skinner = new GlSkinner(2);
+		try{
+			final GlSkin[] skins = new GlSkin[]{createSkin(random, 10, 3), createSkin(random, 10, 3), createSkin(random, 10, 3)};
+			//Joint out of palette
+			skins[1].vertexJoints[0] = JOINTS;
+			try{
+				skinner.skin(skins, nodeArray);
+				fail("error not rethrown");
+			}catch(ArrayIndexOutOfBoundsException e){
+				//Rethrown in caller thread
+			}
+
+			//Skinner is still usable
+			skins[1].vertexJoints[0] = 0;
+			skinner.skin(skins, nodeArray);
+			for(GlSkin skin : skins){
+				assertSkinned(skin, nodeArray);
+			}
+		}finally{
+			skinner.free();
+		}
+	}
+
+	@Test
+	public void normalPaletteIsInverseTranspose(){
+		final Random random = new Random(5L);
+		final NodeArray nodeArray = createNodeArray(random);
+		final GlSkin skin = createSkin(random, 1, 3);
+		skin.computePalette(nodeArray);
+		final float[] inverse = new float[16];
+		final float[] expected = new float[16];
+		for(int joint=0; joint < JOINTS; joint++){
+			Matrix.invertM(inverse, 0, skin.palette, joint << 4);
+			Matrix.transposeM(expected, 0, inverse, 0);
+			final float[] actual = new float[16];
+			System.arraycopy(skin.normalPalette, joint << 4, actual, 0, 16);
+			for(int i=0; i < 3; i++){
+				expected[i * 4 + 3] = 0f;
+				expected[12 + i] = 0f;
+			}
+			expected[15] = 0f;
+			assertArrayEquals("joint " + joint, expected, actual, EPSILON);
+		}
+	}
+}
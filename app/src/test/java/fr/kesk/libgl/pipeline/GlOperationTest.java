@@ -0,0 +1,110 @@
+package fr.kesk.libgl.pipeline;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import android.opengl.GLES20;
+
+/**
+ * GlOperation redundant states filtering tests using the recording GLES20
+ *
+ * @author Thomas MILLET
+ *
+ */
+public class GlOperationTest {
+
+	@Before
+	public void setUp(){
+		GLES20.reset();
+		GlState.reset(640, 480);
+		GlState.newFrame();
+		GlState.newFrame();
+	}
+
+	@Test
+	public void redundantTestStatesAreFiltered(){
+		GlOperation.setTestState(GlOperation.TEST_DEPTH, true);
+		GlOperation.setTestState(GlOperation.TEST_DEPTH, true);
+		GlOperation.setTestState(GlOperation.TEST_BLEND, false);
+		//Dither is enabled by default
+		GlOperation.setTestState(GlOperation.TEST_DITHER, true);
+		GlOperation.setTestState(GlOperation.TEST_DEPTH, false);
+		GlState.newFrame();
+
+		assertEquals(1, GLES20.count("glEnable(" + GLES20.GL_DEPTH_TEST + ")"));
+		assertEquals(1, GLES20.count("glDisable(" + GLES20.GL_DEPTH_TEST + ")"));
+		assertEquals(2, GLES20.getCalls().size());
+		assertEquals(2, GlState.getIssuedCalls());
+		assertEquals(3, GlState.getFilteredCalls());
+		assertFalse(GlState.isEnabled(GlOperation.TEST_DEPTH));
+		assertTrue(GlState.isEnabled(GlOperation.TEST_DITHER));
+		assertEquals(0, GLES20.count("glIsEnabled"));
+	}
+
+	@Test
+	public void uncachedCapabilitiesAreNotFiltered(){
+		//GL_MULTISAMPLE (not cached)
+		final int capability = 0x809D;
+		GlOperation.setTestState(capability, true);
+		GlOperation.setTestState(capability, true);
+		assertEquals(2, GLES20.count("glEnable(" + capability + ")"));
+		assertTrue(GlState.isEnabled(capability));
+		assertEquals(1, GLES20.count("glIsEnabled"));
+	}
+
+	@Test
+	public void redundantConfigurationsAreFiltered(){
+		final float[] color = new float[]{0.5f, 0.5f, 0.5f, 1f};
+		for(int frame=0; frame < 2; frame++){
+			GlOperation.configureBlendTest(GlOperation.BLEND_FACTOR_SRC_ALPA, GlOperation.BLEND_FACTOR_ONE_MINUS_SRC_ALPA, GlOperation.BLEND_OPERATION_ADD, color);
+			GlOperation.configureStencilTest(GlOperation.FUNCTION_EQUAL, 1, 0xFF, GlOperation.STENCIL_OUT_KEEP, GlOperation.STENCIL_OUT_KEEP, GlOperation.STENCIL_OUT_REPLACE);
+			GlOperation.configureCullingTest(GlOperation.CULLING_FRONT_FACE_CCW, GlOperation.CULLING_CULL_FACE_BACK);
+			GlOperation.configureDepthTest(GlOperation.FUNCTION_LESS_OR_EQUAL);
+			GlOperation.configureScissorBox(0, 0, 320, 240);
+			GlOperation.setColorBufferClearValue(0f, 0f, 0f, 1f);
+			GlOperation.setDepthBufferClearValue(1f);
+			GlOperation.setStencilBufferClearValue(0);
+			GlOperation.setColorBufferMask(true, true, true, false);
+			GlOperation.setDepthBufferMask(false);
+			GlOperation.setStencilBufferMask(0xFF);
+			GlState.newFrame();
+			if(frame == 0){
+				//Blend color and func, stencil func and op, depth func, scissor, clear color, color, depth and stencil masks
+				assertEquals(10, GlState.getIssuedCalls());
+				//Defaults : blend equation, front face, cull face, clear depth, clear stencil
+				assertEquals(5, GlState.getFilteredCalls());
+			}
+			else{
+				assertEquals(0, GlState.getIssuedCalls());
+				assertEquals(15, GlState.getFilteredCalls());
+			}
+		}
+		assertEquals(1, GLES20.count("glBlendFunc("));
+		assertEquals(1, GLES20.count("glStencilOp("));
+		assertEquals(0, GLES20.count("glCullFace("));
+		assertEquals(0, GLES20.count("glFrontFace("));
+		assertEquals(10, GLES20.getCalls().size());
+	}
+
+	@Test
+	public void invalidateIssuesCallsAgain(){
+		GlOperation.setTestState(GlOperation.TEST_CULLING, true);
+		GlOperation.configureCullingTest(GlOperation.CULLING_FRONT_FACE_CW, GlOperation.CULLING_CULL_FACE_FRONT);
+		GlState.invalidate();
+		GLES20.clearCalls();
+
+		//Unknown states are queried once from the driver
+		assertTrue(GlState.isEnabled(GlOperation.TEST_CULLING));
+		assertTrue(GlState.isEnabled(GlOperation.TEST_CULLING));
+		assertEquals(1, GLES20.count("glIsEnabled(" + GLES20.GL_CULL_FACE + ")"));
+
+		GlOperation.configureCullingTest(GlOperation.CULLING_FRONT_FACE_CW, GlOperation.CULLING_CULL_FACE_FRONT);
+		GlOperation.configureCullingTest(GlOperation.CULLING_FRONT_FACE_CW, GlOperation.CULLING_CULL_FACE_FRONT);
+		assertEquals(1, GLES20.count("glFrontFace("));
+		assertEquals(1, GLES20.count("glCullFace("));
+	}
+}
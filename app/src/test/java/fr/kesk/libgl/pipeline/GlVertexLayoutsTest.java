@@ -0,0 +1,151 @@
+package fr.kesk.libgl.pipeline;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import android.opengl.GLES20;
+import fr.kesk.libgl.GlAssets.Geometry.Element;
+import fr.kesk.libgl.tools.GLES20Utils;
+
+/**
+ * GlVertexLayouts tests counting attributes calls with and without vertex array
+ * objects using the recording GLES20 and GLES20Utils
+ *
+ * @author Thomas MILLET
+ *
+ */
+public class GlVertexLayoutsTest {
+
+	/**
+	 * Number of Elements drawn per frame
+	 */
+	private static final int ELEMENTS = 3;
+
+	/**
+	 * Number of mapped inputs per Element
+	 */
+	private static final int INPUTS = 3;
+
+	private Element[] elements;
+
+	@Before
+	public void setUp(){
+		GLES20.reset();
+		GLES20Utils.reset();
+		GlState.reset(640, 480);
+		this.elements = new Element[ELEMENTS];
+		for(int index=0; index < ELEMENTS; index++){
+			this.elements[index] = new Element(GLES20.GL_TRIANGLES, 36, 36 * 8 * 4, 0, new int[][]{
+					{Element.POSITION, 0, 3, 0},
+					{Element.NORMAL, 0, 3, 12},
+					{Element.TEXCOORD, 0, 2, 24}}, 10 + index);
+		}
+	}
+
+	/**
+	 * Create layouts mapping the Elements inputs
+	 */
+	private static GlVertexLayouts createLayouts(final boolean useVertexArrays){
+		final GlVertexLayouts layouts = new GlVertexLayouts(useVertexArrays);
+		layouts.setAttribute(Element.POSITION, 0);
+		layouts.setAttribute(Element.NORMAL, 1);
+		layouts.setAttribute(Element.TEXCOORD, 2);
+		return layouts;
+	}
+
+	/**
+	 * Bind all Elements as a pass, each Element drawn twice consecutively
+	 */
+	private void drawFrame(final GlVertexLayouts layouts){
+		for(Element element : this.elements){
+			layouts.bind(element);
+			layouts.bind(element);
+		}
+		layouts.unbind();
+	}
+
+	@Test
+	public void vertexArraysReplayLayouts(){
+		final GlVertexLayouts layouts = createLayouts(true);
+		this.drawFrame(layouts);
+		//Layouts recorded once in vertex arrays
+		assertEquals(ELEMENTS, GLES20.count("glGenVertexArrayOES("));
+		assertEquals(ELEMENTS * INPUTS, GLES20.count("glVertexAttribPointer("));
+		assertEquals(ELEMENTS * INPUTS, GLES20.count("glEnableVertexAttribArray("));
+
+		for(int frame=0; frame < 3; frame++){
+			GLES20.clearCalls();
+			layouts.resetCounters();
+			this.drawFrame(layouts);
+			//1 vertex array bind per Element and 1 to restore default
+			assertEquals(ELEMENTS + 1, GLES20.getCalls().size());
+			assertEquals(ELEMENTS + 1, GLES20.count("glBindVertexArrayOES("));
+			assertEquals(1, GLES20.count("glBindVertexArrayOES(0)"));
+			assertEquals(0, GLES20.count("glVertexAttribPointer("));
+			assertEquals(0, GLES20.count("glBindBuffer("));
+			assertEquals(ELEMENTS, layouts.getBoundCount());
+			assertEquals(ELEMENTS, layouts.getSkippedCount());
+		}
+	}
+
+	@Test
+	public void attributesPointersWithoutVertexArrays(){
+		final GlVertexLayouts layouts = createLayouts(false);
+		for(int frame=0; frame < 3; frame++){
+			GLES20.clearCalls();
+			this.drawFrame(layouts);
+			assertEquals(ELEMENTS * INPUTS, GLES20.count("glVertexAttribPointer("));
+			assertEquals(ELEMENTS, GLES20.count("glBindBuffer(" + GLES20.GL_ARRAY_BUFFER));
+			assertEquals(0, GLES20.count("glBindVertexArrayOES("));
+			assertEquals(ELEMENTS * (INPUTS + 1), GLES20.getCalls().size());
+		}
+		assertEquals(0, GLES20.count("glGenVertexArrayOES("));
+	}
+
+	@Test
+	public void unsupportedVertexArraysFallBackToPointers(){
+		GLES20Utils.vertexArrays = false;
+		final GlVertexLayouts layouts = createLayouts(true);
+		this.drawFrame(layouts);
+		GLES20.clearCalls();
+		this.drawFrame(layouts);
+		assertEquals(ELEMENTS * INPUTS, GLES20.count("glVertexAttribPointer("));
+		//Default vertex array already bound
+		assertEquals(0, GLES20.count("glBindVertexArrayOES("));
+		assertEquals(0, GLES20.count("glGenVertexArrayOES("));
+	}
+
+	@Test
+	public void layoutsFollowElementsAndMappings(){
+		final GlVertexLayouts layouts = createLayouts(true);
+		this.drawFrame(layouts);
+
+		//VBO of an Element changed, its layout is recorded again
+		this.elements[0].handle = 20;
+		GLES20.clearCalls();
+		this.drawFrame(layouts);
+		assertEquals(1, GLES20.count("glDeleteVertexArrayOES("));
+		assertEquals(1, GLES20.count("glGenVertexArrayOES("));
+		assertEquals(INPUTS, GLES20.count("glVertexAttribPointer("));
+		assertEquals(1, GLES20.count("glBindBuffer(" + GLES20.GL_ARRAY_BUFFER + ", 20)"));
+
+		//Unmapped input
+		layouts.setAttribute(Element.TEXCOORD, -1);
+		assertEquals(1 + ELEMENTS, GLES20.count("glDeleteVertexArrayOES("));
+		GLES20.clearCalls();
+		this.drawFrame(layouts);
+		assertEquals(ELEMENTS * (INPUTS - 1), GLES20.count("glVertexAttribPointer("));
+		assertEquals(0, GLES20.count("glVertexAttribPointer(2,"));
+
+		//Context lost, vertex arrays not deleted
+		layouts.invalidate();
+		assertTrue(layouts.bind(this.elements[0]));
+		assertFalse(layouts.bind(this.elements[0]));
+		assertEquals(1 + ELEMENTS, GLES20.count("glGenVertexArrayOES("));
+		assertEquals(0, GLES20.count("glDeleteVertexArrayOES("));
+	}
+}
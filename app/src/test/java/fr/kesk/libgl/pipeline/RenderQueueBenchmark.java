@@ -0,0 +1,92 @@
+package fr.kesk.libgl.pipeline;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Sorting of 100k draw keys : RenderQueue radix sort (queue filled at each invocation)
+ * against Arrays.sort() on a copy of the keys.
+ * <br/>
+ * <br/>
+ * Run with fr.kesk.libgl.Benchmarks
+ *
+ * @author Thomas MILLET
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RenderQueueBenchmark {
+
+	/**
+	 * Number of draws
+	 */
+	@Param({"100000"})
+	public int count;
+
+	/**
+	 * Unsorted keys
+	 */
+	private long[] keys;
+
+	/**
+	 * Keys sorted by Arrays.sort()
+	 */
+	private long[] sorted;
+
+	/**
+	 * Queue sorted by radix sort
+	 */
+	private RenderQueue queue;
+
+	/**
+	 * Payload of all draws
+	 */
+	private final Object payload = new Object();
+
+	@Setup
+	public void setup(){
+		this.keys = RenderQueueTest.randomKeys(new Random(1L), this.count);
+		this.sorted = new long[this.count];
+		this.queue = new RenderQueue(this.count);
+	}
+
+	/**
+	 * Fill and sort the queue
+	 */
+	@Benchmark
+	public long radixSort(){
+		this.queue.clear();
+		for(int index=0; index < this.count; index++){
+			this.queue.add(this.keys[index], this.payload);
+		}
+		this.queue.sort();
+		return this.queue.getKey(this.count - 1);
+	}
+
+	/**
+	 * Copy and sort the keys
+	 */
+	@Benchmark
+	public long arraysSort(){
+		System.arraycopy(this.keys, 0, this.sorted, 0, this.count);
+		Arrays.sort(this.sorted);
+		return this.sorted[this.count - 1];
+	}
+}
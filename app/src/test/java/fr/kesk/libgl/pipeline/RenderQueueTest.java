@@ -0,0 +1,181 @@
+package fr.kesk.libgl.pipeline;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * RenderQueue tests, radix sort results are checked against Arrays.sort()
+ *
+ * @author Thomas MILLET
+ *
+ */
+public class RenderQueueTest {
+
+	/**
+	 * Build random draw keys on all passes
+	 */
+	static long[] randomKeys(final Random random, final int count){
+		final long[] keys = new long[count];
+		for(int index=0; index < count; index++){
+			keys[index] = RenderQueue.makeKey(random.nextInt(RenderQueue.MAX_PASS + 1), random.nextInt(4) == 0,
+					random.nextInt(16), random.nextInt(64), random.nextInt(64), random.nextFloat());
+		}
+		return keys;
+	}
+
+	/**
+	 * Reference sort, keys are compared as unsigned values
+	 */
+	private static long[] referenceSort(final long[] keys, final int count){
+		final long[] sorted = new long[count];
+		for(int index=0; index < count; index++){
+			sorted[index] = keys[index] ^ Long.MIN_VALUE;
+		}
+		Arrays.sort(sorted);
+		for(int index=0; index < count; index++){
+			sorted[index] ^= Long.MIN_VALUE;
+		}
+		return sorted;
+	}
+
+	/**
+	 * Fill a queue with keys, payloads are insertion indexes
+	 */
+	private static void fill(final RenderQueue queue, final long[] keys, final int count){
+		queue.clear();
+		for(int index=0; index < count; index++){
+			queue.add(keys[index], Integer.valueOf(index));
+		}
+	}
+
+	/**
+	 * Check sorted keys against reference and payloads consistency and stability
+	 */
+	private static void assertSorted(final RenderQueue queue, final long[] keys, final int count){
+		final long[] expected = referenceSort(keys, count);
+		assertEquals(count, queue.size());
+		for(int index=0; index < count; index++){
+			assertEquals("index " + index, expected[index], queue.getKey(index));
+			final int payload = (Integer)queue.getPayload(index);
+			assertEquals(keys[payload], queue.getKey(index));
+			if(index > 0 && queue.getKey(index) == queue.getKey(index - 1)){
+				assertTrue(payload > (Integer)queue.getPayload(index - 1));
+			}
+		}
+	}
+
+	@Test
+	public void sortMatchesArraysSort(){
+		final Random random = new Random(1L);
+		final RenderQueue queue = new RenderQueue(16);
+		for(int count : new int[]{0, 1, 2, 255, 256, 1000, 100000}){
+			final long[] keys = randomKeys(random, count);
+			fill(queue, keys, count);
+			queue.sort();
+			assertSorted(queue, keys, count);
+		}
+	}
+
+	@Test
+	public void sortFullRangeKeys(){
+		final Random random = new Random(2L);
+		final RenderQueue queue = new RenderQueue(1);
+		final long[] keys = new long[10000];
+		for(int index=0; index < keys.length; index++){
+			keys[index] = random.nextLong();
+		}
+		keys[0] = -1L;
+		keys[1] = 0L;
+		keys[2] = Long.MIN_VALUE;
+		keys[3] = Long.MAX_VALUE;
+		fill(queue, keys, keys.length);
+		queue.sort();
+		assertSorted(queue, keys, keys.length);
+	}
+
+	@Test
+	public void sortIsStable(){
+		final Random random = new Random(3L);
+		final RenderQueue queue = new RenderQueue(64);
+		//Few distinct keys, only some bytes differ
+		final long[] keys = new long[5000];
+		for(int index=0; index < keys.length; index++){
+			keys[index] = RenderQueue.makeKey(1, false, random.nextInt(3), 7, random.nextInt(2), 0.5f);
+		}
+		fill(queue, keys, keys.length);
+		queue.sort();
+		assertSorted(queue, keys, keys.length);
+
+		//Already sorted and same keys
+		Arrays.fill(keys, RenderQueue.makeKey(2, true, 3, 4, 5, 0.25f));
+		fill(queue, keys, keys.length);
+		queue.sort();
+		assertSorted(queue, keys, keys.length);
+		queue.sort();
+		assertSorted(queue, keys, keys.length);
+	}
+
+	@Test
+	public void keysFields(){
+		final long opaque = RenderQueue.makeKey(3, false, 100, 2000, 3000, 0.5f);
+		assertEquals(3, RenderQueue.getPass(opaque));
+		assertFalse(RenderQueue.isTranslucent(opaque));
+		assertEquals(100, RenderQueue.getProgram(opaque));
+		assertEquals(2000, RenderQueue.getMaterial(opaque));
+		assertEquals(3000, RenderQueue.getTexture(opaque));
+		assertEquals((int)(0.5f * RenderQueue.MAX_DEPTH), RenderQueue.getDepth(opaque));
+
+		final long translucent = RenderQueue.makeKey(20, true, -1, 5, 6, 2f);
+		assertEquals(RenderQueue.MAX_PASS, RenderQueue.getPass(translucent));
+		assertTrue(RenderQueue.isTranslucent(translucent));
+		assertEquals(0, RenderQueue.getProgram(translucent));
+		assertEquals(5, RenderQueue.getMaterial(translucent));
+		assertEquals(6, RenderQueue.getTexture(translucent));
+		assertEquals(RenderQueue.MAX_DEPTH, RenderQueue.getDepth(translucent));
+	}
+
+	@Test
+	public void drawOrder(){
+		final RenderQueue queue = new RenderQueue(4);
+		final Object far = new Object();
+		final Object near = new Object();
+		final Object farTranslucent = new Object();
+		final Object nearTranslucent = new Object();
+		final Object nextPass = new Object();
+		queue.add(RenderQueue.makeKey(1, false, 0, 0, 0, 0f), nextPass);
+		queue.add(RenderQueue.makeKey(0, true, 1, 1, 1, 0.2f), nearTranslucent);
+		queue.add(RenderQueue.makeKey(0, false, 1, 1, 1, 0.8f), far);
+		queue.add(RenderQueue.makeKey(0, true, 1, 1, 1, 0.7f), farTranslucent);
+		queue.add(RenderQueue.makeKey(0, false, 1, 1, 1, 0.1f), near);
+		queue.sort();
+
+		final List<Object> payloads = new ArrayList<Object>();
+		final List<Integer> changes = new ArrayList<Integer>();
+		queue.execute(new RenderQueue.Executor() {
+			@Override
+			public void draw(final long key, final Object payload, final int change) {
+				payloads.add(payload);
+				changes.add(change);
+			}
+		});
+		//Opaque front to back, translucent back to front, then next pass
+		assertEquals(Arrays.asList(near, far, farTranslucent, nearTranslucent, nextPass), payloads);
+		assertEquals(Arrays.asList(RenderQueue.CHANGE_ALL, 0, RenderQueue.CHANGE_TRANSLUCENCY, 0,
+				RenderQueue.CHANGE_PASS | RenderQueue.CHANGE_TRANSLUCENCY | RenderQueue.CHANGE_PROGRAM | RenderQueue.CHANGE_MATERIAL | RenderQueue.CHANGE_TEXTURE), changes);
+
+		queue.clear();
+		assertEquals(0, queue.size());
+		queue.add(0L, far);
+		queue.sort();
+		assertSame(far, queue.getPayload(0));
+	}
+}
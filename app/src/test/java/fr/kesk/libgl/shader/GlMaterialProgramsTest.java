@@ -0,0 +1,163 @@
+package fr.kesk.libgl.shader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import android.opengl.GLES20;
+import fr.kesk.libgl.GlAssets;
+import fr.kesk.libgl.GlAssets.Light;
+import fr.kesk.libgl.GlAssets.Material;
+import fr.kesk.libgl.tools.GLES20Utils;
+
+/**
+ * GlMaterialPrograms tests : table keys, shaders resources and programs sharing between
+ * GL Thread and background compilations using the recording GLES20
+ *
+ * @author Thomas MILLET
+ *
+ */
+public class GlMaterialProgramsTest {
+
+	private static final int[] MATERIAL_TYPES = new int[]{Material.CONSTANT, Material.DIFFUSE, Material.SPECULAR};
+	private static final int[] LIGHT_TYPES = new int[]{Light.AMBIENT, Light.DIRECTIONAL, Light.POINT, Light.SPOT};
+	private static final int[] QUALITIES = new int[]{GlMaterialPrograms.QUALITY_LOW, GlMaterialPrograms.QUALITY_HIGH};
+
+	private GlProgramCompiler compiler;
+
+	@Before
+	public void setUp(){
+		GLES20.reset();
+		GLES20Utils.reset();
+		GlProgramCache.getInstance().invalidate();
+		this.compiler = new GlProgramCompiler();
+	}
+
+	@After
+	public void tearDown(){
+		this.compiler.stop();
+		GlProgramCache.getInstance().invalidate();
+	}
+
+	/**
+	 * Expected shaders location of a combination
+	 */
+	private static String getExpectedLocation(final int materialType, final int lightType, final int quality, final boolean textured){
+		final String texture = textured ? "tex" : "notex";
+		if(materialType == Material.CONSTANT || lightType == Light.AMBIENT){
+			return "/fr/kesk/libgl/shader/gsgl/material/ambient/" + texture;
+		}
+		return "/fr/kesk/libgl/shader/gsgl/material/" + (materialType == Material.DIFFUSE ? "diffuse" : "specular")
+				+ "/" + (lightType == Light.POINT ? "point" : (lightType == Light.DIRECTIONAL ? "directional" : "spot"))
+				+ "/" + (quality == GlMaterialPrograms.QUALITY_HIGH ? "high" : "low") + "/" + texture;
+	}
+
+	/**
+	 * Create assets with one material lit by one light
+	 */
+	private static GlAssets createAssets(final int materialType, final int lightType){
+		final GlAssets assets = new GlAssets();
+		assets.materials.put(0, new Material(0, materialType));
+		assets.lights.put(0, new Light(0, lightType, new float[]{1f, 1f, 1f, 1f}, null));
+		return assets;
+	}
+
+	/**
+	 * Publish until count requests are published
+	 */
+	private void publish(final int count) throws InterruptedException{
+		int published = 0;
+		final long timeout = System.currentTimeMillis() + 5000;
+		while(published < count && System.currentTimeMillis() < timeout){
+			published += this.compiler.publish();
+			Thread.sleep(1);
+		}
+		assertEquals(count, published);
+	}
+
+	@Test
+	public void keysMatchShaders(){
+		final Map<String, Integer> keys = new HashMap<String, Integer>();
+		for(int materialType : MATERIAL_TYPES){
+			for(int lightType : LIGHT_TYPES){
+				for(int quality : QUALITIES){
+					for(int texture=0; texture < 2; texture++){
+						final boolean textured = texture == 1;
+						final int key = GlMaterialPrograms.getKey(materialType, lightType, quality, textured);
+						assertTrue(key >= 0 && key < 36);
+						final String location = GlMaterialPrograms.getLocation(key);
+						assertEquals(getExpectedLocation(materialType, lightType, quality, textured), location);
+						assertNotNull(location, GlMaterialPrograms.class.getResource(location + ".vtx"));
+						assertNotNull(location, GlMaterialPrograms.class.getResource(location + ".fgt"));
+						//Same key if and only if same shaders
+						final Integer sharedKey = keys.get(location);
+						if(sharedKey == null){
+							assertTrue(location, !keys.containsValue(Integer.valueOf(key)));
+							keys.put(location, Integer.valueOf(key));
+						}
+						else{
+							assertEquals(location, sharedKey.intValue(), key);
+						}
+					}
+				}
+			}
+		}
+		//Ambient tex/notex and diffuse/specular * lights * qualities * tex/notex
+		assertEquals(2 + 2 * 3 * 2 * 2, keys.size());
+	}
+
+	@Test
+	public void programsAreShared() throws InterruptedException{
+		final GlAssets assets = createAssets(Material.DIFFUSE, Light.POINT);
+		final GlMaterialPrograms background = new GlMaterialPrograms();
+		assertEquals(1, background.compile(assets, GlMaterialPrograms.QUALITY_LOW, this.compiler));
+		this.publish(1);
+		final GlProgram program = background.getProgram(Material.DIFFUSE, Light.POINT, GlMaterialPrograms.QUALITY_LOW, false);
+		assertEquals(1, GLES20.count("glLinkProgram("));
+
+		//Background compiled program adopted by the cache
+		final GlMaterialPrograms glThread = new GlMaterialPrograms();
+		assertSame(program, glThread.getProgram(Material.DIFFUSE, Light.POINT, GlMaterialPrograms.QUALITY_LOW, false));
+		final GlMaterialPrograms cached = new GlMaterialPrograms();
+		assertEquals(0, cached.compile(assets, GlMaterialPrograms.QUALITY_LOW, this.compiler));
+		assertSame(program, cached.getProgram(Material.DIFFUSE, Light.POINT, GlMaterialPrograms.QUALITY_LOW, false));
+		assertEquals(1, GLES20.count("glLinkProgram("));
+
+		//One reference per table
+		background.free();
+		glThread.free();
+		assertEquals(0, GLES20.count("glDeleteProgram("));
+		cached.free();
+		assertEquals(1, GLES20.count("glDeleteProgram(" + program.programHandle + ")"));
+	}
+
+	@Test
+	public void duplicateBackgroundProgramsAreFreed() throws InterruptedException{
+		final GlAssets assets = createAssets(Material.SPECULAR, Light.SPOT);
+		final GlMaterialPrograms background = new GlMaterialPrograms();
+		assertEquals(1, background.compile(assets, GlMaterialPrograms.QUALITY_HIGH, this.compiler));
+
+		//Linked in GL Thread before being published
+		final GlMaterialPrograms glThread = new GlMaterialPrograms();
+		final GlProgram program = glThread.getProgram(Material.SPECULAR, Light.SPOT, GlMaterialPrograms.QUALITY_HIGH, true);
+		assertNotNull(program);
+		final GlProgram expected = glThread.getProgram(Material.SPECULAR, Light.SPOT, GlMaterialPrograms.QUALITY_HIGH, false);
+		this.publish(1);
+		assertEquals(1, GLES20.count("glDeleteProgram("));
+		assertSame(expected, background.getProgram(Material.SPECULAR, Light.SPOT, GlMaterialPrograms.QUALITY_HIGH, false));
+
+		background.free();
+		assertEquals(1, GLES20.count("glDeleteProgram("));
+		glThread.free();
+		assertEquals(1, GLES20.count("glDeleteProgram(" + expected.programHandle + ")"));
+		assertEquals(1, GLES20.count("glDeleteProgram(" + program.programHandle + ")"));
+	}
+}
@@ -0,0 +1,221 @@
+package fr.kesk.libgl.shader;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import android.opengl.GLES20;
+import fr.kesk.libgl.tools.GLES20Utils;
+
+/**
+ * GlProgramCache tests : keys, binary files format and disk storage using the recording GLES20
+ *
+ * @author Thomas MILLET
+ *
+ */
+public class GlProgramCacheTest {
+
+	private static final String VERTEX_SHADER = "attribute vec4 a_Position;\nuniform mat4 u_mvpMatrix;\nvoid main(){\n\tgl_Position = u_mvpMatrix * a_Position;\n}\n";
+	private static final String FRAGMENT_SHADER = "precision mediump float;\nuniform vec4 u_Color;\nvoid main(){\n\tgl_FragColor = u_Color;\n}\n";
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	private final GlProgramCache cache = GlProgramCache.getInstance();
+
+	@Before
+	public void setUp(){
+		GLES20.reset();
+		GLES20Utils.reset();
+		GLES20.extensions = "GL_OES_vertex_array_object GL_OES_get_program_binary";
+		this.cache.invalidate();
+		this.cache.setDirectory(this.folder.getRoot());
+	}
+
+	@After
+	public void tearDown(){
+		this.cache.invalidate();
+		this.cache.setDirectory(null);
+	}
+
+	/**
+	 * Serialize a binary
+	 */
+	private static byte[] write(final String identity, final int format, final byte[] binary) throws IOException{
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		GlProgramCache.writeBinary(out, identity, format, binary, binary.length);
+		return out.toByteArray();
+	}
+
+	@Test
+	public void keyIsStable(){
+		final String key = GlProgramCache.getKey(VERTEX_SHADER, FRAGMENT_SHADER);
+		assertEquals(16, key.length());
+		assertTrue(key.matches("[0-9a-f]{16}"));
+		assertEquals(key, GlProgramCache.getKey(new String(VERTEX_SHADER), new String(FRAGMENT_SHADER)));
+		//Shaders boundary, order and high bytes of chars are part of the key
+		assertNotEquals(GlProgramCache.getKey("ab", "c"), GlProgramCache.getKey("a", "bc"));
+		assertNotEquals(GlProgramCache.getKey("a", "b"), GlProgramCache.getKey("b", "a"));
+		assertNotEquals(GlProgramCache.getKey("\u0141", ""), GlProgramCache.getKey("A", ""));
+		assertNotEquals(key, GlProgramCache.getKey(VERTEX_SHADER, FRAGMENT_SHADER.replace("mediump", "highp")));
+		//Leading zeros kept
+		assertEquals(16, GlProgramCache.getKey("", "").length());
+	}
+
+	@Test
+	public void binaryRoundTrip() throws IOException{
+		final byte[] binary = new byte[]{1, 2, 3, -4, 5};
+		final int[] format = new int[1];
+		final byte[] read = GlProgramCache.readBinary(new ByteArrayInputStream(write("JVM|2.0", 0x1234, binary)), "JVM|2.0", format);
+		assertArrayEquals(binary, read);
+		assertEquals(0x1234, format[0]);
+
+		//Partial binary
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		GlProgramCache.writeBinary(out, "JVM|2.0", 1, binary, 2);
+		assertArrayEquals(new byte[]{1, 2}, GlProgramCache.readBinary(new ByteArrayInputStream(out.toByteArray()), "JVM|2.0", format));
+	}
+
+	@Test
+	public void invalidBinariesAreRejected() throws IOException{
+		final int[] format = new int[1];
+		final byte[] data = write("JVM|2.0", 1, new byte[]{1});
+		//Other implementation
+		assertNull(GlProgramCache.readBinary(new ByteArrayInputStream(data), "JVM|3.0", format));
+		//Other magic
+		final byte[] corrupted = data.clone();
+		corrupted[0] = 0;
+		assertNull(GlProgramCache.readBinary(new ByteArrayInputStream(corrupted), "JVM|2.0", format));
+		//Other version
+		final byte[] version = data.clone();
+		version[7]++;
+		assertNull(GlProgramCache.readBinary(new ByteArrayInputStream(version), "JVM|2.0", format));
+		//Empty binary
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final DataOutputStream dataOut = new DataOutputStream(out);
+		dataOut.writeInt(GlProgramCache.MAGIC);
+		dataOut.writeInt(GlProgramCache.VERSION);
+		dataOut.writeUTF("JVM|2.0");
+		dataOut.writeInt(1);
+		dataOut.writeInt(0);
+		assertNull(GlProgramCache.readBinary(new ByteArrayInputStream(out.toByteArray()), "JVM|2.0", format));
+	}
+
+	@Test
+	public void programsAreShared(){
+		final GlProgram program = this.cache.getProgram(VERTEX_SHADER, FRAGMENT_SHADER);
+		assertSame(program, this.cache.getProgram(VERTEX_SHADER, FRAGMENT_SHADER));
+		assertEquals(1, this.cache.getCompiledCount());
+		assertEquals(1, GLES20.count("glLinkProgram("));
+		this.cache.release(program);
+		assertEquals(0, GLES20.count("glDeleteProgram("));
+		this.cache.release(program);
+		assertEquals(1, GLES20.count("glDeleteProgram(" + program.programHandle + ")"));
+		assertNotSame(program, this.cache.getProgram(VERTEX_SHADER, FRAGMENT_SHADER));
+	}
+
+	@Test
+	public void adoptedProgramsAreShared(){
+		final File file = new File(this.folder.getRoot(), GlProgramCache.getKey(VERTEX_SHADER, FRAGMENT_SHADER) + GlProgramCache.FILE_EXTENSION);
+		final GlProgram program = new GlProgram(VERTEX_SHADER, FRAGMENT_SHADER);
+		assertFalse(this.cache.contains(VERTEX_SHADER, FRAGMENT_SHADER));
+		assertSame(program, this.cache.adopt(VERTEX_SHADER, FRAGMENT_SHADER, program));
+		assertTrue(this.cache.contains(VERTEX_SHADER, FRAGMENT_SHADER));
+		assertTrue(file.exists());
+		assertSame(program, this.cache.getProgram(VERTEX_SHADER, FRAGMENT_SHADER));
+		assertEquals(1, GLES20.count("glLinkProgram("));
+
+		//Duplicate freed
+		final GlProgram duplicate = new GlProgram(VERTEX_SHADER, FRAGMENT_SHADER);
+		assertSame(program, this.cache.adopt(VERTEX_SHADER, FRAGMENT_SHADER, duplicate));
+		assertEquals(1, GLES20.count("glDeleteProgram(" + duplicate.programHandle + ")"));
+
+		//Adopted and shared references
+		this.cache.release(program);
+		this.cache.release(program);
+		assertEquals(0, GLES20.count("glDeleteProgram(" + program.programHandle + ")"));
+		this.cache.release(program);
+		assertEquals(1, GLES20.count("glDeleteProgram(" + program.programHandle + ")"));
+		assertFalse(this.cache.contains(VERTEX_SHADER, FRAGMENT_SHADER));
+	}
+
+	@Test
+	public void storedBinariesAreLoaded(){
+		final File file = new File(this.folder.getRoot(), GlProgramCache.getKey(VERTEX_SHADER, FRAGMENT_SHADER) + GlProgramCache.FILE_EXTENSION);
+		this.cache.getProgram(VERTEX_SHADER, FRAGMENT_SHADER);
+		assertTrue(file.exists());
+
+		//Context lost, next run
+		this.cache.invalidate();
+		GLES20.clearCalls();
+		final GlProgram program = this.cache.getProgram(VERTEX_SHADER, FRAGMENT_SHADER);
+		assertEquals(1, this.cache.getLoadedCount());
+		assertEquals(0, this.cache.getCompiledCount());
+		assertEquals(0, GLES20.count("glCompileShader("));
+		assertEquals(1, GLES20.count("glProgramBinary("));
+		assertEquals(0, program.getAttributeHandle("a_Position"));
+	}
+
+	@Test
+	public void identityMismatchRecompiles(){
+		final File file = new File(this.folder.getRoot(), GlProgramCache.getKey(VERTEX_SHADER, FRAGMENT_SHADER) + GlProgramCache.FILE_EXTENSION);
+		this.cache.getProgram(VERTEX_SHADER, FRAGMENT_SHADER);
+		final long length = file.length();
+
+		//Driver update
+		this.cache.invalidate();
+		GLES20.version = "OpenGL ES 2.0 updated";
+		GLES20.clearCalls();
+		try{
+			this.cache.getProgram(VERTEX_SHADER, FRAGMENT_SHADER);
+		}finally{
+			GLES20.version = "OpenGL ES 2.0";
+		}
+		assertEquals(0, this.cache.getLoadedCount());
+		assertEquals(1, this.cache.getCompiledCount());
+		assertEquals(0, GLES20.count("glProgramBinary("));
+		assertEquals(2, GLES20.count("glCompileShader("));
+		//Stored again for the new identity
+		assertTrue(file.exists());
+		assertNotEquals(length, file.length());
+	}
+
+	@Test
+	public void rejectedBinariesAreDeleted(){
+		final File file = new File(this.folder.getRoot(), GlProgramCache.getKey(VERTEX_SHADER, FRAGMENT_SHADER) + GlProgramCache.FILE_EXTENSION);
+		this.cache.getProgram(VERTEX_SHADER, FRAGMENT_SHADER);
+
+		//Driver rejects binaries and does not support them anymore
+		this.cache.invalidate();
+		GLES20Utils.programBinaries = false;
+		this.cache.getProgram(VERTEX_SHADER, FRAGMENT_SHADER);
+		assertEquals(0, this.cache.getLoadedCount());
+		assertEquals(1, this.cache.getCompiledCount());
+		assertFalse(file.exists());
+	}
+
+	@Test
+	public void unsupportedBinariesAreNotStored(){
+		GLES20.extensions = "GL_OES_vertex_array_object";
+		this.cache.getProgram(VERTEX_SHADER, FRAGMENT_SHADER);
+		assertEquals(0, this.folder.getRoot().listFiles().length);
+		assertEquals(0, GLES20.count("glGetProgramBinary"));
+	}
+}
@@ -0,0 +1,254 @@
+package fr.kesk.libgl.shader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import android.opengl.GLES20;
+import fr.kesk.libgl.shader.GlProgramCompiler.Request;
+import fr.kesk.libgl.tools.GLES20Utils;
+
+/**
+ * GlProgramCompiler tests using a fake secondary context and the recording GLES20
+ *
+ * @author Thomas MILLET
+ *
+ */
+public class GlProgramCompilerTest {
+
+	private static final String VERTEX_SHADER = "attribute vec4 a_Position;\nvoid main(){\n\tgl_Position = a_Position;\n}\n";
+	private static final String FRAGMENT_SHADER = "precision mediump float;\nuniform vec4 u_Color;\nvoid main(){\n\tgl_FragColor = u_Color;\n}\n";
+
+	/**
+	 * Fake context recording its lifecycle
+	 */
+	private static class FakeContext implements GlProgramCompiler.Context{
+
+		volatile Thread thread;
+		volatile int destroyed;
+
+		@Override
+		public void makeCurrent() {
+			this.thread = Thread.currentThread();
+		}
+
+		@Override
+		public void destroy() {
+			this.destroyed++;
+		}
+	}
+
+	/**
+	 * Fake factory creating FakeContext or failing
+	 */
+	private static class FakeContextFactory implements GlProgramCompiler.ContextFactory{
+
+		final List<FakeContext> contexts = Collections.synchronizedList(new ArrayList<FakeContext>());
+		final boolean failing;
+
+		FakeContextFactory(final boolean failing){
+			this.failing = failing;
+		}
+
+		@Override
+		public GlProgramCompiler.Context createContext() {
+			if(this.failing){
+				throw new RuntimeException("no EGL");
+			}
+			final FakeContext context = new FakeContext();
+			this.contexts.add(context);
+			return context;
+		}
+	}
+
+	/**
+	 * Compiler recording compiled sources, compilation of sources starting with "block"
+	 * waits for release, sources starting with "fail" do not compile
+	 */
+	private static class FakeCompiler extends GlProgramCompiler{
+
+		final List<String> compiled = Collections.synchronizedList(new ArrayList<String>());
+		final List<Thread> threads = Collections.synchronizedList(new ArrayList<Thread>());
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+
+		@Override
+		protected GlProgram createProgram(final String vertexShaderSource, final String fragmentShaderSource) {
+			this.started.countDown();
+			if(vertexShaderSource.startsWith("fail")){
+				throw new RuntimeException("compilation error");
+			}
+			if(vertexShaderSource.startsWith("block")){
+				try{
+					this.release.await(5, TimeUnit.SECONDS);
+				}catch(InterruptedException ie){
+					Thread.currentThread().interrupt();
+				}
+			}
+			this.compiled.add(vertexShaderSource);
+			this.threads.add(Thread.currentThread());
+			return super.createProgram(vertexShaderSource.startsWith("block") ? VERTEX_SHADER : vertexShaderSource, fragmentShaderSource);
+		}
+	}
+
+	/**
+	 * Callback recording ready requests
+	 */
+	private static class RecordingCallback implements GlProgramCompiler.Callback{
+
+		final List<Request> requests = new ArrayList<Request>();
+
+		@Override
+		public void onProgramReady(final Request request) {
+			this.requests.add(request);
+		}
+	}
+
+	private FakeCompiler compiler;
+
+	@Before
+	public void setUp(){
+		GLES20.reset();
+		GLES20Utils.reset();
+		this.compiler = new FakeCompiler();
+	}
+
+	@After
+	public void tearDown(){
+		this.compiler.stop();
+	}
+
+	/**
+	 * Publish until count requests are published
+	 */
+	private void publish(final int count) throws InterruptedException{
+		int published = 0;
+		final long timeout = System.currentTimeMillis() + 5000;
+		while(published < count && System.currentTimeMillis() < timeout){
+			published += this.compiler.publish();
+			Thread.sleep(1);
+		}
+		assertEquals(count, published);
+	}
+
+	@Test
+	public void programsAreCompiledInWorker() throws InterruptedException{
+		final FakeContextFactory factory = new FakeContextFactory(false);
+		final RecordingCallback callback = new RecordingCallback();
+		this.compiler.start(factory);
+		assertFalse(this.compiler.isParallel());
+		final Request first = this.compiler.submit(VERTEX_SHADER, FRAGMENT_SHADER, callback);
+		final Request second = this.compiler.submit(VERTEX_SHADER, FRAGMENT_SHADER, callback);
+		assertEquals(Request.PENDING, first.getState());
+		assertNull(first.getProgram());
+		assertEquals(2, this.compiler.getPendingCount());
+
+		this.publish(2);
+		assertEquals(0, this.compiler.getPendingCount());
+		assertEquals(2, callback.requests.size());
+		assertSame(first, callback.requests.get(0));
+		assertEquals(Request.READY, second.getState());
+		assertNotNull(first.getProgram());
+		assertTrue(this.compiler.isParallel());
+		assertEquals(1, factory.contexts.size());
+		final FakeContext context = factory.contexts.get(0);
+		assertSame(context.thread, this.compiler.threads.get(0));
+		assertFalse(context.thread == Thread.currentThread());
+
+		this.compiler.stop();
+		assertEquals(1, context.destroyed);
+		assertFalse(context.thread.isAlive());
+		//Published programs belong to the caller
+		assertEquals(0, GLES20.count("glDeleteProgram("));
+	}
+
+	@Test
+	public void programsAreCompiledInRenderThreadWithoutContext() throws InterruptedException{
+		final RecordingCallback callback = new RecordingCallback();
+		this.compiler.start(new FakeContextFactory(true));
+		final Request request = this.compiler.submit(VERTEX_SHADER, FRAGMENT_SHADER, callback);
+		this.publish(1);
+		assertFalse(this.compiler.isParallel());
+		assertEquals(Request.READY, request.getState());
+		assertSame(Thread.currentThread(), this.compiler.threads.get(0));
+
+		//Compilation error
+		final Request failed = this.compiler.submit("fail" + VERTEX_SHADER, FRAGMENT_SHADER, callback);
+		this.publish(1);
+		assertEquals(Request.FAILED, failed.getState());
+		assertEquals("compilation error", failed.getError().getMessage());
+		assertNull(failed.getProgram());
+		assertEquals(2, callback.requests.size());
+	}
+
+	@Test
+	public void stopCancelsPendingRequests() throws InterruptedException{
+		final FakeContextFactory factory = new FakeContextFactory(false);
+		final RecordingCallback callback = new RecordingCallback();
+		this.compiler.start(factory);
+		final Request blocking = this.compiler.submit("block" + VERTEX_SHADER, FRAGMENT_SHADER, callback);
+		assertTrue(this.compiler.started.await(5, TimeUnit.SECONDS));
+		final Request second = this.compiler.submit(VERTEX_SHADER, FRAGMENT_SHADER, callback);
+		final Request third = this.compiler.submit(VERTEX_SHADER, FRAGMENT_SHADER, callback);
+
+		//Release the worker once pending requests are cancelled by stop()
+		final Thread releaser = new Thread(){
+			@Override
+			public void run() {
+				final long timeout = System.currentTimeMillis() + 2000;
+				while(third.getState() != Request.CANCELLED && System.currentTimeMillis() < timeout){
+					Thread.yield();
+				}
+				compiler.release.countDown();
+			}
+		};
+		releaser.start();
+		this.compiler.stop();
+		releaser.join();
+
+		//Only the request in progress has been compiled, its program is freed
+		assertEquals(1, this.compiler.compiled.size());
+		assertEquals(Request.CANCELLED, blocking.getState());
+		assertEquals(Request.CANCELLED, second.getState());
+		assertEquals(Request.CANCELLED, third.getState());
+		assertNull(blocking.getProgram());
+		assertEquals(1, GLES20.count("glLinkProgram("));
+		assertEquals(1, GLES20.count("glDeleteProgram("));
+		assertEquals(1, factory.contexts.get(0).destroyed);
+		assertEquals(0, this.compiler.getPendingCount());
+		assertEquals(0, this.compiler.publish());
+		assertTrue(callback.requests.isEmpty());
+	}
+
+	@Test
+	public void stopFreesCompiledPrograms() throws InterruptedException{
+		this.compiler.start(new FakeContextFactory(false));
+		final Request request = this.compiler.submit(VERTEX_SHADER, FRAGMENT_SHADER, null);
+		assertTrue(this.compiler.started.await(5, TimeUnit.SECONDS));
+		//The request in progress is compiled before the worker stops
+		this.compiler.stop();
+		assertEquals(Request.CANCELLED, request.getState());
+		assertEquals(1, GLES20.count("glLinkProgram("));
+		assertEquals(1, GLES20.count("glDeleteProgram("));
+
+		//Restart creates a new worker and context
+		final FakeContextFactory factory = new FakeContextFactory(false);
+		this.compiler.start(factory);
+		this.compiler.submit(VERTEX_SHADER, FRAGMENT_SHADER, null);
+		this.publish(1);
+		assertEquals(1, factory.contexts.size());
+	}
+}
@@ -0,0 +1,137 @@
+package fr.kesk.libgl.shader;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import android.opengl.GLES20;
+import fr.kesk.libgl.tools.GLES20Utils;
+
+/**
+ * GlProgram uniforms filtering tests using the recording GLES20
+ *
+ * @author Thomas MILLET
+ *
+ */
+public class GlProgramTest {
+
+	private static final String VERTEX_SHADER = "attribute vec4 a_Position;\nuniform float u_Alpha;\nuniform vec4 u_Color;\nuniform mat4 u_Matrix;\nuniform vec4 u_Colors[4];\n"
+			+ "void main(){\n\tgl_Position = u_Matrix * a_Position * u_Alpha * u_Color * u_Colors[0];\n}\n";
+	private static final String FRAGMENT_SHADER = "precision mediump float;\nuniform int u_Mode;\nvoid main(){\n\tgl_FragColor = vec4(u_Mode);\n}\n";
+
+	private static final int ALPHA = GlProgram.getId("u_Alpha");
+	private static final int COLOR = GlProgram.getId("u_Color");
+	private static final int MATRIX = GlProgram.getId("u_Matrix");
+	private static final int COLORS = GlProgram.getId("u_Colors");
+	private static final int MODE = GlProgram.getId("u_Mode");
+
+	private GlProgram program;
+
+	@Before
+	public void setUp(){
+		GLES20.reset();
+		GLES20Utils.reset();
+		this.program = new GlProgram(VERTEX_SHADER, FRAGMENT_SHADER);
+		this.program.start();
+		GLES20.clearCalls();
+	}
+
+	@After
+	public void tearDown(){
+		this.program.free();
+	}
+
+	@Test
+	public void redundantUniformsAreFiltered(){
+		final float[] matrix = new float[16];
+		matrix[0] = matrix[5] = matrix[10] = matrix[15] = 1f;
+		for(int frame=0; frame < 3; frame++){
+			this.program.setUniform1f(ALPHA, 0.5f);
+			this.program.setUniform4f(COLOR, 1f, 2f, 3f, 4f);
+			this.program.setUniformMatrix4fv(MATRIX, 1, matrix, 0);
+			this.program.setUniform1i(MODE, 2);
+		}
+		assertEquals(4, GLES20.getCalls().size());
+		assertEquals(4, this.program.getUploadedUniforms());
+		assertEquals(8, this.program.getFilteredUniforms());
+
+		//Changed values only
+		this.program.setUniform4f(COLOR, 1f, 2f, 3f, 5f);
+		matrix[12] = 1f;
+		this.program.setUniformMatrix4fv(MATRIX, 1, matrix, 0);
+		this.program.setUniform1f(ALPHA, 0.5f);
+		assertEquals(2, GLES20.count("glUniform4f("));
+		assertEquals(2, GLES20.count("glUniformMatrix4fv("));
+		assertEquals(1, GLES20.count("glUniform1f("));
+
+		//Inactive uniform
+		this.program.setUniform1f(GlProgram.getId("u_Unknown"), 1f);
+		assertEquals(6, GLES20.getCalls().size());
+
+		//Values set outside of setUniform methods
+		this.program.invalidateUniforms();
+		this.program.setUniform1f(ALPHA, 0.5f);
+		assertEquals(2, GLES20.count("glUniform1f("));
+	}
+
+	@Test
+	public void arraysAreFiltered(){
+		final float[] colors = new float[20];
+		for(int index=0; index < colors.length; index++){
+			colors[index] = index;
+		}
+		this.program.setUniform4fv(COLORS, 4, colors, 4);
+		this.program.setUniform4fv(COLORS, 4, colors, 4);
+		//Prefix of stored values
+		this.program.setUniform4fv(COLORS, 2, colors, 4);
+		assertEquals(1, GLES20.count("glUniform4fv("));
+		colors[19] = -1f;
+		this.program.setUniform4fv(COLORS, 4, colors, 4);
+		assertEquals(2, GLES20.count("glUniform4fv("));
+
+		//Larger than the uniform, never cached
+		this.program.setUniform4fv(COLORS, 5, colors, 0);
+		this.program.setUniform4fv(COLORS, 5, colors, 0);
+		assertEquals(4, GLES20.count("glUniform4fv("));
+		this.program.setUniform4fv(COLORS, 4, colors, 4);
+		assertEquals(5, GLES20.count("glUniform4fv("));
+	}
+
+	@Test
+	public void mismatchingComponentsAreNotCached(){
+		this.program.setUniform4f(COLOR, 1f, 2f, 3f, 4f);
+		//vec4 set on a float uniform must not overwrite values cached for next uniforms
+		this.program.setUniform4f(ALPHA, 0f, 5f, 6f, 7f);
+		this.program.setUniform4f(ALPHA, 0f, 5f, 6f, 7f);
+		assertEquals(3, GLES20.count("glUniform4f("));
+		this.program.setUniform4f(COLOR, 5f, 6f, 7f, 4f);
+		assertEquals(4, GLES20.count("glUniform4f("));
+		this.program.setUniform4f(COLOR, 5f, 6f, 7f, 4f);
+		assertEquals(4, GLES20.count("glUniform4f("));
+
+		//Matching components after a mismatch are cached again
+		this.program.setUniform1f(ALPHA, 0f);
+		this.program.setUniform1f(ALPHA, 0f);
+		assertEquals(1, GLES20.count("glUniform1f("));
+	}
+
+	@Test
+	public void versionedMatricesAreFiltered(){
+		final float[] matrices = new float[32];
+		this.program.setUniformMatrix4fv(MATRIX, 1, matrices, 16, 1);
+		this.program.setUniformMatrix4fv(MATRIX, 1, matrices, 16, 1);
+		assertEquals(1, GLES20.count("glUniformMatrix4fv("));
+		//New version with same values is compared
+		this.program.setUniformMatrix4fv(MATRIX, 1, matrices, 16, 2);
+		assertEquals(1, GLES20.count("glUniformMatrix4fv("));
+		matrices[16] = 1f;
+		this.program.setUniformMatrix4fv(MATRIX, 1, matrices, 16, 3);
+		assertEquals(2, GLES20.count("glUniformMatrix4fv("));
+		//Unversioned set resets the version
+		this.program.setUniformMatrix4fv(MATRIX, 1, new float[16], 0);
+		this.program.setUniformMatrix4fv(MATRIX, 1, matrices, 16, 3);
+		assertEquals(4, GLES20.count("glUniformMatrix4fv("));
+	}
+}
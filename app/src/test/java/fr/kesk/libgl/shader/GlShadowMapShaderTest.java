@@ -0,0 +1,173 @@
+package fr.kesk.libgl.shader;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import android.opengl.GLES20;
+import fr.kesk.libgl.GlAssets.Node;
+import fr.kesk.libgl.pipeline.GlState;
+import fr.kesk.libgl.tools.GLES20Utils;
+
+/**
+ * GlShadowMapShader tests using the recording GLES20
+ *
+ * @author Thomas MILLET
+ *
+ */
+public class GlShadowMapShaderTest {
+
+	@Before
+	public void setUp(){
+		GLES20.reset();
+		GLES20Utils.reset();
+		GlState.reset(640, 480);
+		GlProgramCache.getInstance().invalidate();
+	}
+
+	/**
+	 * Count the renderbuffer allocations of a size
+	 */
+	private static int countStorage(final int size){
+		return GLES20.count("glRenderbufferStorage(" + GLES20.GL_RENDERBUFFER + ", " + GLES20.GL_DEPTH_COMPONENT16 + ", " + size + ", " + size + ")");
+	}
+
+	@Test
+	public void atlasIsAllocatedAtCompile(){
+		final GlShadowMapShader shader = new GlShadowMapShader();
+		shader.setQuality(GlShadowMapShader.QUALITY_LOW);
+		shader.setCascades(3, 0.5f);
+		shader.compile();
+		//2x2 tiles atlas
+		assertEquals(1, countStorage(GlShadowMapShader.QUALITY_LOW * 2));
+		assertEquals(GlShadowMapShader.QUALITY_LOW * 2, shader.getShadowMap().size);
+	}
+
+	@Test
+	public void qualityCannotChangeAfterCompile(){
+		final GlShadowMapShader shader = new GlShadowMapShader();
+		shader.setQuality(GlShadowMapShader.QUALITY_LOW);
+		shader.compile();
+		shader.setQuality(GlShadowMapShader.QUALITY_LOW);
+		try{
+			shader.setQuality(GlShadowMapShader.QUALITY_HIGH);
+			fail("quality changed after compile");
+		}catch(IllegalStateException ise){
+			//Expected
+		}
+		assertEquals(GlShadowMapShader.QUALITY_LOW, shader.getShadowMap().size);
+	}
+
+	@Test
+	public void cascadesAtlasCannotChangeAfterCompile(){
+		final GlShadowMapShader shader = new GlShadowMapShader();
+		shader.setCascades(2, 0.5f);
+		shader.compile();
+		//Same 2x2 atlas
+		shader.setCascades(4, 0.8f);
+		shader.setCascades(3, 0.2f);
+		try{
+			shader.setCascades(1, 0.5f);
+			fail("atlas changed after compile");
+		}catch(IllegalStateException ise){
+			//Expected
+		}
+		assertEquals(GlShadowMapShader.QUALITY_MEDIUM * 2, shader.getShadowMap().size);
+	}
+
+	/**
+	 * Number of shadow map renderings since last calls reset
+	 */
+	private static int countRenderings(){
+		return GLES20.count("glClear(");
+	}
+
+	@Test
+	public void cachingSkipsUnchangedCasters(){
+		final GlShadowMapShader shader = new GlShadowMapShader();
+		shader.setCaching(true);
+		shader.lightModel[9] = shader.lightModel[10] = -1f;
+		shader.compile();
+		final Node root = new Node(0, Node.NODE);
+		final Node child = new Node(1, Node.NODE);
+		root.nodeInstances = new Node[]{child};
+
+		GLES20.clearCalls();
+		shader.render(root);
+		shader.render(root);
+		assertEquals(1, countRenderings());
+
+		//Child model changed
+		child.model[13] = 2f;
+		shader.render(root);
+		shader.render(root);
+		assertEquals(2, countRenderings());
+
+		//Tree structure changed with same models
+		root.nodeInstances = new Node[]{child, new Node(2, Node.NODE)};
+		shader.render(root);
+		assertEquals(3, countRenderings());
+
+		//Invalidated
+		shader.getShadowMap().invalidate();
+		shader.render(root);
+		assertEquals(4, countRenderings());
+	}
+
+	@Test
+	public void cachingDetectsHashCollisions(){
+		final GlShadowMapShader shader = new GlShadowMapShader();
+		shader.setCaching(true);
+		shader.lightModel[9] = shader.lightModel[10] = -1f;
+		shader.compile();
+		final Node root = new Node(0, Node.NODE);
+		final Node child = new Node(1, Node.NODE);
+		child.model[12] = 1f;
+		child.model[13] = 1f;
+		root.nodeInstances = new Node[]{child};
+
+		GLES20.clearCalls();
+		shader.render(root);
+		//31 * h + bits : +1 on a value and -31 on the next one keeps a 31 based hash
+		child.model[12] = Float.intBitsToFloat(Float.floatToIntBits(child.model[12]) + 1);
+		child.model[13] = Float.intBitsToFloat(Float.floatToIntBits(child.model[13]) - 31);
+		shader.render(root);
+		assertEquals(2, countRenderings());
+	}
+
+	@Test
+	public void framesAfterResizeIssueNoGlGet(){
+		final GlShadowMapShader shader = new GlShadowMapShader();
+		shader.lightModel[9] = shader.lightModel[10] = -1f;
+		shader.compile();
+		final Node root = new Node(0, Node.NODE);
+
+		//Surface resized as done by GlSceneView
+		GlState.setViewport(0, 0, 800, 600);
+		GLES20.clearCalls();
+		for(int frame=0; frame < 3; frame++){
+			GlState.newFrame();
+			shader.render(root);
+		}
+		assertEquals(0, GLES20.count("glGet"));
+		//Surface viewport restored after each pass
+		final List<String> calls = GLES20.getCalls();
+		final List<String> viewports = new ArrayList<String>();
+		for(String call : calls){
+			if(call.startsWith("glViewport(")){
+				viewports.add(call);
+			}
+		}
+		assertEquals(6, viewports.size());
+		assertEquals("glViewport(0, 0, 800, 600)", viewports.get(viewports.size() - 1));
+		final int[] viewport = new int[4];
+		GLES20.glGetIntegerv(GLES20.GL_VIEWPORT, viewport, 0);
+		assertArrayEquals(new int[]{0, 0, 800, 600}, viewport);
+	}
+}
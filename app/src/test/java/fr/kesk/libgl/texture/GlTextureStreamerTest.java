@@ -0,0 +1,247 @@
+package fr.kesk.libgl.texture;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import android.opengl.GLES20;
+
+/**
+ * GlTextureStreamer tests : mip levels generation and frames uploads using the recording GLES20
+ *
+ * @author Thomas MILLET
+ *
+ */
+public class GlTextureStreamerTest {
+
+	/**
+	 * Texture of constant pixels
+	 */
+	private static class TestTexture extends GlTexture{
+
+		final int id;
+		final int width;
+		final int height;
+		final int format;
+		final ByteBuffer bytes;
+
+		TestTexture(final int id, final int width, final int height, final int format){
+			this.id = id;
+			this.width = width;
+			this.height = height;
+			this.format = format;
+			this.bytes = ByteBuffer.allocate(width * height * GlTextureStreamer.getComponents(format));
+		}
+
+		@Override
+		public ByteBuffer getBytes() {
+			return this.bytes;
+		}
+
+		@Override
+		public int getId() {
+			return this.id;
+		}
+
+		@Override
+		public int getHeight() {
+			return this.height;
+		}
+
+		@Override
+		public int getWidth() {
+			return this.width;
+		}
+
+		@Override
+		public int getFormat() {
+			return this.format;
+		}
+
+		@Override
+		public int getSize() {
+			return this.bytes.capacity();
+		}
+	}
+
+	private GlTextureStreamer streamer;
+
+	@Before
+	public void setUp(){
+		GLES20.reset();
+	}
+
+	@After
+	public void tearDown(){
+		if(this.streamer != null){
+			this.streamer.free();
+		}
+	}
+
+	/**
+	 * Call update() once per frame until all textures are complete
+	 *
+	 * @return The uploaded bytes of frames which uploaded something
+	 */
+	private List<Integer> updateAll() throws InterruptedException{
+		final List<Integer> frames = new ArrayList<Integer>();
+		final long timeout = System.currentTimeMillis() + 5000;
+		while(this.streamer.getPendingCount() > 0 && System.currentTimeMillis() < timeout){
+			final int uploaded = this.streamer.update();
+			if(uploaded > 0){
+				frames.add(Integer.valueOf(uploaded));
+			}
+			else{
+				Thread.sleep(1);
+			}
+		}
+		assertEquals(0, this.streamer.getPendingCount());
+		return frames;
+	}
+
+	/**
+	 * Get the level argument of glTexImage2D and glTexSubImage2D calls
+	 */
+	private static List<Integer> getUploadedLevels(){
+		final List<Integer> levels = new ArrayList<Integer>();
+		for(String call : GLES20.getCalls()){
+			if(call.startsWith("glTexImage2D(") || call.startsWith("glTexSubImage2D(")){
+				levels.add(Integer.valueOf(call.split("[(,] *")[2]));
+			}
+		}
+		return levels;
+	}
+
+	@Test
+	public void mipmapsSizes(){
+		final int[][] sizes = new int[][]{{16, 4, 3}, {1, 8, 1}, {4, 4, 4}, {1, 1, 2}};
+		for(int[] size : sizes){
+			final int components = size[2];
+			final byte[][] levels = GlTextureStreamer.generateMipmaps(new byte[size[0] * size[1] * components], size[0], size[1], components, GlTextureStreamer.FILTER_BOX);
+			int expectedCount = 1;
+			while((Math.max(size[0], size[1]) >> (expectedCount - 1)) > 1){
+				expectedCount++;
+			}
+			assertEquals(expectedCount, levels.length);
+			for(int level=0; level < levels.length; level++){
+				assertEquals(Math.max(1, size[0] >> level) * Math.max(1, size[1] >> level) * components, levels[level].length);
+			}
+		}
+	}
+
+	@Test
+	public void filtersKeepConstantImages(){
+		final int[] filters = new int[]{GlTextureStreamer.FILTER_BOX, GlTextureStreamer.FILTER_KAISER};
+		for(int filter : filters){
+			final byte[] level0 = new byte[32 * 8 * 4];
+			for(int index=0; index < level0.length; index++){
+				level0[index] = (byte)(index % 4 == 3 ? 255 : 137);
+			}
+			final byte[][] levels = GlTextureStreamer.generateMipmaps(level0, 32, 8, 4, filter);
+			assertEquals(6, levels.length);
+			for(byte[] level : levels){
+				for(int index=0; index < level.length; index++){
+					assertEquals(index % 4 == 3 ? 255 : 137, level[index] & 0xFF);
+				}
+			}
+		}
+
+		//Box average rounded
+		final byte[][] levels = GlTextureStreamer.generateMipmaps(new byte[]{0, (byte)255, (byte)255, 0}, 2, 2, 1, GlTextureStreamer.FILTER_BOX);
+		assertEquals(128, levels[1][0] & 0xFF);
+	}
+
+	@Test
+	public void levelsAreUploadedInBudget() throws InterruptedException{
+		final int budget = 48 * 1024;
+		this.streamer = new GlTextureStreamer(GlTextureStreamer.FILTER_BOX, budget);
+		final GlTextureSet textureSet = new GlTextureSet();
+		final TestTexture texture = new TestTexture(1, 256, 256, GlTexture.FORMAT_RGBA);
+		this.streamer.stream(textureSet, texture);
+		assertEquals(1, this.streamer.getPendingCount());
+
+		//Preview registered first
+		final long timeout = System.currentTimeMillis() + 5000;
+		int total = 0;
+		while(texture.handle == GlTexture.UNBIND_HANDLE && System.currentTimeMillis() < timeout){
+			final int uploaded = this.streamer.update();
+			assertTrue(uploaded <= budget);
+			total += uploaded;
+			Thread.sleep(1);
+		}
+		final int previewHandle = texture.handle;
+		assertNotEquals(GlTexture.UNBIND_HANDLE, previewHandle);
+		assertSame(texture, textureSet.getTexture(1));
+		assertEquals(1, GLES20.count("glTexImage2D(" + GLES20.GL_TEXTURE_2D + ", 0, " + GlTexture.FORMAT_RGBA + ", 64, 64"));
+		assertEquals(1, GLES20.count("glTexParameteri(" + GLES20.GL_TEXTURE_2D + ", " + GLES20.GL_TEXTURE_MIN_FILTER + ", " + GlTexture.MIN_FILTER_HIGH + ")"));
+
+		//Frames in budget
+		final List<Integer> frames = this.updateAll();
+		for(Integer uploaded : frames){
+			assertTrue(uploaded + " > " + budget, uploaded.intValue() <= budget);
+			total += uploaded.intValue();
+		}
+		assertTrue(frames.size() >= 5);
+
+		//Smallest levels first, after preview
+		final List<Integer> levels = getUploadedLevels();
+		assertEquals(Integer.valueOf(0), levels.get(0));
+		assertEquals(Integer.valueOf(8), levels.get(1));
+		for(int index=2; index < levels.size(); index++){
+			assertTrue(levels.get(index).intValue() <= levels.get(index - 1).intValue());
+		}
+		assertEquals(Integer.valueOf(0), levels.get(levels.size() - 1));
+		assertTrue(GLES20.count("glTexSubImage2D(" + GLES20.GL_TEXTURE_2D + ", 0, 0, ") > 1);
+
+		//Handle switched to the full mip chain, preview deleted
+		assertNotEquals(previewHandle, texture.handle);
+		assertNotEquals(GlTexture.UNBIND_HANDLE, texture.handle);
+		assertEquals(2, GLES20.count("glGenTextures("));
+		assertEquals(1, GLES20.count("glDeleteTextures("));
+		assertSame(texture, textureSet.getTexture(1));
+		assertEquals(0, this.streamer.update());
+
+		//All levels once
+		int expected = 0;
+		for(int size=256; size > 0; size >>= 1){
+			expected += size * size * 4;
+		}
+		//Preview counted as uploaded
+		assertEquals(expected + 64 * 64 * 4, total);
+	}
+
+	@Test
+	public void smallTexturesAreCompletedAtPreview() throws InterruptedException{
+		this.streamer = new GlTextureStreamer(GlTextureStreamer.FILTER_KAISER, 1024);
+		final GlTextureSet textureSet = new GlTextureSet();
+		final TestTexture square = new TestTexture(1, 64, 64, GlTexture.FORMAT_RGBA);
+		final TestTexture small = new TestTexture(2, 16, 4, GlTexture.FORMAT_RGB);
+		this.streamer.stream(textureSet, square);
+		this.streamer.stream(textureSet, small);
+		this.updateAll();
+
+		//Full mip chain uploaded directly, no preview to delete
+		assertEquals(2, GLES20.count("glGenTextures("));
+		assertEquals(0, GLES20.count("glDeleteTextures("));
+		assertEquals(7 + 5, GLES20.count("glTexImage2D("));
+		assertNotEquals(GlTexture.UNBIND_HANDLE, square.handle);
+		assertNotEquals(GlTexture.UNBIND_HANDLE, small.handle);
+		assertSame(square, textureSet.getTexture(1));
+		assertSame(small, textureSet.getTexture(2));
+		assertEquals(2, textureSet.size());
+
+		//Nothing left to upload
+		GLES20.clearCalls();
+		assertEquals(0, this.streamer.update());
+		assertEquals(0, GLES20.count("glGenTextures("));
+	}
+}
@@ -0,0 +1,156 @@
+package fr.kesk.libgl.tools;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import android.opengl.Matrix;
+
+/**
+ * BoundsUtils tests
+ *
+ * @author Thomas MILLET
+ *
+ */
+public class BoundsUtilsTest {
+
+	/**
+	 * Comparison tolerance
+	 */
+	private static final float EPSILON = 1e-4f;
+
+	/**
+	 * Set bounds from an AABB
+	 */
+	static float[] aabb(final float minX, final float minY, final float minZ, final float maxX, final float maxY, final float maxZ){
+		final float[] bounds = new float[BoundsUtils.BOUNDS_SIZE];
+		BoundsUtils.compute(bounds, 0, new float[]{minX, minY, minZ, maxX, maxY, maxZ}, 0, 3, 2);
+		return bounds;
+	}
+
+	/**
+	 * Get the 8 corners of an AABB
+	 */
+	static float[] corners(final float[] bounds, final int offset){
+		final float[] corners = new float[8 * 4];
+		for(int corner=0; corner < 8; corner++){
+			corners[corner * 4] = bounds[offset + (((corner & 1) == 0) ? 0 : 3)];
+			corners[corner * 4 + 1] = bounds[offset + (((corner & 2) == 0) ? 1 : 4)];
+			corners[corner * 4 + 2] = bounds[offset + (((corner & 4) == 0) ? 2 : 5)];
+			corners[corner * 4 + 3] = 1f;
+		}
+		return corners;
+	}
+
+	@Test
+	public void computeEnclosesPoints(){
+		final Random random = new Random(1L);
+		final float[] points = MatrixUtilsTest.random(random, 4 * 100);
+		final float[] bounds = new float[2 + BoundsUtils.BOUNDS_SIZE];
+		BoundsUtils.compute(bounds, 2, points, 1, 4, 100);
+
+		final FloatBuffer buffer = FloatBuffer.wrap(points);
+		final float[] bufferBounds = new float[BoundsUtils.BOUNDS_SIZE];
+		BoundsUtils.compute(bufferBounds, 0, buffer, 1, 4, 100);
+		for(int i=0; i < BoundsUtils.BOUNDS_SIZE; i++){
+			assertEquals(bounds[2 + i], bufferBounds[i], 0f);
+		}
+
+		float radius = 0f;
+		for(int point=0; point < 100; point++){
+			final int index = 1 + point * 4;
+			for(int c=0; c < 3; c++){
+				assertTrue(points[index + c] >= bounds[2 + BoundsUtils.MIN + c]);
+				assertTrue(points[index + c] <= bounds[2 + BoundsUtils.MAX + c]);
+			}
+			radius = Math.max(radius, Matrix.length(points[index] - bounds[2 + BoundsUtils.CENTER],
+					points[index + 1] - bounds[2 + BoundsUtils.CENTER + 1], points[index + 2] - bounds[2 + BoundsUtils.CENTER + 2]));
+		}
+		assertEquals(radius, bounds[2 + BoundsUtils.RADIUS], EPSILON);
+		for(int c=0; c < 3; c++){
+			assertEquals((bounds[2 + c] + bounds[5 + c]) * 0.5f, bounds[2 + BoundsUtils.CENTER + c], EPSILON);
+		}
+	}
+
+	@Test
+	public void emptyAndInfiniteBounds(){
+		final float[] bounds = new float[BoundsUtils.BOUNDS_SIZE];
+		BoundsUtils.compute(bounds, 0, new float[0], 0, 3, 0);
+		assertTrue(BoundsUtils.isEmpty(bounds, 0));
+		assertFalse(BoundsUtils.isInfinite(bounds, 0));
+
+		//Union with empty keeps bounds, union with infinite is infinite
+		final float[] box = aabb(0f, 0f, 0f, 1f, 1f, 1f);
+		final float[] union = box.clone();
+		BoundsUtils.union(union, 0, bounds, 0);
+		assertArrayEquals(box, union, 0f);
+		BoundsUtils.union(bounds, 0, box, 0);
+		assertArrayEquals(box, bounds, 0f);
+		final float[] infinite = new float[BoundsUtils.BOUNDS_SIZE];
+		BoundsUtils.setInfinite(infinite, 0);
+		BoundsUtils.union(union, 0, infinite, 0);
+		assertTrue(BoundsUtils.isInfinite(union, 0));
+		BoundsUtils.union(union, 0, box, 0);
+		assertTrue(BoundsUtils.isInfinite(union, 0));
+
+		//Transform keeps empty and infinite states
+		final float[] m = new float[16];
+		Matrix.setIdentityM(m, 0);
+		Matrix.translateM(m, 0, 5f, 5f, 5f);
+		BoundsUtils.transform(union, 0, m, 0, union, 0);
+		assertTrue(BoundsUtils.isInfinite(union, 0));
+		BoundsUtils.setEmpty(bounds, 0);
+		BoundsUtils.transform(bounds, 0, m, 0, bounds, 0);
+		assertTrue(BoundsUtils.isEmpty(bounds, 0));
+	}
+
+	@Test
+	public void unionEnclosesBoth(){
+		final float[] bounds = aabb(-1f, 0f, 2f, 1f, 1f, 3f);
+		BoundsUtils.union(bounds, 0, aabb(0f, -2f, 0f, 4f, 0.5f, 2.5f), 0);
+		assertArrayEquals(new float[]{-1f, -2f, 0f, 4f, 1f, 3f}, Arrays.copyOf(bounds, 6), 0f);
+		assertEquals(1.5f, bounds[BoundsUtils.CENTER], EPSILON);
+		assertEquals(-0.5f, bounds[BoundsUtils.CENTER + 1], EPSILON);
+		assertEquals(1.5f, bounds[BoundsUtils.CENTER + 2], EPSILON);
+		assertEquals(Matrix.length(2.5f, 1.5f, 1.5f), bounds[BoundsUtils.RADIUS], EPSILON);
+	}
+
+	@Test
+	public void transformEnclosesTransformedCorners(){
+		final Random random = new Random(2L);
+		for(int test=0; test < 100; test++){
+			final float[] bounds = aabb(-random.nextFloat(), -random.nextFloat(), -random.nextFloat(),
+					random.nextFloat(), random.nextFloat(), random.nextFloat());
+			final float[] m = MatrixUtilsTest.randomAffine(random);
+			final float[] transformed = new float[BoundsUtils.BOUNDS_SIZE];
+			BoundsUtils.transform(transformed, 0, m, 0, bounds, 0);
+
+			final float[] corners = corners(bounds, 0);
+			final float[] expectedMin = new float[]{Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE};
+			final float[] expectedMax = new float[]{-Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE};
+			final float[] corner = new float[4];
+			for(int index=0; index < 8; index++){
+				Matrix.multiplyMV(corner, 0, m, 0, corners, index * 4);
+				for(int c=0; c < 3; c++){
+					expectedMin[c] = Math.min(expectedMin[c], corner[c]);
+					expectedMax[c] = Math.max(expectedMax[c], corner[c]);
+				}
+				//Corner is in transformed sphere
+				assertTrue(Matrix.length(corner[0] - transformed[BoundsUtils.CENTER], corner[1] - transformed[BoundsUtils.CENTER + 1],
+						corner[2] - transformed[BoundsUtils.CENTER + 2]) <= transformed[BoundsUtils.RADIUS] + EPSILON);
+			}
+			//AABB of transformed corners is exact
+			for(int c=0; c < 3; c++){
+				assertEquals(expectedMin[c], transformed[BoundsUtils.MIN + c], EPSILON);
+				assertEquals(expectedMax[c], transformed[BoundsUtils.MAX + c], EPSILON);
+			}
+		}
+	}
+}
@@ -0,0 +1,194 @@
+package fr.kesk.libgl.tools;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import android.opengl.Matrix;
+import fr.kesk.libgl.GlAssets.Geometry;
+import fr.kesk.libgl.GlAssets.Node;
+import fr.kesk.libgl.GlAssets.Node.GeometryInstance;
+
+/**
+ * Frustum culling classification tests, AABB results are checked against corners
+ * classification in clip space
+ *
+ * @author Thomas MILLET
+ *
+ */
+public class FrustumTest {
+
+	/**
+	 * Distance to planes under which classification is not checked
+	 */
+	private static final float EPSILON = 1e-3f;
+
+	private final float[] pMatrix = new float[16];
+	private final float[] vMatrix = new float[16];
+	private final float[] vpMatrix = new float[16];
+
+	/**
+	 * Camera at (0, 0, 0) looking at -Z, 90 degrees, near 1, far 100
+	 */
+	private Frustum createFrustum(){
+		Matrix.perspectiveM(this.pMatrix, 0, 90f, 1f, 1f, 100f);
+		Matrix.setLookAtM(this.vMatrix, 0, 0f, 0f, 0f, 0f, 0f, -1f, 0f, 1f, 0f);
+		Matrix.multiplyMM(this.vpMatrix, 0, this.pMatrix, 0, this.vMatrix, 0);
+		final Frustum frustum = new Frustum();
+		frustum.set(this.pMatrix, this.vMatrix);
+		return frustum;
+	}
+
+	/**
+	 * Reference classification of AABB corners in clip space, -1 if a corner is too close to a plane
+	 */
+	private int classifyCorners(final float[] bounds){
+		final float[] corners = BoundsUtilsTest.corners(bounds, 0);
+		final float[] clip = new float[4];
+		final boolean[] allOutside = new boolean[]{true, true, true, true, true, true};
+		boolean allInside = true;
+		for(int corner=0; corner < 8; corner++){
+			Matrix.multiplyMV(clip, 0, this.vpMatrix, 0, corners, corner * 4);
+			for(int plane=0; plane < Frustum.PLANES_COUNT; plane++){
+				//w +/- coordinate
+				final float distance = clip[3] + (((plane & 1) == 0) ? clip[plane >> 1] : -clip[plane >> 1]);
+				if(Math.abs(distance) < EPSILON){
+					return -1;
+				}
+				if(distance < 0f){
+					allInside = false;
+				}
+				else{
+					allOutside[plane] = false;
+				}
+			}
+		}
+		for(boolean outside : allOutside){
+			if(outside){
+				return Frustum.OUTSIDE;
+			}
+		}
+		return allInside ? Frustum.INSIDE : Frustum.INTERSECT;
+	}
+
+	@Test
+	public void planesAreNormalized(){
+		final Frustum frustum = createFrustum();
+		for(int plane=0; plane < Frustum.PLANES_COUNT; plane++){
+			assertEquals(1f, Matrix.length(frustum.planes[plane << 2], frustum.planes[(plane << 2) + 1], frustum.planes[(plane << 2) + 2]), 1e-5f);
+		}
+		//Near plane : z = -1 facing -Z
+		assertEquals(-1f, frustum.planes[(4 << 2) + 2], 1e-5f);
+		assertEquals(-1f, frustum.planes[(4 << 2) + 3], 1e-5f);
+		//Far plane : z = -100 facing +Z
+		assertEquals(1f, frustum.planes[(5 << 2) + 2], 1e-5f);
+		assertEquals(100f, frustum.planes[(5 << 2) + 3], 1e-3f);
+	}
+
+	@Test
+	public void sphereClassification(){
+		final Frustum frustum = createFrustum();
+		assertEquals(Frustum.INSIDE, frustum.testSphere(0f, 0f, -10f, 1f));
+		assertEquals(Frustum.OUTSIDE, frustum.testSphere(0f, 0f, 10f, 1f));
+		assertEquals(Frustum.OUTSIDE, frustum.testSphere(0f, 0f, -102f, 1f));
+		assertEquals(Frustum.INTERSECT, frustum.testSphere(0f, 0f, -1f, 0.5f));
+		assertEquals(Frustum.INTERSECT, frustum.testSphere(0f, 0f, -100f, 0.5f));
+		//Left plane x = z
+		assertEquals(Frustum.INTERSECT, frustum.testSphere(-10f, 0f, -10f, 0.5f));
+		assertEquals(Frustum.OUTSIDE, frustum.testSphere(-12f, 0f, -10f, 1f));
+		assertEquals(Frustum.INSIDE, frustum.testSphere(-8f, 0f, -10f, 1f));
+	}
+
+	@Test
+	public void aabbMatchesCornersClassification(){
+		final Frustum frustum = createFrustum();
+		final Random random = new Random(1L);
+		final int[] results = new int[3];
+		for(int test=0; test < 10000; test++){
+			final float x = random.nextFloat() * 240f - 120f;
+			final float y = random.nextFloat() * 240f - 120f;
+			final float z = random.nextFloat() * 240f - 120f;
+			final float size = random.nextFloat() * 20f;
+			final float[] bounds = BoundsUtilsTest.aabb(x, y, z, x + size * random.nextFloat(), y + size * random.nextFloat(), z + size * random.nextFloat());
+			final int expected = this.classifyCorners(bounds);
+			if(expected >= 0){
+				assertEquals("test " + test, expected, frustum.testAABB(bounds, 0));
+				//Sphere first then AABB gives the same result
+				assertEquals("test " + test, expected, frustum.test(bounds, 0));
+				results[expected]++;
+			}
+		}
+		//All cases covered
+		for(int result : results){
+			assertTrue(result > 100);
+		}
+	}
+
+	@Test
+	public void testCountsStats(){
+		final Frustum frustum = createFrustum();
+		final float[] bounds = new float[BoundsUtils.BOUNDS_SIZE];
+		BoundsUtils.setEmpty(bounds, 0);
+		assertEquals(Frustum.OUTSIDE, frustum.test(bounds, 0));
+		BoundsUtils.setInfinite(bounds, 0);
+		assertEquals(Frustum.INTERSECT, frustum.test(bounds, 0));
+		assertEquals(Frustum.INSIDE, frustum.test(BoundsUtilsTest.aabb(-1f, -1f, -11f, 1f, 1f, -9f), 0));
+		assertEquals(Frustum.OUTSIDE, frustum.test(BoundsUtilsTest.aabb(-1f, -1f, 9f, 1f, 1f, 11f), 0));
+		assertEquals(4, frustum.tested);
+		assertEquals(2, frustum.culled);
+		frustum.resetStats();
+		assertEquals(0, frustum.tested);
+		assertEquals(0, frustum.culled);
+		assertEquals(0, frustum.visible);
+	}
+
+	@Test
+	public void collectMatchesFlatTests(){
+		final Frustum frustum = createFrustum();
+		final Random random = new Random(2L);
+		final Node root = NodeArrayTest.createHierarchy(500, 3, 3L);
+		final List<Node> nodes = new ArrayList<Node>();
+		flatten(root, nodes);
+
+		//Unit cube geometry, nodes spread around camera
+		final Geometry geometry = new Geometry(0);
+		geometry.elements.add(new Geometry.Element(0, 36, 0, 0, new int[][]{{0, 0, 3, 0}}, 0, BoundsUtilsTest.aabb(-1f, -1f, -1f, 1f, 1f, 1f)));
+		for(Node node : nodes){
+			Matrix.setIdentityM(node.model, 0);
+			Matrix.translateM(node.model, 0, random.nextFloat() * 200f - 100f, random.nextFloat() * 200f - 100f, random.nextFloat() * 200f - 100f);
+			if(random.nextInt(4) != 0){
+				node.geometryInstances = new GeometryInstance[]{new GeometryInstance(geometry, null)};
+			}
+		}
+		BoundsUtils.updateBounds(root);
+
+		final List<Node> expected = new ArrayList<Node>();
+		for(Node node : nodes){
+			if(node.geometryInstances != null && frustum.testAABB(node.bounds, 0) != Frustum.OUTSIDE){
+				expected.add(node);
+			}
+		}
+		final List<Node> visible = new ArrayList<Node>();
+		frustum.collect(root, visible);
+		assertEquals(expected, visible);
+		assertEquals(expected.size(), frustum.visible);
+		assertTrue(expected.size() > 0 && expected.size() < nodes.size() / 2);
+	}
+
+	/**
+	 * Flatten hierarchy depth first
+	 */
+	private static void flatten(final Node node, final List<Node> nodes){
+		nodes.add(node);
+		if(node.nodeInstances != null){
+			for(Node subnode : node.nodeInstances){
+				flatten(subnode, nodes);
+			}
+		}
+	}
+}
@@ -0,0 +1,93 @@
+package fr.kesk.libgl.tools;
+
+import android.opengl.GLES20;
+
+/**
+ * JVM implementation of GLES20Utils for unit tests (no native library), calls are
+ * recorded in the GLES20 calls log.
+ * <br/>
+ * <br/>
+ * Program binaries hold the sources of the linked shaders, vertex array objects and
+ * program binaries support can be disabled.
+ *
+ * @author Thomas MILLET
+ *
+ */
+public class GLES20Utils {
+
+	/**
+	 * Format of program binaries
+	 */
+	public static final int BINARY_FORMAT = 0x8740;
+
+	/**
+	 * Indicates if GL_OES_vertex_array_object is supported
+	 */
+	public static boolean vertexArrays = true;
+
+	/**
+	 * Indicates if GL_OES_get_program_binary is supported
+	 */
+	public static boolean programBinaries = true;
+
+	/**
+	 * Last vertex array name
+	 */
+	private static int lastVertexArray = 0;
+
+	/**
+	 * Reset supported extensions
+	 */
+	public static void reset(){
+		vertexArrays = true;
+		programBinaries = true;
+	}
+
+	public static void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, int offset){
+		GLES20.record("glVertexAttribPointer", index, size, type, normalized, stride, offset);
+	}
+
+	public static void glDrawElements(int mode, int count, int type, int offset){
+		GLES20.record("glDrawElements", mode, count, type, offset);
+	}
+
+	public static int glGetProgramBinaryLength(int program){
+		GLES20.record("glGetProgramBinaryLength", program);
+		final String sources = GLES20.getProgramSources(program);
+		return (programBinaries && sources != null) ? sources.getBytes().length : 0;
+	}
+
+	public static int glGetProgramBinary(int program, byte[] binary, int[] format){
+		GLES20.record("glGetProgramBinary", program);
+		final String sources = GLES20.getProgramSources(program);
+		if(!programBinaries || sources == null){
+			return -1;
+		}
+		final byte[] bytes = sources.getBytes();
+		System.arraycopy(bytes, 0, binary, 0, bytes.length);
+		format[0] = BINARY_FORMAT;
+		return bytes.length;
+	}
+
+	public static boolean glProgramBinary(int program, int format, byte[] binary, int length){
+		GLES20.record("glProgramBinary", program, format);
+		if(!programBinaries || format != BINARY_FORMAT){
+			return false;
+		}
+		GLES20.linkProgramSources(program, new String(binary, 0, length));
+		return true;
+	}
+
+	public static synchronized int glGenVertexArrayOES(){
+		GLES20.record("glGenVertexArrayOES");
+		return vertexArrays ? ++lastVertexArray : 0;
+	}
+
+	public static void glBindVertexArrayOES(int array){
+		GLES20.record("glBindVertexArrayOES", array);
+	}
+
+	public static void glDeleteVertexArrayOES(int array){
+		GLES20.record("glDeleteVertexArrayOES", array);
+	}
+}
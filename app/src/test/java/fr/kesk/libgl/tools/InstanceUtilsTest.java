@@ -0,0 +1,232 @@
+package fr.kesk.libgl.tools;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.FloatBuffer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import android.opengl.GLES20;
+import android.opengl.Matrix;
+import fr.kesk.libgl.GlAssets.Geometry;
+import fr.kesk.libgl.GlAssets.Geometry.Element;
+import fr.kesk.libgl.GlAssets.Material;
+import fr.kesk.libgl.GlAssets.Node;
+import fr.kesk.libgl.GlAssets.Node.GeometryInstance;
+import fr.kesk.libgl.GlAssets.Node.GeometryInstance.MaterialInstance;
+import fr.kesk.libgl.buffer.GlBuffer;
+import fr.kesk.libgl.pipeline.GlState;
+import fr.kesk.libgl.tools.InstanceUtils.InstanceGroup;
+
+/**
+ * InstanceUtils tests : groups building, batch size and batched draws counted on
+ * the recording GLES20
+ *
+ * @author Thomas MILLET
+ *
+ */
+public class InstanceUtilsTest {
+
+	/**
+	 * Number of vertices of test elements
+	 */
+	private static final int VERTICES = 6;
+
+	private static final int MODELS_HANDLE = 7;
+	private static final int POSITION_HANDLE = 1;
+	private static final int INSTANCE_HANDLE = 2;
+
+	@Before
+	public void setUp(){
+		GLES20.reset();
+		GLES20Utils.reset();
+		GlState.reset(640, 480);
+	}
+
+	/**
+	 * Create a local triangles element with normals before positions
+	 */
+	private static Element createElement(){
+		final float[] normals = new float[VERTICES * 3];
+		final float[] positions = new float[VERTICES * 3];
+		for(int index=0; index < positions.length; index++){
+			positions[index] = index;
+			normals[index] = -1f;
+		}
+		return new Element(Element.TRIANGLES, VERTICES, 0, 0, new int[][]{
+				{Element.NORMAL, 0, 3, 0},
+				{Element.POSITION, 0, 3, 12}}, new float[][]{normals, positions});
+	}
+
+	/**
+	 * Create a node translated along X with one geometry instance
+	 */
+	private static Node createNode(final int id, final Geometry geometry, final MaterialInstance[] materials){
+		final Node node = new Node(id, Node.NODE);
+		Matrix.setIdentityM(node.model, 0);
+		Matrix.translateM(node.model, 0, id, 0f, 0f);
+		node.geometryInstances = new GeometryInstance[]{new GeometryInstance(geometry, materials)};
+		return node;
+	}
+
+	/**
+	 * Create a group of count instances of geometry
+	 */
+	private static InstanceGroup createGroup(final Geometry geometry, final int count){
+		final InstanceGroup group = new InstanceGroup(geometry, null);
+		for(int index=0; index < count; index++){
+			group.add(createNode(index, geometry, null));
+		}
+		return group;
+	}
+
+	@Test
+	public void acceptComparesMaterialTargets(){
+		final Geometry geometry = new Geometry(0);
+		final Material material = new Material(0, 0);
+		final Material other = new Material(1, 0);
+		final InstanceGroup group = new InstanceGroup(geometry, new MaterialInstance[]{new MaterialInstance(0, material, null)});
+
+		//Other instances of the same target
+		assertTrue(group.accept(new GeometryInstance(geometry, new MaterialInstance[]{new MaterialInstance(1, material, null)})));
+		assertTrue(group.accept(new GeometryInstance(geometry, group.materials)));
+		//Other target, other count, no material or other geometry
+		assertFalse(group.accept(new GeometryInstance(geometry, new MaterialInstance[]{new MaterialInstance(0, other, null)})));
+		assertFalse(group.accept(new GeometryInstance(geometry, new MaterialInstance[]{new MaterialInstance(0, material, null), new MaterialInstance(1, material, null)})));
+		assertFalse(group.accept(new GeometryInstance(geometry, null)));
+		assertFalse(group.accept(new GeometryInstance(new Geometry(1), group.materials)));
+		assertTrue(new InstanceGroup(geometry, null).accept(new GeometryInstance(geometry, null)));
+	}
+
+	@Test
+	public void groupsShareGeometryAndMaterials(){
+		final Geometry geometry = new Geometry(0);
+		final Material material = new Material(0, 0);
+		final Material other = new Material(1, 0);
+		final Node root = new Node(0, Node.NODE);
+		final Node child = createNode(1, geometry, new MaterialInstance[]{new MaterialInstance(0, material, null)});
+		child.nodeInstances = new Node[]{
+				createNode(2, geometry, new MaterialInstance[]{new MaterialInstance(1, material, null)}),
+				createNode(3, geometry, new MaterialInstance[]{new MaterialInstance(0, other, null)}),
+				createNode(4, new Geometry(1), new MaterialInstance[]{new MaterialInstance(0, material, null)})};
+		root.nodeInstances = new Node[]{child};
+
+		final InstanceGroup[] groups = InstanceUtils.buildGroups(new Node[]{root});
+		assertEquals(3, groups.length);
+		assertEquals(2, groups[0].count);
+		assertSame(child, groups[0].nodes[0]);
+		assertSame(child.nodeInstances[0], groups[0].nodes[1]);
+		assertEquals(1, groups[1].count);
+		assertSame(other, groups[1].materials[0].target);
+		assertNotSame(geometry, groups[2].geometry);
+
+		//Models copied then updated
+		assertEquals(2f, groups[0].models[16 + 12], 0f);
+		child.nodeInstances[0].model[12] = 5f;
+		assertEquals(2f, groups[0].models[16 + 12], 0f);
+		groups[0].update();
+		assertEquals(5f, groups[0].models[16 + 12], 0f);
+	}
+
+	@Test
+	public void groupsGrow(){
+		final InstanceGroup group = createGroup(new Geometry(0), 100);
+		assertEquals(100, group.count);
+		for(int index=0; index < group.count; index++){
+			assertEquals(index, group.nodes[index].id);
+			assertEquals(index, group.models[(index << 4) + 12], 0f);
+		}
+	}
+
+	@Test
+	public void batchSizeIsClamped(){
+		assertEquals(32, InstanceUtils.getBatchSize(128, 0));
+		assertEquals(30, InstanceUtils.getBatchSize(128, 8));
+		//Uniform vectors left by reserved vectors rounded down
+		assertEquals(29, InstanceUtils.getBatchSize(128, 9));
+		assertEquals(InstanceUtils.MAX_BATCH_SIZE, InstanceUtils.getBatchSize(1024, 8));
+		assertEquals(1, InstanceUtils.getBatchSize(8, 8));
+		assertEquals(1, InstanceUtils.getBatchSize(8, 20));
+		assertEquals("#define " + InstanceUtils.BATCH_SIZE_DEFINE + " 29", InstanceUtils.getBatchSizeHeader(29));
+	}
+
+	@Test
+	public void instancedBufferReplicatesPositionsOnly(){
+		final Element element = createElement();
+		final GlBuffer<float[]> buffer = element.toInstancedGlBuffer(4);
+		assertEquals(2, buffer.chunks.length);
+		assertEquals(VERTICES * 4, buffer.count);
+		assertEquals(4 * GlBuffer.SIZEOF_JAVA_FLOAT, buffer.stride);
+		assertSame(buffer, element.toInstancedGlBuffer(4));
+
+		//Interleaved position and instance index
+		final FloatBuffer data = (FloatBuffer)buffer.data;
+		final float[] values = new float[VERTICES * 4 * 4];
+		data.position(0);
+		data.get(values);
+		for(int vIndex=0; vIndex < VERTICES * 4; vIndex++){
+			final int vertex = vIndex % VERTICES;
+			assertArrayEquals(new float[]{vertex * 3, vertex * 3 + 1, vertex * 3 + 2, vIndex / VERTICES},
+					new float[]{values[vIndex * 4], values[vIndex * 4 + 1], values[vIndex * 4 + 2], values[vIndex * 4 + 3]}, 0f);
+		}
+
+		//Other batch size
+		assertEquals(VERTICES * 2, element.toInstancedGlBuffer(2).count);
+
+		//Not replicated
+		assertNull(new Element(Element.TRIANGLES, VERTICES, 0, 0, new int[][]{{Element.POSITION, 0, 3, 0}}, 10).toInstancedGlBuffer(4));
+	}
+
+	@Test
+	public void drawGroupSplitsBatches(){
+		final Geometry geometry = new Geometry(0);
+		geometry.elements.add(createElement());
+		final InstanceGroup group = createGroup(geometry, 10);
+
+		InstanceUtils.drawGroup(group, 4, MODELS_HANDLE, POSITION_HANDLE, INSTANCE_HANDLE);
+		assertEquals(1, GLES20.count("glGenBuffers("));
+		assertEquals(3, GLES20.count("glDrawArrays("));
+		assertEquals(2, GLES20.count("glDrawArrays(" + GLES20.GL_TRIANGLES + ", 0, " + (VERTICES * 4) + ")"));
+		assertEquals(1, GLES20.count("glDrawArrays(" + GLES20.GL_TRIANGLES + ", 0, " + (VERTICES * 2) + ")"));
+		assertEquals(2, GLES20.count("glUniformMatrix4fv(" + MODELS_HANDLE + ", 4, false"));
+		assertEquals(1, GLES20.count("glUniformMatrix4fv(" + MODELS_HANDLE + ", 2, false"));
+		//Positions then instance indexes of the interleaved VBO
+		assertEquals(1, GLES20.count("glVertexAttribPointer(" + POSITION_HANDLE + ", 3, " + GLES20.GL_FLOAT + ", false, 16, 0)"));
+		assertEquals(1, GLES20.count("glVertexAttribPointer(" + INSTANCE_HANDLE + ", 1, " + GLES20.GL_FLOAT + ", false, 16, 12)"));
+
+		//VBO kept for next frames
+		GLES20.clearCalls();
+		InstanceUtils.drawGroup(group, 4, MODELS_HANDLE, POSITION_HANDLE, INSTANCE_HANDLE);
+		assertEquals(0, GLES20.count("glGenBuffers("));
+		assertEquals(3, GLES20.count("glDrawArrays("));
+
+		//Exact batches
+		GLES20.clearCalls();
+		InstanceUtils.drawGroup(group, 5, MODELS_HANDLE, POSITION_HANDLE, INSTANCE_HANDLE);
+		assertEquals(2, GLES20.count("glDrawArrays(" + GLES20.GL_TRIANGLES + ", 0, " + (VERTICES * 5) + ")"));
+		assertEquals(2, GLES20.count("glDrawArrays("));
+	}
+
+	@Test
+	public void drawGroupFallsBackOnOneDrawPerInstance(){
+		final Geometry geometry = new Geometry(0);
+		geometry.elements.add(new Element(Element.TRISTRIPS, VERTICES, 0, 0, new int[][]{
+				{Element.NORMAL, 0, 3, 0},
+				{Element.POSITION, 0, 3, 12}}, 10));
+		final InstanceGroup group = createGroup(geometry, 10);
+
+		InstanceUtils.drawGroup(group, 4, MODELS_HANDLE, POSITION_HANDLE, INSTANCE_HANDLE);
+		assertEquals(10, GLES20.count("glDrawArrays(" + Element.TRISTRIPS + ", 0, " + VERTICES + ")"));
+		assertEquals(10, GLES20.count("glUniformMatrix4fv(" + MODELS_HANDLE + ", 1, false"));
+		assertEquals(1, GLES20.count("glVertexAttribPointer(" + POSITION_HANDLE + ", 3, " + GLES20.GL_FLOAT + ", false, 24, 12)"));
+		assertEquals(1, GLES20.count("glVertexAttrib1f(" + INSTANCE_HANDLE + ", 0.0)"));
+		assertEquals(0, GLES20.count("glGenBuffers("));
+	}
+}
@@ -0,0 +1,142 @@
+package fr.kesk.libgl.tools;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Affine fast paths of MatrixUtils against the general 4x4 paths.
+ * <br/>
+ * <br/>
+ * The general inverse is a cofactors 4x4 inverse as in android.opengl.Matrix.invertM()
+ * (the JVM android.opengl.Matrix used by tests is a reference implementation, not a fast one).
+ * <br/>
+ * <br/>
+ * Run with fr.kesk.libgl.Benchmarks
+ *
+ * @author Thomas MILLET
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MatrixUtilsAffineBenchmark {
+
+	private float[] lhs;
+	private float[] rhs;
+	private final float[] result = new float[16];
+	private final float[] tmp = new float[16];
+
+	@Setup
+	public void setup(){
+		final Random random = new Random(1L);
+		this.lhs = MatrixUtilsTest.randomAffine(random);
+		this.rhs = MatrixUtilsTest.randomAffine(random);
+	}
+
+	@Benchmark
+	public float multiplyGeneral(){
+		MatrixUtils.multiplyMM(this.result, 0, this.lhs, 0, this.rhs, 0);
+		return this.result[0];
+	}
+
+	@Benchmark
+	public float multiplyAffine(){
+		MatrixUtils.multiplyAffineMM(this.result, 0, this.lhs, 0, this.rhs, 0);
+		return this.result[0];
+	}
+
+	@Benchmark
+	public float invertGeneral(){
+		invertGeneral(this.result, this.lhs);
+		return this.result[0];
+	}
+
+	@Benchmark
+	public float invertAffine(){
+		MatrixUtils.invertAffineM(this.result, 0, this.lhs, 0);
+		return this.result[0];
+	}
+
+	@Benchmark
+	public float normalGeneral(){
+		//Normal matrix as transpose of general inverse
+		invertGeneral(this.tmp, this.lhs);
+		MatrixUtils.transposeM(this.result, 0, this.tmp, 0);
+		return this.result[0];
+	}
+
+	@Benchmark
+	public float normalAffine(){
+		MatrixUtils.normalM(this.result, 0, this.lhs, 0);
+		return this.result[0];
+	}
+
+	@Benchmark
+	public float trsComposed(){
+		MatrixUtils.setIdentityM(this.result, 0);
+		MatrixUtils.translateM(this.result, 0, 1f, 2f, 3f);
+		MatrixUtils.rotateM(this.result, 0, 30f, 0f, 1f, 0f);
+		MatrixUtils.scaleM(this.result, 0, 1f, 2f, 3f);
+		return this.result[0];
+	}
+
+	@Benchmark
+	public float trsDirect(){
+		MatrixUtils.setTRSM(this.result, 0, 1f, 2f, 3f, 30f, 0f, 1f, 0f, 1f, 2f, 3f);
+		return this.result[0];
+	}
+
+	/**
+	 * General 4x4 inverse using cofactors
+	 */
+	private static boolean invertGeneral(final float[] inv, final float[] m){
+		final float a0 = m[0] * m[5] - m[1] * m[4];
+		final float a1 = m[0] * m[6] - m[2] * m[4];
+		final float a2 = m[0] * m[7] - m[3] * m[4];
+		final float a3 = m[1] * m[6] - m[2] * m[5];
+		final float a4 = m[1] * m[7] - m[3] * m[5];
+		final float a5 = m[2] * m[7] - m[3] * m[6];
+		final float b0 = m[8] * m[13] - m[9] * m[12];
+		final float b1 = m[8] * m[14] - m[10] * m[12];
+		final float b2 = m[8] * m[15] - m[11] * m[12];
+		final float b3 = m[9] * m[14] - m[10] * m[13];
+		final float b4 = m[9] * m[15] - m[11] * m[13];
+		final float b5 = m[10] * m[15] - m[11] * m[14];
+		final float det = a0 * b5 - a1 * b4 + a2 * b3 + a3 * b2 - a4 * b1 + a5 * b0;
+		if(det == 0f){
+			return false;
+		}
+		final float invDet = 1f / det;
+		inv[0] = (m[5] * b5 - m[6] * b4 + m[7] * b3) * invDet;
+		inv[1] = (-m[1] * b5 + m[2] * b4 - m[3] * b3) * invDet;
+		inv[2] = (m[13] * a5 - m[14] * a4 + m[15] * a3) * invDet;
+		inv[3] = (-m[9] * a5 + m[10] * a4 - m[11] * a3) * invDet;
+		inv[4] = (-m[4] * b5 + m[6] * b2 - m[7] * b1) * invDet;
+		inv[5] = (m[0] * b5 - m[2] * b2 + m[3] * b1) * invDet;
+		inv[6] = (-m[12] * a5 + m[14] * a2 - m[15] * a1) * invDet;
+		inv[7] = (m[8] * a5 - m[10] * a2 + m[11] * a1) * invDet;
+		inv[8] = (m[4] * b4 - m[5] * b2 + m[7] * b0) * invDet;
+		inv[9] = (-m[0] * b4 + m[1] * b2 - m[3] * b0) * invDet;
+		inv[10] = (m[12] * a4 - m[13] * a2 + m[15] * a0) * invDet;
+		inv[11] = (-m[8] * a4 + m[9] * a2 - m[11] * a0) * invDet;
+		inv[12] = (-m[4] * b3 + m[5] * b1 - m[6] * b0) * invDet;
+		inv[13] = (m[0] * b3 - m[1] * b1 + m[2] * b0) * invDet;
+		inv[14] = (-m[12] * a3 + m[13] * a1 - m[14] * a0) * invDet;
+		inv[15] = (m[8] * a3 - m[9] * a1 + m[10] * a0) * invDet;
+		return true;
+	}
+}
@@ -0,0 +1,171 @@
+package fr.kesk.libgl.tools;
+
+import java.nio.FloatBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Batch kernels of MatrixUtils against scalar loops of single operations.
+ * <br/>
+ * <br/>
+ * Run with fr.kesk.libgl.Benchmarks
+ *
+ * @author Thomas MILLET
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MatrixUtilsBatchBenchmark {
+
+	/**
+	 * Number of vectors, boxes or matrices pairs
+	 */
+	@Param({"4096"})
+	public int count;
+
+	private float[] matrix;
+	private float[] vectors;
+	private float[] points;
+	private float[] boxes;
+	private float[] lhs;
+	private float[] rhs;
+	private float[] result;
+	private FloatBuffer bufferVectors;
+	private FloatBuffer bufferResult;
+	private final float[] tmp = new float[8];
+
+	@Setup
+	public void setup(){
+		final Random random = new Random(1L);
+		this.matrix = MatrixUtilsTest.randomAffine(random);
+		this.vectors = MatrixUtilsTest.random(random, this.count << 2);
+		this.points = MatrixUtilsTest.random(random, this.count * 3);
+		this.boxes = MatrixUtilsTest.random(random, this.count * 6);
+		this.lhs = MatrixUtilsTest.random(random, this.count << 4);
+		this.rhs = MatrixUtilsTest.random(random, this.count << 4);
+		this.result = new float[this.count << 4];
+		this.bufferVectors = FloatBuffer.wrap(this.vectors.clone());
+		this.bufferResult = FloatBuffer.allocate(this.count << 2);
+	}
+
+	@Benchmark
+	public float mv4Scalar(){
+		for(int index=0, offset=0; index < this.count; index++, offset+=4){
+			MatrixUtils.multiplyMV(this.result, offset, this.matrix, 0, this.vectors, offset);
+		}
+		return this.result[0];
+	}
+
+	@Benchmark
+	public float mv4Batch(){
+		MatrixUtils.batchMultiplyMV4(this.result, 0, this.matrix, 0, this.vectors, 0, this.count);
+		return this.result[0];
+	}
+
+	@Benchmark
+	public float mv3Scalar(){
+		final float[] tmp = this.tmp;
+		for(int index=0, offset=0; index < this.count; index++, offset+=3){
+			tmp[0] = this.points[offset];
+			tmp[1] = this.points[offset + 1];
+			tmp[2] = this.points[offset + 2];
+			tmp[3] = 1f;
+			MatrixUtils.multiplyMV(tmp, 4, this.matrix, 0, tmp, 0);
+			this.result[offset] = tmp[4];
+			this.result[offset + 1] = tmp[5];
+			this.result[offset + 2] = tmp[6];
+		}
+		return this.result[0];
+	}
+
+	@Benchmark
+	public float mv3Batch(){
+		MatrixUtils.batchMultiplyMV3(this.result, 0, this.matrix, 0, this.points, 0, this.count);
+		return this.result[0];
+	}
+
+	@Benchmark
+	public float mv4BufferScalar(){
+		final float[] tmp = this.tmp;
+		for(int index=0, offset=0; index < this.count; index++, offset+=4){
+			this.bufferVectors.position(offset);
+			this.bufferVectors.get(tmp, 0, 4);
+			MatrixUtils.multiplyMV(tmp, 4, this.matrix, 0, tmp, 0);
+			this.bufferResult.position(offset);
+			this.bufferResult.put(tmp, 4, 4);
+		}
+		return this.bufferResult.get(0);
+	}
+
+	@Benchmark
+	public float mv4BufferBatch(){
+		MatrixUtils.batchMultiplyMV(this.bufferResult, 0, this.matrix, 0, this.bufferVectors, 0, 4, 4, this.count);
+		return this.bufferResult.get(0);
+	}
+
+	@Benchmark
+	public float mmScalar(){
+		for(int index=0, offset=0; index < this.count; index++, offset+=16){
+			MatrixUtils.multiplyMM(this.result, offset, this.lhs, offset, this.rhs, offset);
+		}
+		return this.result[0];
+	}
+
+	@Benchmark
+	public float mmBatch(){
+		MatrixUtils.batchMultiplyMM(this.result, 0, this.lhs, 0, this.rhs, 0, this.count);
+		return this.result[0];
+	}
+
+	@Benchmark
+	public float aabbScalar(){
+		//Transform the 8 corners of each box and keep min/max
+		final float[] tmp = this.tmp;
+		for(int index=0, offset=0; index < this.count; index++, offset+=6){
+			float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE, minZ = Float.MAX_VALUE;
+			float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE, maxZ = -Float.MAX_VALUE;
+			for(int corner=0; corner < 8; corner++){
+				tmp[0] = this.boxes[offset + (((corner & 1) == 0) ? 0 : 3)];
+				tmp[1] = this.boxes[offset + (((corner & 2) == 0) ? 1 : 4)];
+				tmp[2] = this.boxes[offset + (((corner & 4) == 0) ? 2 : 5)];
+				tmp[3] = 1f;
+				MatrixUtils.multiplyMV(tmp, 4, this.matrix, 0, tmp, 0);
+				minX = Math.min(minX, tmp[4]);
+				minY = Math.min(minY, tmp[5]);
+				minZ = Math.min(minZ, tmp[6]);
+				maxX = Math.max(maxX, tmp[4]);
+				maxY = Math.max(maxY, tmp[5]);
+				maxZ = Math.max(maxZ, tmp[6]);
+			}
+			this.result[offset] = minX;
+			this.result[offset + 1] = minY;
+			this.result[offset + 2] = minZ;
+			this.result[offset + 3] = maxX;
+			this.result[offset + 4] = maxY;
+			this.result[offset + 5] = maxZ;
+		}
+		return this.result[0];
+	}
+
+	@Benchmark
+	public float aabbBatch(){
+		MatrixUtils.batchMultiplyMAABB(this.result, 0, this.matrix, 0, this.boxes, 0, this.count);
+		return this.result[0];
+	}
+}
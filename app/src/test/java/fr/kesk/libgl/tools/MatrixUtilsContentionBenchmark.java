@@ -0,0 +1,98 @@
+package fr.kesk.libgl.tools;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Vector transforms and rotations from 4 threads : lock free MatrixUtils against
+ * the previous implementation synchronized on a shared static temporary matrix.
+ * <br/>
+ * <br/>
+ * Run with fr.kesk.libgl.Benchmarks
+ *
+ * @author Thomas MILLET
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class MatrixUtilsContentionBenchmark {
+
+	/**
+	 * Shared temporary matrix of the synchronized reference
+	 */
+	private final static float[] sTemp = new float[32];
+
+	/**
+	 * Per thread matrices and vectors
+	 */
+	private final float[] model = new float[]{1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1, 0, 1, 2, 3, 1};
+	private final float[] result = new float[16];
+	private final float[] vector = new float[]{1f, 2f, 3f, 1f};
+	private final float[] vectorResult = new float[4];
+
+	@Benchmark
+	public float multiplyMVLockFree(){
+		MatrixUtils.multiplyMV(this.vectorResult, 0, this.model, 0, this.vector, 0);
+		return this.vectorResult[0];
+	}
+
+	@Benchmark
+	public float multiplyMVSynchronized(){
+		multiplyMVSynchronized(this.vectorResult, 0, this.model, 0, this.vector, 0);
+		return this.vectorResult[0];
+	}
+
+	@Benchmark
+	public float rotateMLockFree(){
+		MatrixUtils.rotateM(this.result, 0, this.model, 0, 15f, 0f, 1f, 0f);
+		return this.result[0];
+	}
+
+	@Benchmark
+	public float rotateMSynchronized(){
+		rotateMSynchronized(this.result, 0, this.model, 0, 15f, 0f, 1f, 0f);
+		return this.result[0];
+	}
+
+	/**
+	 * Previous MatrixUtils.multiplyMV()
+	 */
+	private static void multiplyMVSynchronized(final float[] result, final int resultOffset, final float[] lhs, final int lhsOffset, final float[] rhs, final int rhsOffset){
+		synchronized(sTemp){
+			sTemp[0] = rhs[rhsOffset];
+			sTemp[1] = rhs[rhsOffset + 1];
+			sTemp[2] = rhs[rhsOffset + 2];
+			sTemp[3] = rhs[rhsOffset + 3];
+			System.arraycopy(lhs, lhsOffset, sTemp, 4, 16);
+			result[3 + resultOffset] = (sTemp[7] * sTemp[0]) + (sTemp[11] * sTemp[1]) + (sTemp[15] * sTemp[2]) + (sTemp[19] * sTemp[3]);
+			result[2 + resultOffset] = (sTemp[6] * sTemp[0]) + (sTemp[10] * sTemp[1]) + (sTemp[14] * sTemp[2]) + (sTemp[18] * sTemp[3]);
+			result[1 + resultOffset] = (sTemp[5] * sTemp[0]) + (sTemp[9] * sTemp[1]) + (sTemp[13] * sTemp[2]) + (sTemp[17] * sTemp[3]);
+			result[0 + resultOffset] = (sTemp[4] * sTemp[0]) + (sTemp[8] * sTemp[1]) + (sTemp[12] * sTemp[2]) + (sTemp[16] * sTemp[3]);
+		}
+	}
+
+	/**
+	 * Previous MatrixUtils.rotateM()
+	 */
+	private static void rotateMSynchronized(final float[] rm, final int rmOffset, final float[] m, final int mOffset, final float a, final float x, final float y, final float z){
+		synchronized(sTemp){
+			MatrixUtils.setRotateM(sTemp, 0, a, x, y, z);
+			MatrixUtils.multiplyMM(rm, rmOffset, m, mOffset, sTemp, 0);
+		}
+	}
+}
@@ -0,0 +1,324 @@
+package fr.kesk.libgl.tools;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.FloatBuffer;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import android.opengl.Matrix;
+
+/**
+ * MatrixUtils tests, results are checked against android.opengl.Matrix
+ *
+ * @author Thomas MILLET
+ *
+ */
+public class MatrixUtilsTest {
+
+	/**
+	 * Comparison tolerance
+	 */
+	private static final float EPSILON = 1e-5f;
+
+	/**
+	 * Number of threads used by reentrance tests
+	 */
+	private static final int THREADS = 4;
+
+	/**
+	 * Number of operations per thread used by reentrance tests
+	 */
+	private static final int ITERATIONS = 20000;
+
+	/**
+	 * Fill an array with random values in [-1, 1]
+	 */
+	static float[] random(final Random random, final int count){
+		final float[] values = new float[count];
+		for(int index=0; index < count; index++){
+			values[index] = random.nextFloat() * 2f - 1f;
+		}
+		return values;
+	}
+
+	/**
+	 * Build a random affine matrix
+	 */
+	static float[] randomAffine(final Random random){
+		final float[] m = new float[16];
+		MatrixUtils.setTRSM(m, 0, random.nextFloat() * 10f, random.nextFloat() * 10f, random.nextFloat() * 10f,
+				random.nextFloat() * 360f, random.nextFloat(), random.nextFloat(), 1f,
+				0.5f + random.nextFloat(), 0.5f + random.nextFloat(), 0.5f + random.nextFloat());
+		return m;
+	}
+
+	@Test
+	public void batchMultiplyMV4MatchesScalarLoop(){
+		final Random random = new Random(1L);
+		final float[] m = random(random, 16);
+		final float[] vectors = random(random, 4 * 101);
+		final float[] expected = new float[4 * 101];
+		final float[] actual = new float[4 * 101];
+		for(int index=0; index < 100; index++){
+			Matrix.multiplyMV(expected, 4 + (index << 2), m, 0, vectors, 4 + (index << 2));
+		}
+		MatrixUtils.batchMultiplyMV4(actual, 4, m, 0, vectors, 4, 100);
+		assertArrayEquals(expected, actual, EPSILON);
+
+		//In place, vectors before offset are untouched
+		System.arraycopy(vectors, 0, expected, 0, 4);
+		MatrixUtils.batchMultiplyMV4(vectors, 4, m, 0, vectors, 4, 100);
+		assertArrayEquals(expected, vectors, EPSILON);
+	}
+
+	@Test
+	public void batchMultiplyMV3MatchesScalarLoop(){
+		final Random random = new Random(2L);
+		final float[] m = random(random, 16);
+		final float[] points = random(random, 3 * 100);
+		final float[] expected = new float[3 * 100];
+		final float[] actual = new float[3 * 100];
+		final float[] point = new float[4];
+		for(int index=0; index < 100; index++){
+			System.arraycopy(points, index * 3, point, 0, 3);
+			point[3] = 1f;
+			Matrix.multiplyMV(point, 0, m, 0, point, 0);
+			System.arraycopy(point, 0, expected, index * 3, 3);
+		}
+		MatrixUtils.batchMultiplyMV3(actual, 0, m, 0, points, 0, 100);
+		assertArrayEquals(expected, actual, EPSILON);
+	}
+
+	@Test
+	public void batchMultiplyMVBufferUsesStrideAndKeepsPositions(){
+		final Random random = new Random(3L);
+		final float[] m = random(random, 16);
+		final int stride = 6;
+		final float[] values = random(random, stride * 50);
+		final FloatBuffer source = FloatBuffer.wrap(values.clone());
+		final FloatBuffer result = FloatBuffer.allocate(stride * 50);
+		source.position(7);
+		result.position(3);
+
+		MatrixUtils.batchMultiplyMV(result, 0, m, 0, source, 0, 4, stride, 50);
+		assertEquals(7, source.position());
+		assertEquals(3, result.position());
+		final float[] vector = new float[4];
+		for(int index=0; index < 50; index++){
+			Matrix.multiplyMV(vector, 0, m, 0, values, index * stride);
+			for(int i=0; i < 4; i++){
+				assertEquals(vector[i], result.get(index * stride + i), EPSILON);
+			}
+			//Padding untouched
+			assertEquals(0f, result.get(index * stride + 4), 0f);
+		}
+
+		MatrixUtils.batchMultiplyMV(result, 0, m, 0, source, 0, 3, stride, 50);
+		for(int index=0; index < 50; index++){
+			System.arraycopy(values, index * stride, vector, 0, 3);
+			vector[3] = 1f;
+			Matrix.multiplyMV(vector, 0, m, 0, vector, 0);
+			for(int i=0; i < 3; i++){
+				assertEquals(vector[i], result.get(index * stride + i), EPSILON);
+			}
+		}
+	}
+
+	@Test
+	public void batchMultiplyMMMatchesScalarLoop(){
+		final Random random = new Random(4L);
+		final float[] lhs = random(random, 16 * 20);
+		final float[] rhs = random(random, 16 * 20);
+		final float[] expected = new float[16 * 20];
+		final float[] actual = new float[16 * 20];
+		for(int index=0; index < 20; index++){
+			Matrix.multiplyMM(expected, index << 4, lhs, index << 4, rhs, index << 4);
+		}
+		MatrixUtils.batchMultiplyMM(actual, 0, lhs, 0, rhs, 0, 20);
+		assertArrayEquals(expected, actual, EPSILON);
+	}
+
+	@Test
+	public void batchMultiplyMAABBEnclosesTransformedCorners(){
+		final Random random = new Random(5L);
+		for(int test=0; test < 50; test++){
+			final float[] m = randomAffine(random);
+			final float[] box = random(random, 6);
+			for(int i=0; i < 3; i++){
+				if(box[i] > box[i + 3]){
+					final float tmp = box[i];
+					box[i] = box[i + 3];
+					box[i + 3] = tmp;
+				}
+			}
+			//Reference : bounds of the 8 transformed corners
+			final float[] expected = new float[]{Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE};
+			final float[] corner = new float[4];
+			for(int c=0; c < 8; c++){
+				corner[0] = box[((c & 1) == 0) ? 0 : 3];
+				corner[1] = box[((c & 2) == 0) ? 1 : 4];
+				corner[2] = box[((c & 4) == 0) ? 2 : 5];
+				corner[3] = 1f;
+				Matrix.multiplyMV(corner, 0, m, 0, corner, 0);
+				for(int i=0; i < 3; i++){
+					expected[i] = Math.min(expected[i], corner[i]);
+					expected[i + 3] = Math.max(expected[i + 3], corner[i]);
+				}
+			}
+			final float[] actual = new float[6];
+			MatrixUtils.batchMultiplyMAABB(actual, 0, m, 0, box, 0, 1);
+			assertArrayEquals(expected, actual, 1e-3f);
+		}
+	}
+
+	@Test
+	public void isAffineChecksLastRow(){
+		final float[] m = randomAffine(new Random(6L));
+		assertTrue(MatrixUtils.isAffineM(m, 0));
+		final float[] projection = new float[16];
+		MatrixUtils.perspectiveM(projection, 0, 45f, 1.5f, 0.1f, 100f);
+		assertFalse(MatrixUtils.isAffineM(projection, 0));
+		m[7] = 0.5f;
+		assertFalse(MatrixUtils.isAffineM(m, 0));
+	}
+
+	@Test
+	public void affineMultiplyMatchesGeneralPath(){
+		final Random random = new Random(7L);
+		for(int test=0; test < 100; test++){
+			final float[] lhs = randomAffine(random);
+			final float[] rhs = randomAffine(random);
+			final float[] expected = new float[16];
+			final float[] actual = new float[16];
+			Matrix.multiplyMM(expected, 0, lhs, 0, rhs, 0);
+			MatrixUtils.multiplyAffineMM(actual, 0, lhs, 0, rhs, 0);
+			assertArrayEquals(expected, actual, 1e-4f);
+			MatrixUtils.multiplyMM(actual, 0, lhs, 0, rhs, 0, true);
+			assertArrayEquals(expected, actual, 1e-4f);
+
+			//Result can be lhs or rhs
+			final float[] inPlace = rhs.clone();
+			MatrixUtils.multiplyAffineMM(inPlace, 0, lhs, 0, inPlace, 0);
+			assertArrayEquals(expected, inPlace, 1e-4f);
+			System.arraycopy(lhs, 0, inPlace, 0, 16);
+			MatrixUtils.multiplyAffineMM(inPlace, 0, inPlace, 0, rhs, 0);
+			assertArrayEquals(expected, inPlace, 1e-4f);
+		}
+	}
+
+	@Test
+	public void affineInverseMatchesGeneralInverse(){
+		final Random random = new Random(8L);
+		final float[] identity = new float[16];
+		MatrixUtils.setIdentityM(identity, 0);
+		for(int test=0; test < 100; test++){
+			final float[] m = randomAffine(random);
+			final float[] expected = new float[16];
+			final float[] actual = new float[16];
+			assertTrue(Matrix.invertM(expected, 0, m, 0));
+			assertTrue(MatrixUtils.invertAffineM(actual, 0, m, 0));
+			assertArrayEquals(expected, actual, 1e-4f);
+			final float[] product = new float[16];
+			Matrix.multiplyMM(product, 0, m, 0, actual, 0);
+			assertArrayEquals(identity, product, 1e-4f);
+
+			//In place
+			MatrixUtils.invertAffineM(m, 0, m, 0);
+			assertArrayEquals(expected, m, 1e-4f);
+		}
+	}
+
+	@Test
+	public void affineInverseRejectsSingularMatrix(){
+		final float[] m = new float[16];
+		MatrixUtils.setTRSM(m, 0, 1f, 2f, 3f, 0f, 0f, 0f, 1f, 1f, 0f, 1f);
+		assertFalse(MatrixUtils.invertAffineM(new float[16], 0, m, 0));
+		assertFalse(MatrixUtils.normalM(new float[9], 0, m, 0));
+	}
+
+	@Test
+	public void normalMatrixIsInverseTranspose(){
+		final Random random = new Random(9L);
+		for(int test=0; test < 100; test++){
+			final float[] m = randomAffine(random);
+			final float[] inverse = new float[16];
+			final float[] expected = new float[16];
+			Matrix.invertM(inverse, 0, m, 0);
+			Matrix.transposeM(expected, 0, inverse, 0);
+			final float[] normal = new float[9];
+			assertTrue(MatrixUtils.normalM(normal, 0, m, 0));
+			for(int col=0; col < 3; col++){
+				for(int row=0; row < 3; row++){
+					assertEquals(expected[(col << 2) + row], normal[col * 3 + row], 1e-4f);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void trsMatchesComposedTransforms(){
+		final Random random = new Random(10L);
+		for(int test=0; test < 100; test++){
+			final float tx = random.nextFloat() * 10f, ty = random.nextFloat() * 10f, tz = random.nextFloat() * 10f;
+			final float a = random.nextFloat() * 360f;
+			final float ax = random.nextFloat(), ay = random.nextFloat(), az = 1f;
+			final float sx = 0.5f + random.nextFloat(), sy = 0.5f + random.nextFloat(), sz = 0.5f + random.nextFloat();
+			final float[] expected = new float[16];
+			Matrix.setIdentityM(expected, 0);
+			Matrix.translateM(expected, 0, tx, ty, tz);
+			Matrix.rotateM(expected, 0, a, ax, ay, az);
+			Matrix.scaleM(expected, 0, sx, sy, sz);
+			final float[] actual = new float[16];
+			MatrixUtils.setTRSM(actual, 0, tx, ty, tz, a, ax, ay, az, sx, sy, sz);
+			assertArrayEquals(expected, actual, 1e-4f);
+			assertTrue(MatrixUtils.isAffineM(actual, 0));
+		}
+	}
+
+	@Test
+	public void rotateAndMultiplyMVAreReentrant() throws InterruptedException{
+		final CountDownLatch start = new CountDownLatch(1);
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		final Thread[] threads = new Thread[THREADS];
+		for(int index=0; index < THREADS; index++){
+			final float angle = 10f * (index + 1);
+			threads[index] = new Thread(){
+				@Override
+				public void run() {
+					try{
+						start.await();
+						final float[] expected = new float[20];
+						final float[] actual = new float[20];
+						final float[] model = new float[16];
+						final float[] vector = new float[]{1f, 2f, 3f, 1f};
+						MatrixUtils.setIdentityM(model, 0);
+						Matrix.translateM(model, 0, angle, 1f, 2f);
+						Matrix.rotateM(expected, 0, model, 0, angle, 0f, 1f, 0f);
+						Matrix.multiplyMV(expected, 16, expected, 0, vector, 0);
+						for(int iteration=0; iteration < ITERATIONS; iteration++){
+							MatrixUtils.rotateM(actual, 0, model, 0, angle, 0f, 1f, 0f);
+							MatrixUtils.multiplyMV(actual, 16, actual, 0, vector, 0);
+							assertArrayEquals(expected, actual, EPSILON);
+						}
+					}catch(Throwable t){
+						failure.compareAndSet(null, t);
+					}
+				}
+			};
+			threads[index].start();
+		}
+		start.countDown();
+		for(Thread thread : threads){
+			thread.join();
+		}
+		assertNull(String.valueOf(failure.get()), failure.get());
+	}
+}
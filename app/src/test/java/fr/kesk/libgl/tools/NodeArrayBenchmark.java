@@ -0,0 +1,101 @@
+package fr.kesk.libgl.tools;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fr.kesk.libgl.GlAssets.Node;
+
+/**
+ * Transformations propagation on a 50k nodes hierarchy : NodeArray linear pass
+ * against recursive multiplication of Node models (see NodeUtils.multiplyMN()).
+ * <br/>
+ * <br/>
+ * Run with fr.kesk.libgl.Benchmarks
+ *
+ * @author Thomas MILLET
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NodeArrayBenchmark {
+
+	/**
+	 * Number of nodes
+	 */
+	@Param({"50000"})
+	public int count;
+
+	/**
+	 * Subnodes per node
+	 */
+	@Param({"4"})
+	public int fanout;
+
+	/**
+	 * Hierarchy used by recursive propagation
+	 */
+	private Node root;
+
+	/**
+	 * Flattened hierarchy
+	 */
+	private NodeArray array;
+
+	/**
+	 * Transformation applied at each invocation
+	 */
+	private final float[] matrix = new float[16];
+
+	@Setup
+	public void setup(){
+		this.root = NodeArrayTest.createHierarchy(this.count, this.fanout, 1L);
+		this.array = new NodeArray(new Node[]{NodeArrayTest.createHierarchy(this.count, this.fanout, 1L)}, false);
+		MatrixUtils.setRotateM(this.matrix, 0, 0.1f, 0f, 1f, 0f);
+	}
+
+	/**
+	 * Transform the root, recursion through Node instances
+	 */
+	@Benchmark
+	public float recursive(){
+		multiplyRecursive(this.root, this.matrix);
+		return this.root.model[12];
+	}
+
+	/**
+	 * Transform the root, linear pass over contiguous matrices
+	 */
+	@Benchmark
+	public float linear(){
+		this.array.multiplyML(0, this.matrix, 0);
+		this.array.update();
+		return this.array.worlds[12];
+	}
+
+	/**
+	 * Same as NodeUtils.multiplyMN() (NodeUtils requires the native library)
+	 */
+	private static void multiplyRecursive(final Node node, final float[] matrix){
+		MatrixUtils.multiplyMM(node.model, 0, matrix, 0, node.model, 0);
+		if(node.nodeInstances != null){
+			for(Node subnode : node.nodeInstances){
+				multiplyRecursive(subnode, matrix);
+			}
+		}
+	}
+}
@@ -0,0 +1,226 @@
+package fr.kesk.libgl.tools;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import android.opengl.Matrix;
+import fr.kesk.libgl.GlAssets.Node;
+
+/**
+ * NodeArray tests, world matrices are checked against a recursive reference
+ * propagation (same algorithm as NodeUtils.prepareNode())
+ *
+ * @author Thomas MILLET
+ *
+ */
+public class NodeArrayTest {
+
+	/**
+	 * Comparison tolerance
+	 */
+	private static final float EPSILON = 1e-4f;
+
+	/**
+	 * Build a hierarchy of nodes with random TRS models (relative to parent)
+	 *
+	 * @param count The number of nodes
+	 * @param fanout The number of subnodes per node
+	 * @param seed The random seed
+	 * @return The root node
+	 */
+	public static Node createHierarchy(final int count, final int fanout, final long seed){
+		final Random random = new Random(seed);
+		final List<Node> nodes = new ArrayList<Node>(count);
+		for(int index=0; index < count; index++){
+			final Node node = new Node(index, Node.NODE);
+			Matrix.setIdentityM(node.model, 0);
+			Matrix.translateM(node.model, 0, random.nextFloat() * 2f - 1f, random.nextFloat() * 2f - 1f, random.nextFloat() * 2f - 1f);
+			Matrix.rotateM(node.model, 0, random.nextFloat() * 360f, random.nextFloat(), random.nextFloat(), 1f);
+			Matrix.scaleM(node.model, 0, 0.5f + random.nextFloat(), 0.5f + random.nextFloat(), 0.5f + random.nextFloat());
+			nodes.add(node);
+		}
+		//Breadth first links, node i has subnodes [i * fanout + 1, i * fanout + fanout]
+		for(int index=0; index < count; index++){
+			final int first = index * fanout + 1;
+			final int last = Math.min(first + fanout, count);
+			if(first < last){
+				final Node node = nodes.get(index);
+				node.nodeInstances = new Node[last - first];
+				for(int subIndex=first; subIndex < last; subIndex++){
+					node.nodeInstances[subIndex - first] = nodes.get(subIndex);
+				}
+			}
+		}
+		return nodes.get(0);
+	}
+
+	/**
+	 * Recursive reference, multiply models by parent models in place
+	 *
+	 * @param node The node to prepare
+	 * @param parentModel The parent world model, null for root
+	 */
+	public static void prepareRecursive(final Node node, final float[] parentModel){
+		if(parentModel != null){
+			Matrix.multiplyMM(node.model, 0, parentModel, 0, node.model, 0);
+		}
+		if(node.nodeInstances != null){
+			for(Node subnode : node.nodeInstances){
+				prepareRecursive(subnode, node.model);
+			}
+		}
+	}
+
+	/**
+	 * Copy local models of a hierarchy by node id
+	 */
+	private static float[] copyModels(final Node node, final float[] models){
+		System.arraycopy(node.model, 0, models, node.id << 4, 16);
+		if(node.nodeInstances != null){
+			for(Node subnode : node.nodeInstances){
+				copyModels(subnode, models);
+			}
+		}
+		return models;
+	}
+
+	/**
+	 * Check world matrices of an array against reference models stored by node id
+	 */
+	private static void assertWorlds(final NodeArray array, final float[] expected){
+		for(int index=0; index < array.size; index++){
+			final float[] actual = new float[16];
+			System.arraycopy(array.worlds, index << 4, actual, 0, 16);
+			final float[] reference = new float[16];
+			System.arraycopy(expected, array.nodes[index].id << 4, reference, 0, 16);
+			assertArrayEquals("node " + array.nodes[index].id, reference, actual, EPSILON);
+			assertArrayEquals("node model " + array.nodes[index].id, actual, array.nodes[index].model, 0f);
+		}
+	}
+
+	@Test
+	public void worldsMatchRecursivePropagation(){
+		final Node root = createHierarchy(500, 3, 1L);
+		final Node reference = createHierarchy(500, 3, 1L);
+		prepareRecursive(reference, null);
+
+		final NodeArray array = new NodeArray(new Node[]{root}, false);
+		assertEquals(500, array.size);
+		assertWorlds(array, copyModels(reference, new float[500 << 4]));
+	}
+
+	@Test
+	public void parentsComeBeforeChildrenAndSubtreesAreContiguous(){
+		final NodeArray array = new NodeArray(new Node[]{createHierarchy(200, 4, 2L), createHierarchy(50, 2, 3L)}, false);
+		assertEquals(NodeArray.NO_PARENT, array.parents[0]);
+		assertEquals(200, array.ends[0]);
+		assertEquals(NodeArray.NO_PARENT, array.parents[200]);
+		assertEquals(250, array.ends[200]);
+		for(int index=0; index < array.size; index++){
+			final int parent = array.parents[index];
+			if(parent != NodeArray.NO_PARENT){
+				assertTrue(parent < index);
+				assertTrue(index < array.ends[parent]);
+				assertTrue(array.ends[index] <= array.ends[parent]);
+			}
+		}
+	}
+
+	@Test
+	public void preparedNodesGiveBackLocals(){
+		final Node root = createHierarchy(100, 3, 4L);
+		final float[] locals = copyModels(root, new float[100 << 4]);
+		prepareRecursive(root, null);
+
+		final NodeArray array = new NodeArray(new Node[]{root}, true);
+		for(int index=0; index < array.size; index++){
+			final float[] actual = new float[16];
+			System.arraycopy(array.locals, index << 4, actual, 0, 16);
+			final float[] expected = new float[16];
+			System.arraycopy(locals, array.nodes[index].id << 4, expected, 0, 16);
+			assertArrayEquals(expected, actual, EPSILON);
+		}
+	}
+
+	@Test
+	public void updateOnlyRecomputesDirtySubtrees(){
+		final Node root = createHierarchy(100, 3, 5L);
+		final NodeArray array = new NodeArray(new Node[]{root}, false);
+		assertFalse(array.isDirty());
+
+		//Change a local matrix without invalidating, update() must not touch worlds
+		final int index = array.indexOf(root.nodeInstances[1]);
+		final float[] before = array.worlds.clone();
+		array.locals[(index << 4) + 12] += 1f;
+		array.update();
+		assertArrayEquals(before, array.worlds, 0f);
+
+		//Invalidate, only the subtree must change
+		array.invalidate(index);
+		assertTrue(array.isDirty());
+		array.update();
+		assertFalse(array.isDirty());
+		for(int nodeIndex=0; nodeIndex < array.size; nodeIndex++){
+			final boolean inSubtree = nodeIndex >= index && nodeIndex < array.ends[index];
+			boolean changed = false;
+			for(int i=0; i < 16; i++){
+				changed |= before[(nodeIndex << 4) + i] != array.worlds[(nodeIndex << 4) + i];
+			}
+			assertEquals("node " + nodeIndex, inSubtree, changed);
+		}
+	}
+
+	@Test
+	public void transformationsMatchRecursiveMultiplication(){
+		final Node root = createHierarchy(300, 4, 6L);
+		final Node reference = createHierarchy(300, 4, 6L);
+		prepareRecursive(reference, null);
+		final NodeArray array = new NodeArray(new Node[]{root}, false);
+
+		//Transform the second node of the first level, locals are in parent space
+		final Node node = root.nodeInstances[1];
+		final int index = array.indexOf(node);
+		array.translate(index, 1f, 2f, 3f);
+		array.rotate(index, 30f, 0f, 1f, 0f);
+		array.scale(index, 2f, 2f, 2f);
+		array.update();
+
+		//Reference : M = S * R * T, world' = parent * M * local = parent * M * parent^-1 * world
+		final float[] transform = new float[16];
+		Matrix.setIdentityM(transform, 0);
+		Matrix.translateM(transform, 0, 1f, 2f, 3f);
+		final float[] tmp = new float[16];
+		Matrix.setRotateM(tmp, 0, 30f, 0f, 1f, 0f);
+		Matrix.multiplyMM(transform, 0, tmp, 0, transform, 0);
+		Matrix.setIdentityM(tmp, 0);
+		Matrix.scaleM(tmp, 0, 2f, 2f, 2f);
+		Matrix.multiplyMM(transform, 0, tmp, 0, transform, 0);
+		final float[] inverseRoot = new float[16];
+		Matrix.invertM(inverseRoot, 0, reference.model, 0);
+		Matrix.multiplyMM(transform, 0, transform, 0, inverseRoot, 0);
+		Matrix.multiplyMM(transform, 0, reference.model, 0, transform, 0);
+		applyRecursive(reference.nodeInstances[1], transform);
+
+		assertWorlds(array, copyModels(reference, new float[300 << 4]));
+	}
+
+	/**
+	 * Recursive reference of NodeUtils.multiplyMN()
+	 */
+	private static void applyRecursive(final Node node, final float[] matrix){
+		Matrix.multiplyMM(node.model, 0, matrix, 0, node.model, 0);
+		if(node.nodeInstances != null){
+			for(Node subnode : node.nodeInstances){
+				applyRecursive(subnode, matrix);
+			}
+		}
+	}
+}
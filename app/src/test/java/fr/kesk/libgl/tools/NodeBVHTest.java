@@ -0,0 +1,437 @@
+package fr.kesk.libgl.tools;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import android.opengl.Matrix;
+import fr.kesk.libgl.GlAssets.Geometry;
+import fr.kesk.libgl.GlAssets.Node;
+import fr.kesk.libgl.GlAssets.Node.GeometryInstance;
+
+/**
+ * NodeBVH queries checked against brute force tests of all nodes, and NodeBVHUpdater
+ * double buffering using a controlled worker
+ *
+ * @author Thomas MILLET
+ *
+ */
+public class NodeBVHTest {
+
+	/**
+	 * Number of random queries of each kind
+	 */
+	private static final int QUERIES = 200;
+
+	/**
+	 * Half size of the scene
+	 */
+	private static final float EXTENT = 50f;
+
+	private Geometry cube;
+	private Geometry unknown;
+	private ExecutorService executor;
+
+	@Before
+	public void setUp(){
+		//Unit cube geometry and geometry with infinite (unknown) bounds
+		this.cube = new Geometry(0);
+		this.cube.elements.add(new Geometry.Element(0, 36, 0, 0, new int[][]{{0, 0, 3, 0}}, 0, BoundsUtilsTest.aabb(-1f, -1f, -1f, 1f, 1f, 1f)));
+		this.unknown = new Geometry(1);
+		this.unknown.elements.add(new Geometry.Element(0, 36, 0, 0, new int[][]{{0, 0, 3, 0}}, 0, null));
+		this.executor = Executors.newSingleThreadExecutor();
+	}
+
+	@After
+	public void tearDown(){
+		this.executor.shutdownNow();
+	}
+
+	/**
+	 * Create a root without geometry holding count nodes (some nested), one node out
+	 * of infiniteRatio has infinite bounds (none if 0)
+	 */
+	private Node createScene(final Random random, final int count, final int infiniteRatio){
+		final Node root = new Node(-1, Node.NODE);
+		final List<Node> children = new ArrayList<Node>();
+		Node parent = null;
+		for(int index=0; index < count; index++){
+			final Node node = new Node(index, Node.NODE);
+			final boolean infinite = infiniteRatio > 0 && index % infiniteRatio == infiniteRatio - 1;
+			node.geometryInstances = new GeometryInstance[]{new GeometryInstance(infinite ? this.unknown : this.cube, null)};
+			move(random, node);
+			//Every third node is a subnode of the previous root child
+			if(parent != null && index % 3 != 0){
+				parent.nodeInstances = parent.nodeInstances == null ? new Node[]{node} : append(parent.nodeInstances, node);
+			}
+			else{
+				children.add(node);
+				parent = node;
+			}
+		}
+		root.nodeInstances = children.toArray(new Node[children.size()]);
+		BoundsUtils.updateBounds(root);
+		return root;
+	}
+
+	/**
+	 * Append a node to an array
+	 */
+	private static Node[] append(final Node[] nodes, final Node node){
+		final Node[] result = new Node[nodes.length + 1];
+		System.arraycopy(nodes, 0, result, 0, nodes.length);
+		result[nodes.length] = node;
+		return result;
+	}
+
+	/**
+	 * Set a random world model
+	 */
+	private static void move(final Random random, final Node node){
+		Matrix.setIdentityM(node.model, 0);
+		Matrix.translateM(node.model, 0, randomCoordinate(random), randomCoordinate(random), randomCoordinate(random));
+		Matrix.rotateM(node.model, 0, random.nextFloat() * 360f, random.nextFloat(), random.nextFloat(), 1f);
+		Matrix.scaleM(node.model, 0, 0.2f + random.nextFloat() * 3f, 0.2f + random.nextFloat() * 3f, 0.2f + random.nextFloat() * 3f);
+	}
+
+	/**
+	 * Random coordinate in scene
+	 */
+	private static float randomCoordinate(final Random random){
+		return (random.nextFloat() * 2f - 1f) * EXTENT;
+	}
+
+	/**
+	 * Build a frustum at a random position looking at a random point
+	 */
+	private static Frustum randomFrustum(final Random random){
+		final float[] pMatrix = new float[16];
+		final float[] vMatrix = new float[16];
+		Matrix.perspectiveM(pMatrix, 0, 30f + random.nextFloat() * 60f, 1f + random.nextFloat(), 1f, 10f + random.nextFloat() * 100f);
+		Matrix.setLookAtM(vMatrix, 0, randomCoordinate(random), randomCoordinate(random), randomCoordinate(random),
+				randomCoordinate(random), randomCoordinate(random), randomCoordinate(random), 0f, 1f, 0f);
+		final Frustum frustum = new Frustum();
+		frustum.set(pMatrix, vMatrix);
+		return frustum;
+	}
+
+	/**
+	 * Check a query result against the expected nodes
+	 */
+	private static void assertNodes(final Set<Node> expected, final List<Node> result){
+		final Set<Node> actual = new HashSet<Node>(result);
+		assertEquals("duplicates", result.size(), actual.size());
+		assertEquals(expected, actual);
+	}
+
+	/**
+	 * Compare all queries kinds with brute force on nodes bounds
+	 */
+	private static void assertQueries(final Random random, final NodeBVH bvh){
+		final List<Node> result = new ArrayList<Node>();
+		final Set<Node> expected = new HashSet<Node>();
+		int hits = 0;
+
+		//Frustums
+		for(int query=0; query < QUERIES; query++){
+			final Frustum frustum = randomFrustum(random);
+			expected.clear();
+			for(Node node : bvh.nodes){
+				if(frustum.testAABB(node.bounds, 0) != Frustum.OUTSIDE){
+					expected.add(node);
+				}
+			}
+			result.clear();
+			bvh.query(frustum, result);
+			assertNodes(expected, result);
+			hits += expected.size();
+		}
+
+		//AABB
+		final float[] box = new float[6];
+		for(int query=0; query < QUERIES; query++){
+			for(int c=0; c < 3; c++){
+				box[c] = randomCoordinate(random);
+				box[3 + c] = box[c] + random.nextFloat() * 30f;
+			}
+			expected.clear();
+			for(Node node : bvh.nodes){
+				if(node.bounds[0] <= box[3] && node.bounds[3] >= box[0] && node.bounds[1] <= box[4] && node.bounds[4] >= box[1]
+						&& node.bounds[2] <= box[5] && node.bounds[5] >= box[2]){
+					expected.add(node);
+				}
+			}
+			result.clear();
+			bvh.query(box, 0, result);
+			assertNodes(expected, result);
+			hits += expected.size();
+		}
+
+		//Spheres
+		for(int query=0; query < QUERIES; query++){
+			final float x = randomCoordinate(random), y = randomCoordinate(random), z = randomCoordinate(random);
+			final float radius = random.nextFloat() * 20f;
+			expected.clear();
+			for(Node node : bvh.nodes){
+				final float dx = Math.max(node.bounds[0] - x, Math.max(0f, x - node.bounds[3]));
+				final float dy = Math.max(node.bounds[1] - y, Math.max(0f, y - node.bounds[4]));
+				final float dz = Math.max(node.bounds[2] - z, Math.max(0f, z - node.bounds[5]));
+				if(dx * dx + dy * dy + dz * dz <= radius * radius){
+					expected.add(node);
+				}
+			}
+			result.clear();
+			bvh.query(x, y, z, radius, result);
+			assertNodes(expected, result);
+			hits += expected.size();
+		}
+
+		//Rays, limited or not
+		final float[] ray = new float[7];
+		for(int query=0; query < QUERIES; query++){
+			for(int c=0; c < 3; c++){
+				ray[1 + c] = randomCoordinate(random) * 1.2f;
+				ray[4 + c] = random.nextFloat() * 2f - 1f;
+			}
+			final float maxDistance = (query & 1) == 0 ? Float.MAX_VALUE : random.nextFloat() * 50f;
+			expected.clear();
+			for(Node node : bvh.nodes){
+				if(NodeBVH.intersectRay(node.bounds, 0, ray[1], ray[2], ray[3], 1f / ray[4], 1f / ray[5], 1f / ray[6], maxDistance) >= 0f){
+					expected.add(node);
+				}
+			}
+			result.clear();
+			bvh.query(ray, 1, maxDistance, result);
+			assertNodes(expected, result);
+			hits += expected.size();
+		}
+		if(bvh.size > 10){
+			assertTrue(hits > 0);
+		}
+	}
+
+	/**
+	 * Check queries for a scene before and after refit and rebuild
+	 */
+	private void assertScene(final long seed, final int count, final int infiniteRatio){
+		final Random random = new Random(seed);
+		final Node root = this.createScene(random, count, infiniteRatio);
+		final NodeBVH bvh = new NodeBVH(NodeBVH.getNodes(new Node[]{root}));
+		assertEquals(count, bvh.size);
+		assertFalse(bvh.isBuilt());
+		bvh.readBounds();
+		bvh.build();
+		assertTrue(bvh.isBuilt());
+		assertQueries(random, bvh);
+
+		//Nodes moved, same topology
+		for(Node node : bvh.nodes){
+			if(random.nextInt(3) == 0){
+				move(random, node);
+			}
+		}
+		BoundsUtils.updateBounds(root);
+		bvh.readBounds();
+		bvh.refit();
+		assertQueries(random, bvh);
+
+		//All nodes moved
+		for(Node node : bvh.nodes){
+			move(random, node);
+		}
+		BoundsUtils.updateBounds(root);
+		bvh.readBounds();
+		bvh.refit();
+		assertQueries(random, bvh);
+		bvh.build();
+		assertQueries(random, bvh);
+	}
+
+	@Test
+	public void emptyTree(){
+		final NodeBVH bvh = new NodeBVH(NodeBVH.getNodes(new Node[]{new Node(0, Node.NODE)}));
+		assertEquals(0, bvh.size);
+		bvh.readBounds();
+		bvh.build();
+		bvh.refit();
+		assertQueries(new Random(1L), bvh);
+		final List<Node> result = new ArrayList<Node>();
+		bvh.query(new float[]{-Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE}, 0, result);
+		assertTrue(result.isEmpty());
+	}
+
+	@Test
+	public void queriesMatchBruteForce(){
+		assertScene(1L, 1, 0);
+		assertScene(2L, 2, 0);
+		assertScene(3L, NodeBVH.LEAF_SIZE + 1, 0);
+		assertScene(4L, 500, 0);
+	}
+
+	@Test
+	public void infiniteBoundsAreAlwaysCollected(){
+		assertScene(5L, 1, 1);
+		assertScene(6L, 500, 10);
+		assertScene(7L, 50, 1);
+
+		final Random random = new Random(8L);
+		final NodeBVH bvh = new NodeBVH(NodeBVH.getNodes(new Node[]{this.createScene(random, 100, 4)}));
+		bvh.readBounds();
+		bvh.build();
+		final List<Node> result = new ArrayList<Node>();
+		bvh.query(1000f, 1000f, 1000f, 1f, result);
+		assertEquals(25, result.size());
+		for(Node node : result){
+			assertTrue(BoundsUtils.isInfinite(node.bounds, 0));
+		}
+	}
+
+	/**
+	 * Block the worker until release is counted down
+	 */
+	private void blockWorker(final CountDownLatch release){
+		this.executor.submit(new Runnable() {
+			@Override
+			public void run() {
+				try{
+					release.await(5, TimeUnit.SECONDS);
+				}catch(InterruptedException ie){
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Wait for the end of the current update
+	 */
+	private static void awaitUpdate(final NodeBVHUpdater updater) throws InterruptedException{
+		final long timeout = System.currentTimeMillis() + 5000;
+		while(updater.isUpdating() && System.currentTimeMillis() < timeout){
+			Thread.sleep(1);
+		}
+		assertFalse(updater.isUpdating());
+	}
+
+	/**
+	 * Collect the nodes overlapping a point
+	 */
+	private static List<Node> queryPoint(final NodeBVH bvh, final float x, final float y, final float z){
+		final List<Node> result = new ArrayList<Node>();
+		bvh.query(x, y, z, 0f, result);
+		return result;
+	}
+
+	@Test
+	public void updaterSwapsTrees() throws InterruptedException{
+		final Random random = new Random(9L);
+		final Node root = this.createScene(random, 200, 0);
+		final NodeBVHUpdater updater = new NodeBVHUpdater(new Node[]{root}, this.executor);
+		final NodeBVH initial = updater.getFront();
+		assertTrue(initial.isBuilt());
+		assertQueries(random, initial);
+
+		//Move a node out of the scene while the worker is busy
+		final CountDownLatch release = new CountDownLatch(1);
+		this.blockWorker(release);
+		final Node moved = updater.nodes[7];
+		Matrix.setIdentityM(moved.model, 0);
+		Matrix.translateM(moved.model, 0, 1000f, 0f, 0f);
+		BoundsUtils.updateBounds(root);
+		assertTrue(updater.update(false));
+		assertTrue(updater.isUpdating());
+		assertFalse(updater.update(false));
+		assertFalse(updater.update(true));
+		assertSame(initial, updater.getFront());
+		assertTrue(queryPoint(initial, 1000f, 0f, 0f).isEmpty());
+
+		//Refitted tree swapped
+		release.countDown();
+		awaitUpdate(updater);
+		final NodeBVH refitted = updater.getFront();
+		assertNotSame(initial, refitted);
+		assertEquals(1, queryPoint(refitted, 1000f, 0f, 0f).size());
+		assertSame(moved, queryPoint(refitted, 1000f, 0f, 0f).get(0));
+		assertQueries(random, refitted);
+
+		//Next update refits the previous front
+		Matrix.translateM(moved.model, 0, 0f, 1000f, 0f);
+		BoundsUtils.updateBounds(root);
+		assertTrue(updater.update(false));
+		awaitUpdate(updater);
+		assertSame(initial, updater.getFront());
+		assertTrue(queryPoint(initial, 1000f, 0f, 0f).isEmpty());
+		assertSame(moved, queryPoint(initial, 1000f, 1000f, 0f).get(0));
+		assertQueries(random, initial);
+
+		//Rebuild
+		assertTrue(updater.update(true));
+		awaitUpdate(updater);
+		assertSame(refitted, updater.getFront());
+		assertQueries(random, refitted);
+		updater.free();
+		assertTrue(this.executor.isShutdown());
+	}
+
+	@Test
+	public void updaterRefitsNodeArrayTransforms() throws InterruptedException{
+		final Random random = new Random(10L);
+		final Node root = this.createScene(random, 60, 0);
+		//Models are local matrices, world matrices and bounds computed by NodeArray
+		final NodeArray array = new NodeArray(new Node[]{root}, false);
+		BoundsUtils.updateBounds(root);
+		final NodeBVHUpdater updater = new NodeBVHUpdater(new Node[]{root}, this.executor);
+		assertFalse(updater.update(array));
+
+		//Subnode translated, then its parent while the worker is busy
+		final int parentIndex = array.indexOf(root.nodeInstances[1]);
+		final int index = parentIndex + 1;
+		final Node node = array.nodes[index];
+		assertSame(root.nodeInstances[1].nodeInstances[0], node);
+		final CountDownLatch release = new CountDownLatch(1);
+		this.blockWorker(release);
+		array.translate(index, 2000f, 0f, 0f);
+		assertTrue(updater.update(array));
+		assertFalse(array.isDirty());
+		array.translate(parentIndex, 0f, 2000f, 0f);
+		assertFalse(updater.update(array));
+		assertFalse(array.isDirty());
+
+		//Bounds of moved subtree and ancestors tree bounds updated
+		final float x = node.model[12], y = node.model[13], z = node.model[14];
+		assertTrue(Math.abs(x) + Math.abs(y) + Math.abs(z) > 1000f);
+		assertTrue(node.bounds[0] <= x && node.bounds[3] >= x && node.bounds[1] <= y && node.bounds[4] >= y);
+		assertTrue(root.treeBounds[0] <= x && root.treeBounds[3] >= x && root.treeBounds[1] <= y && root.treeBounds[4] >= y);
+		final float[] expected = root.treeBounds.clone();
+		BoundsUtils.updateBounds(root);
+		for(int c=0; c < BoundsUtils.BOUNDS_SIZE; c++){
+			assertEquals(expected[c], root.treeBounds[c], 0f);
+		}
+
+		//Pending moves refitted once the worker is free
+		release.countDown();
+		awaitUpdate(updater);
+		assertTrue(queryPoint(updater.getFront(), x, y, z).isEmpty());
+		assertTrue(updater.update(array));
+		awaitUpdate(updater);
+		assertSame(node, queryPoint(updater.getFront(), x, y, z).get(0));
+		assertQueries(random, updater.getFront());
+		assertFalse(updater.update(array));
+	}
+}
@@ -0,0 +1,375 @@
+package fr.kesk.libgl.tools;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import android.opengl.Matrix;
+import fr.kesk.libgl.GlAssets.Geometry;
+import fr.kesk.libgl.GlAssets.Geometry.Element;
+import fr.kesk.libgl.GlAssets.Node;
+import fr.kesk.libgl.GlAssets.Node.GeometryInstance;
+
+/**
+ * Picker tests, hits are checked against a brute force intersection of all triangles
+ * in world space
+ *
+ * @author Thomas MILLET
+ *
+ */
+public class PickerTest {
+
+	/**
+	 * Number of random rays
+	 */
+	private static final int RAYS = 300;
+
+	/**
+	 * Create a local element from positions, normals before positions
+	 */
+	private static Element createElement(final int type, final float[] positions){
+		return new Element(type, positions.length / 3, 0, 0, new int[][]{
+				{Element.NORMAL, 0, 3, 0},
+				{Element.POSITION, 0, 3, 12}}, new float[][]{new float[positions.length], positions});
+	}
+
+	/**
+	 * Create a geometry with one element
+	 */
+	private static Geometry createGeometry(final Element element){
+		final Geometry geometry = new Geometry(0);
+		geometry.elements.add(element);
+		return geometry;
+	}
+
+	/**
+	 * Create a node with a geometry
+	 */
+	private static Node createNode(final int id, final Geometry geometry){
+		final Node node = new Node(id, Node.NODE);
+		node.geometryInstances = new GeometryInstance[]{new GeometryInstance(geometry, null)};
+		return node;
+	}
+
+	/**
+	 * Quad [-1, 1] on plane z = 0 as 2 triangles
+	 */
+	private static Element createQuad(){
+		return createElement(Element.TRIANGLES, new float[]{-1f, -1f, 0f, 1f, -1f, 0f, 1f, 1f, 0f, -1f, -1f, 0f, 1f, 1f, 0f, -1f, 1f, 0f});
+	}
+
+	/**
+	 * Get a world vertex of an element
+	 */
+	private static double[] worldVertex(final Node node, final float[] positions, final int vertex){
+		final float[] world = new float[4];
+		Matrix.multiplyMV(world, 0, node.model, 0, new float[]{positions[vertex * 3], positions[vertex * 3 + 1], positions[vertex * 3 + 2], 1f}, 0);
+		return new double[]{world[0], world[1], world[2]};
+	}
+
+	/**
+	 * Get the vertex of a triangle corner depending on element type
+	 */
+	private static int getVertex(final int type, final int triangle, final int corner){
+		switch(type){
+			case Element.TRIANGLES :
+				return triangle * 3 + corner;
+			case Element.TRISTRIPS :
+				return triangle + corner;
+			default :
+				return corner == 0 ? 0 : triangle + corner;
+		}
+	}
+
+	/**
+	 * World distance of a triangle hit by the picker ray, -1 if not hit
+	 */
+	private static double intersect(final Picker picker, final Node node, final Element element, final int triangle){
+		final double[] ray = new double[6];
+		for(int c=0; c < 6; c++){
+			ray[c] = picker.ray[c];
+		}
+		final float[] positions = element.getPositions();
+		return TriangleBVHTest.intersect(ray, worldVertex(node, positions, getVertex(element.type, triangle, 0)),
+				worldVertex(node, positions, getVertex(element.type, triangle, 1)), worldVertex(node, positions, getVertex(element.type, triangle, 2)));
+	}
+
+	/**
+	 * Set the picker ray from an origin toward a target
+	 */
+	private static void setRay(final Picker picker, final float ox, final float oy, final float oz, final float tx, final float ty, final float tz){
+		final float length = Matrix.length(tx - ox, ty - oy, tz - oz);
+		picker.ray[0] = ox;
+		picker.ray[1] = oy;
+		picker.ray[2] = oz;
+		picker.ray[3] = (tx - ox) / length;
+		picker.ray[4] = (ty - oy) / length;
+		picker.ray[5] = (tz - oz) / length;
+	}
+
+	/**
+	 * Check the hit point and its barycentric coordinates on the picked triangle
+	 */
+	private static void assertHit(final Picker picker, final float epsilon){
+		for(int c=0; c < 3; c++){
+			assertEquals(picker.ray[c] + picker.ray[3 + c] * picker.distance, picker.point[c], epsilon);
+		}
+		final float[] positions = picker.element.getPositions();
+		final int type = picker.element.type;
+		final double[] p0 = worldVertex(picker.node, positions, getVertex(type, picker.triangle, 0));
+		final double[] p1 = worldVertex(picker.node, positions, getVertex(type, picker.triangle, 1));
+		final double[] p2 = worldVertex(picker.node, positions, getVertex(type, picker.triangle, 2));
+		final float u = picker.barycentric[0], v = picker.barycentric[1];
+		assertTrue(u >= 0f && v >= 0f && u + v <= 1f);
+		for(int c=0; c < 3; c++){
+			assertEquals(picker.point[c], (1 - u - v) * p0[c] + u * p1[c] + v * p2[c], epsilon);
+		}
+	}
+
+	@Test
+	public void rayGoesThroughScreenPoint(){
+		final float[] pMatrix = new float[16];
+		final float[] vMatrix = new float[16];
+		final float[] vpMatrix = new float[16];
+		Matrix.perspectiveM(pMatrix, 0, 60f, 640f / 480f, 1f, 100f);
+		Matrix.setLookAtM(vMatrix, 0, 1f, 2f, 10f, 0f, 0f, 0f, 0f, 1f, 0f);
+		Matrix.multiplyMM(vpMatrix, 0, pMatrix, 0, vMatrix, 0);
+		final Picker picker = new Picker();
+		final float[][] pixels = new float[][]{{320f, 240f}, {0f, 0f}, {640f, 480f}, {100f, 400f}};
+		final float[] point = new float[4];
+		final float[] clip = new float[4];
+		for(float[] pixel : pixels){
+			assertTrue(picker.setRay(pMatrix, vMatrix, pixel[0], pixel[1], 640, 480));
+			assertEquals(1f, Matrix.length(picker.ray[3], picker.ray[4], picker.ray[5]), 1e-6f);
+			//Origin on near plane, all points of the ray on the pixel
+			for(float distance=0f; distance < 90f; distance+=10f){
+				point[0] = picker.ray[0] + picker.ray[3] * distance;
+				point[1] = picker.ray[1] + picker.ray[4] * distance;
+				point[2] = picker.ray[2] + picker.ray[5] * distance;
+				point[3] = 1f;
+				Matrix.multiplyMV(clip, 0, vpMatrix, 0, point, 0);
+				assertEquals(pixel[0], (clip[0] / clip[3] + 1f) * 320f, 1e-2f);
+				assertEquals(pixel[1], (1f - clip[1] / clip[3]) * 240f, 1e-2f);
+				if(distance == 0f){
+					assertEquals(-1f, clip[2] / clip[3], 1e-4f);
+				}
+			}
+		}
+		//Center of screen looks at target
+		picker.setRay(pMatrix, vMatrix, 320f, 240f, 640, 480);
+		final float length = Matrix.length(1f, 2f, 10f);
+		assertEquals(-1f / length, picker.ray[3], 1e-5f);
+		assertEquals(-2f / length, picker.ray[4], 1e-5f);
+		assertEquals(-10f / length, picker.ray[5], 1e-5f);
+
+		//Not invertible
+		assertFalse(picker.setRay(new float[16], vMatrix, 0f, 0f, 640, 480));
+	}
+
+	@Test
+	public void distancesAreInWorldSpace(){
+		final Picker picker = new Picker();
+		final Node node = createNode(0, createGeometry(createQuad()));
+
+		//Scaled quad
+		Matrix.setIdentityM(node.model, 0);
+		Matrix.translateM(node.model, 0, 0f, 0f, -5f);
+		Matrix.scaleM(node.model, 0, 3f, 2f, 4f);
+		BoundsUtils.updateBounds(node);
+		setRay(picker, 2.5f, 1.5f, 10f, 2.5f, 1.5f, 0f);
+		assertTrue(picker.pick(new Node[]{node}));
+		assertSame(node, picker.node);
+		assertEquals(15f, picker.distance, 1e-5f);
+		assertEquals(-5f, picker.point[2], 1e-5f);
+		assertHit(picker, 1e-5f);
+		//Outside of scaled quad
+		setRay(picker, 3.5f, 0f, 10f, 3.5f, 0f, 0f);
+		assertFalse(picker.pick(new Node[]{node}));
+		assertNull(picker.node);
+		assertEquals(-1, picker.triangle);
+
+		//Rotated and scaled quad, plane x = 5
+		Matrix.setIdentityM(node.model, 0);
+		Matrix.translateM(node.model, 0, 5f, 0f, 0f);
+		Matrix.rotateM(node.model, 0, 90f, 0f, 1f, 0f);
+		Matrix.scaleM(node.model, 0, 3f, 0.5f, 7f);
+		BoundsUtils.updateBounds(node);
+		setRay(picker, 20f, 0.25f, 2f, 0f, 0.25f, 2f);
+		assertTrue(picker.pick(new Node[]{node}));
+		assertEquals(15f, picker.distance, 1e-5f);
+		assertEquals(5f, picker.point[0], 1e-5f);
+		assertHit(picker, 1e-5f);
+		//Oblique ray
+		setRay(picker, 20f, 0.25f, 17f, 5f, 0.25f, 2f);
+		assertTrue(picker.pick(new Node[]{node}));
+		assertEquals(15f * (float)Math.sqrt(2), picker.distance, 1e-4f);
+		assertHit(picker, 1e-4f);
+	}
+
+	@Test
+	public void closestHitMatchesBruteForce(){
+		final Random random = new Random(1L);
+		final Element[] elements = new Element[]{
+				createElement(Element.TRIANGLES, TriangleBVHTest.randomTriangles(random, 100, 3)),
+				createElement(Element.TRISTRIPS, TriangleBVHTest.randomTriangles(random, 50, 3)),
+				createElement(Element.TRIFANS, TriangleBVHTest.randomTriangles(random, 50, 3))};
+		final Geometry[] geometries = new Geometry[]{createGeometry(elements[0]), createGeometry(elements[1]), new Geometry(2)};
+		geometries[2].elements.add(elements[2]);
+		geometries[2].elements.add(elements[0]);
+
+		//Nodes with rotated and non uniformly scaled models, every other node is nested
+		final Node root = new Node(-1, Node.NODE);
+		final int count = 20;
+		final Node[] nodes = new Node[count];
+		root.nodeInstances = new Node[count / 2];
+		for(int index=0; index < count; index++){
+			nodes[index] = createNode(index, geometries[index % geometries.length]);
+			Matrix.setIdentityM(nodes[index].model, 0);
+			Matrix.translateM(nodes[index].model, 0, random.nextFloat() * 60f - 30f, random.nextFloat() * 60f - 30f, random.nextFloat() * 60f - 30f);
+			Matrix.rotateM(nodes[index].model, 0, random.nextFloat() * 360f, random.nextFloat(), random.nextFloat(), 1f);
+			Matrix.scaleM(nodes[index].model, 0, 0.5f + random.nextFloat() * 2f, 0.5f + random.nextFloat() * 2f, 0.5f + random.nextFloat() * 2f);
+			if((index & 1) == 0){
+				root.nodeInstances[index >> 1] = nodes[index];
+			}
+			else{
+				nodes[index - 1].nodeInstances = new Node[]{nodes[index]};
+			}
+		}
+		BoundsUtils.updateBounds(root);
+		final NodeBVH nodeBVH = new NodeBVH(NodeBVH.getNodes(new Node[]{root}));
+		nodeBVH.readBounds();
+		nodeBVH.build();
+
+		final Picker picker = new Picker();
+		int hits = 0;
+		for(int index=0; index < RAYS; index++){
+			//Ray toward a node
+			final Node target = nodes[random.nextInt(count)];
+			setRay(picker, random.nextFloat() * 100f - 50f, random.nextFloat() * 100f - 50f, random.nextFloat() * 100f - 50f,
+					target.model[12] + random.nextFloat() * 10f - 5f, target.model[13] + random.nextFloat() * 10f - 5f, target.model[14] + random.nextFloat() * 10f - 5f);
+			double best = Double.MAX_VALUE;
+			for(Node node : nodes){
+				for(Element element : node.geometryInstances[0].geometry.elements){
+					final int triangles = element.type == Element.TRIANGLES ? element.count / 3 : element.count - 2;
+					for(int triangle=0; triangle < triangles; triangle++){
+						final double distance = intersect(picker, node, element, triangle);
+						if(distance >= 0 && distance < best){
+							best = distance;
+						}
+					}
+				}
+			}
+			if(!picker.pick(new Node[]{root})){
+				assertEquals(Double.MAX_VALUE, best, 0);
+				continue;
+			}
+			hits++;
+			assertEquals(best, picker.distance, 1e-3);
+			//Ties may pick another triangle at the same distance
+			assertEquals(best, intersect(picker, picker.node, picker.element, picker.triangle), 1e-3);
+			assertHit(picker, 1e-3f);
+
+			//Same hit using NodeBVH candidates
+			final Node node = picker.node;
+			final Element element = picker.element;
+			final int triangle = picker.triangle;
+			final float distance = picker.distance;
+			assertTrue(picker.pick(nodeBVH));
+			assertEquals(best, picker.distance, 1e-3);
+			assertSame(node, picker.node);
+			assertSame(element, picker.element);
+			assertEquals(triangle, picker.triangle);
+			assertEquals(distance, picker.distance, 0f);
+		}
+		assertTrue(hits > RAYS / 10);
+	}
+
+	@Test
+	public void vboElementsNeedPositions(){
+		final Picker picker = new Picker();
+		final float[] positions = createQuad().getPositions();
+		final Element withPositions = new Element(Element.TRIANGLES, 6, 0, 0, new int[][]{{Element.POSITION, 0, 3, 0}}, 10, null, positions);
+		final Element withoutPositions = new Element(Element.TRIANGLES, 6, 0, 0, new int[][]{{Element.POSITION, 0, 3, 0}}, 11);
+		assertNull(picker.getTriangleBVH(withoutPositions));
+		assertNotNull(picker.getTriangleBVH(withPositions));
+		assertSame(picker.getTriangleBVH(withPositions), picker.getTriangleBVH(withPositions));
+
+		//Element without positions in front is ignored
+		final Geometry geometry = new Geometry(0);
+		geometry.elements.add(withoutPositions);
+		geometry.elements.add(withPositions);
+		final Node node = createNode(0, geometry);
+		Matrix.setIdentityM(node.model, 0);
+		Matrix.scaleM(node.model, 0, 2f, 2f, 2f);
+		BoundsUtils.updateBounds(node);
+		setRay(picker, 0.5f, 0.5f, 10f, 0.5f, 0.5f, 0f);
+		assertTrue(picker.pick(new Node[]{node}));
+		assertSame(withPositions, picker.element);
+		assertEquals(10f, picker.distance, 1e-5f);
+
+		//Cache cleared
+		final TriangleBVH bvh = picker.getTriangleBVH(withPositions);
+		picker.clearCache();
+		assertTrue(bvh != picker.getTriangleBVH(withPositions));
+	}
+
+	/**
+	 * Bytes allocated by the current thread
+	 */
+	private static long getAllocatedBytes(){
+		return ((com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	@Test
+	public void repeatedPicksDoNotAllocate(){
+		Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+		final Random random = new Random(2L);
+		final Node root = new Node(-1, Node.NODE);
+		root.nodeInstances = new Node[10];
+		for(int index=0; index < root.nodeInstances.length; index++){
+			root.nodeInstances[index] = createNode(index, createGeometry(createElement(Element.TRIANGLES, TriangleBVHTest.randomTriangles(random, 200, 3))));
+			Matrix.setIdentityM(root.nodeInstances[index].model, 0);
+			Matrix.rotateM(root.nodeInstances[index].model, 0, index * 30f, 0f, 1f, 0f);
+		}
+		BoundsUtils.updateBounds(root);
+		final NodeBVH nodeBVH = new NodeBVH(NodeBVH.getNodes(new Node[]{root}));
+		nodeBVH.readBounds();
+		nodeBVH.build();
+		final Node[] rootNodes = new Node[]{root};
+		final float[] pMatrix = new float[16];
+		final float[] vMatrix = new float[16];
+		Matrix.perspectiveM(pMatrix, 0, 60f, 1f, 1f, 100f);
+		Matrix.setLookAtM(vMatrix, 0, 0f, 0f, 30f, 0f, 0f, 0f, 0f, 1f, 0f);
+
+		//Rays set once, the test Matrix.invertM allocates, trees built at first picks
+		final Picker picker = new Picker();
+		final float[] rays = new float[2000 * 6];
+		int hits = 0;
+		for(int iteration=0; iteration < 2000; iteration++){
+			picker.setRay(pMatrix, vMatrix, iteration % 100, iteration / 20, 100, 100);
+			System.arraycopy(picker.ray, 0, rays, iteration * 6, 6);
+			if(picker.pick(rootNodes)) hits++;
+			picker.pick(nodeBVH);
+		}
+		assertTrue(hits > 0);
+
+		final long overhead = -getAllocatedBytes() + getAllocatedBytes();
+		final long start = getAllocatedBytes();
+		for(int iteration=0; iteration < 2000; iteration++){
+			System.arraycopy(rays, iteration * 6, picker.ray, 0, 6);
+			picker.pick(rootNodes);
+			picker.pick(nodeBVH);
+		}
+		final long allocated = getAllocatedBytes() - start;
+		assertTrue("allocated " + allocated, allocated <= overhead);
+	}
+}
@@ -0,0 +1,282 @@
+package fr.kesk.libgl.tools;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import android.opengl.Matrix;
+
+/**
+ * ShadowUtils light frustum fitting tests
+ *
+ * @author Thomas MILLET
+ *
+ */
+public class ShadowUtilsTest {
+
+	/**
+	 * Comparison tolerance
+	 */
+	private static final float EPSILON = 1e-3f;
+
+	/**
+	 * Build a light view looking down -Y from (0, 50, 0)
+	 */
+	static float[] createLightView(){
+		final float[] lightView = new float[16];
+		Matrix.setLookAtM(lightView, 0, 0f, 50f, 0f, 0f, 0f, 0f, 0f, 0f, -1f);
+		return lightView;
+	}
+
+	/**
+	 * Get the view frustum corners of a camera at (0, 1, 0) looking at -Z
+	 */
+	static float[] createViewCorners(final float near, final float far){
+		final float[] pMatrix = new float[16];
+		final float[] vMatrix = new float[16];
+		final float[] vpMatrix = new float[16];
+		Matrix.perspectiveM(pMatrix, 0, 60f, 1f, near, far);
+		Matrix.setLookAtM(vMatrix, 0, 0f, 1f, 0f, 0f, 1f, -1f, 0f, 1f, 0f);
+		Matrix.multiplyMM(vpMatrix, 0, pMatrix, 0, vMatrix, 0);
+		final float[] corners = new float[ShadowUtils.CORNERS_SIZE];
+		assertTrue(ShadowUtils.getFrustumCorners(corners, 0, vpMatrix, 0));
+		return corners;
+	}
+
+	/**
+	 * Project a world point with light view and projection, returns NDC
+	 */
+	private static float[] project(final float[] projection, final float[] lightView, final float x, final float y, final float z){
+		final float[] lvp = new float[16];
+		final float[] result = new float[4];
+		Matrix.multiplyMM(lvp, 0, projection, 0, lightView, 0);
+		Matrix.multiplyMV(result, 0, lvp, 0, new float[]{x, y, z, 1f}, 0);
+		for(int c=0; c < 3; c++){
+			result[c] /= result[3];
+		}
+		return result;
+	}
+
+	/**
+	 * Check a point is in the NDC cube (with tolerance)
+	 */
+	private static void assertInNDC(final float[] ndc){
+		for(int c=0; c < 3; c++){
+			assertTrue("ndc[" + c + "]=" + ndc[c], ndc[c] >= -1f - EPSILON && ndc[c] <= 1f + EPSILON);
+		}
+	}
+
+	/**
+	 * Get [left, right, bottom, top, near, far] of an orthographic projection
+	 */
+	private static float[] getOrthoPlanes(final float[] m){
+		return new float[]{(-1f - m[12]) / m[0], (1f - m[12]) / m[0],
+				(-1f - m[13]) / m[5], (1f - m[13]) / m[5],
+				(1f + m[14]) / m[10], (m[14] - 1f) / m[10]};
+	}
+
+	@Test
+	public void frustumCornersOfPerspective(){
+		final float[] corners = createViewCorners(1f, 10f);
+		final float halfNear = (float)Math.tan(Math.toRadians(30));
+		//Near corners first, counter clockwise from bottom left
+		assertArrayEquals(new float[]{-halfNear, 1f - halfNear, -1f}, new float[]{corners[0], corners[1], corners[2]}, EPSILON);
+		assertArrayEquals(new float[]{halfNear, 1f + halfNear, -1f}, new float[]{corners[6], corners[7], corners[8]}, EPSILON);
+		assertArrayEquals(new float[]{-halfNear * 10f, 1f - halfNear * 10f, -10f}, new float[]{corners[12], corners[13], corners[14]}, 1e-2f);
+		assertArrayEquals(new float[]{halfNear * 10f, 1f + halfNear * 10f, -10f}, new float[]{corners[18], corners[19], corners[20]}, 1e-2f);
+
+		//Singular matrix
+		assertFalse(ShadowUtils.getFrustumCorners(corners, 0, new float[16], 0));
+	}
+
+	@Test
+	public void depthRangeOfProjections(){
+		final float[] m = new float[16];
+		final float[] range = new float[3];
+		Matrix.perspectiveM(m, 0, 45f, 1.5f, 0.5f, 250f);
+		ShadowUtils.getDepthRange(range, 1, m, 0);
+		assertEquals(0.5f, range[1], 1e-4f);
+		assertEquals(250f, range[2], 0.1f);
+
+		Matrix.orthoM(m, 0, -1f, 1f, -1f, 1f, -5f, 30f);
+		ShadowUtils.getDepthRange(range, 0, m, 0);
+		assertEquals(-5f, range[0], 1e-4f);
+		assertEquals(30f, range[1], 1e-4f);
+	}
+
+	@Test
+	public void fitOrthoOnCastersOnly(){
+		final Random random = new Random(1L);
+		final float[] lightView = createLightView();
+		final float[] m = new float[16];
+		for(int test=0; test < 50; test++){
+			final float x = random.nextFloat() * 20f - 10f;
+			final float z = random.nextFloat() * 20f - 10f;
+			final float[] bounds = BoundsUtilsTest.aabb(x, 0f, z, x + 1f + random.nextFloat() * 5f, random.nextFloat() * 10f, z + 1f + random.nextFloat() * 5f);
+			assertTrue(ShadowUtils.fitOrthoM(m, 0, lightView, 0, bounds, 0, null, 0, 0));
+			final float[] corners = BoundsUtilsTest.corners(bounds, 0);
+			for(int corner=0; corner < 8; corner++){
+				assertInNDC(project(m, lightView, corners[corner * 4], corners[corner * 4 + 1], corners[corner * 4 + 2]));
+			}
+			//Tight fit : planes are casters bounds in light view plus margin
+			final float[] planes = getOrthoPlanes(m);
+			assertEquals(x, planes[0], EPSILON);
+			assertEquals(bounds[BoundsUtils.MAX], planes[1], EPSILON);
+			assertEquals(50f - bounds[BoundsUtils.MAX + 1] - 0.01f, planes[4], EPSILON);
+			assertEquals(50f + 0.01f, planes[5], EPSILON);
+		}
+	}
+
+	@Test
+	public void fitOrthoRejectsEmptyOrInfiniteCasters(){
+		final float[] lightView = createLightView();
+		final float[] m = new float[16];
+		final float[] bounds = new float[BoundsUtils.BOUNDS_SIZE];
+		BoundsUtils.setEmpty(bounds, 0);
+		assertFalse(ShadowUtils.fitOrthoM(m, 0, lightView, 0, bounds, 0, null, 0, 0));
+		BoundsUtils.setInfinite(bounds, 0);
+		assertFalse(ShadowUtils.fitOrthoM(m, 0, lightView, 0, bounds, 0, null, 0, 0));
+		assertFalse(ShadowUtils.fitPerspectiveM(m, 0, 90f, lightView, 0, bounds, 0, 0.1f));
+		assertArrayEquals(new float[16], m, 0f);
+	}
+
+	@Test
+	public void fitOrthoClipsCastersToReceivers(){
+		final float[] lightView = createLightView();
+		final float[] m = new float[16];
+		final float[] viewCorners = createViewCorners(1f, 10f);
+		//Large ground (under receivers) and a tall caster between light and view frustum
+		final float[] bounds = BoundsUtilsTest.aabb(-100f, -10f, -100f, 100f, 40f, 100f);
+		assertTrue(ShadowUtils.fitOrthoM(m, 0, lightView, 0, bounds, 0, viewCorners, 0, 0));
+
+		final float[] planes = getOrthoPlanes(m);
+		//XY fitted to receivers, not to the whole ground
+		assertTrue(planes[1] - planes[0] < 20f);
+		assertTrue(planes[3] - planes[2] < 20f);
+		for(int corner=0; corner < 8; corner++){
+			final float[] ndc = project(m, lightView, viewCorners[corner * 3], viewCorners[corner * 3 + 1], viewCorners[corner * 3 + 2]);
+			assertTrue(Math.abs(ndc[0]) <= 1f + EPSILON && Math.abs(ndc[1]) <= 1f + EPSILON);
+		}
+		//Near is kept on casters (top at 40 -> 10 from light), far is clipped to the lowest receiver
+		assertEquals(10f - 0.01f, planes[4], EPSILON);
+		float lowest = Float.MAX_VALUE;
+		for(int corner=0; corner < 8; corner++){
+			lowest = Math.min(lowest, viewCorners[corner * 3 + 1]);
+		}
+		assertEquals(50f - lowest + 0.01f, planes[5], 1e-2f);
+
+		//Disjoint receivers, fitted on casters
+		final float[] farBounds = BoundsUtilsTest.aabb(500f, 0f, 500f, 510f, 5f, 510f);
+		assertTrue(ShadowUtils.fitOrthoM(m, 0, lightView, 0, farBounds, 0, viewCorners, 0, 0));
+		assertEquals(500f, getOrthoPlanes(m)[0], EPSILON);
+		assertEquals(510f, getOrthoPlanes(m)[1], EPSILON);
+	}
+
+	@Test
+	public void fitOrthoSnapsOnTexels(){
+		final float[] lightView = createLightView();
+		final float[] m = new float[16];
+		final int size = 256;
+		final Random random = new Random(2L);
+		for(int test=0; test < 50; test++){
+			final float x = random.nextFloat() * 20f - 10f;
+			final float z = random.nextFloat() * 20f - 10f;
+			final float width = 1f + random.nextFloat() * 10f;
+			final float[] bounds = BoundsUtilsTest.aabb(x, 0f, z, x + width, 1f, z + width);
+			assertTrue(ShadowUtils.fitOrthoM(m, 0, lightView, 0, bounds, 0, null, 0, size));
+			final float[] planes = getOrthoPlanes(m);
+			final float unit = width / size;
+			//Snapped bounds enclose casters with at most one texel per side
+			assertTrue(planes[0] <= x + EPSILON && planes[0] > x - unit - EPSILON);
+			assertTrue(planes[1] >= x + width - EPSILON && planes[1] < x + width + unit + EPSILON);
+			//Left plane is a multiple of texel size
+			final float texels = planes[0] / unit;
+			assertEquals(Math.round(texels), texels, 1e-2f);
+		}
+	}
+
+	@Test
+	public void fitPerspectiveOnCastersDepth(){
+		final float[] lightView = createLightView();
+		final float[] m = new float[16];
+		final float[] range = new float[2];
+		final float[] bounds = BoundsUtilsTest.aabb(-5f, 0f, -5f, 5f, 20f, 5f);
+		assertTrue(ShadowUtils.fitPerspectiveM(m, 0, 90f, lightView, 0, bounds, 0, 0.5f));
+		ShadowUtils.getDepthRange(range, 0, m, 0);
+		assertEquals(30f, range[0], 1e-2f);
+		assertEquals(50.01f, range[1], 1e-2f);
+
+		//Casters around light, near is clamped
+		final float[] around = BoundsUtilsTest.aabb(-5f, 0f, -5f, 5f, 60f, 5f);
+		assertTrue(ShadowUtils.fitPerspectiveM(m, 0, 90f, lightView, 0, around, 0, 0.5f));
+		ShadowUtils.getDepthRange(range, 0, m, 0);
+		assertEquals(0.5f, range[0], 1e-3f);
+
+		//Casters behind light
+		final float[] behind = BoundsUtilsTest.aabb(-5f, 60f, -5f, 5f, 70f, 5f);
+		assertFalse(ShadowUtils.fitPerspectiveM(m, 0, 90f, lightView, 0, behind, 0, 0.5f));
+	}
+
+	@Test
+	public void splitsBlendLogarithmicAndUniform(){
+		final float[] splits = new float[6];
+		ShadowUtils.computeSplits(splits, 1, 4, 1f, 100f, 0f);
+		assertArrayEquals(new float[]{0f, 1f, 25.75f, 50.5f, 75.25f, 100f}, splits, EPSILON);
+		ShadowUtils.computeSplits(splits, 1, 4, 1f, 100f, 1f);
+		assertArrayEquals(new float[]{0f, 1f, (float)Math.sqrt(10), 10f, (float)Math.pow(10, 1.5), 100f}, splits, EPSILON);
+		ShadowUtils.computeSplits(splits, 0, 2, 1f, 100f, 0.5f);
+		assertEquals(1f, splits[0], 0f);
+		assertEquals(0.5f * 10f + 0.5f * 50.5f, splits[1], EPSILON);
+		assertEquals(100f, splits[2], 0f);
+		//Single cascade covers the whole range
+		ShadowUtils.computeSplits(splits, 0, 1, 0.5f, 50f, 0.5f);
+		assertEquals(0.5f, splits[0], 0f);
+		assertEquals(50f, splits[1], 0f);
+	}
+
+	@Test
+	public void splitCornersAreOnFrustumEdges(){
+		final float[] corners = createViewCorners(1f, 10f);
+		final float[] split = new float[ShadowUtils.CORNERS_SIZE];
+		ShadowUtils.getSplitCorners(split, 0, corners, 0, 1f, 10f, 1f, 10f);
+		assertArrayEquals(corners, split, EPSILON);
+
+		ShadowUtils.getSplitCorners(split, 0, corners, 0, 1f, 10f, 2.5f, 4f);
+		final float halfTan = (float)Math.tan(Math.toRadians(30));
+		for(int corner=0; corner < 4; corner++){
+			//View looks at -Z from (0, 1, 0)
+			assertEquals(-2.5f, split[corner * 3 + 2], EPSILON);
+			assertEquals(-4f, split[12 + corner * 3 + 2], EPSILON);
+			assertEquals(2.5f * halfTan, Math.abs(split[corner * 3]), EPSILON);
+			assertEquals(4f * halfTan, Math.abs(split[12 + corner * 3 + 1] - 1f), EPSILON);
+		}
+	}
+
+	@Test
+	public void atlasMatricesMapTiles(){
+		final float[] m = new float[16];
+		final float[] uv = new float[4];
+		for(int tiles=1; tiles <= 2; tiles++){
+			for(int tile=0; tile < tiles * tiles; tile++){
+				ShadowUtils.setAtlasM(m, 0, tile, tiles);
+				final float size = 1f / tiles;
+				final float x = (tile % tiles) * size;
+				final float y = (tile / tiles) * size;
+				//[0,1] corners map to tile corners, depth is kept
+				Matrix.multiplyMV(uv, 0, m, 0, new float[]{0f, 0f, 0.25f, 1f}, 0);
+				assertArrayEquals(new float[]{x, y, 0.25f, 1f}, uv, 1e-6f);
+				Matrix.multiplyMV(uv, 0, m, 0, new float[]{1f, 1f, 0.75f, 1f}, 0);
+				assertArrayEquals(new float[]{x + size, y + size, 0.75f, 1f}, uv, 1e-6f);
+			}
+		}
+		//Tiles of a 2x2 atlas, row major from bottom left
+		ShadowUtils.setAtlasM(m, 0, 3, 2);
+		Matrix.multiplyMV(uv, 0, m, 0, new float[]{0.5f, 0.5f, 0f, 1f}, 0);
+		assertArrayEquals(new float[]{0.75f, 0.75f, 0f, 1f}, uv, 1e-6f);
+	}
+}
@@ -0,0 +1,207 @@
+package fr.kesk.libgl.tools;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import android.opengl.Matrix;
+
+/**
+ * TransformUtils tests, matrices are checked against android.opengl.Matrix
+ *
+ * @author Thomas MILLET
+ *
+ */
+public class TransformUtilsTest {
+
+	/**
+	 * Comparison tolerance
+	 */
+	private static final float EPSILON = 4e-6f;
+
+	/**
+	 * Number of random transforms per test
+	 */
+	private static final int ITERATIONS = 1000;
+
+	/**
+	 * Build a random transform, scale is uniform if specified
+	 */
+	private static float[] randomT(final Random random, final boolean uniformScale){
+		final float[] t = new float[TransformUtils.TRS_SIZE];
+		t[TransformUtils.TRANSLATE] = random.nextFloat() * 2f - 1f;
+		t[TransformUtils.TRANSLATE + 1] = random.nextFloat() * 2f - 1f;
+		t[TransformUtils.TRANSLATE + 2] = random.nextFloat() * 2f - 1f;
+		TransformUtils.setRotateQ(t, TransformUtils.ROTATE, random.nextFloat() * 360f,
+				random.nextFloat() * 2f - 1f, random.nextFloat() * 2f - 1f, random.nextFloat() * 2f - 1f);
+		t[TransformUtils.SCALE] = 0.5f + random.nextFloat();
+		t[TransformUtils.SCALE + 1] = uniformScale ? t[TransformUtils.SCALE] : 0.5f + random.nextFloat();
+		t[TransformUtils.SCALE + 2] = uniformScale ? t[TransformUtils.SCALE] : 0.5f + random.nextFloat();
+		return t;
+	}
+
+	/**
+	 * Compare quaternions, q and -q being the same rotation
+	 */
+	private static void assertRotationEquals(final float[] expected, final int expectedOffset, final float[] actual, final int actualOffset, final float epsilon){
+		final float sign = expected[expectedOffset] * actual[actualOffset] + expected[expectedOffset + 1] * actual[actualOffset + 1]
+				+ expected[expectedOffset + 2] * actual[actualOffset + 2] + expected[expectedOffset + 3] * actual[actualOffset + 3] < 0f ? -1f : 1f;
+		for(int index=0; index < 4; index++){
+			assertEquals(expected[expectedOffset + index], sign * actual[actualOffset + index], epsilon);
+		}
+	}
+
+	@Test
+	public void matrixMatchesTranslateRotateScale(){
+		final float[] t = new float[TransformUtils.TRS_SIZE];
+		TransformUtils.setIdentityT(t, 0);
+		t[TransformUtils.TRANSLATE] = 1f;
+		t[TransformUtils.TRANSLATE + 1] = -2f;
+		t[TransformUtils.TRANSLATE + 2] = 3f;
+		TransformUtils.setRotateQ(t, TransformUtils.ROTATE, 30f, 1f, 2f, 3f);
+		t[TransformUtils.SCALE] = 2f;
+		t[TransformUtils.SCALE + 2] = 0.5f;
+		final float[] m = new float[16];
+		TransformUtils.toMatrixT(m, 0, t, 0);
+
+		final float[] expected = new float[16];
+		Matrix.setIdentityM(expected, 0);
+		Matrix.translateM(expected, 0, 1f, -2f, 3f);
+		Matrix.rotateM(expected, 0, 30f, 1f, 2f, 3f);
+		Matrix.scaleM(expected, 0, 2f, 1f, 0.5f);
+		assertArrayEquals(expected, m, EPSILON);
+
+		//Identity
+		TransformUtils.setIdentityT(t, 0);
+		TransformUtils.toMatrixT(m, 0, t, 0);
+		Matrix.setIdentityM(expected, 0);
+		assertArrayEquals(expected, m, 0f);
+	}
+
+	@Test
+	public void matrixRoundTrip(){
+		final Random random = new Random(1L);
+		final float[] m = new float[16];
+		final float[] result = new float[TransformUtils.TRS_SIZE + 2];
+		final float[] resultM = new float[16];
+		for(int iteration=0; iteration < ITERATIONS; iteration++){
+			final float[] t = randomT(random, false);
+			TransformUtils.toMatrixT(m, 0, t, 0);
+			TransformUtils.fromMatrixT(result, 2, m, 0);
+			for(int index=0; index < 3; index++){
+				assertEquals(t[TransformUtils.TRANSLATE + index], result[2 + TransformUtils.TRANSLATE + index], 0f);
+				assertEquals(t[TransformUtils.SCALE + index], result[2 + TransformUtils.SCALE + index], EPSILON);
+			}
+			assertRotationEquals(t, TransformUtils.ROTATE, result, 2 + TransformUtils.ROTATE, 1e-4f);
+			TransformUtils.toMatrixT(resultM, 0, result, 2);
+			assertArrayEquals(m, resultM, 1e-5f);
+		}
+
+		//Rotations of PI hitting each branch of the decomposition
+		final float[][] axes = new float[][]{{1f, 0f, 0f}, {0f, 1f, 0f}, {0f, 0f, 1f}};
+		for(float[] axis : axes){
+			final float[] t = new float[TransformUtils.TRS_SIZE];
+			TransformUtils.setIdentityT(t, 0);
+			TransformUtils.setRotateQ(t, TransformUtils.ROTATE, 180f, axis[0], axis[1], axis[2]);
+			TransformUtils.toMatrixT(m, 0, t, 0);
+			TransformUtils.fromMatrixT(result, 0, m, 0);
+			assertRotationEquals(t, TransformUtils.ROTATE, result, TransformUtils.ROTATE, 1e-6f);
+		}
+	}
+
+	@Test
+	public void multiplyMatchesMatrices(){
+		final Random random = new Random(2L);
+		final float[] lhsM = new float[16];
+		final float[] rhsM = new float[16];
+		final float[] expected = new float[16];
+		final float[] result = new float[TransformUtils.TRS_SIZE];
+		final float[] resultM = new float[16];
+		for(int iteration=0; iteration < ITERATIONS; iteration++){
+			//Uniform scale for parent only
+			final float[] lhs = randomT(random, true);
+			final float[] rhs = randomT(random, false);
+			TransformUtils.toMatrixT(lhsM, 0, lhs, 0);
+			TransformUtils.toMatrixT(rhsM, 0, rhs, 0);
+			Matrix.multiplyMM(expected, 0, lhsM, 0, rhsM, 0);
+			TransformUtils.multiplyTT(result, 0, lhs, 0, rhs, 0);
+			TransformUtils.toMatrixT(resultM, 0, result, 0);
+			assertArrayEquals(expected, resultM, EPSILON);
+
+			//In place
+			TransformUtils.multiplyTT(rhs, 0, lhs, 0, rhs, 0);
+			assertArrayEquals(result, rhs, 0f);
+			TransformUtils.multiplyTT(lhs, 0, lhs, 0, result, 0);
+			TransformUtils.toMatrixT(resultM, 0, lhs, 0);
+			Matrix.multiplyMM(rhsM, 0, lhsM, 0, expected, 0);
+			assertArrayEquals(rhsM, resultM, 1e-5f);
+		}
+	}
+
+	@Test
+	public void slerpEndpoints(){
+		final Random random = new Random(3L);
+		final float[] q = new float[4];
+		for(int iteration=0; iteration < ITERATIONS; iteration++){
+			final float[] from = randomT(random, true);
+			final float[] to = randomT(random, true);
+			TransformUtils.slerpQ(q, 0, from, TransformUtils.ROTATE, to, TransformUtils.ROTATE, 0f);
+			assertArrayEquals(new float[]{from[3], from[4], from[5], from[6]}, q, EPSILON);
+			//Shortest path, -to may be returned
+			TransformUtils.slerpQ(q, 0, from, TransformUtils.ROTATE, to, TransformUtils.ROTATE, 1f);
+			assertRotationEquals(to, TransformUtils.ROTATE, q, 0, EPSILON);
+			assertEquals(1f, q[0] * q[0] + q[1] * q[1] + q[2] * q[2] + q[3] * q[3], EPSILON);
+		}
+
+		//Constant angular velocity around an axis
+		final float[] from = new float[4];
+		final float[] to = new float[4];
+		final float[] expected = new float[4];
+		TransformUtils.setRotateQ(from, 0, 10f, 0f, 1f, 0f);
+		TransformUtils.setRotateQ(to, 0, 130f, 0f, 1f, 0f);
+		for(int step=0; step <= 10; step++){
+			TransformUtils.slerpQ(q, 0, from, 0, to, 0, step / 10f);
+			TransformUtils.setRotateQ(expected, 0, 10f + 12f * step, 0f, 1f, 0f);
+			assertArrayEquals(expected, q, EPSILON);
+		}
+	}
+
+	@Test
+	public void slerpFallsBackOnNlerpForCloseRotations(){
+		final float[] from = new float[4];
+		final float[] to = new float[4];
+		final float[] q = new float[4];
+		final float[] nlerp = new float[4];
+		final float[] expected = new float[4];
+		TransformUtils.setRotateQ(from, 0, 20f, 1f, 1f, 0f);
+
+		//Dot of quaternions is cos(angle / 2), threshold 0.9995 is reached at about 3.62 degrees
+		final float[] angles = new float[]{0f, 1f, 3f, 3.5f, 3.7f, 4f, 10f};
+		for(float angle : angles){
+			TransformUtils.setRotateQ(to, 0, 20f + angle, 1f, 1f, 0f);
+			for(int step=0; step <= 4; step++){
+				final float alpha = step / 4f;
+				TransformUtils.slerpQ(q, 0, from, 0, to, 0, alpha);
+				TransformUtils.nlerpQ(nlerp, 0, from, 0, to, 0, alpha);
+				if(angle < 3.6f){
+					assertArrayEquals(nlerp, q, 0f);
+				}
+				//Both sides of the threshold stay on the exact rotation
+				TransformUtils.setRotateQ(expected, 0, 20f + angle * alpha, 1f, 1f, 0f);
+				assertArrayEquals(expected, q, 1e-6f);
+				assertEquals(1f, q[0] * q[0] + q[1] * q[1] + q[2] * q[2] + q[3] * q[3], 1e-6f);
+			}
+		}
+
+		//Same rotation in both hemispheres
+		TransformUtils.setRotateQ(to, 0, 20f, 1f, 1f, 0f);
+		for(int index=0; index < 4; index++){
+			to[index] = -to[index];
+		}
+		TransformUtils.slerpQ(q, 0, from, 0, to, 0, 0.5f);
+		assertArrayEquals(from, q, 1e-6f);
+	}
+}
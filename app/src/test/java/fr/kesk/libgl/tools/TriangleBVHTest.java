@@ -0,0 +1,259 @@
+package fr.kesk.libgl.tools;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import fr.kesk.libgl.GlAssets.Geometry.Element;
+
+/**
+ * TriangleBVH tests, closest hits are checked against a brute force intersection of
+ * all triangles
+ *
+ * @author Thomas MILLET
+ *
+ */
+public class TriangleBVHTest {
+
+	/**
+	 * Number of random rays
+	 */
+	private static final int RAYS = 500;
+
+	/**
+	 * Reference ray/triangle intersection in double precision (both faces)
+	 *
+	 * @return The distance along the ray in direction length unit, -1 if not hit
+	 */
+	static double intersect(final double[] ray, final double[] p0, final double[] p1, final double[] p2){
+		final double[] e1 = new double[]{p1[0] - p0[0], p1[1] - p0[1], p1[2] - p0[2]};
+		final double[] e2 = new double[]{p2[0] - p0[0], p2[1] - p0[1], p2[2] - p0[2]};
+		final double[] p = cross(ray[3], ray[4], ray[5], e2);
+		final double det = e1[0] * p[0] + e1[1] * p[1] + e1[2] * p[2];
+		if(det == 0){
+			return -1;
+		}
+		final double[] t = new double[]{ray[0] - p0[0], ray[1] - p0[1], ray[2] - p0[2]};
+		final double u = (t[0] * p[0] + t[1] * p[1] + t[2] * p[2]) / det;
+		final double[] q = cross(t[0], t[1], t[2], e1);
+		final double v = (ray[3] * q[0] + ray[4] * q[1] + ray[5] * q[2]) / det;
+		if(u < 0 || v < 0 || u + v > 1){
+			return -1;
+		}
+		final double distance = (e2[0] * q[0] + e2[1] * q[1] + e2[2] * q[2]) / det;
+		return distance < 0 ? -1 : distance;
+	}
+
+	/**
+	 * Cross product
+	 */
+	private static double[] cross(final double x, final double y, final double z, final double[] v){
+		return new double[]{y * v[2] - z * v[1], z * v[0] - x * v[2], x * v[1] - y * v[0]};
+	}
+
+	/**
+	 * Get a vertex as double values
+	 */
+	static double[] vertex(final float[] positions, final int components, final int vertex){
+		return new double[]{positions[vertex * components], positions[vertex * components + 1], positions[vertex * components + 2]};
+	}
+
+	/**
+	 * Random triangles soup in [-10, 10], components per vertex
+	 */
+	static float[] randomTriangles(final Random random, final int triangles, final int components){
+		final float[] positions = new float[triangles * 3 * components];
+		for(int triangle=0; triangle < triangles; triangle++){
+			final float cx = random.nextFloat() * 20f - 10f, cy = random.nextFloat() * 20f - 10f, cz = random.nextFloat() * 20f - 10f;
+			for(int vertex=0; vertex < 3; vertex++){
+				final int offset = (triangle * 3 + vertex) * components;
+				positions[offset] = cx + random.nextFloat() * 2f - 1f;
+				positions[offset + 1] = cy + random.nextFloat() * 2f - 1f;
+				positions[offset + 2] = cz + random.nextFloat() * 2f - 1f;
+				if(components > 3){
+					positions[offset + 3] = 1f;
+				}
+			}
+		}
+		return positions;
+	}
+
+	/**
+	 * Vertical ray hitting the local point (x, y, 0) from z = 1
+	 */
+	private static int intersectAt(final TriangleBVH bvh, final float x, final float y, final float[] hit){
+		return bvh.intersect(new float[]{x, y, 1f, 0f, 0f, -1f}, 0, Float.MAX_VALUE, hit, 0);
+	}
+
+	@Test
+	public void mollerTrumboreHits(){
+		final TriangleBVH bvh = new TriangleBVH(new float[]{0f, 0f, 0f, 1f, 0f, 0f, 0f, 1f, 0f}, 3, Element.TRIANGLES, 3);
+		assertEquals(1, bvh.size);
+		final float[] hit = new float[1 + TriangleBVH.HIT_SIZE];
+
+		//Distance in direction length unit and barycentrics
+		assertEquals(0, bvh.intersect(new float[]{0.25f, 0.5f, 2f, 0f, 0f, -2f}, 0, Float.MAX_VALUE, hit, 1));
+		assertEquals(1f, hit[1 + TriangleBVH.DISTANCE], 1e-6f);
+		assertEquals(0.25f, hit[1 + TriangleBVH.U], 1e-6f);
+		assertEquals(0.5f, hit[1 + TriangleBVH.V], 1e-6f);
+
+		//Back face
+		assertEquals(0, bvh.intersect(new float[]{0.1f, 0.1f, -3f, 0f, 0f, 1f}, 0, Float.MAX_VALUE, hit, 0));
+		assertEquals(3f, hit[TriangleBVH.DISTANCE], 1e-6f);
+
+		//Oblique
+		assertEquals(0, bvh.intersect(new float[]{-1f, 0f, 1f, 1.25f, 0.25f, -1f}, 0, Float.MAX_VALUE, hit, 0));
+		assertEquals(1f, hit[TriangleBVH.DISTANCE], 1e-6f);
+		assertEquals(0.25f, hit[TriangleBVH.U], 1e-6f);
+		assertEquals(0.25f, hit[TriangleBVH.V], 1e-6f);
+
+		//Outside edges, behind origin, beyond max distance and parallel
+		assertEquals(-1, intersectAt(bvh, 0.6f, 0.6f, hit));
+		assertEquals(-1, intersectAt(bvh, -0.1f, 0.5f, hit));
+		assertEquals(-1, bvh.intersect(new float[]{0.25f, 0.25f, -1f, 0f, 0f, -1f}, 0, Float.MAX_VALUE, hit, 0));
+		assertEquals(-1, bvh.intersect(new float[]{0.25f, 0.25f, 2f, 0f, 0f, -1f}, 0, 1.5f, hit, 0));
+		assertEquals(-1, bvh.intersect(new float[]{-1f, 0.25f, 0f, 1f, 0f, 0f}, 0, Float.MAX_VALUE, hit, 0));
+
+		final float[] bounds = new float[6];
+		bvh.getBounds(bounds, 0);
+		assertEquals(0f, bounds[0], 0f);
+		assertEquals(1f, bounds[3], 0f);
+		assertEquals(1f, bounds[4], 0f);
+		assertEquals(0f, bounds[5], 0f);
+	}
+
+	@Test
+	public void trianglesAreIndexedByType(){
+		final float[] hit = new float[TriangleBVH.HIT_SIZE];
+
+		//Strip along X : vertex k at (k / 2, k % 2), triangle i is (i, i + 1, i + 2)
+		final int stripVertices = 41;
+		final float[] strip = new float[stripVertices * 3];
+		for(int vertex=0; vertex < stripVertices; vertex++){
+			strip[vertex * 3] = vertex >> 1;
+			strip[vertex * 3 + 1] = vertex & 1;
+		}
+		TriangleBVH bvh = new TriangleBVH(strip, 3, Element.TRISTRIPS, stripVertices);
+		assertEquals(stripVertices - 2, bvh.size);
+		for(int triangle=0; triangle < bvh.size; triangle++){
+			//Centroid of triangle
+			final float x = (strip[triangle * 3] + strip[triangle * 3 + 3] + strip[triangle * 3 + 6]) / 3f;
+			final float y = (strip[triangle * 3 + 1] + strip[triangle * 3 + 4] + strip[triangle * 3 + 7]) / 3f;
+			assertEquals(triangle, intersectAt(bvh, x, y, hit));
+		}
+
+		//Same vertices as triangles list : one triangle every 3 vertices
+		bvh = new TriangleBVH(strip, 3, Element.TRIANGLES, stripVertices - 2);
+		assertEquals(13, bvh.size);
+		assertEquals(1, intersectAt(bvh, (strip[9] + strip[12] + strip[15]) / 3f, (strip[10] + strip[13] + strip[16]) / 3f, hit));
+
+		//Fan around origin : triangle i is (0, i + 1, i + 2)
+		final int fanTriangles = 30;
+		final float[] fan = new float[(fanTriangles + 2) * 3];
+		for(int vertex=1; vertex < fanTriangles + 2; vertex++){
+			final double angle = Math.PI * 1.5 * (vertex - 1) / fanTriangles;
+			fan[vertex * 3] = (float)Math.cos(angle);
+			fan[vertex * 3 + 1] = (float)Math.sin(angle);
+		}
+		bvh = new TriangleBVH(fan, 3, Element.TRIFANS, fanTriangles + 2);
+		assertEquals(fanTriangles, bvh.size);
+		for(int triangle=0; triangle < fanTriangles; triangle++){
+			final double angle = Math.PI * 1.5 * (triangle + 0.5) / fanTriangles;
+			assertEquals(triangle, intersectAt(bvh, (float)Math.cos(angle) * 0.5f, (float)Math.sin(angle) * 0.5f, hit));
+		}
+		//Not covered by the fan
+		assertEquals(-1, intersectAt(bvh, 0.5f, -0.2f, hit));
+
+		//No triangles
+		assertEquals(0, new TriangleBVH(fan, 3, Element.LINES, fanTriangles + 2).size);
+		assertEquals(-1, intersectAt(new TriangleBVH(fan, 3, Element.LINES, fanTriangles + 2), 0.5f, 0.5f, hit));
+		assertEquals(0, new TriangleBVH(fan, 3, Element.TRISTRIPS, 2).size);
+		assertEquals(-1, intersectAt(new TriangleBVH(fan, 3, Element.TRIANGLES, 2), 0.5f, 0.5f, hit));
+	}
+
+	@Test
+	public void closestHitMatchesBruteForce(){
+		final Random random = new Random(1L);
+		for(int components=3; components <= 4; components++){
+			final int triangles = 1000;
+			final float[] positions = randomTriangles(random, triangles, components);
+			final TriangleBVH bvh = new TriangleBVH(positions, components, Element.TRIANGLES, triangles * 3);
+			final float[] ray = new float[6];
+			final double[] rayD = new double[6];
+			final float[] hit = new float[TriangleBVH.HIT_SIZE];
+			int hits = 0;
+			for(int index=0; index < RAYS; index++){
+				for(int c=0; c < 3; c++){
+					ray[c] = random.nextFloat() * 30f - 15f;
+					ray[3 + c] = random.nextFloat() * 2f - 1f;
+				}
+				for(int c=0; c < 6; c++){
+					rayD[c] = ray[c];
+				}
+				final float maxDistance = (index & 1) == 0 ? Float.MAX_VALUE : random.nextFloat() * 10f;
+				double best = maxDistance;
+				int expected = -1;
+				for(int triangle=0; triangle < triangles; triangle++){
+					final double distance = intersect(rayD, vertex(positions, components, triangle * 3),
+							vertex(positions, components, triangle * 3 + 1), vertex(positions, components, triangle * 3 + 2));
+					if(distance >= 0 && distance < best){
+						best = distance;
+						expected = triangle;
+					}
+				}
+				final int triangle = bvh.intersect(ray, 0, maxDistance, hit, 0);
+				if(expected < 0){
+					assertEquals(-1, triangle);
+					continue;
+				}
+				hits++;
+				assertTrue(triangle >= 0);
+				assertEquals(best, hit[TriangleBVH.DISTANCE], 1e-4);
+				//Same triangle or equivalent hit of a triangle at the same distance
+				if(triangle != expected){
+					assertEquals(best, intersect(rayD, vertex(positions, components, triangle * 3),
+							vertex(positions, components, triangle * 3 + 1), vertex(positions, components, triangle * 3 + 2)), 1e-4);
+				}
+				//Barycentrics give the hit point
+				final double[] p0 = vertex(positions, components, triangle * 3);
+				final double[] p1 = vertex(positions, components, triangle * 3 + 1);
+				final double[] p2 = vertex(positions, components, triangle * 3 + 2);
+				final float u = hit[TriangleBVH.U], v = hit[TriangleBVH.V];
+				for(int c=0; c < 3; c++){
+					assertEquals(ray[c] + ray[3 + c] * hit[TriangleBVH.DISTANCE], (1 - u - v) * p0[c] + u * p1[c] + v * p2[c], 1e-3);
+				}
+			}
+			assertTrue(hits > RAYS / 10);
+		}
+	}
+
+	@Test
+	public void elementsPositions(){
+		final float[] positions = randomTriangles(new Random(2L), 10, 3);
+		final float[] normals = new float[positions.length];
+
+		//Local values, positions after normals
+		final Element local = new Element(Element.TRIANGLES, 30, 0, 0, new int[][]{
+				{Element.NORMAL, 0, 3, 0},
+				{Element.POSITION, 0, 3, 12}}, new float[][]{normals, positions});
+		assertEquals(10, new TriangleBVH(local).size);
+
+		//VBO only with CPU copy of positions (BinaryLoader.keepPositions)
+		final Element vbo = new Element(Element.TRIANGLES, 30, 0, 0, new int[][]{
+				{Element.NORMAL, 0, 3, 0},
+				{Element.POSITION, 0, 3, 12}}, 10, null, positions);
+		final TriangleBVH bvh = new TriangleBVH(vbo);
+		assertEquals(10, bvh.size);
+		final float[] hit = new float[TriangleBVH.HIT_SIZE];
+		final float x = (positions[0] + positions[3] + positions[6]) / 3f;
+		final float y = (positions[1] + positions[4] + positions[7]) / 3f;
+		assertTrue(bvh.intersect(new float[]{x, y, 20f, 0f, 0f, -1f}, 0, Float.MAX_VALUE, hit, 0) >= 0);
+
+		//VBO only without positions
+		assertNull(new Element(Element.TRIANGLES, 30, 0, 0, new int[][]{{Element.POSITION, 0, 3, 0}}, 10).getPositions());
+	}
+}